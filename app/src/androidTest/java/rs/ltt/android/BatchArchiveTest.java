@@ -0,0 +1,167 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.android.worker.MutationJournal;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Archives 500 threads. Once with one Email/set per thread (the way the per thread workers did it)
+ * and once by journaling the archive of every thread and flushing the {@link MutationJournal}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchArchiveTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchArchiveTest.class);
+
+    private static final long ACCOUNT_ID = 1L;
+    private static final int NUM_THREADS = 500;
+
+    @Test
+    public void archivePerThreadAndBatched()
+            throws ExecutionException, InterruptedException, IOException {
+        final Archive perThread = archive(false);
+        final Archive batched = archive(true);
+        LOGGER.info("archive {} threads per thread: {}", NUM_THREADS, perThread);
+        LOGGER.info("archive {} threads batched: {}", NUM_THREADS, batched);
+        Assert.assertEquals(NUM_THREADS, perThread.threads);
+        Assert.assertEquals(NUM_THREADS, batched.threads);
+        Assert.assertTrue(batched.requests < perThread.requests);
+    }
+
+    private static Archive archive(final boolean batched)
+            throws ExecutionException, InterruptedException, IOException {
+        final MockWebServer mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(NUM_THREADS);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        final LttrsDatabase database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final AppDatabase appDatabase =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), AppDatabase.class)
+                        .build();
+        // the journal refers to the account
+        appDatabase
+                .getOpenHelper()
+                .getWritableDatabase()
+                .execSQL("insert into credentials (id) values (1)");
+        appDatabase
+                .getOpenHelper()
+                .getWritableDatabase()
+                .execSQL(
+                        "insert into account (id,credentialsId,selected) values (?,1,0)",
+                        new Object[] {ACCOUNT_ID});
+        final Mua mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(database))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .build();
+        try {
+            mua.refreshMailboxes().get();
+            final EmailQuery query =
+                    StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX));
+            Status status = mua.query(query).get();
+            while (status == Status.UPDATED) {
+                status =
+                        mua.query(query, database.queryDao().getLastEmailId(query.asHash()))
+                                .get();
+            }
+            final List<String> threadIds = threadIds(database);
+            final Archive archive = new Archive();
+            archive.threads = threadIds.size();
+            final int before = mockWebServer.getRequestCount();
+            final long start = SystemClock.elapsedRealtime();
+            if (batched) {
+                appDatabase
+                        .mutationDao()
+                        .insert(
+                                MutationEntity.of(
+                                        ACCOUNT_ID,
+                                        threadIds,
+                                        MutationEntity.Operation.ARCHIVE,
+                                        null));
+                final MutationJournal.Outcome outcome =
+                        MutationJournal.flush(
+                                ACCOUNT_ID,
+                                mua,
+                                appDatabase,
+                                database,
+                                SyncScheduler.getInstance(ACCOUNT_ID),
+                                MutationJournal.Path.WORKER);
+                Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, outcome.state);
+                Assert.assertTrue(appDatabase.mutationDao().getMutations(ACCOUNT_ID).isEmpty());
+            } else {
+                for (final String threadId : threadIds) {
+                    Assert.assertTrue(
+                            mua.archive(
+                                            database.threadAndEmailDao()
+                                                    .getEmailsWithMailboxes(threadId))
+                                    .get());
+                }
+            }
+            archive.millis = SystemClock.elapsedRealtime() - start;
+            archive.requests = mockWebServer.getRequestCount() - before;
+            // the server no longer has any of the emails in the inbox
+            mua.query(query).get();
+            Assert.assertEquals(0, database.queryDao().getItemCount(query.asHash()));
+            return archive;
+        } finally {
+            mua.close();
+            database.close();
+            appDatabase.close();
+            mockWebServer.close();
+        }
+    }
+
+    private static List<String> threadIds(final LttrsDatabase database) {
+        final ImmutableList.Builder<String> builder = new ImmutableList.Builder<>();
+        try (final Cursor cursor = database.query("select distinct threadId from email", null)) {
+            while (cursor.moveToNext()) {
+                builder.add(cursor.getString(0));
+            }
+        }
+        return builder.build();
+    }
+
+    private static class Archive {
+        private int threads;
+        private int requests;
+        private long millis;
+
+        @Override
+        public String toString() {
+            return String.format("%d requests in %dms", requests, millis);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.sync.FullBodyFetch;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Pages 500 threads into two empty caches, one that keeps body values whole and one that stores
+ * them truncated. Opening a thread of the truncated cache completes its body values with a fetch
+ * that only transfers the bodies of that thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BodyTransferTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BodyTransferTest.class);
+
+    private static final int THREADS = 500;
+
+    private static final int MAX_BODY_VALUE_LENGTH = 32;
+
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    private MockWebServer mockWebServer;
+    private MockMailServer mockMailServer;
+    private LttrsDatabase full;
+    private LttrsDatabase truncated;
+
+    @Before
+    public void setup() throws IOException {
+        this.mockWebServer = new MockWebServer();
+        this.mockMailServer = new MockMailServer(THREADS);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(new CountingDispatcher(mockMailServer, bytesTransferred));
+        mockWebServer.start();
+        this.full = inMemoryDatabase();
+        this.truncated = inMemoryDatabase();
+    }
+
+    private static LttrsDatabase inMemoryDatabase() {
+        return Room.inMemoryDatabaseBuilder(
+                        ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                .build();
+    }
+
+    private Mua buildMua(final DatabaseCache cache) {
+        return Mua.builder()
+                .username(mockMailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mockMailServer.getAccountId())
+                .cache(cache)
+                .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .queryPageSize((long) THREADS)
+                .build();
+    }
+
+    private static void syncInbox(final Mua mua, final LttrsDatabase database)
+            throws ExecutionException, InterruptedException {
+        mua.refreshMailboxes().get();
+        mua.query(StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX))).get();
+    }
+
+    @Test
+    public void truncatedBodiesAreCompletedOnDemand()
+            throws ExecutionException, InterruptedException {
+        final Mua fullMua = buildMua(new DatabaseCache(full));
+        try {
+            syncInbox(fullMua, full);
+        } finally {
+            fullMua.close();
+        }
+        final Mua mua = buildMua(new DatabaseCache(truncated, MAX_BODY_VALUE_LENGTH));
+        try {
+            bytesTransferred.set(0);
+            syncInbox(mua, truncated);
+            final long syncBytes = bytesTransferred.get();
+
+            final long truncatedValues =
+                    count(truncated, "select count(*) from email_body_value where isTruncated=1");
+            LOGGER.info(
+                    "threads={}, transferred={} bytes, stored {} of {} bytes, truncated {}",
+                    THREADS,
+                    syncBytes,
+                    count(truncated, "select sum(length(value)) from email_body_value"),
+                    count(full, "select sum(length(value)) from email_body_value"),
+                    truncatedValues);
+            Assert.assertTrue(truncatedValues > 0);
+            Assert.assertEquals(
+                    count(
+                            full,
+                            "select count(*) from email_body_value where length(value)>"
+                                    + MAX_BODY_VALUE_LENGTH),
+                    truncatedValues);
+            Assert.assertEquals(
+                    0,
+                    count(
+                            truncated,
+                            "select count(*) from email_body_value where length(value)>"
+                                    + MAX_BODY_VALUE_LENGTH));
+            // previews are taken from the complete body
+            Assert.assertEquals(previews(full), previews(truncated));
+
+            final String threadId =
+                    string(
+                            truncated,
+                            "select email.threadId from email join email_body_value on"
+                                    + " email.id=email_body_value.emailId where isTruncated=1"
+                                    + " limit 1");
+            final List<String> emailIds =
+                    truncated.threadAndEmailDao()
+                            .getEmailIdsWithTruncatedBodyValues(threadId)
+                            .get();
+            Assert.assertFalse(emailIds.isEmpty());
+            final int completed =
+                    FullBodyFetch.fetch(mua, truncated, mockMailServer.getAccountId(), emailIds)
+                            .get();
+            Assert.assertEquals(emailIds.size(), completed);
+            Assert.assertTrue(
+                    truncated.threadAndEmailDao()
+                            .getEmailIdsWithTruncatedBodyValues(threadId)
+                            .get()
+                            .isEmpty());
+            Assert.assertEquals(bodyValues(full, threadId), bodyValues(truncated, threadId));
+            // completing one thread does not come close to another sync of the mailbox
+            Assert.assertTrue(bytesTransferred.get() - syncBytes < syncBytes / 10);
+        } finally {
+            mua.close();
+        }
+    }
+
+    private static String previews(final LttrsDatabase database) {
+        return string(
+                database,
+                "select group_concat(preview, '|') from (select preview from email order by id)");
+    }
+
+    private static String bodyValues(final LttrsDatabase database, final String threadId) {
+        return string(
+                database,
+                "select group_concat(value, '|') from (select value from email_body_value join"
+                        + " email on email.id=email_body_value.emailId where email.threadId=?"
+                        + " order by emailId, partId)",
+                threadId);
+    }
+
+    private static long count(final LttrsDatabase database, final String query) {
+        try (final Cursor cursor = database.query(query, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private static String string(
+            final LttrsDatabase database, final String query, final Object... args) {
+        try (final Cursor cursor = database.query(query, args)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.full.close();
+        this.truncated.close();
+        this.mockWebServer.close();
+    }
+
+    private static class CountingDispatcher extends Dispatcher {
+
+        private final Dispatcher dispatcher;
+        private final AtomicLong bytes;
+
+        private CountingDispatcher(final Dispatcher dispatcher, final AtomicLong bytes) {
+            this.dispatcher = dispatcher;
+            this.bytes = bytes;
+        }
+
+        @NonNull
+        @Override
+        public MockResponse dispatch(@NonNull final RecordedRequest request)
+                throws InterruptedException {
+            final MockResponse response = dispatcher.dispatch(request);
+            final Buffer body = response.getBody();
+            if (body != null) {
+                bytes.addAndGet(body.size());
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package rs.ltt.android;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.sync.CircuitBreaker;
+import rs.ltt.android.sync.CircuitOpenException;
+import rs.ltt.android.sync.JmapFailureClassifier;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+
+/**
+ * Runs requests of a real {@link Mua} against a mock server through a {@link CircuitBreaker} that
+ * uses {@link JmapFailureClassifier}. Checks that the exceptions jmap-client actually throws for
+ * authentication failures, server errors and unreachable servers open the circuit.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CircuitBreakerServerTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private final MockWebServer mockWebServer = new MockWebServer();
+    private final MockMailServer mockMailServer = new MockMailServer(2);
+    private final CircuitBreaker circuitBreaker =
+            new CircuitBreaker(JmapFailureClassifier::classify);
+    private Integer statusCode = null;
+
+    @Before
+    public void startServer() throws IOException {
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(
+                new Dispatcher() {
+                    @NonNull
+                    @Override
+                    public MockResponse dispatch(@NonNull final RecordedRequest request)
+                            throws InterruptedException {
+                        if (statusCode != null) {
+                            return new MockResponse().setResponseCode(statusCode);
+                        }
+                        return mockMailServer.dispatch(request);
+                    }
+                });
+        mockWebServer.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    private Mua mua(final String password) {
+        return Mua.builder()
+                .username(mockMailServer.getUsername())
+                .password(password)
+                .accountId(mockMailServer.getAccountId())
+                .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .build();
+    }
+
+    private Throwable refreshMailboxes(final Mua mua) throws InterruptedException {
+        try {
+            circuitBreaker.call(mua::refreshMailboxes).get();
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        }
+        return null;
+    }
+
+    @Test
+    public void unauthorizedOpensCircuitRightAway() throws InterruptedException {
+        final Mua mua = mua("wrong password");
+        try {
+            final Throwable failure = refreshMailboxes(mua);
+            Assert.assertNotNull(failure);
+            Assert.assertEquals(
+                    CircuitBreaker.FailureClass.AUTH, JmapFailureClassifier.classify(failure));
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+            final int requests = mockWebServer.getRequestCount();
+            Assert.assertTrue(refreshMailboxes(mua) instanceof CircuitOpenException);
+            Assert.assertEquals(requests, mockWebServer.getRequestCount());
+        } finally {
+            mua.close();
+        }
+    }
+
+    @Test
+    public void serverErrorsOpenCircuit() throws InterruptedException {
+        statusCode = 503;
+        final Mua mua = mua(JmapDispatcher.PASSWORD);
+        try {
+            for (int i = 0; i < FAILURE_THRESHOLD; ++i) {
+                final Throwable failure = refreshMailboxes(mua);
+                Assert.assertNotNull(failure);
+                Assert.assertNotEquals(
+                        CircuitBreaker.FailureClass.NONE, JmapFailureClassifier.classify(failure));
+            }
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        } finally {
+            mua.close();
+        }
+    }
+
+    @Test
+    public void unreachableServerOpensCircuitUntilReset()
+            throws InterruptedException, IOException {
+        final Mua mua = mua(JmapDispatcher.PASSWORD);
+        try {
+            mockWebServer.shutdown();
+            for (int i = 0; i < FAILURE_THRESHOLD; ++i) {
+                final Throwable failure = refreshMailboxes(mua);
+                Assert.assertEquals(
+                        CircuitBreaker.FailureClass.NETWORK,
+                        JmapFailureClassifier.classify(failure));
+            }
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+            Assert.assertTrue(refreshMailboxes(mua) instanceof CircuitOpenException);
+            // what SyncScheduler.resetCircuitBreakers() does once a network becomes available
+            circuitBreaker.reset();
+            Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+            Assert.assertFalse(refreshMailboxes(mua) instanceof CircuitOpenException);
+        } finally {
+            mua.close();
+        }
+    }
+}
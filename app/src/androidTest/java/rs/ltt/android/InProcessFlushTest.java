@@ -0,0 +1,188 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.sync.Latency;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.android.worker.MutationJournal;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Archives the inbox of two accounts with in process flushes. The server of the first account
+ * takes {@link #SLOW} milliseconds to answer; the second account must not have to wait for it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InProcessFlushTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InProcessFlushTest.class);
+
+    private static final long SLOW = 2_000;
+
+    private AppDatabase appDatabase;
+    private Account slow;
+    private Account fast;
+
+    @Before
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        this.appDatabase =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), AppDatabase.class)
+                        .build();
+        appDatabase
+                .getOpenHelper()
+                .getWritableDatabase()
+                .execSQL("insert into credentials (id) values (1)");
+        this.slow = new Account(101L);
+        this.fast = new Account(102L);
+    }
+
+    @Test
+    public void slowAccountDoesNotHoldUpOthers() throws ExecutionException, InterruptedException {
+        final Latency latency = MutationJournal.getLatency(MutationJournal.Path.IN_PROCESS);
+        final long flushesBefore = latency.getCount();
+        slow.journalArchive();
+        fast.journalArchive();
+        slow.delay.set(true);
+
+        final long start = SystemClock.elapsedRealtime();
+        final ListenableFuture<MutationJournal.Outcome> slowFlush = slow.flushInProcess();
+        final ListenableFuture<MutationJournal.Outcome> fastFlush = fast.flushInProcess();
+
+        Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, fastFlush.get().state);
+        final long fastMillis = SystemClock.elapsedRealtime() - start;
+        Assert.assertFalse("slow account must still be flushing", slowFlush.isDone());
+        Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, slowFlush.get().state);
+        final long slowMillis = SystemClock.elapsedRealtime() - start;
+        LOGGER.info("fast account {}ms, slow account {}ms. {}", fastMillis, slowMillis, latency);
+
+        Assert.assertTrue(fastMillis < SLOW);
+        Assert.assertTrue(slowMillis >= SLOW);
+        Assert.assertEquals(flushesBefore + 2, latency.getCount());
+        Assert.assertEquals(0, slow.inboxItemCount());
+        Assert.assertEquals(0, fast.inboxItemCount());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        slow.close();
+        fast.close();
+        appDatabase.close();
+    }
+
+    private class Account {
+        private final long id;
+        private final AtomicBoolean delay = new AtomicBoolean(false);
+        private final MockWebServer mockWebServer = new MockWebServer();
+        private final LttrsDatabase database;
+        private final Mua mua;
+
+        private Account(final long id)
+                throws IOException, ExecutionException, InterruptedException {
+            this.id = id;
+            appDatabase
+                    .getOpenHelper()
+                    .getWritableDatabase()
+                    .execSQL(
+                            "insert into account (id,credentialsId,selected) values (?,1,0)",
+                            new Object[] {id});
+            final MockMailServer mockMailServer = new MockMailServer(10);
+            mockMailServer.setAdvertiseWebSocket(false);
+            mockWebServer.setDispatcher(
+                    new Dispatcher() {
+                        @NonNull
+                        @Override
+                        public MockResponse dispatch(@NonNull final RecordedRequest request)
+                                throws InterruptedException {
+                            if (delay.get()) {
+                                Thread.sleep(SLOW);
+                            }
+                            return mockMailServer.dispatch(request);
+                        }
+                    });
+            mockWebServer.start();
+            this.database =
+                    Room.inMemoryDatabaseBuilder(
+                                    ApplicationProvider.getApplicationContext(),
+                                    LttrsDatabase.class)
+                            .build();
+            this.mua =
+                    Mua.builder()
+                            .username(mockMailServer.getUsername())
+                            .password(JmapDispatcher.PASSWORD)
+                            .accountId(mockMailServer.getAccountId())
+                            .cache(new DatabaseCache(database))
+                            .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                            .build();
+            mua.refreshMailboxes().get();
+            mua.query(inbox()).get();
+        }
+
+        private EmailQuery inbox() {
+            return StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX));
+        }
+
+        private void journalArchive() {
+            final ImmutableList.Builder<String> threadIds = new ImmutableList.Builder<>();
+            try (final Cursor cursor =
+                    database.query("select distinct threadId from email", null)) {
+                while (cursor.moveToNext()) {
+                    threadIds.add(cursor.getString(0));
+                }
+            }
+            final List<String> archived = threadIds.build();
+            Assert.assertFalse(archived.isEmpty());
+            appDatabase
+                    .mutationDao()
+                    .insert(
+                            MutationEntity.of(
+                                    id, archived, MutationEntity.Operation.ARCHIVE, null));
+        }
+
+        private ListenableFuture<MutationJournal.Outcome> flushInProcess() {
+            return MutationJournal.flushInProcess(
+                    id, () -> mua, appDatabase, database, SyncScheduler.getInstance(id));
+        }
+
+        private int inboxItemCount() throws ExecutionException, InterruptedException {
+            delay.set(false);
+            mua.query(inbox()).get();
+            return database.queryDao().getItemCount(inbox().asHash());
+        }
+
+        private void close() throws IOException {
+            mua.close();
+            database.close();
+            mockWebServer.close();
+        }
+    }
+}
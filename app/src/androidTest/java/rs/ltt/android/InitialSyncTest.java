@@ -0,0 +1,204 @@
+package rs.ltt.android;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.InitialSyncCheckpointEntity;
+import rs.ltt.android.sync.InitialSync;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+@RunWith(AndroidJUnit4.class)
+public class InitialSyncTest {
+
+    private static final long ACCOUNT_ID = 1;
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int PAGES_BEFORE_KILL = 3;
+
+    private MockWebServer mockWebServer;
+    private MockMailServer mockMailServer;
+    private LttrsDatabase database;
+
+    @Before
+    public void setup() throws IOException {
+        this.mockWebServer = new MockWebServer();
+        this.mockMailServer = new MockMailServer(1000);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        this.database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+    }
+
+    private Mua buildMua() {
+        return Mua.builder()
+                .username(mockMailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mockMailServer.getAccountId())
+                .cache(new DatabaseCache(database))
+                .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .queryPageSize((long) PAGE_SIZE)
+                .build();
+    }
+
+    @Test
+    public void resumesAfterKill() throws ExecutionException, InterruptedException {
+        final boolean completeBeforeKill = runInitialSync(new StoppingListener(PAGES_BEFORE_KILL));
+
+        Assert.assertFalse(completeBeforeKill);
+        final String inbox =
+                StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX)).asHash();
+        Assert.assertNull(database.mailboxDao().getMailbox(Role.IMPORTANT));
+        final InitialSyncCheckpointEntity checkpoint = database.stateDao().getCheckpoint(inbox);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertFalse(checkpoint.complete);
+        Assert.assertEquals(PAGES_BEFORE_KILL * PAGE_SIZE, checkpoint.position);
+        Assert.assertNotNull(checkpoint.state);
+        final List<String> beforeKill = database.queryDao().getEmailIds(inbox);
+
+        final StoppingListener resumed = new StoppingListener(Integer.MAX_VALUE);
+        Assert.assertTrue(runInitialSync(resumed));
+
+        final List<String> afterResume = database.queryDao().getEmailIds(inbox);
+        Assert.assertEquals(InitialSync.MAX_ITEMS_PER_QUERY, afterResume.size());
+        Assert.assertEquals(beforeKill, afterResume.subList(0, beforeKill.size()));
+        Assert.assertTrue(database.stateDao().getCheckpoint(inbox).complete);
+        // only the pages after the checkpoint are requested again. Starting over would take
+        // MAX_ITEMS_PER_QUERY / PAGE_SIZE pages
+        Assert.assertEquals(
+                (InitialSync.MAX_ITEMS_PER_QUERY - PAGES_BEFORE_KILL * PAGE_SIZE) / PAGE_SIZE,
+                resumed.pages);
+        // the progress picks up where the checkpoint left off
+        Assert.assertEquals(
+                percentage(PAGES_BEFORE_KILL * PAGE_SIZE), (int) resumed.progress.get(0));
+    }
+
+    @Test
+    public void startsOverWhenCachedItemsAreGone() throws ExecutionException, InterruptedException {
+        Assert.assertFalse(runInitialSync(new StoppingListener(PAGES_BEFORE_KILL)));
+        final String inbox =
+                StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX)).asHash();
+        // the query got reset (for example because the server could not calculate changes)
+        database.getOpenHelper()
+                .getWritableDatabase()
+                .execSQL("delete from `query` where queryString=?", new Object[] {inbox});
+
+        final StoppingListener resumed = new StoppingListener(Integer.MAX_VALUE);
+        Assert.assertTrue(runInitialSync(resumed));
+
+        Assert.assertEquals(
+                InitialSync.MAX_ITEMS_PER_QUERY, database.queryDao().getEmailIds(inbox).size());
+        Assert.assertEquals(InitialSync.MAX_ITEMS_PER_QUERY / PAGE_SIZE, resumed.pages);
+        Assert.assertEquals(percentage(0), (int) resumed.progress.get(0));
+    }
+
+    @Test
+    public void catchesUpWithChangesBeforeResuming()
+            throws ExecutionException, InterruptedException {
+        Assert.assertFalse(runInitialSync(new StoppingListener(PAGES_BEFORE_KILL)));
+        final String inbox =
+                StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX)).asHash();
+        final String checkpointState = database.stateDao().getCheckpoint(inbox).state;
+        final List<String> beforeKill = database.queryDao().getEmailIds(inbox);
+        // a new email arrives and a refresh of another query moves the cached email state on
+        // without touching the partially synced inbox
+        mockMailServer.generateEmailOnNewThread();
+        final Mua mua = buildMua();
+        try {
+            mua.query(EmailQuery.unfiltered()).get();
+        } finally {
+            mua.close();
+        }
+        final String changedState = database.queryDao().getState(Email.class);
+        Assert.assertNotEquals(checkpointState, changedState);
+        Assert.assertEquals(beforeKill, database.queryDao().getEmailIds(inbox));
+
+        Assert.assertTrue(runInitialSync(new StoppingListener(Integer.MAX_VALUE)));
+
+        final List<String> afterResume = database.queryDao().getEmailIds(inbox);
+        // the new email is at the top of the inbox. Paging on from the stale position would
+        // have missed it
+        Assert.assertFalse(beforeKill.contains(afterResume.get(0)));
+        Assert.assertEquals(beforeKill, afterResume.subList(1, beforeKill.size() + 1));
+        Assert.assertTrue(afterResume.size() >= InitialSync.MAX_ITEMS_PER_QUERY);
+        Assert.assertEquals(ImmutableSet.copyOf(afterResume).size(), afterResume.size());
+        final InitialSyncCheckpointEntity checkpoint = database.stateDao().getCheckpoint(inbox);
+        Assert.assertTrue(checkpoint.complete);
+        Assert.assertEquals(database.queryDao().getState(Email.class), checkpoint.state);
+    }
+
+    /** Runs the initial sync with a fresh Mua. Nothing but the database survives in between. */
+    private boolean runInitialSync(final StoppingListener listener)
+            throws ExecutionException, InterruptedException {
+        final Mua mua = buildMua();
+        try {
+            return new InitialSync(database, mua, SyncScheduler.getInstance(ACCOUNT_ID))
+                    .run(listener);
+        } finally {
+            mua.close();
+            SyncScheduler.evict(ACCOUNT_ID);
+        }
+    }
+
+    /**
+     * @return the progress reported for the inbox with the given number of items synced. The mock
+     *     server has no important mailbox; mailboxes, identities and the inbox make three steps
+     */
+    private static int percentage(final int inboxItems) {
+        return (int) ((2 + inboxItems / (double) InitialSync.MAX_ITEMS_PER_QUERY) * 100 / 3);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.database.close();
+        this.mockWebServer.close();
+    }
+
+    private static class StoppingListener implements InitialSync.Listener {
+
+        private final int stopAfter;
+        private final List<Integer> progress = new ArrayList<>();
+        private int pages = 0;
+
+        private StoppingListener(final int stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        @Override
+        public boolean isStopped() {
+            if (pages >= stopAfter) {
+                return true;
+            }
+            pages++;
+            return false;
+        }
+
+        @Override
+        public void onProgress(final int percentage) {
+            progress.add(percentage);
+        }
+    }
+}
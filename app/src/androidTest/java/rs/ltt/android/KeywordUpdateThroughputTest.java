@@ -0,0 +1,280 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Keyword;
+
+/**
+ * Applies server side bulk changes (mark all as read, unflag all, archive all and a combination of
+ * keyword and mailbox changes) over 5k cached emails. Each change is applied once through {@link
+ * rs.ltt.android.database.dao.ThreadAndEmailDao#updateKeywordsAndMailboxes} and once the way every
+ * email used to be updated, by deleting and re-inserting all of its keywords and mailboxes. Both
+ * caches must end up with the same rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeywordUpdateThroughputTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeywordUpdateThroughputTest.class);
+
+    private static final int EMAILS = 5_000;
+    private static final String INBOX = "inbox";
+    private static final String ARCHIVE = "archive";
+
+    private static final String[] KEYWORDS = new String[] {"keywords"};
+    private static final String[] MAILBOX_IDS = new String[] {"mailboxIds"};
+    private static final String[] KEYWORDS_AND_MAILBOX_IDS =
+            new String[] {"keywords", "mailboxIds"};
+
+    private LttrsDatabase baseline;
+    private LttrsDatabase delta;
+
+    @Before
+    public void setup() {
+        this.baseline = populate();
+        this.delta = populate();
+    }
+
+    private static LttrsDatabase populate() {
+        final LttrsDatabase database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final SupportSQLiteStatement email =
+                    db.compileStatement("insert into email (id,threadId) values (?,?)");
+            final SupportSQLiteStatement mailbox =
+                    db.compileStatement(
+                            "insert into email_mailbox (emailId,mailboxId) values (?,?)");
+            final SupportSQLiteStatement keyword =
+                    db.compileStatement("insert into email_keyword (emailId,keyword) values (?,?)");
+            for (int i = 0; i < EMAILS; ++i) {
+                final String id = emailId(i);
+                email.bindString(1, id);
+                email.bindString(2, "T" + i);
+                email.executeInsert();
+                mailbox.bindString(1, id);
+                mailbox.bindString(2, INBOX);
+                mailbox.executeInsert();
+                keyword.bindString(1, id);
+                keyword.bindString(2, Keyword.FLAGGED);
+                keyword.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return database;
+    }
+
+    @Test
+    public void markAllAsRead() {
+        final Comparison comparison =
+                compare(
+                        ImmutableMap.of(Keyword.FLAGGED, true, Keyword.SEEN, true),
+                        ImmutableMap.of(INBOX, true),
+                        KEYWORDS);
+        Assert.assertEquals(2 * EMAILS, count(delta, "select count(*) from email_keyword"));
+        // one new row per email instead of rewriting every row
+        comparison.assertAtMost(0.5);
+    }
+
+    @Test
+    public void unflagAll() {
+        final Comparison comparison =
+                compare(ImmutableMap.of(), ImmutableMap.of(INBOX, true), KEYWORDS);
+        Assert.assertEquals(0, count(delta, "select count(*) from email_keyword"));
+        comparison.assertAtMost(0.75);
+    }
+
+    @Test
+    public void archiveAll() {
+        final Comparison comparison =
+                compare(
+                        ImmutableMap.of(Keyword.FLAGGED, true),
+                        ImmutableMap.of(ARCHIVE, true),
+                        MAILBOX_IDS);
+        Assert.assertEquals(
+                EMAILS,
+                count(
+                        delta,
+                        "select count(*) from email_mailbox where mailboxId='" + ARCHIVE + "'"));
+        comparison.assertAtMost(1.0);
+    }
+
+    @Test
+    public void readAndArchiveAll() {
+        final Comparison comparison =
+                compare(
+                        ImmutableMap.of(Keyword.SEEN, true),
+                        ImmutableMap.of(ARCHIVE, true),
+                        KEYWORDS_AND_MAILBOX_IDS);
+        Assert.assertEquals(
+                EMAILS,
+                count(
+                        delta,
+                        "select count(*) from email_keyword where keyword='" + Keyword.SEEN + "'"));
+        comparison.assertAtMost(1.0);
+    }
+
+    private Comparison compare(
+            final Map<String, Boolean> keywords,
+            final Map<String, Boolean> mailboxIds,
+            final String[] properties) {
+        final ImmutableList.Builder<Email> builder = new ImmutableList.Builder<>();
+        for (int i = 0; i < EMAILS; ++i) {
+            builder.add(
+                    Email.builder()
+                            .id(emailId(i))
+                            .keywords(keywords)
+                            .mailboxIds(mailboxIds)
+                            .build());
+        }
+        final List<Email> updated = builder.build();
+
+        final long baselineStart = SystemClock.elapsedRealtime();
+        applyPerEmail(baseline, updated, properties);
+        final long baselineMillis = SystemClock.elapsedRealtime() - baselineStart;
+
+        final long deltaStart = SystemClock.elapsedRealtime();
+        delta.threadAndEmailDao().updateKeywordsAndMailboxes(updated, properties);
+        final long deltaMillis = SystemClock.elapsedRealtime() - deltaStart;
+
+        final Comparison comparison = new Comparison(baselineMillis, deltaMillis);
+        LOGGER.info("{} emails, {}: {}", EMAILS, String.join(",", properties), comparison);
+
+        Assert.assertEquals(
+                rows(baseline, "email_keyword", "keyword"),
+                rows(delta, "email_keyword", "keyword"));
+        Assert.assertEquals(
+                rows(baseline, "email_mailbox", "mailboxId"),
+                rows(delta, "email_mailbox", "mailboxId"));
+        return comparison;
+    }
+
+    /** What applying an Email/changes update did before it was done in batches. */
+    private static void applyPerEmail(
+            final LttrsDatabase database, final List<Email> emails, final String[] properties) {
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (final Email email : emails) {
+                final Object[] id = new Object[] {email.getId()};
+                try (final Cursor cursor =
+                        db.query("select exists(select 1 from email where id=?)", id)) {
+                    Assert.assertTrue(cursor.moveToFirst() && cursor.getInt(0) == 1);
+                }
+                for (final String property : properties) {
+                    if ("keywords".equals(property)) {
+                        db.execSQL("delete from email_keyword where emailId=?", id);
+                        for (final String keyword : email.getKeywords().keySet()) {
+                            db.execSQL(
+                                    "insert into email_keyword (emailId,keyword) values (?,?)",
+                                    new Object[] {email.getId(), keyword});
+                        }
+                    } else {
+                        db.execSQL("delete from email_mailbox where emailId=?", id);
+                        for (final String mailboxId : email.getMailboxIds().keySet()) {
+                            db.execSQL(
+                                    "insert into email_mailbox (emailId,mailboxId) values (?,?)",
+                                    new Object[] {email.getId(), mailboxId});
+                        }
+                    }
+                }
+                db.execSQL(
+                        "delete from keyword_overwrite where threadId=(select threadId from email"
+                                + " where id=?)",
+                        id);
+                db.execSQL(
+                        "delete from mailbox_overwrite where threadId=(select threadId from email"
+                                + " where id=?)",
+                        id);
+                db.execSQL(
+                        "update query_item_overwrite set executed=1 where executed=0 and threadId"
+                                + " in (select email.threadid from email where email.id=?)",
+                        id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String rows(
+            final LttrsDatabase database, final String table, final String column) {
+        try (final Cursor cursor =
+                database.query(
+                        String.format(
+                                "select group_concat(emailId||':'||%s, ',') from (select * from %s"
+                                        + " order by emailId, %s)",
+                                column, table, column),
+                        null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    private static long count(final LttrsDatabase database, final String query) {
+        try (final Cursor cursor = database.query(query, null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private static String emailId(final int i) {
+        return "M" + i;
+    }
+
+    @After
+    public void tearDown() {
+        this.baseline.close();
+        this.delta.close();
+    }
+
+    private static class Comparison {
+        private final long baselineMillis;
+        private final long deltaMillis;
+
+        private Comparison(final long baselineMillis, final long deltaMillis) {
+            this.baselineMillis = baselineMillis;
+            this.deltaMillis = deltaMillis;
+        }
+
+        /**
+         * Changes that only touch few rows per email have to be clearly faster than the baseline.
+         * Changes that rewrite every row anyway must not be slower.
+         */
+        private void assertAtMost(final double fraction) {
+            Assert.assertTrue(toString(), deltaMillis <= Math.max(1, baselineMillis * fraction));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "per email %dms (%d emails/s), batched %dms (%d emails/s)",
+                    baselineMillis,
+                    EMAILS * 1000L / Math.max(1, baselineMillis),
+                    deltaMillis,
+                    EMAILS * 1000L / Math.max(1, deltaMillis));
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package rs.ltt.android;
 
 import androidx.paging.DataSource;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingSource;
 import androidx.room.Room;
 import androidx.room.paging.LimitOffsetDataSource;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import okhttp3.mockwebserver.MockWebServer;
@@ -21,7 +25,9 @@ import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.android.util.LiveData;
+import rs.ltt.jmap.common.entity.Email;
 import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.Thread;
 import rs.ltt.jmap.mock.server.JmapDispatcher;
 import rs.ltt.jmap.mock.server.MockMailServer;
 import rs.ltt.jmap.mua.Mua;
@@ -66,23 +72,32 @@ public class LttrsDatabaseTest {
         mua.refreshMailboxes().get();
         final MailboxWithRoleAndName inbox = lttrsDatabase.mailboxDao().getMailbox(Role.INBOX);
         mua.query(StandardQueries.mailbox(inbox)).get();
-        final DataSource.Factory<Integer, ThreadOverviewItem> factory =
+        final ListenableFuturePagingSource<Integer, ThreadOverviewItem> pagingSource =
                 lttrsDatabase
                         .queryDao()
-                        .getThreadOverviewItems(StandardQueries.mailbox(inbox).asHash());
-        final LimitOffsetDataSource<ThreadOverviewItem> dataSource =
-                (LimitOffsetDataSource<ThreadOverviewItem>) factory.create();
-        final List<ThreadOverviewItem> threadItems = dataSource.loadRange(0, 10);
+                        .getThreadOverviewItems(StandardQueries.mailbox(inbox));
+        final List<ThreadOverviewItem> threadItems = load(pagingSource, 10);
 
         Assert.assertEquals(10, threadItems.size());
 
-        final List<ThreadOverviewItem> threadItemsReload = dataSource.loadRange(0, 10);
+        final List<ThreadOverviewItem> threadItemsReload = load(pagingSource, 10);
         Assert.assertNotSame(threadItems, threadItemsReload);
         Assert.assertArrayEquals(
                 threadItems.toArray(new ThreadOverviewItem[0]),
                 threadItemsReload.toArray(new ThreadOverviewItem[0]));
     }
 
+    private static List<ThreadOverviewItem> load(
+            final ListenableFuturePagingSource<Integer, ThreadOverviewItem> pagingSource,
+            final int loadSize)
+            throws ExecutionException, InterruptedException {
+        final PagingSource.LoadResult<Integer, ThreadOverviewItem> result =
+                pagingSource
+                        .loadFuture(new PagingSource.LoadParams.Refresh<>(null, loadSize, false))
+                        .get();
+        return ((PagingSource.LoadResult.Page<Integer, ThreadOverviewItem>) result).getData();
+    }
+
     @Test
     public void unmodifiedThreadEquals() throws ExecutionException, InterruptedException {
         mua.refreshMailboxes().get();
@@ -107,6 +122,56 @@ public class LttrsDatabaseTest {
                 emailsReload.toArray(new EmailWithBodies[0]));
     }
 
+    @Test
+    public void insertCreatedKeepsExistingThread() throws ExecutionException, InterruptedException {
+        mua.refreshMailboxes().get();
+        final MailboxWithRoleAndName inbox = lttrsDatabase.mailboxDao().getMailbox(Role.INBOX);
+        mua.query(StandardQueries.mailbox(inbox)).get();
+
+        final List<String> emailIds = new ArrayList<>();
+        for (final EmailWithBodies email : loadThread("T2")) {
+            emailIds.add(email.getId());
+        }
+        Assert.assertEquals(3, emailIds.size());
+        emailIds.add("created");
+
+        lttrsDatabase
+                .threadAndEmailDao()
+                .insertCreated(
+                        Thread.builder().id("T2").emailIds(emailIds).build(),
+                        Email.builder()
+                                .id("created")
+                                .threadId("T2")
+                                .subject("Reply")
+                                .mailboxIds(ImmutableMap.of(inbox.getId(), true))
+                                .build());
+
+        final List<String> reloaded = new ArrayList<>();
+        for (final EmailWithBodies email : loadThread("T2")) {
+            reloaded.add(email.getId());
+        }
+        Assert.assertEquals(emailIds, reloaded);
+        ThreadOverviewItem overview = null;
+        for (final ThreadOverviewItem item :
+                load(
+                        lttrsDatabase
+                                .queryDao()
+                                .getThreadOverviewItems(StandardQueries.mailbox(inbox)),
+                        128)) {
+            if ("T2".equals(item.threadId)) {
+                overview = item;
+            }
+        }
+        Assert.assertNotNull(overview);
+        Assert.assertEquals(Integer.valueOf(4), overview.getCount());
+    }
+
+    private List<EmailWithBodies> loadThread(final String threadId) {
+        final DataSource.Factory<Integer, EmailWithBodies> factory =
+                lttrsDatabase.threadAndEmailDao().getEmails(threadId);
+        return ((LimitOffsetDataSource<EmailWithBodies>) factory.create()).loadRange(0, 99);
+    }
+
     @Test
     public void unmodifiedMailboxesEquals() throws ExecutionException, InterruptedException {
         mua.refreshMailboxes().get();
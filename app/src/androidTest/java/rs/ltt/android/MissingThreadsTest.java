@@ -0,0 +1,121 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.database.dao.ThreadAndEmailDao;
+import rs.ltt.android.sync.ProgressiveQuery;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Caches a query completely and then drops threads at known positions. Missing threads are handed
+ * out top of the list first and no more than asked for.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MissingThreadsTest {
+
+    private static final int THREADS = 100;
+
+    private MockWebServer mockWebServer;
+    private LttrsDatabase database;
+    private Mua mua;
+
+    @Before
+    public void setup() throws IOException {
+        this.mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(THREADS);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        this.database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        this.mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(database))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .queryPageSize((long) THREADS)
+                        .build();
+    }
+
+    @Test
+    public void missingThreadsInPositionOrder() throws ExecutionException, InterruptedException {
+        mua.refreshMailboxes().get();
+        final EmailQuery query =
+                StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX));
+        final String queryString = query.asHash();
+        mua.query(query).get();
+        ProgressiveQuery.resolveMissing(
+                        () -> mua.query(query),
+                        () -> database.threadAndEmailDao().getMissingThreadCount(queryString))
+                .get();
+        final ThreadAndEmailDao dao = database.threadAndEmailDao();
+        Assert.assertEquals(0, dao.getMissingThreadCount(queryString));
+
+        final List<String> threadIds = getThreadIds(queryString);
+        Assert.assertEquals(THREADS, threadIds.size());
+        // dropped bottom up so that the order of the thread table does not match the list
+        final List<String> expected = new ArrayList<>();
+        for (int position = 90; position >= 5; position -= 2) {
+            deleteThread(threadIds.get(position));
+            expected.add(0, threadIds.get(position));
+        }
+        Assert.assertTrue(expected.size() > ThreadAndEmailDao.MISSING_CHUNK_SIZE);
+
+        Assert.assertEquals(expected.size(), dao.getMissingThreadCount(queryString));
+        Assert.assertEquals(expected, dao.getMissingThreadIds(queryString, THREADS));
+        Assert.assertEquals(
+                expected.subList(0, ThreadAndEmailDao.MISSING_CHUNK_SIZE),
+                dao.getMissingThreadIds(queryString, ThreadAndEmailDao.MISSING_CHUNK_SIZE));
+        Assert.assertEquals(expected.subList(0, 1), dao.getMissingThreadIds(queryString, 1));
+    }
+
+    private List<String> getThreadIds(final String queryString) {
+        final List<String> threadIds = new ArrayList<>();
+        try (final Cursor cursor =
+                database.query(
+                        "select query_item.threadId from `query` join query_item on `query`.id ="
+                                + " query_item.queryId where queryString=? order by position",
+                        new Object[] {queryString})) {
+            while (cursor.moveToNext()) {
+                threadIds.add(cursor.getString(0));
+            }
+        }
+        return threadIds;
+    }
+
+    private void deleteThread(final String threadId) {
+        database.getOpenHelper()
+                .getWritableDatabase()
+                .execSQL("delete from thread where threadId=?", new Object[] {threadId});
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.mua.close();
+        this.database.close();
+        this.mockWebServer.close();
+    }
+}
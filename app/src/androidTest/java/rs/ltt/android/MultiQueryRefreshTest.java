@@ -0,0 +1,135 @@
+package rs.ltt.android;
+
+import android.os.SystemClock;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.sync.MultiQueryRefresh;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Refreshes five cached queries after new email arrived, once one after another and once with
+ * {@link MultiQueryRefresh#refreshInOneRequest}. In both cases the inbox goes first and brings the
+ * cached emails up to date; the difference is how many requests the four remaining queries take.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MultiQueryRefreshTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiQueryRefreshTest.class);
+
+    @Test
+    public void refreshFiveQueries() throws ExecutionException, InterruptedException, IOException {
+        final Refresh sequential = refresh(false);
+        final Refresh batched = refresh(true);
+        LOGGER.info("sequential: {}", sequential);
+        LOGGER.info("batched: {}", batched);
+        Assert.assertEquals(sequential.items, batched.items);
+        Assert.assertEquals(sequential.inboxRequests, batched.inboxRequests);
+        Assert.assertTrue(sequential.toString(), sequential.companionRequests >= 4);
+        Assert.assertEquals(batched.toString(), 1, batched.companionRequests);
+        Assert.assertEquals("batched refresh brought every query up to date", 0, batched.stale);
+    }
+
+    private static Refresh refresh(final boolean batched)
+            throws ExecutionException, InterruptedException, IOException {
+        final MockWebServer mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(128);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        final LttrsDatabase database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final Mua mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(database))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .build();
+        try {
+            mua.refreshMailboxes().get();
+            final String[] trashAndJunk =
+                    database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK);
+            final List<EmailQuery> queries =
+                    ImmutableList.of(
+                            StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX)),
+                            StandardQueries.keyword(Keyword.FLAGGED, trashAndJunk),
+                            StandardQueries.keyword(Keyword.SEEN, trashAndJunk),
+                            StandardQueries.keyword(Keyword.DRAFT, trashAndJunk),
+                            EmailQuery.unfiltered());
+            for (final EmailQuery query : queries) {
+                mua.query(query).get();
+            }
+            mockMailServer.generateEmailOnNewThread();
+            final Refresh refresh = new Refresh();
+            final EmailQuery inbox = queries.get(0);
+            final List<EmailQuery> companions = queries.subList(1, queries.size());
+            final int requestsBefore = mockWebServer.getRequestCount();
+            final long start = SystemClock.elapsedRealtime();
+            mua.query(inbox).get();
+            final int inboxRequests = mockWebServer.getRequestCount();
+            if (batched) {
+                MultiQueryRefresh.refreshInOneRequest(
+                                mua, database, mockMailServer.getAccountId(), companions)
+                        .get();
+            } else {
+                for (final EmailQuery query : companions) {
+                    mua.query(query).get();
+                }
+            }
+            refresh.millis = SystemClock.elapsedRealtime() - start;
+            refresh.inboxRequests = inboxRequests - requestsBefore;
+            refresh.companionRequests = mockWebServer.getRequestCount() - inboxRequests;
+            for (final EmailQuery query : queries) {
+                refresh.items += database.queryDao().getEmailIds(query.asHash()).size();
+            }
+            for (final EmailQuery query : companions) {
+                if (mua.query(query).get() != Status.UNCHANGED) {
+                    refresh.stale++;
+                }
+            }
+            return refresh;
+        } finally {
+            mua.close();
+            database.close();
+            mockWebServer.close();
+        }
+    }
+
+    private static class Refresh {
+        private int inboxRequests = 0;
+        private int companionRequests = 0;
+        private long millis = 0;
+        private int items = 0;
+        private int stale = 0;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "inboxRequests=%d, companionRequests=%d, wallTime=%dms, items=%d, stale=%d",
+                    inboxRequests, companionRequests, millis, items, stale);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.android.worker.MutationJournal;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Journals modifications of two inbox threads and flushes them against a mock server. The state of
+ * the server is then read through a second client with its own cache and compared to where each
+ * thread has to end up.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MutationJournalTest {
+
+    private static final long ACCOUNT_ID = 1L;
+
+    private final MockMailServer mockMailServer = new MockMailServer(2);
+    private final MockWebServer mockWebServer = new MockWebServer();
+
+    private AppDatabase appDatabase;
+    private LttrsDatabase database;
+    private Mua mua;
+    private String first;
+    private String second;
+
+    @Before
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        this.appDatabase =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), AppDatabase.class)
+                        .build();
+        // the journal refers to the account
+        appDatabase
+                .getOpenHelper()
+                .getWritableDatabase()
+                .execSQL("insert into credentials (id) values (1)");
+        appDatabase
+                .getOpenHelper()
+                .getWritableDatabase()
+                .execSQL(
+                        "insert into account (id,credentialsId,selected) values (?,1,0)",
+                        new Object[] {ACCOUNT_ID});
+        this.database = inMemoryDatabase();
+        this.mua = mua(database);
+        mua.refreshMailboxes().get();
+        mua.query(StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX))).get();
+        final List<String> threadIds = threadIds(database);
+        Assert.assertEquals(2, threadIds.size());
+        this.first = threadIds.get(0);
+        this.second = threadIds.get(1);
+    }
+
+    @Test
+    public void archiveTrashAndMoveBackToInbox() throws ExecutionException, InterruptedException {
+        journal(MutationEntity.Operation.ARCHIVE, first, second);
+        journal(MutationEntity.Operation.MOVE_TO_TRASH, first);
+        journal(MutationEntity.Operation.MOVE_TO_INBOX, first);
+        makeMoveToTrashFinal();
+
+        Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, flush());
+        Assert.assertTrue(appDatabase.mutationDao().getMutations(ACCOUNT_ID).isEmpty());
+        assertServerState(ImmutableSet.of(Role.INBOX), ImmutableSet.of(Role.ARCHIVE));
+    }
+
+    @Test
+    public void modificationsWaitForMoveToTrashToBecomeFinal()
+            throws ExecutionException, InterruptedException {
+        journal(MutationEntity.Operation.MOVE_TO_TRASH, first);
+        journal(MutationEntity.Operation.ARCHIVE, second);
+
+        Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, flush());
+        Assert.assertEquals(2, appDatabase.mutationDao().getMutations(ACCOUNT_ID).size());
+        assertServerState(ImmutableSet.of(Role.INBOX), ImmutableSet.of(Role.INBOX));
+
+        // undo
+        Assert.assertEquals(
+                1,
+                appDatabase
+                        .mutationDao()
+                        .deleteMoveToTrash(ACCOUNT_ID, ImmutableList.of(first)));
+        Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, flush());
+        Assert.assertTrue(appDatabase.mutationDao().getMutations(ACCOUNT_ID).isEmpty());
+        assertServerState(ImmutableSet.of(Role.INBOX), ImmutableSet.of(Role.ARCHIVE));
+    }
+
+    @Test
+    public void unknownMailboxDoesNotHoldUpJournal()
+            throws ExecutionException, InterruptedException {
+        appDatabase
+                .mutationDao()
+                .insert(
+                        MutationEntity.of(
+                                ACCOUNT_ID,
+                                ImmutableList.of(first),
+                                MutationEntity.Operation.COPY_TO_MAILBOX,
+                                "unknown-mailbox"));
+        journal(MutationEntity.Operation.ARCHIVE, second);
+
+        Assert.assertEquals(MutationJournal.Outcome.State.SUCCESS, flush());
+        Assert.assertTrue(appDatabase.mutationDao().getMutations(ACCOUNT_ID).isEmpty());
+        assertServerState(ImmutableSet.of(Role.INBOX), ImmutableSet.of(Role.ARCHIVE));
+    }
+
+    private void journal(final MutationEntity.Operation operation, final String... threadIds) {
+        appDatabase
+                .mutationDao()
+                .insert(
+                        MutationEntity.of(
+                                ACCOUNT_ID, ImmutableList.copyOf(threadIds), operation, null));
+    }
+
+    private void makeMoveToTrashFinal() {
+        appDatabase
+                .getOpenHelper()
+                .getWritableDatabase()
+                .execSQL(
+                        "update mutation set created=created-? where operation='MOVE_TO_TRASH'",
+                        new Object[] {
+                            TimeUnit.SECONDS.toMillis(MutationJournal.MOVE_TO_TRASH_DELAY_SECONDS)
+                        });
+    }
+
+    private MutationJournal.Outcome.State flush() {
+        return MutationJournal.flush(
+                        ACCOUNT_ID,
+                        mua,
+                        appDatabase,
+                        database,
+                        SyncScheduler.getInstance(ACCOUNT_ID),
+                        MutationJournal.Path.WORKER)
+                .state;
+    }
+
+    private void assertServerState(final Set<Role> first, final Set<Role> second)
+            throws ExecutionException, InterruptedException {
+        final LttrsDatabase observer = inMemoryDatabase();
+        final Mua observerMua = mua(observer);
+        try {
+            observerMua.refreshMailboxes().get();
+            for (final Role role : ImmutableList.of(Role.INBOX, Role.ARCHIVE, Role.TRASH)) {
+                final MailboxWithRoleAndName mailbox = observer.mailboxDao().getMailbox(role);
+                if (mailbox != null) {
+                    observerMua.query(StandardQueries.mailbox(mailbox)).get();
+                }
+            }
+            Assert.assertEquals(first, roles(observer, this.first));
+            Assert.assertEquals(second, roles(observer, this.second));
+        } finally {
+            observerMua.close();
+            observer.close();
+        }
+    }
+
+    private static Set<Role> roles(final LttrsDatabase database, final String threadId) {
+        final ImmutableSet.Builder<Role> roles = new ImmutableSet.Builder<>();
+        try (final Cursor cursor =
+                database.query(
+                        "select distinct mailbox.role from email join email_mailbox on email.id ="
+                                + " email_mailbox.emailId join mailbox on email_mailbox.mailboxId"
+                                + " = mailbox.id where email.threadId=?",
+                        new Object[] {threadId})) {
+            while (cursor.moveToNext()) {
+                roles.add(Role.valueOf(cursor.getString(0)));
+            }
+        }
+        return roles.build();
+    }
+
+    private static List<String> threadIds(final LttrsDatabase database) {
+        final ImmutableList.Builder<String> builder = new ImmutableList.Builder<>();
+        try (final Cursor cursor =
+                database.query("select distinct threadId from email order by threadId", null)) {
+            while (cursor.moveToNext()) {
+                builder.add(cursor.getString(0));
+            }
+        }
+        return builder.build();
+    }
+
+    private static LttrsDatabase inMemoryDatabase() {
+        return Room.inMemoryDatabaseBuilder(
+                        ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                .build();
+    }
+
+    private Mua mua(final LttrsDatabase database) {
+        return Mua.builder()
+                .username(mockMailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mockMailServer.getAccountId())
+                .cache(new DatabaseCache(database))
+                .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.mua.close();
+        this.database.close();
+        this.appDatabase.close();
+        this.mockWebServer.close();
+    }
+}
@@ -0,0 +1,168 @@
+package rs.ltt.android;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.Iterables;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.jmap.client.session.FileSessionCache;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+
+/**
+ * Simulates a cold start of an account that has been used before. Like in {@link MuaPool} the
+ * session comes from the {@link FileSessionCache}, so without prewarming the first request the UI
+ * makes (Mailbox/get) is also the one that opens the connection to the server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PrewarmTest {
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+    private final File sessionCacheDirectory = new File(context.getCacheDir(), "prewarm-test");
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    private MockWebServer mockWebServer;
+    private MockMailServer mockMailServer;
+
+    @Before
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        Assert.assertTrue(sessionCacheDirectory.isDirectory() || sessionCacheDirectory.mkdirs());
+        this.mockWebServer = new MockWebServer();
+        this.mockMailServer = new MockMailServer(2);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(
+                new Dispatcher() {
+                    @NonNull
+                    @Override
+                    public MockResponse dispatch(@NonNull final RecordedRequest request)
+                            throws InterruptedException {
+                        requests.add(Request.of(request));
+                        return mockMailServer.dispatch(request);
+                    }
+                });
+        mockWebServer.start();
+        // a previous run of the app has stored the session
+        final Mua previousRun = buildMua();
+        try {
+            previousRun.getJmapClient().getSession().get();
+        } finally {
+            previousRun.close();
+        }
+        requests.clear();
+    }
+
+    private Mua buildMua() {
+        return Mua.builder()
+                .username(mockMailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mockMailServer.getAccountId())
+                .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .sessionCache(new FileSessionCache(sessionCacheDirectory))
+                .build();
+    }
+
+    @Test
+    public void warmUpHitsTheApiWithoutWritingToTheCache()
+            throws ExecutionException, InterruptedException {
+        final Mua mua = buildMua();
+        try {
+            MuaPool.warmUp(mua).get();
+        } finally {
+            mua.close();
+        }
+        Assert.assertEquals(1, requests.size());
+        final Request echo = requests.get(0);
+        // the session came from the file cache; the only request went to the API
+        Assert.assertEquals("POST", echo.method);
+        Assert.assertTrue(echo.body, echo.body.contains("Core/echo"));
+        Assert.assertFalse(echo.body, echo.body.contains("Mailbox/get"));
+    }
+
+    @Test
+    public void coldStartOpensTheConnectionWithTheFirstQuery()
+            throws ExecutionException, InterruptedException {
+        final Mua mua = buildMua();
+        try {
+            mua.refreshMailboxes().get();
+        } finally {
+            mua.close();
+        }
+        final Request firstQuery = Iterables.getOnlyElement(requests);
+        Assert.assertTrue(firstQuery.body, firstQuery.body.contains("Mailbox/get"));
+        Assert.assertEquals(0, firstQuery.sequenceNumber);
+    }
+
+    @Test
+    public void prewarmOpensTheConnectionBeforeTheFirstQuery()
+            throws ExecutionException, InterruptedException {
+        final Mua mua = buildMua();
+        try {
+            MuaPool.warmUp(mua).get();
+            mua.refreshMailboxes().get();
+        } finally {
+            mua.close();
+        }
+        Assert.assertEquals(2, requests.size());
+        final Request echo = requests.get(0);
+        final Request firstQuery = requests.get(1);
+        Assert.assertTrue(echo.body, echo.body.contains("Core/echo"));
+        Assert.assertTrue(firstQuery.body, firstQuery.body.contains("Mailbox/get"));
+        Assert.assertEquals(echo.path, firstQuery.path);
+        // the first query reuses the connection the echo has opened
+        Assert.assertEquals(0, echo.sequenceNumber);
+        Assert.assertEquals(1, firstQuery.sequenceNumber);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.mockWebServer.close();
+        final File[] files = sessionCacheDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(sessionCacheDirectory.delete());
+    }
+
+    private static final class Request {
+        private final String method;
+        private final String path;
+        private final String body;
+        private final int sequenceNumber;
+
+        private Request(
+                final String method,
+                final String path,
+                final String body,
+                final int sequenceNumber) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        private static Request of(final RecordedRequest request) {
+            return new Request(
+                    request.getMethod(),
+                    request.getPath(),
+                    request.getBody().clone().readUtf8(),
+                    request.getSequenceNumber());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package rs.ltt.android;
+
+import android.os.SystemClock;
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.AddedQueryItem;
+import rs.ltt.android.entity.QueryItemAddition;
+
+/**
+ * Applies pushes to a small and a 50k item inbox through {@link
+ * rs.ltt.android.database.dao.QueryDao#applyQueryChanges}. Compares the cost of finding the new
+ * arrivals by diffing the full email id list of the query (what the notification path used to do)
+ * with reading and acknowledging the change log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryItemAdditionTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryItemAdditionTest.class);
+
+    private static final int SMALL_INBOX = 500;
+    private static final int LARGE_INBOX = 50_000;
+    private static final int PUSHES = 20;
+
+    private static final String[] NONE_REMOVED = new String[0];
+
+    private LttrsDatabase database;
+
+    @Before
+    public void setup() {
+        this.database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+    }
+
+    @Test
+    public void onlyArrivalsOnTopAreLogged() {
+        final String queryString = "top";
+        populate(queryString, 10);
+        // two new emails on top, e5 moved up, another new one below it and an older email that
+        // was moved into the query further down
+        final List<AddedQueryItem> added =
+                ImmutableList.of(
+                        item(0, "n1"),
+                        item(1, "n2"),
+                        item(2, "e5"),
+                        item(3, "n3"),
+                        item(7, "old"));
+        Assert.assertTrue(
+                database.queryDao()
+                        .applyQueryChanges(queryString, "0", "1", new String[] {"e5"}, added));
+        Assert.assertEquals(
+                ImmutableList.of("n1", "n2"),
+                emailIds(database.queryDao().getAdditions(queryString)));
+        Assert.assertEquals(
+                ImmutableList.of("n1", "n2", "e5", "n3", "e0"),
+                database.queryDao().getEmailIds(queryString).subList(0, 5));
+    }
+
+    @Test
+    public void perPushCostIndependentOfInboxSize() {
+        final Cost small = measure("small", SMALL_INBOX);
+        final Cost large = measure("large", LARGE_INBOX);
+        LOGGER.info("{} items: {}", SMALL_INBOX, small);
+        LOGGER.info("{} items: {}", LARGE_INBOX, large);
+        Assert.assertTrue(
+                "change log must be cheaper than diffing a large inbox",
+                large.changeLogNanos < large.fullListNanos);
+        // a hundred times the items, at most three times the cost (plus 1ms per push of noise)
+        Assert.assertTrue(
+                String.format("small: %s, large: %s", small, large),
+                large.changeLogNanos
+                        <= 3 * small.changeLogNanos + TimeUnit.MILLISECONDS.toNanos(PUSHES));
+    }
+
+    private Cost measure(final String queryString, final int size) {
+        populate(queryString, size);
+        final Cost cost = new Cost();
+        for (int push = 0; push < PUSHES; ++push) {
+            final String emailId = String.format("new-%d", push);
+            // a new arrival on top and an older email moved into the middle of the inbox
+            Assert.assertTrue(
+                    database.queryDao()
+                            .applyQueryChanges(
+                                    queryString,
+                                    state(push),
+                                    state(push + 1),
+                                    NONE_REMOVED,
+                                    ImmutableList.of(
+                                            item(0, emailId),
+                                            item(size / 2, String.format("old-%d", push)))));
+
+            final long fullListStart = SystemClock.elapsedRealtimeNanos();
+            database.queryDao().getEmailIds(queryString);
+            cost.fullListNanos += SystemClock.elapsedRealtimeNanos() - fullListStart;
+
+            final long changeLogStart = SystemClock.elapsedRealtimeNanos();
+            final List<QueryItemAddition> additions =
+                    database.queryDao().getAdditions(queryString);
+            database.queryDao()
+                    .acknowledgeAdditions(queryString, additions.get(additions.size() - 1).id);
+            cost.changeLogNanos += SystemClock.elapsedRealtimeNanos() - changeLogStart;
+
+            Assert.assertEquals(ImmutableList.of(emailId), emailIds(additions));
+        }
+        Assert.assertTrue(database.queryDao().getAdditions(queryString).isEmpty());
+        Assert.assertEquals(size + 2 * PUSHES, database.queryDao().getItemCount(queryString));
+        return cost;
+    }
+
+    /**
+     * Lays down a query at state 0 with the given number of items. Large inboxes are written
+     * directly; a single queryChanges response adding 50k items would recount the items for each
+     * of them.
+     */
+    private void populate(final String queryString, final int size) {
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL(
+                    "insert into `query` (queryString,state,canCalculateChanges,valid) values"
+                            + " (?,?,1,1)",
+                    new Object[] {queryString, state(0)});
+            final SupportSQLiteStatement statement =
+                    db.compileStatement(
+                            "insert into query_item (queryId,position,emailId,threadId) select"
+                                    + " id,?,?,? from `query` where queryString=?");
+            for (int i = 0; i < size; ++i) {
+                final String emailId = String.format("e%d", i);
+                statement.bindLong(1, i);
+                statement.bindString(2, emailId);
+                statement.bindString(3, "t-" + emailId);
+                statement.bindString(4, queryString);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals(size, database.queryDao().getItemCount(queryString));
+    }
+
+    private static AddedQueryItem item(final long index, final String emailId) {
+        return new AddedQueryItem(index, emailId, "t-" + emailId);
+    }
+
+    private static String state(final int push) {
+        return String.valueOf(push);
+    }
+
+    private static List<String> emailIds(final List<QueryItemAddition> additions) {
+        return Lists.transform(additions, addition -> addition.emailId);
+    }
+
+    @After
+    public void tearDown() {
+        this.database.close();
+    }
+
+    private static class Cost {
+        private long fullListNanos = 0;
+        private long changeLogNanos = 0;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "full list %dus/push, change log %dus/push",
+                    fullListNanos / PUSHES / 1000, changeLogNanos / PUSHES / 1000);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.android.worker.QueryMutation;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Marks every email in an inbox as read the way {@link rs.ltt.android.worker.QueryMutationWorker}
+ * does, without loading any of the threads first.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryMarkReadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryMarkReadTest.class);
+
+    private static final int NUM_THREADS = 20_000;
+
+    private static final long SCHEDULER_ACCOUNT = Long.MAX_VALUE;
+
+    /** Small enough for an observing client to load the entire inbox. */
+    private static final int NUM_OBSERVED_THREADS = 16;
+
+    @Test
+    public void markInboxRead() throws ExecutionException, InterruptedException, IOException {
+        final MockWebServer mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(NUM_THREADS);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        final LttrsDatabase database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final Mua mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(database))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .build();
+        final SyncScheduler scheduler = SyncScheduler.getInstance(SCHEDULER_ACCOUNT);
+        try {
+            mua.refreshMailboxes().get();
+            final EmailQuery inbox =
+                    StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX));
+            final QueryMutation markRead =
+                    QueryMutation.setKeyword(inbox, Instant.now(), Keyword.SEEN);
+            final AtomicInteger rounds = new AtomicInteger();
+            final int before = mockWebServer.getRequestCount();
+            final long start = SystemClock.elapsedRealtime();
+            final long modified =
+                    markRead.execute(
+                            mua,
+                            mockMailServer.getAccountId(),
+                            scheduler,
+                            (count, total) -> {
+                                rounds.incrementAndGet();
+                                if (total != null) {
+                                    Assert.assertTrue(count <= total);
+                                }
+                                return true;
+                            });
+            final long millis = SystemClock.elapsedRealtime() - start;
+            final int requests = mockWebServer.getRequestCount() - before;
+            LOGGER.info(
+                    "Marked {} emails as read in {} rounds. {} requests in {}ms",
+                    modified,
+                    rounds.get(),
+                    requests,
+                    millis);
+            Assert.assertTrue(modified > 0);
+
+            // nothing left to do the second time around and no threads have been loaded
+            Assert.assertEquals(
+                    0,
+                    markRead.execute(
+                            mua, mockMailServer.getAccountId(), scheduler, (count, total) -> true));
+            Assert.assertTrue(database.queryDao().empty(inbox.asHash()));
+        } finally {
+            SyncScheduler.evict(SCHEDULER_ACCOUNT);
+            mua.close();
+            database.close();
+            mockWebServer.close();
+        }
+    }
+
+    /**
+     * Marks the inbox as read while a new email arrives. The state of the inbox before and after is
+     * read through a second client with its own cache. Exactly the emails that were unread when
+     * the operation was requested are marked as read; the new email stays unread.
+     */
+    @Test
+    public void onlyEmailsReceivedBeforeTheRequestAreModified()
+            throws ExecutionException, InterruptedException, IOException {
+        final MockWebServer mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(NUM_OBSERVED_THREADS);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        final LttrsDatabase database = inMemoryDatabase();
+        final Mua mua = mua(mockWebServer, mockMailServer, database);
+        final SyncScheduler scheduler = SyncScheduler.getInstance(SCHEDULER_ACCOUNT);
+        try {
+            mua.refreshMailboxes().get();
+            final EmailQuery inbox =
+                    StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX));
+            final Map<String, Boolean> before = observeInbox(mockWebServer, mockMailServer);
+            final Set<String> unread = Maps.filterValues(before, seen -> !seen).keySet();
+            Assert.assertFalse(unread.isEmpty());
+
+            final QueryMutation markRead =
+                    QueryMutation.setKeyword(inbox, Instant.now(), Keyword.SEEN);
+            final AtomicBoolean arrived = new AtomicBoolean(false);
+            final long modified =
+                    markRead.execute(
+                            mua,
+                            mockMailServer.getAccountId(),
+                            scheduler,
+                            (count, total) -> {
+                                if (arrived.compareAndSet(false, true)) {
+                                    mockMailServer.generateEmailOnNewThread();
+                                }
+                                return true;
+                            });
+            Assert.assertTrue(arrived.get());
+
+            final Map<String, Boolean> after = observeInbox(mockWebServer, mockMailServer);
+            final Set<String> received = Sets.difference(after.keySet(), before.keySet());
+            Assert.assertEquals(1, received.size());
+            Assert.assertFalse(after.get(received.iterator().next()));
+            final Set<String> markedRead =
+                    Sets.filter(before.keySet(), id -> !before.get(id) && after.get(id));
+            Assert.assertEquals(unread, markedRead);
+            Assert.assertEquals(unread.size(), modified);
+        } finally {
+            SyncScheduler.evict(SCHEDULER_ACCOUNT);
+            mua.close();
+            database.close();
+            mockWebServer.close();
+        }
+    }
+
+    /**
+     * @return whether or not each email in the inbox has been seen
+     */
+    private static Map<String, Boolean> observeInbox(
+            final MockWebServer mockWebServer, final MockMailServer mockMailServer)
+            throws ExecutionException, InterruptedException {
+        final LttrsDatabase observer = inMemoryDatabase();
+        final Mua observerMua = mua(mockWebServer, mockMailServer, observer);
+        try {
+            observerMua.refreshMailboxes().get();
+            observerMua
+                    .query(StandardQueries.mailbox(observer.mailboxDao().getMailbox(Role.INBOX)))
+                    .get();
+            final ImmutableMap.Builder<String, Boolean> emails = new ImmutableMap.Builder<>();
+            try (final Cursor cursor =
+                    observer.query(
+                            "select email_mailbox.emailId,exists (select 1 from email_keyword where"
+                                    + " email_keyword.emailId=email_mailbox.emailId and keyword=?)"
+                                    + " from email_mailbox join mailbox on"
+                                    + " email_mailbox.mailboxId=mailbox.id where mailbox.role=?",
+                            new Object[] {Keyword.SEEN, Role.INBOX.toString()})) {
+                while (cursor.moveToNext()) {
+                    emails.put(cursor.getString(0), cursor.getInt(1) == 1);
+                }
+            }
+            return emails.build();
+        } finally {
+            observerMua.close();
+            observer.close();
+        }
+    }
+
+    private static LttrsDatabase inMemoryDatabase() {
+        return Room.inMemoryDatabaseBuilder(
+                        ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                .build();
+    }
+
+    private static Mua mua(
+            final MockWebServer mockWebServer,
+            final MockMailServer mockMailServer,
+            final LttrsDatabase database) {
+        return Mua.builder()
+                .username(mockMailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mockMailServer.getAccountId())
+                .cache(new DatabaseCache(database))
+                .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .queryPageSize((long) NUM_OBSERVED_THREADS * 2)
+                .build();
+    }
+}
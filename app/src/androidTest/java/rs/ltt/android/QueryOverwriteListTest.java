@@ -0,0 +1,323 @@
+package rs.ltt.android;
+
+import android.os.SystemClock;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingSource;
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.ThreadOverviewItem;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Reads a mailbox query while 10k threads spread over 5 cached queries carry overwrites. Every
+ * even thread has been removed from its mailbox, every third thread has lost a keyword and every
+ * fourth thread carries an executed overwrite the cache does not agree with.
+ *
+ * <p>The remaining cases check which overwrites hide threads from keyword and search queries.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryOverwriteListTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryOverwriteListTest.class);
+
+    private static final int THREADS = 10_000;
+    private static final int QUERIES = 5;
+    private static final int PAGE_SIZE = 50;
+
+    // fixed bounds; the layout with one row per query and thread is gone from the schema and can
+    // not be measured side by side. The first page is read before the list is shown
+    private static final long MAX_PAGE_MILLIS = 100;
+    private static final long MAX_FULL_MILLIS = 1_000;
+
+    private static final String INBOX = "inbox";
+    private static final String TRASH = "trash";
+    private static final String[] TRASH_AND_JUNK = new String[] {TRASH};
+
+    private LttrsDatabase database;
+
+    @Before
+    public void setup() {
+        this.database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final long[] queryIds = new long[QUERIES];
+            final SupportSQLiteStatement query =
+                    db.compileStatement(
+                            "insert into `query` (queryString,state,canCalculateChanges,valid)"
+                                    + " values (?,'0',1,1)");
+            for (int q = 0; q < QUERIES; ++q) {
+                query.bindString(1, emailQuery(q).asHash());
+                queryIds[q] = query.executeInsert();
+            }
+            final SupportSQLiteStatement thread =
+                    db.compileStatement("insert into thread (threadId) values (?)");
+            final SupportSQLiteStatement email =
+                    db.compileStatement("insert into email (id,threadId) values (?,?)");
+            final SupportSQLiteStatement mailbox =
+                    db.compileStatement(
+                            "insert into email_mailbox (emailId,mailboxId) values (?,?)");
+            final SupportSQLiteStatement queryItem =
+                    db.compileStatement(
+                            "insert into query_item (queryId,position,emailId,threadId) values"
+                                    + " (?,?,?,?)");
+            final SupportSQLiteStatement overwrite =
+                    db.compileStatement(
+                            "insert into query_item_overwrite (threadId,type,value,executed)"
+                                    + " values (?,?,?,?)");
+            for (int i = 0; i < THREADS; ++i) {
+                final String threadId = "T" + i;
+                final String emailId = "M" + i;
+                final String mailboxId = mailboxId(i % QUERIES);
+                thread.bindString(1, threadId);
+                thread.executeInsert();
+                email.bindString(1, emailId);
+                email.bindString(2, threadId);
+                email.executeInsert();
+                mailbox.bindString(1, emailId);
+                mailbox.bindString(2, mailboxId);
+                mailbox.executeInsert();
+                queryItem.bindLong(1, queryIds[i % QUERIES]);
+                queryItem.bindLong(2, i / QUERIES);
+                queryItem.bindString(3, emailId);
+                queryItem.bindString(4, threadId);
+                queryItem.executeInsert();
+                if (i % 2 == 0) {
+                    insert(overwrite, threadId, "MAILBOX", mailboxId, false);
+                }
+                if (i % 3 == 0) {
+                    insert(overwrite, threadId, "KEYWORD", Keyword.FLAGGED, false);
+                }
+                if (i % 4 == 1) {
+                    insert(overwrite, threadId, "MAILBOX", mailboxId, true);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void insert(
+            final SupportSQLiteStatement statement,
+            final String threadId,
+            final String type,
+            final String value,
+            final boolean executed) {
+        statement.bindString(1, threadId);
+        statement.bindString(2, type);
+        statement.bindString(3, value);
+        statement.bindLong(4, executed ? 1 : 0);
+        statement.executeInsert();
+    }
+
+    @Test
+    public void loadWithOverwrites() throws ExecutionException, InterruptedException {
+        final ListenableFuturePagingSource<Integer, ThreadOverviewItem> pagingSource =
+                database.queryDao().getThreadOverviewItems(emailQuery(1));
+
+        final long start = SystemClock.elapsedRealtime();
+        final List<ThreadOverviewItem> page = load(pagingSource, PAGE_SIZE);
+        final long pageMillis = SystemClock.elapsedRealtime() - start;
+        Assert.assertEquals(PAGE_SIZE, page.size());
+
+        final long fullStart = SystemClock.elapsedRealtime();
+        final List<ThreadOverviewItem> all = load(pagingSource, THREADS);
+        final long fullMillis = SystemClock.elapsedRealtime() - fullStart;
+        LOGGER.info(
+                "Loaded {} items in {}ms and {} items in {}ms",
+                page.size(),
+                pageMillis,
+                all.size(),
+                fullMillis);
+
+        // only the odd threads are left. The executed overwrites are contradicted by the cache
+        Assert.assertEquals(THREADS / QUERIES / 2, all.size());
+        for (final ThreadOverviewItem item : all) {
+            Assert.assertEquals(1, Integer.parseInt(item.threadId.substring(1)) % 2);
+        }
+        Assert.assertTrue(
+                String.format("first page took %dms", pageMillis), pageMillis <= MAX_PAGE_MILLIS);
+        Assert.assertTrue(
+                String.format("entire query took %dms", fullMillis), fullMillis <= MAX_FULL_MILLIS);
+    }
+
+    @Test
+    public void keywordQueryHidesThreadsThatLostTheKeyword()
+            throws ExecutionException, InterruptedException {
+        final EmailQuery flagged = StandardQueries.keyword(Keyword.FLAGGED, TRASH_AND_JUNK);
+        final long queryId = insertQuery(flagged);
+        insertThread(queryId, "K0", INBOX, Keyword.FLAGGED);
+        insertThread(queryId, "K1", INBOX, Keyword.FLAGGED);
+        insertOverwrite("K1", "KEYWORD", Keyword.FLAGGED, false);
+        insertThread(queryId, "K2", INBOX, Keyword.FLAGGED);
+        insertOverwrite("K2", "KEYWORD", Keyword.SEEN, false);
+        insertThread(queryId, "K3", INBOX, Keyword.FLAGGED);
+        insertOverwrite("K3", "MAILBOX", INBOX, false);
+        insertThread(queryId, "K4", INBOX, Keyword.FLAGGED);
+        insertOverwrite("K4", "TRASH", TRASH, false);
+        // executed, but the cached email is still flagged
+        insertThread(queryId, "K5", INBOX, Keyword.FLAGGED);
+        insertOverwrite("K5", "KEYWORD", Keyword.FLAGGED, true);
+        // executed and the cached email agrees
+        insertThread(queryId, "K6", INBOX, null);
+        insertOverwrite("K6", "KEYWORD", Keyword.FLAGGED, true);
+
+        Assert.assertEquals(ImmutableList.of("K0", "K2", "K3", "K5"), threadIds(flagged));
+    }
+
+    @Test
+    public void searchQueryOnlyHidesTrashedThreads()
+            throws ExecutionException, InterruptedException {
+        final EmailQuery search = StandardQueries.search("lttrs", TRASH_AND_JUNK);
+        final long queryId = insertQuery(search);
+        insertThread(queryId, "S0", INBOX, Keyword.FLAGGED);
+        insertThread(queryId, "S1", INBOX, Keyword.FLAGGED);
+        insertOverwrite("S1", "MAILBOX", INBOX, false);
+        insertThread(queryId, "S2", INBOX, Keyword.FLAGGED);
+        insertOverwrite("S2", "KEYWORD", Keyword.FLAGGED, false);
+        insertThread(queryId, "S3", INBOX, Keyword.FLAGGED);
+        insertOverwrite("S3", "TRASH", TRASH, false);
+        // executed and the cached email is in the trash
+        insertThread(queryId, "S4", TRASH, Keyword.FLAGGED);
+        insertOverwrite("S4", "TRASH", TRASH, true);
+        // executed, but the cached email has been moved back to the inbox
+        insertThread(queryId, "S5", INBOX, Keyword.FLAGGED);
+        insertOverwrite("S5", "TRASH", TRASH, true);
+
+        Assert.assertEquals(ImmutableList.of("S0", "S1", "S2", "S5"), threadIds(search));
+    }
+
+    @Test
+    public void trashOverwriteMadeBeforeTheTrashExisted()
+            throws ExecutionException, InterruptedException {
+        // the trash has been created along with the modification
+        database.getOpenHelper()
+                .getWritableDatabase()
+                .execSQL(
+                        "insert into mailbox (id,role) values (?,?)",
+                        new Object[] {TRASH, Role.TRASH.toString()});
+        final String byRole = Role.TRASH.toString();
+        final EmailQuery inbox = StandardQueries.mailbox(INBOX);
+        final long inboxId = insertQuery(inbox);
+        insertThread(inboxId, "R0", INBOX, null);
+        insertOverwrite("R0", "TRASH", byRole, false);
+        // executed and the cached email is in the trash that has been created since
+        insertThread(inboxId, "R1", TRASH, null);
+        insertOverwrite("R1", "TRASH", byRole, true);
+        // executed, but the cached email has been moved back to the inbox
+        insertThread(inboxId, "R2", INBOX, null);
+        insertOverwrite("R2", "TRASH", byRole, true);
+        insertThread(inboxId, "R3", INBOX, null);
+        final EmailQuery trash = StandardQueries.mailbox(TRASH);
+        final long trashId = insertQuery(trash);
+        insertQueryItem(trashId, 0, "R1");
+
+        Assert.assertEquals(ImmutableList.of("R2", "R3"), threadIds(inbox));
+        Assert.assertEquals(ImmutableList.of("R1"), threadIds(trash));
+    }
+
+    private long insertQuery(final EmailQuery emailQuery) {
+        final SupportSQLiteStatement statement =
+                database.getOpenHelper()
+                        .getWritableDatabase()
+                        .compileStatement(
+                                "insert into `query` (queryString,state,canCalculateChanges,valid)"
+                                        + " values (?,'0',1,1)");
+        statement.bindString(1, emailQuery.asHash());
+        return statement.executeInsert();
+    }
+
+    /** Appends a thread with a single email in the given mailbox to the query. */
+    private void insertThread(
+            final long queryId,
+            final String threadId,
+            final String mailboxId,
+            final String keyword) {
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        final String emailId = "M" + threadId;
+        db.execSQL("insert into thread (threadId) values (?)", new Object[] {threadId});
+        db.execSQL(
+                "insert into email (id,threadId) values (?,?)", new Object[] {emailId, threadId});
+        db.execSQL(
+                "insert into email_mailbox (emailId,mailboxId) values (?,?)",
+                new Object[] {emailId, mailboxId});
+        if (keyword != null) {
+            db.execSQL(
+                    "insert into email_keyword (emailId,keyword) values (?,?)",
+                    new Object[] {emailId, keyword});
+        }
+        insertQueryItem(queryId, Integer.parseInt(threadId.substring(1)), threadId);
+    }
+
+    private void insertQueryItem(final long queryId, final int position, final String threadId) {
+        database.getOpenHelper()
+                .getWritableDatabase()
+                .execSQL(
+                        "insert into query_item (queryId,position,emailId,threadId) values"
+                                + " (?,?,?,?)",
+                        new Object[] {queryId, position, "M" + threadId, threadId});
+    }
+
+    private void insertOverwrite(
+            final String threadId, final String type, final String value, final boolean executed) {
+        database.getOpenHelper()
+                .getWritableDatabase()
+                .execSQL(
+                        "insert into query_item_overwrite (threadId,type,value,executed)"
+                                + " values (?,?,?,?)",
+                        new Object[] {threadId, type, value, executed ? 1 : 0});
+    }
+
+    private List<String> threadIds(final EmailQuery emailQuery)
+            throws ExecutionException, InterruptedException {
+        final List<ThreadOverviewItem> items =
+                load(database.queryDao().getThreadOverviewItems(emailQuery), THREADS);
+        return Lists.transform(items, item -> item.threadId);
+    }
+
+    private static List<ThreadOverviewItem> load(
+            final ListenableFuturePagingSource<Integer, ThreadOverviewItem> pagingSource,
+            final int loadSize)
+            throws ExecutionException, InterruptedException {
+        final PagingSource.LoadResult<Integer, ThreadOverviewItem> result =
+                pagingSource
+                        .loadFuture(new PagingSource.LoadParams.Refresh<>(null, loadSize, false))
+                        .get();
+        return ((PagingSource.LoadResult.Page<Integer, ThreadOverviewItem>) result).getData();
+    }
+
+    private static EmailQuery emailQuery(final int index) {
+        return StandardQueries.mailbox(mailboxId(index));
+    }
+
+    private static String mailboxId(final int index) {
+        return "mailbox" + index;
+    }
+
+    @After
+    public void tearDown() {
+        this.database.close();
+    }
+}
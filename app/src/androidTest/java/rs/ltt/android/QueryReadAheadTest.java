@@ -0,0 +1,190 @@
+package rs.ltt.android;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.sync.ReadAhead;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Simulates scrolling through a large mailbox in flings separated by short pauses. Page requests
+ * are issued whenever the position gets within the prefetch distance of the end of the list and
+ * the server takes a fixed time to answer. Compares the time the user would have spent looking at
+ * placeholders with and without read-ahead.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryReadAheadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryReadAheadTest.class);
+
+    private static final int NUM_THREADS = 1000;
+    private static final int PREFETCH_DISTANCE = 90;
+    private static final long ROUND_TRIP = 400;
+    private static final int FLING_ITEMS = 150;
+    private static final double ITEMS_PER_MILLISECOND = 1.0;
+    private static final long PAUSE = 3000;
+
+    private MockWebServer mockWebServer;
+    private MockMailServer mockMailServer;
+
+    @Before
+    public void setupMockServer() throws IOException {
+        this.mockWebServer = new MockWebServer();
+        this.mockMailServer = new MockMailServer(NUM_THREADS);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(
+                new Dispatcher() {
+                    @NonNull
+                    @Override
+                    public MockResponse dispatch(@NonNull final RecordedRequest request)
+                            throws InterruptedException {
+                        return mockMailServer
+                                .dispatch(request)
+                                .setHeadersDelay(ROUND_TRIP, TimeUnit.MILLISECONDS);
+                    }
+                });
+        mockWebServer.start();
+    }
+
+    @Test
+    public void flingWithAndWithoutReadAhead() throws ExecutionException, InterruptedException {
+        final Fling withoutReadAhead = fling(false);
+        final Fling withReadAhead = fling(true);
+        LOGGER.info("without read ahead: {}", withoutReadAhead);
+        LOGGER.info("with read ahead: {}", withReadAhead);
+        Assert.assertEquals(NUM_THREADS, withoutReadAhead.items);
+        Assert.assertEquals(NUM_THREADS, withReadAhead.items);
+        Assert.assertTrue(withoutReadAhead.placeholderMillis > 0);
+        // the same bound as the simulation in ReadAheadTest: at least a third less time spent
+        // looking at placeholders
+        Assert.assertTrue(
+                String.format("with=%s without=%s", withReadAhead, withoutReadAhead),
+                withReadAhead.placeholderMillis * 3 <= withoutReadAhead.placeholderMillis * 2);
+    }
+
+    private Fling fling(final boolean readAheadEnabled)
+            throws ExecutionException, InterruptedException {
+        final LttrsDatabase database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final Mua mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(database))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .build();
+        try {
+            mua.refreshMailboxes().get();
+            final MailboxWithRoleAndName inbox = database.mailboxDao().getMailbox(Role.INBOX);
+            final EmailQuery query = StandardQueries.mailbox(inbox);
+            final ReadAhead readAhead = new ReadAhead();
+            final Fling fling = new Fling();
+            final long start = SystemClock.elapsedRealtime();
+            Status status = Status.UPDATED;
+            while (status == Status.UPDATED) {
+                final long boundaryAt = start + millisUntil(fling.items - PREFETCH_DISTANCE);
+                SystemClock.sleep(Math.max(0, boundaryAt - SystemClock.elapsedRealtime()));
+                final long requestedAt = readAhead.onBoundaryReached();
+                status = page(mua, database, query, fling, start);
+                readAhead.onPageLoaded(requestedAt, true);
+                final int pagesAhead = readAheadEnabled ? readAhead.getPagesAhead() : 0;
+                for (int i = 0; i < pagesAhead && status == Status.UPDATED; ++i) {
+                    final long readAheadAt = readAhead.now();
+                    status = page(mua, database, query, fling, start);
+                    readAhead.onPageLoaded(readAheadAt, false);
+                }
+            }
+            fling.readAhead = readAhead.toString();
+            return fling;
+        } finally {
+            mua.close();
+            database.close();
+        }
+    }
+
+    private static Status page(
+            final Mua mua,
+            final LttrsDatabase database,
+            final EmailQuery query,
+            final Fling fling,
+            final long start)
+            throws ExecutionException, InterruptedException {
+        final long requestedAt = SystemClock.elapsedRealtime();
+        final String afterEmailId = database.queryDao().getLastEmailId(query.asHash());
+        final Status status =
+                afterEmailId == null
+                        ? mua.query(query).get()
+                        : mua.query(query, afterEmailId).get();
+        final long loadedAt = SystemClock.elapsedRealtime();
+        // the moment the scroll position passed the last loaded item
+        final long exhaustedAt = start + millisUntil(fling.items);
+        fling.placeholderMillis += Math.max(0, loadedAt - Math.max(requestedAt, exhaustedAt));
+        fling.roundTrips++;
+        fling.items = database.queryDao().getEmailIds(query.asHash()).size();
+        return status;
+    }
+
+    /**
+     * @return the milliseconds it takes the user to scroll past the given number of items
+     */
+    private static long millisUntil(final int items) {
+        if (items <= 0) {
+            return 0;
+        }
+        final long flingMillis = (long) (FLING_ITEMS / ITEMS_PER_MILLISECOND);
+        final int flings = items / FLING_ITEMS;
+        final int remainder = items % FLING_ITEMS;
+        return flings * (flingMillis + PAUSE) + (long) (remainder / ITEMS_PER_MILLISECOND);
+    }
+
+    @After
+    public void tearDownMockServer() throws IOException {
+        this.mockWebServer.close();
+    }
+
+    private static class Fling {
+        private int items = 0;
+        private int roundTrips = 0;
+        private long placeholderMillis = 0;
+        private String readAhead;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "items=%d, roundTrips=%d, placeholder=%dms (%dms of scrolling), %s",
+                    items,
+                    roundTrips,
+                    placeholderMillis,
+                    millisUntil(items),
+                    readAhead);
+        }
+    }
+}
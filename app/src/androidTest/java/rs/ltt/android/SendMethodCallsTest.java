@@ -0,0 +1,139 @@
+package rs.ltt.android;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.CachePatch;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.IdentityWithNameAndEmail;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.EmailAddress;
+import rs.ltt.jmap.common.entity.EmailBodyPart;
+import rs.ltt.jmap.common.entity.EmailBodyValue;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Sends one email and counts the JMAP method calls it takes until the sent email is in the cache.
+ * Once with a full {@link Mua#refresh()} afterwards and once with {@link CachePatch}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SendMethodCallsTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SendMethodCallsTest.class);
+
+    private static final long ACCOUNT_ID = 1;
+
+    @Test
+    public void countMethodCallsPerSend()
+            throws ExecutionException, InterruptedException, IOException {
+        final int refresh = send(false);
+        final int patch = send(true);
+        LOGGER.info("method calls per send: refresh={}, patch={}", refresh, patch);
+        Assert.assertTrue(patch < refresh);
+    }
+
+    private static int send(final boolean patch)
+            throws ExecutionException, InterruptedException, IOException {
+        final AtomicInteger methodCalls = new AtomicInteger();
+        final MockWebServer mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(16);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(new CountingDispatcher(mockMailServer, methodCalls));
+        mockWebServer.start();
+        final LttrsDatabase database =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        final Mua mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(database))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .build();
+        try {
+            mua.refreshIdentities().get();
+            mua.refreshMailboxes().get();
+            mua.query(StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX)))
+                    .get();
+            final IdentityWithNameAndEmail identity =
+                    database.identityDao().get(ACCOUNT_ID, firstIdentityId(database));
+            final Email email =
+                    Email.builder()
+                            .from(identity.getEmailAddress())
+                            .to(EmailAddress.builder().email("alice@example.com").build())
+                            .subject("Counting method calls")
+                            .bodyValue("0", EmailBodyValue.builder().value("Hi Alice").build())
+                            .textBody(
+                                    EmailBodyPart.builder().partId("0").type("text/plain").build())
+                            .build();
+            final int before = methodCalls.get();
+            final String emailId = mua.send(email, identity).get();
+            if (patch) {
+                CachePatch.created(mua, database, mockMailServer.getAccountId(), emailId).get();
+            } else {
+                mua.refresh().get();
+            }
+            Assert.assertNotNull(database.threadAndEmailDao().getThreadId(emailId));
+            return methodCalls.get() - before;
+        } finally {
+            mua.close();
+            database.close();
+            mockWebServer.close();
+        }
+    }
+
+    private static String firstIdentityId(final LttrsDatabase database) {
+        try (final Cursor cursor = database.query("select id from identity limit 1", null)) {
+            Assert.assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    private static class CountingDispatcher extends Dispatcher {
+
+        private static final Pattern METHOD_CALL =
+                Pattern.compile("\\[\"[A-Za-z]+/[a-z][A-Za-z]*\",");
+
+        private final Dispatcher dispatcher;
+        private final AtomicInteger methodCalls;
+
+        private CountingDispatcher(final Dispatcher dispatcher, final AtomicInteger methodCalls) {
+            this.dispatcher = dispatcher;
+            this.methodCalls = methodCalls;
+        }
+
+        @NonNull
+        @Override
+        public MockResponse dispatch(@NonNull final RecordedRequest request)
+                throws InterruptedException {
+            final Matcher matcher = METHOD_CALL.matcher(request.getBody().clone().readUtf8());
+            while (matcher.find()) {
+                methodCalls.incrementAndGet();
+            }
+            return dispatcher.dispatch(request);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package rs.ltt.android;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.util.SessionDiscovery;
+import rs.ltt.jmap.client.ConnectionConfig;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.api.UnauthorizedException;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+/**
+ * Runs session discovery with a real {@link JmapClient} against three local endpoints standing in
+ * for the candidates of an account: the most specific one, one that asks for credentials and one
+ * that is not a JMAP server. Each endpoint answers after its own delay.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionDiscoveryTest {
+
+    private static final long SLOW = 500;
+
+    private final MockMailServer mockMailServer = new MockMailServer(2);
+    private final AtomicReference<HttpUrl> discovered = new AtomicReference<>();
+
+    private MockWebServer jmap;
+    private MockWebServer unauthorized;
+    private MockWebServer notFound;
+
+    @Before
+    public void startServers() throws IOException {
+        mockMailServer.setAdvertiseWebSocket(false);
+        this.jmap = new MockWebServer();
+        this.unauthorized = new MockWebServer();
+        this.notFound = new MockWebServer();
+        jmap.start();
+        unauthorized.start();
+        notFound.start();
+    }
+
+    private static void respond(
+            final MockWebServer server, final long delay, final Dispatcher dispatcher) {
+        server.setDispatcher(
+                new Dispatcher() {
+                    @NonNull
+                    @Override
+                    public MockResponse dispatch(@NonNull final RecordedRequest request)
+                            throws InterruptedException {
+                        return dispatcher
+                                .dispatch(request)
+                                .setHeadersDelay(delay, TimeUnit.MILLISECONDS);
+                    }
+                });
+    }
+
+    private static Dispatcher status(final int code) {
+        return new Dispatcher() {
+            @NonNull
+            @Override
+            public MockResponse dispatch(@NonNull final RecordedRequest request) {
+                final MockResponse response = new MockResponse().setResponseCode(code);
+                if (code == 401) {
+                    response.addHeader("WWW-Authenticate", "Basic realm=\"JMAP\"");
+                }
+                return response;
+            }
+        };
+    }
+
+    private static HttpUrl wellKnown(final MockWebServer server) {
+        return server.url(JmapDispatcher.WELL_KNOWN_PATH);
+    }
+
+    private ListenableFuture<Session> discover(final List<HttpUrl> candidates) {
+        return SessionDiscovery.discover(
+                candidates,
+                candidate ->
+                        new JmapClient(
+                                        new ConnectionConfig(
+                                                new BasicAuthHttpAuthentication(
+                                                        mockMailServer.getUsername(),
+                                                        JmapDispatcher.PASSWORD),
+                                                candidate,
+                                                null))
+                                .getSession(),
+                discovered::set);
+    }
+
+    @Test
+    public void unauthorizedLessSpecificHostDoesNotBeatSession()
+            throws ExecutionException, InterruptedException {
+        respond(jmap, SLOW, mockMailServer);
+        respond(unauthorized, 0, status(401));
+        final Session session =
+                discover(ImmutableList.of(wellKnown(jmap), wellKnown(unauthorized))).get();
+        Assert.assertNotNull(session);
+        Assert.assertEquals(wellKnown(jmap), discovered.get());
+        Assert.assertEquals(1, unauthorized.getRequestCount());
+    }
+
+    @Test
+    public void unauthorizedAcceptedOnceMoreSpecificHostFailed() throws InterruptedException {
+        respond(notFound, SLOW, status(404));
+        respond(unauthorized, 0, status(401));
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            discover(ImmutableList.of(wellKnown(notFound), wellKnown(unauthorized))).get();
+            Assert.fail("discovery should ask for credentials");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UnauthorizedException);
+        }
+        Assert.assertTrue(SystemClock.elapsedRealtime() - start >= SLOW);
+        Assert.assertEquals(wellKnown(unauthorized), discovered.get());
+    }
+
+    @Test
+    public void enteredUrlIsRacedFirst() throws ExecutionException, InterruptedException {
+        respond(jmap, SLOW, mockMailServer);
+        respond(unauthorized, 0, status(401));
+        final List<HttpUrl> candidates =
+                SessionDiscovery.candidates(wellKnown(jmap), "user@example.com");
+        Assert.assertEquals(wellKnown(jmap), candidates.get(0));
+        Assert.assertEquals("https://example.com/.well-known/jmap", candidates.get(1).toString());
+        Assert.assertEquals(4, candidates.size());
+        // the entered URL still wins over a well-known URI that asks for credentials first
+        discover(ImmutableList.of(candidates.get(0), wellKnown(unauthorized))).get();
+        Assert.assertEquals(wellKnown(jmap), discovered.get());
+    }
+
+    @After
+    public void stopServers() throws IOException {
+        jmap.shutdown();
+        unauthorized.shutdown();
+        notFound.shutdown();
+    }
+}
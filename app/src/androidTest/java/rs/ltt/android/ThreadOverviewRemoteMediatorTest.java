@@ -0,0 +1,199 @@
+package rs.ltt.android;
+
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.LoadType;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingSource;
+import androidx.paging.PagingState;
+import androidx.paging.RemoteMediator;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.ThreadOverviewItem;
+import rs.ltt.android.repository.ThreadOverviewRemoteMediator;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+@RunWith(AndroidJUnit4.class)
+public class ThreadOverviewRemoteMediatorTest {
+
+    private static final PagingConfig PAGING_CONFIG = new PagingConfig(30, 90);
+
+    private MockWebServer mockWebServer;
+    private LttrsDatabase lttrsDatabase;
+    private Mua mua;
+    private EmailQuery emailQuery;
+
+    @Before
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        this.mockWebServer = new MockWebServer();
+        final MockMailServer mockMailServer = new MockMailServer(128);
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+
+        this.lttrsDatabase =
+                Room.inMemoryDatabaseBuilder(
+                                ApplicationProvider.getApplicationContext(), LttrsDatabase.class)
+                        .build();
+        this.mua =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .cache(new DatabaseCache(this.lttrsDatabase))
+                        .sessionResource(mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .queryPageSize(20L)
+                        .build();
+        mua.refreshMailboxes().get();
+        final MailboxWithRoleAndName inbox = lttrsDatabase.mailboxDao().getMailbox(Role.INBOX);
+        this.emailQuery = StandardQueries.mailbox(inbox);
+    }
+
+    @Test
+    public void initialRefreshOnlyForEmptyQuery() throws ExecutionException, InterruptedException {
+        final ThreadOverviewRemoteMediator mediator = mediator(new FakeMua());
+        Assert.assertEquals(
+                RemoteMediator.InitializeAction.LAUNCH_INITIAL_REFRESH,
+                mediator.initializeFuture().get());
+        mediator.loadFuture(LoadType.REFRESH, emptyState()).get();
+        Assert.assertEquals(
+                RemoteMediator.InitializeAction.SKIP_INITIAL_REFRESH,
+                mediator.initializeFuture().get());
+    }
+
+    @Test
+    public void appendUntilEndOfPagination() throws ExecutionException, InterruptedException {
+        final FakeMua fakeMua = new FakeMua();
+        final ThreadOverviewRemoteMediator mediator = mediator(fakeMua);
+        final RemoteMediator.MediatorResult prepend =
+                mediator.loadFuture(LoadType.PREPEND, emptyState()).get();
+        Assert.assertTrue(isEndOfPagination(prepend));
+        Assert.assertEquals(0, fakeMua.requests.get());
+
+        RemoteMediator.MediatorResult result =
+                mediator.loadFuture(LoadType.REFRESH, emptyState()).get();
+        Assert.assertFalse(isEndOfPagination(result));
+        while (!isEndOfPagination(result)) {
+            Assert.assertTrue(fakeMua.requests.get() < 128);
+            result = mediator.loadFuture(LoadType.APPEND, stateOf(loadAll())).get();
+        }
+        final List<String> emailIds = lttrsDatabase.queryDao().getEmailIds(emailQuery.asHash());
+        final List<ThreadOverviewItem> items = loadAll();
+        Assert.assertEquals(emailIds.size(), items.size());
+        Assert.assertEquals(emailIds.get(emailIds.size() - 1), items.get(items.size() - 1).emailId);
+        Assert.assertTrue(fakeMua.requests.get() > 1);
+    }
+
+    @Test
+    public void cancellingLoadCancelsRequest() {
+        final FakeMua fakeMua = new FakeMua();
+        fakeMua.blocked = SettableFuture.create();
+        final ThreadOverviewRemoteMediator mediator = mediator(fakeMua);
+        final ListenableFuture<RemoteMediator.MediatorResult> refresh =
+                mediator.loadFuture(LoadType.REFRESH, emptyState());
+        Assert.assertFalse(refresh.isDone());
+        refresh.cancel(true);
+        Assert.assertTrue(fakeMua.blocked.isCancelled());
+    }
+
+    @Test
+    public void failureIsReportedAsError() throws ExecutionException, InterruptedException {
+        final FakeMua fakeMua = new FakeMua();
+        fakeMua.blocked = SettableFuture.create();
+        fakeMua.blocked.setException(new IOException("connection reset"));
+        final ThreadOverviewRemoteMediator mediator = mediator(fakeMua);
+        final RemoteMediator.MediatorResult result =
+                mediator.loadFuture(LoadType.REFRESH, emptyState()).get();
+        Assert.assertTrue(result instanceof RemoteMediator.MediatorResult.Error);
+    }
+
+    private ThreadOverviewRemoteMediator mediator(final FakeMua fakeMua) {
+        return new ThreadOverviewRemoteMediator(
+                emailQuery, lttrsDatabase, fakeMua, MoreExecutors.directExecutor());
+    }
+
+    private List<ThreadOverviewItem> loadAll() throws ExecutionException, InterruptedException {
+        final ListenableFuturePagingSource<Integer, ThreadOverviewItem> pagingSource =
+                lttrsDatabase.queryDao().getThreadOverviewItems(emailQuery);
+        final PagingSource.LoadResult<Integer, ThreadOverviewItem> result =
+                pagingSource
+                        .loadFuture(new PagingSource.LoadParams.Refresh<>(null, 1000, false))
+                        .get();
+        return ((PagingSource.LoadResult.Page<Integer, ThreadOverviewItem>) result).getData();
+    }
+
+    private static boolean isEndOfPagination(final RemoteMediator.MediatorResult result) {
+        Assert.assertTrue(result instanceof RemoteMediator.MediatorResult.Success);
+        return ((RemoteMediator.MediatorResult.Success) result).endOfPaginationReached();
+    }
+
+    private static PagingState<Integer, ThreadOverviewItem> emptyState() {
+        return new PagingState<>(Collections.emptyList(), null, PAGING_CONFIG, 0);
+    }
+
+    private static PagingState<Integer, ThreadOverviewItem> stateOf(
+            final List<ThreadOverviewItem> items) {
+        final PagingSource.LoadResult.Page<Integer, ThreadOverviewItem> page =
+                new PagingSource.LoadResult.Page<>(items, null, null);
+        return new PagingState<>(Collections.singletonList(page), null, PAGING_CONFIG, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.mua.close();
+        this.lttrsDatabase.close();
+        this.mockWebServer.close();
+    }
+
+    /**
+     * Stands in for the repository’s scheduler backed Mua. Counts requests and can hold them back
+     * to simulate slow or failing network
+     */
+    private class FakeMua implements ThreadOverviewRemoteMediator.Loader {
+
+        private final AtomicInteger requests = new AtomicInteger();
+        private SettableFuture<Status> blocked = null;
+
+        @Override
+        public ListenableFuture<Status> query(final EmailQuery emailQuery) {
+            requests.incrementAndGet();
+            if (blocked != null) {
+                return blocked;
+            }
+            return mua.query(emailQuery);
+        }
+
+        @Override
+        public ListenableFuture<Status> query(
+                final EmailQuery emailQuery, final String afterEmailId) {
+            requests.incrementAndGet();
+            if (blocked != null) {
+                return blocked;
+            }
+            return mua.query(emailQuery, afterEmailId);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package rs.ltt.android;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import rs.ltt.android.worker.CreateEmailPayload;
+import rs.ltt.android.worker.WorkerPayloads;
+
+@RunWith(AndroidJUnit4.class)
+public class WorkerPayloadTest {
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+
+    @Test
+    public void storeOneMegabyteBody() throws IOException {
+        final String body = Strings.repeat("Hello World\n", 1024 * 1024 / 12);
+        final CreateEmailPayload payload =
+                new CreateEmailPayload(
+                        ImmutableList.of(), "Alice <alice@example.com>", null, "Hello", body);
+        final UUID workId = UUID.randomUUID();
+        WorkerPayloads.store(context, workId, payload.toByteArray());
+
+        final CreateEmailPayload stored =
+                CreateEmailPayload.of(WorkerPayloads.load(context, workId));
+        Assert.assertEquals(body, stored.body);
+
+        WorkerPayloads.delete(context, workId);
+        Assert.assertNull(WorkerPayloads.load(context, workId));
+    }
+
+    @Test
+    public void collectOrphanedPayloads() throws IOException {
+        final UUID orphaned = UUID.randomUUID();
+        final UUID recent = UUID.randomUUID();
+        // no work request with either id has ever been enqueued
+        WorkerPayloads.store(context, orphaned, new byte[] {1});
+        Assert.assertTrue(WorkerPayloads.getFile(context, orphaned).setLastModified(0));
+        WorkerPayloads.store(context, recent, new byte[] {2});
+
+        Assert.assertEquals(1, WorkerPayloads.collectGarbage(context));
+        Assert.assertNull(WorkerPayloads.load(context, orphaned));
+        // still within the grace period; the work request might be about to be enqueued
+        Assert.assertArrayEquals(new byte[] {2}, WorkerPayloads.load(context, recent));
+        WorkerPayloads.delete(context, recent);
+    }
+}
@@ -0,0 +1,193 @@
+package rs.ltt.android.push;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.Configuration;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.WorkManagerTestInitHelper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.MuaPool;
+import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.AccountWithCredentials;
+import rs.ltt.android.worker.MainMailboxQueryRefreshWorker;
+import rs.ltt.android.worker.QueryRefreshWorker;
+import rs.ltt.jmap.client.Services;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.common.entity.Account;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.entity.capability.MailAccountCapability;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Hands a push message to the receiver and follows it through {@link QueryRefreshWorker#push} to
+ * the {@link MainMailboxQueryRefreshWorker}. The latency trace the worker reports in its output
+ * must have passed through every stage in order.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PushRefreshLatencyTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PushRefreshLatencyTest.class);
+
+    private static final String DISTRIBUTOR = "rs.ltt.android.test";
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+    private final MockWebServer mockWebServer = new MockWebServer();
+    private final MockMailServer mockMailServer = new MockMailServer(2);
+    private final UUID deviceClientId = UUID.randomUUID();
+    private AccountWithCredentials account;
+
+    @Before
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        WorkManagerTestInitHelper.initializeTestWorkManager(
+                context,
+                new Configuration.Builder().setExecutor(new SynchronousExecutor()).build());
+        mockMailServer.setAdvertiseWebSocket(false);
+        mockWebServer.setDispatcher(mockMailServer);
+        mockWebServer.start();
+        final HttpUrl sessionResource = mockWebServer.url(JmapDispatcher.WELL_KNOWN_PATH);
+        final Mua discovery =
+                Mua.builder()
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .sessionResource(sessionResource)
+                        .build();
+        final Map<String, Account> accounts =
+                discovery
+                        .getJmapClient()
+                        .getSession()
+                        .get()
+                        .getAccounts(MailAccountCapability.class);
+        discovery.close();
+        final AppDatabase appDatabase = AppDatabase.getInstance(context);
+        this.account =
+                Iterables.getOnlyElement(
+                        appDatabase
+                                .accountDao()
+                                .insert(
+                                        HttpAuthentication.Scheme.BASIC,
+                                        mockMailServer.getUsername(),
+                                        JmapDispatcher.PASSWORD,
+                                        sessionResource,
+                                        accounts));
+        appDatabase
+                .pushSubscriptionDao()
+                .insert(account.getCredentials(), deviceClientId, DISTRIBUTOR);
+        // the inbox has been synchronized before; the push announces one new email
+        final Mua mua = MuaPool.getInstance(context, account);
+        mua.refreshMailboxes().get();
+        mua.query(inbox()).get();
+        mockMailServer.generateEmailOnNewThread();
+    }
+
+    @Test
+    public void pushLatencyIsReportedByTheWorker()
+            throws ExecutionException, InterruptedException {
+        final long itemsBefore = inboxItemCount();
+        final StateChange stateChange =
+                StateChange.builder()
+                        .changed(account.getAccountId(), ImmutableMap.of(Email.class, "pushed"))
+                        .build();
+        new TestReceiver()
+                .receive(
+                        context,
+                        deviceClientId,
+                        Services.GSON.toJson(stateChange).getBytes(StandardCharsets.UTF_8));
+
+        final WorkInfo workInfo = awaitRefresh();
+        Assert.assertEquals(WorkInfo.State.SUCCEEDED, workInfo.getState());
+        final long[] timestamps =
+                workInfo.getOutputData()
+                        .getLongArray(MainMailboxQueryRefreshWorker.PUSH_LATENCY_KEY);
+        Assert.assertNotNull(timestamps);
+        final PushLatency latency = PushLatency.of(SystemClock::elapsedRealtime, timestamps);
+        LOGGER.info("Push to notification latency: {}", latency);
+        Assert.assertTrue(latency.isPush());
+        long previous = 0;
+        for (final PushLatency.Stage stage : PushLatency.Stage.values()) {
+            final long timestamp = latency.get(stage);
+            Assert.assertTrue(String.format("%s has not been reached", stage), timestamp >= 0);
+            Assert.assertTrue(String.format("%s is out of order", stage), timestamp >= previous);
+            previous = timestamp;
+        }
+        Assert.assertTrue(latency.total() >= 0);
+        Assert.assertEquals(itemsBefore + 1, inboxItemCount());
+    }
+
+    private WorkInfo awaitRefresh() throws ExecutionException, InterruptedException {
+        final WorkManager workManager = WorkManager.getInstance(context);
+        final String uniqueName = QueryRefreshWorker.uniqueName(account.getId());
+        final long end = SystemClock.elapsedRealtime() + TIMEOUT;
+        while (SystemClock.elapsedRealtime() < end) {
+            final List<WorkInfo> workInfos =
+                    workManager.getWorkInfosForUniqueWork(uniqueName).get();
+            if (workInfos.size() > 0) {
+                final WorkInfo workInfo = Iterables.getOnlyElement(workInfos);
+                if (workInfo.getState().isFinished()) {
+                    return workInfo;
+                }
+                WorkManagerTestInitHelper.getTestDriver(context)
+                        .setAllConstraintsMet(workInfo.getId());
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError(String.format("%s did not finish in time", uniqueName));
+    }
+
+    private EmailQuery inbox() {
+        final LttrsDatabase database = LttrsDatabase.getInstance(context, account.getId());
+        return StandardQueries.mailbox(database.mailboxDao().getMailbox(Role.INBOX));
+    }
+
+    private long inboxItemCount() {
+        final LttrsDatabase database = LttrsDatabase.getInstance(context, account.getId());
+        return database.queryDao().getItemCount(inbox().asHash());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        MuaPool.evict(account.getId());
+        AppDatabase.getInstance(context).accountDao().delete(account);
+        mockWebServer.close();
+    }
+
+    private static class TestReceiver extends AbstractPushMessageReceiver {
+
+        @Override
+        public void onReceive(final Context context, final Intent intent) {}
+
+        private void receive(
+                final Context context, final UUID deviceClientId, final byte[] message) {
+            onReceiveMessage(context, deviceClientId, DISTRIBUTOR, message);
+        }
+    }
+}
@@ -23,14 +23,25 @@ import androidx.appcompat.app.AppCompatDelegate;
 import androidx.preference.PreferenceManager;
 import com.google.android.material.color.DynamicColors;
 import com.google.android.material.color.DynamicColorsOptions;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.push.PushManager;
+import rs.ltt.android.sync.AndroidConnectivityProvider;
+import rs.ltt.android.sync.SyncPolicy;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.android.ui.notification.AttachmentNotification;
+import rs.ltt.android.ui.notification.BulkOperationNotification;
+import rs.ltt.android.ui.notification.SyncNotification;
+import rs.ltt.android.worker.MutationJournalWorker;
+import rs.ltt.android.worker.QueryMutationWorker;
 
 public class LttrsApplication extends Application {
 
     private static final Object CACHE_LOCK = new Object();
+    private static final Executor STARTUP_EXECUTOR = Executors.newSingleThreadExecutor();
     private final Logger LOGGER = LoggerFactory.getLogger(LttrsApplication.class);
     private Long mostRecentlySelectedAccountId = null;
 
@@ -50,6 +61,17 @@ public class LttrsApplication extends Application {
     public void onCreate() {
         super.onCreate();
         AttachmentNotification.createChannel(getApplicationContext());
+        BulkOperationNotification.createChannel(getApplicationContext());
+        SyncNotification.createChannel(getApplicationContext());
+        new AndroidConnectivityProvider(this)
+                .registerOnAvailable(SyncScheduler::resetCircuitBreakers);
+        SyncPolicy.getInstance(this)
+                .registerOnRefreshRulesChanged(
+                        () -> new PushManager(this).rescheduleRecurringMainQueryWorkers());
+        // modifications the process did not get to flush before it died
+        STARTUP_EXECUTOR.execute(() -> MutationJournalWorker.dispatchPending(this));
+        // operations on entire queries that were cancelled or failed without getting to run
+        STARTUP_EXECUTOR.execute(() -> QueryMutationWorker.deleteAbandonedBulkOverwrites(this));
         applyThemeSettings();
     }
 
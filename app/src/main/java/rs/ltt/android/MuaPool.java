@@ -1,6 +1,10 @@
 package rs.ltt.android;
 
 import android.content.Context;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -11,6 +15,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import javax.net.ssl.X509TrustManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +27,7 @@ import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountWithCredentials;
 import rs.ltt.autocrypt.jmap.AutocryptPlugin;
 import rs.ltt.jmap.client.session.FileSessionCache;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
 import rs.ltt.jmap.mua.Mua;
 
 public final class MuaPool {
@@ -29,6 +36,8 @@ public final class MuaPool {
 
     private static final Map<AccountWithCredentials, Mua> INSTANCES = new HashMap<>();
 
+    private static final Executor PREWARM_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private MuaPool() {}
 
     public static ListenableFuture<Mua> getInstance(final Context context, final long accountId) {
@@ -71,6 +80,65 @@ public final class MuaPool {
         }
     }
 
+    /**
+     * Builds the Mua and opens a connection to the API ahead of the first request that somebody is
+     * actually waiting for. Does nothing if the Mua for that account already exists.
+     */
+    public static ListenableFuture<Void> prewarm(final Context context, final long accountId) {
+        return Futures.transformAsync(
+                AppDatabase.getInstance(context).accountDao().getAccountFuture(accountId),
+                account -> prewarm(context, account),
+                MoreExecutors.directExecutor());
+    }
+
+    public static ListenableFuture<Void> prewarm(
+            final Context context, final AccountWithCredentials account) {
+        if (!BuildConfig.PREWARM || account == null) {
+            return Futures.immediateVoidFuture();
+        }
+        synchronized (MuaPool.class) {
+            if (INSTANCES.containsKey(account)) {
+                return Futures.immediateVoidFuture();
+            }
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final ListenableFuture<Mua> muaFuture =
+                Futures.submit(() -> getInstance(context, account), PREWARM_EXECUTOR);
+        final ListenableFuture<Void> prewarm =
+                Futures.transformAsync(muaFuture, MuaPool::warmUp, MoreExecutors.directExecutor());
+        Futures.addCallback(
+                prewarm,
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(final Void result) {
+                        LOGGER.info(
+                                "Prewarmed account {} in {}ms",
+                                account.getId(),
+                                SystemClock.elapsedRealtime() - start);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.info("Unable to prewarm account {}", account.getId(), throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        return prewarm;
+    }
+
+    /**
+     * Resolves the session and sends a Core/echo to the API URL. The session usually comes from
+     * the {@link FileSessionCache} without touching the network, so only the echo leaves the
+     * connection pool with an open connection to the server. Nothing is written to the cache.
+     */
+    @VisibleForTesting
+    public static ListenableFuture<Void> warmUp(final Mua mua) {
+        return Futures.transform(
+                mua.getJmapClient().call(EchoMethodCall.builder().build()),
+                methodResponses -> null,
+                MoreExecutors.directExecutor());
+    }
+
     private static X509TrustManager getTrustManagerOrNull(final Context context) {
         try {
             return TrustManagers.createForAndroidVersion(context);
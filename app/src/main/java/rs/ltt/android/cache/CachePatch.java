@@ -0,0 +1,115 @@
+package rs.ltt.android.cache;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Thread;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.call.thread.GetThreadMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.thread.GetThreadMethodResponse;
+import rs.ltt.jmap.mua.Mua;
+
+/**
+ * Writes the outcome of our own mutations into the cache instead of running a full {@link
+ * Mua#refresh()} (identities, mailboxes, email and thread changes) just to pick up a single email.
+ *
+ * <p>Entity states are left untouched. The server announces our own write with a state change
+ * like any other; the Email/changes that follows reports the objects written here and overwrites
+ * them with the same data.
+ */
+public final class CachePatch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachePatch.class);
+
+    private static final String[] MAILBOXES_AND_KEYWORDS =
+            new String[] {"id", "mailboxIds", "keywords"};
+
+    private CachePatch() {}
+
+    /**
+     * @return the thread id of the created email
+     */
+    public static ListenableFuture<String> created(
+            final Mua mua,
+            final LttrsDatabase database,
+            final String accountId,
+            final String emailId) {
+        final GetEmailMethodCall getEmail =
+                GetEmailMethodCall.builder()
+                        .accountId(accountId)
+                        .ids(new String[] {emailId})
+                        .fetchTextBodyValues(true)
+                        .build();
+        final ListenableFuture<Email> emailFuture =
+                Futures.transform(
+                        mua.getJmapClient().call(getEmail),
+                        methodResponses ->
+                                single(
+                                        methodResponses
+                                                .getMain(GetEmailMethodResponse.class)
+                                                .getList(),
+                                        emailId),
+                        MoreExecutors.directExecutor());
+        return Futures.transformAsync(
+                emailFuture,
+                email -> {
+                    final GetThreadMethodCall getThread =
+                            GetThreadMethodCall.builder()
+                                    .accountId(accountId)
+                                    .ids(new String[] {email.getThreadId()})
+                                    .build();
+                    return Futures.transform(
+                            mua.getJmapClient().call(getThread),
+                            methodResponses -> {
+                                final Thread thread =
+                                        single(
+                                                methodResponses
+                                                        .getMain(GetThreadMethodResponse.class)
+                                                        .getList(),
+                                                email.getThreadId());
+                                database.threadAndEmailDao().insertCreated(thread, email);
+                                LOGGER.debug("Patched {} into thread {}", emailId, thread.getId());
+                                return thread.getId();
+                            },
+                            MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /** Picks up the mailboxIds and keywords that EmailSubmission/set changed on success. */
+    public static ListenableFuture<Void> submitted(
+            final Mua mua,
+            final LttrsDatabase database,
+            final String accountId,
+            final String emailId) {
+        final GetEmailMethodCall getEmail =
+                GetEmailMethodCall.builder()
+                        .accountId(accountId)
+                        .ids(new String[] {emailId})
+                        .properties(MAILBOXES_AND_KEYWORDS)
+                        .build();
+        return Futures.transform(
+                mua.getJmapClient().call(getEmail),
+                methodResponses -> {
+                    final Email email =
+                            single(
+                                    methodResponses.getMain(GetEmailMethodResponse.class).getList(),
+                                    emailId);
+                    database.threadAndEmailDao().patchMailboxesAndKeywords(email);
+                    return null;
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private static <T> T single(final T[] list, final String id) {
+        if (list == null || list.length != 1) {
+            throw new IllegalStateException(String.format("Server did not return %s", id));
+        }
+        return list[0];
+    }
+}
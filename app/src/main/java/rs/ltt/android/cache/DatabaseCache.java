@@ -48,10 +48,22 @@ public class DatabaseCache implements Cache {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseCache.class);
 
+    /**
+     * Body values are only ever shown in the thread view. Longer values are stored truncated and
+     * completed when the thread is opened.
+     */
+    public static final int DEFAULT_MAX_BODY_VALUE_LENGTH = 16 * 1024;
+
     private final LttrsDatabase database;
+    private final int maxBodyValueLength;
 
     public DatabaseCache(LttrsDatabase database) {
+        this(database, DEFAULT_MAX_BODY_VALUE_LENGTH);
+    }
+
+    public DatabaseCache(final LttrsDatabase database, final int maxBodyValueLength) {
         this.database = database;
+        this.maxBodyValueLength = maxBodyValueLength;
     }
 
     @Override
@@ -124,7 +136,8 @@ public class DatabaseCache implements Cache {
             final Thread[] threads,
             final TypedState<Email> emailState,
             final Email[] emails) {
-        database.threadAndEmailDao().set(threadState, threads, emailState, emails);
+        database.threadAndEmailDao()
+                .set(threadState, threads, emailState, emails, maxBodyValueLength);
     }
 
     @Override
@@ -133,7 +146,8 @@ public class DatabaseCache implements Cache {
             final Thread[] threads,
             final TypedState<Email> emailState,
             final Email[] emails) {
-        database.threadAndEmailDao().add(threadState, threads, emailState, emails);
+        database.threadAndEmailDao()
+                .add(threadState, threads, emailState, emails, maxBodyValueLength);
     }
 
     @Override
@@ -145,7 +159,7 @@ public class DatabaseCache implements Cache {
     @Override
     public void updateEmails(final Update<Email> update, final String[] updatedProperties)
             throws CacheWriteException {
-        database.threadAndEmailDao().updateEmails(update, updatedProperties);
+        database.threadAndEmailDao().updateEmails(update, updatedProperties, maxBodyValueLength);
     }
 
     @Override
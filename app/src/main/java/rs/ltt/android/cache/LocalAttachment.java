@@ -137,15 +137,23 @@ public class LocalAttachment implements Attachment {
     }
 
     public static File asFile(Context context, final LocalAttachment attachment) {
+        return asFile(context, attachment.uuid);
+    }
+
+    private static File asFile(final Context context, final UUID uuid) {
         final File directory = new File(context.getCacheDir(), LOCAL_ATTACHMENT_DIRECTORY);
         if (directory.mkdirs()) {
             LOGGER.info("Created local attachment directory {}", directory.getAbsolutePath());
         }
-        return new File(directory, attachment.uuid.toString());
+        return new File(directory, uuid.toString());
     }
 
     public static void delete(final Context context, final LocalAttachment attachment) {
-        final File file = asFile(context, attachment);
+        delete(context, attachment.uuid);
+    }
+
+    public static void delete(final Context context, final UUID uuid) {
+        final File file = asFile(context, uuid);
         if (file.delete()) {
             LOGGER.info("Clean up unused file {}", file.getAbsolutePath());
         }
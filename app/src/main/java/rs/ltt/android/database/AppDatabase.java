@@ -22,10 +22,12 @@ import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
 import rs.ltt.android.database.dao.AccountDao;
+import rs.ltt.android.database.dao.MutationDao;
 import rs.ltt.android.database.dao.PushSubscriptionDao;
 import rs.ltt.android.database.dao.SearchSuggestionDao;
 import rs.ltt.android.entity.AccountEntity;
 import rs.ltt.android.entity.CredentialsEntity;
+import rs.ltt.android.entity.MutationEntity;
 import rs.ltt.android.entity.PushSubscriptionEntity;
 import rs.ltt.android.entity.SearchSuggestionEntity;
 
@@ -34,13 +36,15 @@ import rs.ltt.android.entity.SearchSuggestionEntity;
             CredentialsEntity.class,
             AccountEntity.class,
             SearchSuggestionEntity.class,
-            PushSubscriptionEntity.class
+            PushSubscriptionEntity.class,
+            MutationEntity.class
         },
-        version = 4,
+        version = 5,
         autoMigrations = {
             @AutoMigration(from = 1, to = 2),
             @AutoMigration(from = 2, to = 3),
-            @AutoMigration(from = 3, to = 4)
+            @AutoMigration(from = 3, to = 4),
+            @AutoMigration(from = 4, to = 5)
         })
 @TypeConverters(Converters.class)
 public abstract class AppDatabase extends RoomDatabase {
@@ -69,4 +73,6 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract AccountDao accountDao();
 
     public abstract PushSubscriptionDao pushSubscriptionDao();
+
+    public abstract MutationDao mutationDao();
 }
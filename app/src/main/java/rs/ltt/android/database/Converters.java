@@ -23,6 +23,7 @@ import java.time.format.DateTimeFormatter;
 import okhttp3.HttpUrl;
 import rs.ltt.android.entity.EmailAddressType;
 import rs.ltt.android.entity.EmailBodyPartType;
+import rs.ltt.android.entity.MutationEntity;
 import rs.ltt.android.entity.QueryItemOverwriteEntity;
 import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.Role;
@@ -91,6 +92,16 @@ public class Converters {
         return type.toString();
     }
 
+    @TypeConverter
+    public static MutationEntity.Operation toOperation(String operation) {
+        return MutationEntity.Operation.valueOf(operation);
+    }
+
+    @TypeConverter
+    public static String toString(MutationEntity.Operation operation) {
+        return operation.toString();
+    }
+
     @TypeConverter
     public static Instant toInstant(Long timestamp) {
         return timestamp == null ? null : Instant.ofEpochMilli(timestamp);
@@ -38,6 +38,7 @@ import rs.ltt.android.database.dao.QueryDao;
 import rs.ltt.android.database.dao.StateDao;
 import rs.ltt.android.database.dao.ThreadAndEmailDao;
 import rs.ltt.android.entity.AccountStateEntity;
+import rs.ltt.android.entity.BulkOverwriteEntity;
 import rs.ltt.android.entity.EmailBodyPartEntity;
 import rs.ltt.android.entity.EmailBodyValueEntity;
 import rs.ltt.android.entity.EmailEmailAddressEntity;
@@ -49,11 +50,13 @@ import rs.ltt.android.entity.EmailMessageIdEntity;
 import rs.ltt.android.entity.EntityStateEntity;
 import rs.ltt.android.entity.IdentityEmailAddressEntity;
 import rs.ltt.android.entity.IdentityEntity;
+import rs.ltt.android.entity.InitialSyncCheckpointEntity;
 import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxEntity;
 import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.PeerStateEntity;
 import rs.ltt.android.entity.QueryEntity;
+import rs.ltt.android.entity.QueryItemAdditionEntity;
 import rs.ltt.android.entity.QueryItemEntity;
 import rs.ltt.android.entity.QueryItemOverwriteEntity;
 import rs.ltt.android.entity.ThreadEntity;
@@ -81,9 +84,12 @@ import rs.ltt.android.entity.ThreadItemEntity;
             MailboxOverwriteEntity.class,
             QueryItemOverwriteEntity.class,
             AccountStateEntity.class,
-            PeerStateEntity.class
+            PeerStateEntity.class,
+            InitialSyncCheckpointEntity.class,
+            QueryItemAdditionEntity.class,
+            BulkOverwriteEntity.class
         },
-        version = 3)
+        version = 13)
 @TypeConverters(Converters.class)
 public abstract class LttrsDatabase extends RoomDatabase {
 
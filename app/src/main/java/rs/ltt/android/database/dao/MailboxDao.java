@@ -132,17 +132,14 @@ public abstract class MailboxDao extends AbstractEntityDao {
                     + " email_mailbox.emailId=email.id))) > 0 from email where threadId=:threadId")
     public abstract LiveData<Boolean> isAnyNotIn(String threadId, Role role);
 
-    @Query("update mailbox set totalEmails=:value where id=:id")
-    public abstract void updateTotalEmails(String id, Long value);
-
-    @Query("update mailbox set unreadEmails=:value where id=:id")
-    public abstract void updateUnreadEmails(String id, Long value);
-
-    @Query("update mailbox set totalThreads=:value where id=:id")
-    public abstract void updateTotalThreads(String id, Long value);
-
-    @Query("update mailbox set unreadThreads=:value where id=:id")
-    public abstract void updateUnreadThreads(String id, Long value);
+    // counts that have not been updated are passed as null and keep their current value
+    @Query(
+            "update mailbox set totalEmails=coalesce(:totalEmails,totalEmails),"
+                    + " unreadEmails=coalesce(:unreadEmails,unreadEmails),"
+                    + " totalThreads=coalesce(:totalThreads,totalThreads),"
+                    + " unreadThreads=coalesce(:unreadThreads,unreadThreads) where id=:id")
+    abstract void updateCounts(
+            String id, Long totalEmails, Long unreadEmails, Long totalThreads, Long unreadThreads);
 
     @Query("delete from mailbox where id=:id")
     public abstract void delete(String id);
@@ -180,27 +177,38 @@ public abstract class MailboxDao extends AbstractEntityDao {
             }
             update(updatedEntities);
         } else {
-            for (Mailbox mailbox : update.getUpdated()) {
-                for (String property : updatedProperties) {
-                    switch (property) {
-                        case "totalEmails":
-                            updateTotalEmails(mailbox.getId(), mailbox.getTotalEmails());
-                            break;
-                        case "unreadEmails":
-                            updateUnreadEmails(mailbox.getId(), mailbox.getUnreadEmails());
-                            break;
-                        case "totalThreads":
-                            updateTotalThreads(mailbox.getId(), mailbox.getTotalThreads());
-                            break;
-                        case "unreadThreads":
-                            updateUnreadThreads(mailbox.getId(), mailbox.getUnreadThreads());
-                            break;
-                        default:
-                            throw new IllegalArgumentException(
-                                    "Unable to update property '" + property + "'");
-                    }
+            boolean totalEmails = false;
+            boolean unreadEmails = false;
+            boolean totalThreads = false;
+            boolean unreadThreads = false;
+            for (String property : updatedProperties) {
+                switch (property) {
+                    case "totalEmails":
+                        totalEmails = true;
+                        break;
+                    case "unreadEmails":
+                        unreadEmails = true;
+                        break;
+                    case "totalThreads":
+                        totalThreads = true;
+                        break;
+                    case "unreadThreads":
+                        unreadThreads = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Unable to update property '" + property + "'");
                 }
             }
+            // one statement per mailbox instead of one per property and mailbox
+            for (Mailbox mailbox : update.getUpdated()) {
+                updateCounts(
+                        mailbox.getId(),
+                        totalEmails ? mailbox.getTotalEmails() : null,
+                        unreadEmails ? mailbox.getUnreadEmails() : null,
+                        totalThreads ? mailbox.getTotalThreads() : null,
+                        unreadThreads ? mailbox.getUnreadThreads() : null);
+            }
         }
         for (String id : update.getDestroyed()) {
             delete(id);
@@ -0,0 +1,29 @@
+package rs.ltt.android.database.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import java.util.Collection;
+import java.util.List;
+import rs.ltt.android.entity.MutationEntity;
+
+@Dao
+public abstract class MutationDao {
+
+    @Insert
+    public abstract void insert(Collection<MutationEntity> mutations);
+
+    @Query("select * from mutation where accountId=:accountId order by id")
+    public abstract List<MutationEntity> getMutations(long accountId);
+
+    @Query("select distinct accountId from mutation")
+    public abstract List<Long> getAccountIds();
+
+    @Query("delete from mutation where id in (:ids)")
+    public abstract int delete(Collection<Long> ids);
+
+    @Query(
+            "delete from mutation where accountId=:accountId and operation='MOVE_TO_TRASH' and"
+                    + " threadId in (:threadIds)")
+    public abstract int deleteMoveToTrash(long accountId, Collection<String> threadIds);
+}
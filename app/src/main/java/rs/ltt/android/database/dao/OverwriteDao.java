@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.android.entity.BulkOverwriteEntity;
 import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.QueryItemOverwriteEntity;
@@ -60,6 +61,10 @@ public abstract class OverwriteDao {
     @Query("delete from query_item_overwrite where threadId in (:threadIds)")
     public abstract int deleteQueryOverwritesByThread(Collection<String> threadIds);
 
+    @Query("delete from query_item_overwrite where threadId in (:threadIds) and type=:type")
+    protected abstract int deleteQueryOverwritesByThread(
+            Collection<String> threadIds, QueryItemOverwriteEntity.Type type);
+
     @Query("delete from mailbox_overwrite where threadId=:threadId")
     protected abstract int deleteMailboxOverwritesByThread(String threadId);
 
@@ -69,6 +74,9 @@ public abstract class OverwriteDao {
     @Query("delete from keyword_overwrite where threadId=:threadId")
     protected abstract int deleteKeywordOverwritesByThread(String threadId);
 
+    @Query("delete from keyword_overwrite where threadId in (:threadIds)")
+    protected abstract int deleteKeywordOverwritesByThread(Collection<String> threadIds);
+
     @Transaction
     public void revertKeywordOverwrites(final String threadId) {
         final int keywordOverwrites = deleteKeywordOverwritesByThread(threadId);
@@ -97,6 +105,34 @@ public abstract class OverwriteDao {
         }
     }
 
+    @Transaction
+    public void revertKeywordOverwrites(final Collection<String> threadIds) {
+        final int keywordOverwrites = deleteKeywordOverwritesByThread(threadIds);
+        final int queryOverwrites =
+                deleteQueryOverwritesByThread(threadIds, QueryItemOverwriteEntity.Type.KEYWORD);
+        if (keywordOverwrites > 0 || queryOverwrites > 0) {
+            LOGGER.info(
+                    "Deleted {} keyword overwrites and {} query overwrites for {} threads",
+                    keywordOverwrites,
+                    queryOverwrites,
+                    threadIds.size());
+        }
+    }
+
+    @Transaction
+    public void revertMailboxOverwrites(final Collection<String> threadIds) {
+        final int mailboxOverwrites = deleteMailboxOverwritesByThread(threadIds);
+        final int queryOverwrites =
+                deleteQueryOverwritesByThread(threadIds, QueryItemOverwriteEntity.Type.MAILBOX);
+        if (mailboxOverwrites > 0 || queryOverwrites > 0) {
+            LOGGER.info(
+                    "Deleted {} mailbox overwrites and {} query overwrites for {} threads",
+                    mailboxOverwrites,
+                    queryOverwrites,
+                    threadIds.size());
+        }
+    }
+
     @Transaction
     public void revertMoveToTrashOverwrites(final Collection<String> threadIds) {
         final int mailboxOverwrites = deleteMailboxOverwritesByThread(threadIds);
@@ -110,6 +146,41 @@ public abstract class OverwriteDao {
         }
     }
 
+    @Insert(onConflict = REPLACE)
+    protected abstract void insert(BulkOverwriteEntity bulkOverwriteEntity);
+
+    @Query(
+            "delete from keyword_overwrite where keyword=:keyword and threadId in (select"
+                    + " query_item.threadId from `query` join query_item on `query`.id ="
+                    + " query_item.queryId where queryString=:queryString)")
+    protected abstract int deleteKeywordOverwritesByQuery(String queryString, String keyword);
+
+    /**
+     * Replaces the overwrites of individual threads in that query that refer to the same keyword so
+     * that the bulk overwrite is what is being displayed.
+     */
+    @Transaction
+    public void insertBulkOverwrite(final BulkOverwriteEntity bulkOverwriteEntity) {
+        if (bulkOverwriteEntity.argument != null) {
+            final int keywordOverwrites =
+                    deleteKeywordOverwritesByQuery(
+                            bulkOverwriteEntity.queryString, bulkOverwriteEntity.argument);
+            if (keywordOverwrites > 0) {
+                LOGGER.info(
+                        "Replaced {} keyword overwrites with {}",
+                        keywordOverwrites,
+                        bulkOverwriteEntity);
+            }
+        }
+        insert(bulkOverwriteEntity);
+    }
+
+    @Query("delete from bulk_overwrite where queryString=:queryString")
+    public abstract int deleteBulkOverwrite(String queryString);
+
+    @Query("select queryString from bulk_overwrite")
+    public abstract List<String> getBulkOverwriteQueries();
+
     @Query("select * from keyword_overwrite where threadId=:threadId")
     public abstract ListenableFuture<KeywordOverwriteEntity> getKeywordOverwrite(String threadId);
 
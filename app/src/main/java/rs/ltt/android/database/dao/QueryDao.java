@@ -17,21 +17,29 @@ package rs.ltt.android.database.dao;
 
 import static androidx.room.OnConflictStrategy.REPLACE;
 
-import androidx.paging.DataSource;
+import androidx.paging.ListenableFuturePagingSource;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
 import androidx.room.Transaction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.util.List;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.android.entity.AddedQueryItem;
 import rs.ltt.android.entity.QueryEntity;
 import rs.ltt.android.entity.QueryItem;
+import rs.ltt.android.entity.QueryItemAddition;
+import rs.ltt.android.entity.QueryItemAdditionEntity;
 import rs.ltt.android.entity.QueryItemEntity;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.jmap.common.entity.AddedItem;
 import rs.ltt.jmap.common.entity.Email;
 import rs.ltt.jmap.common.entity.TypedState;
+import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.mua.cache.QueryUpdate;
 import rs.ltt.jmap.mua.cache.exception.CacheConflictException;
 import rs.ltt.jmap.mua.cache.exception.CorruptCacheException;
@@ -43,6 +51,9 @@ public abstract class QueryDao extends AbstractEntityDao {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryDao.class);
 
+    // additions nobody acknowledges (queries without notifications) are kept to this many per query
+    private static final int MAX_ADDITIONS_PER_QUERY = 100;
+
     @Insert(onConflict = REPLACE)
     abstract long insert(QueryEntity entity);
 
@@ -52,8 +63,15 @@ public abstract class QueryDao extends AbstractEntityDao {
     @Insert
     abstract void insert(QueryItemEntity entity);
 
-    @Query("delete from query_item_overwrite where executed=1 and queryId=:queryId")
-    abstract int deleteAllExecuted(Long queryId);
+    @Insert
+    abstract void insert(QueryItemAdditionEntity entity);
+
+    // executed overwrites only hide threads as long as the cache agrees with them. Once the thread
+    // is no longer in any query there is nothing left to hide
+    @Query(
+            "delete from query_item_overwrite where executed=1 and not exists (select 1 from"
+                    + " query_item where query_item.threadId=query_item_overwrite.threadId)")
+    abstract int deleteUnusedExecuted();
 
     @Query("select * from `query` where queryString=:queryString and valid=1 limit 1")
     public abstract QueryEntity get(String queryString);
@@ -66,6 +84,11 @@ public abstract class QueryDao extends AbstractEntityDao {
     @Query("select count(id) from query_item where queryId=:queryId")
     abstract int getItemCount(Long queryId);
 
+    @Query(
+            "select count(query_item.id) from `query` join query_item on `query`.id ="
+                    + " query_item.queryId where queryString=:queryString")
+    public abstract int getItemCount(String queryString);
+
     @Query(
             "select case when exists(select query_item.id from `query` join query_item on"
                 + " `query`.id = query_item.queryId where queryString=:queryString) then 0 else 1"
@@ -75,24 +98,67 @@ public abstract class QueryDao extends AbstractEntityDao {
     @Query("delete from `query` where queryString=:queryString")
     abstract void deleteQuery(String queryString);
 
+    /**
+     * The overwrites that apply to the query are derived from its filter. Mailbox queries are
+     * affected by threads being removed from that mailbox, keyword queries by the keyword being
+     * removed and every query but the one of the trash by threads being moved to trash.
+     */
+    public ListenableFuturePagingSource<Integer, ThreadOverviewItem> getThreadOverviewItems(
+            final EmailQuery emailQuery) {
+        final String mailboxId;
+        final String keyword;
+        if (emailQuery.filter instanceof EmailFilterCondition) {
+            final EmailFilterCondition condition = (EmailFilterCondition) emailQuery.filter;
+            mailboxId = condition.getInMailbox();
+            keyword = condition.getHasKeyword();
+        } else {
+            mailboxId = null;
+            keyword = null;
+        }
+        return getThreadOverviewItems(emailQuery.asHash(), mailboxId, keyword);
+    }
+
     // we inner join on threads here to make sure that we only return items that we actually have
     // due to the delay of fetchMissing we might have query_items that we do not have a
-    // corresponding thread for
+    // corresponding thread for. An archive of the entire query hides all of its items.
+    // Executed overwrites only apply while the cached emails of the thread agree with them.
+    // A trash overwrite made before the trash existed refers to the trash by role.
     @Transaction
     @Query(
-            "select query_item.threadId,query_item.emailId from `query` join query_item on"
-                    + " `query`.id = query_item.queryId inner join thread on"
-                    + " query_item.threadId=thread.threadId where queryString=:queryString  and "
-                    + " query_item.threadId not in (select threadId from query_item_overwrite where"
-                    + " queryId=`query`.id) order by position asc")
-    public abstract DataSource.Factory<Integer, ThreadOverviewItem> getThreadOverviewItems(
-            String queryString);
+            "select query_item.threadId,query_item.emailId,bulk_overwrite.queryString as"
+                + " bulk_queryString,bulk_overwrite.operation as"
+                + " bulk_operation,bulk_overwrite.argument as bulk_argument from `query` join"
+                + " query_item on `query`.id = query_item.queryId inner join thread on"
+                + " query_item.threadId=thread.threadId left join bulk_overwrite on"
+                + " bulk_overwrite.queryString=`query`.queryString where"
+                + " `query`.queryString=:queryString and not exists (select 1 from"
+                + " query_item_overwrite o where o.threadId=query_item.threadId and"
+                + " ((o.type='MAILBOX' and o.value=:mailboxId) or (o.type='KEYWORD' and"
+                + " o.value=:keyword) or (o.type='TRASH' and o.value!=ifnull(:mailboxId,'') and"
+                + " ifnull(:mailboxId,'') not in (select id from mailbox where role=o.value))) and"
+                + " (o.executed=0 or not exists (select 1 from email where"
+                + " email.threadId=o.threadId and case o.type when 'KEYWORD' then exists (select"
+                + " 1 from email_keyword k where k.emailId=email.id and k.keyword=o.value) when"
+                + " 'MAILBOX' then exists (select 1 from email_mailbox m where m.emailId=email.id"
+                + " and m.mailboxId=o.value) else exists (select 1 from email_mailbox m where"
+                + " m.emailId=email.id and m.mailboxId!=o.value and m.mailboxId not in (select"
+                + " id from mailbox where role=o.value)) end))) and"
+                + " (bulk_overwrite.operation is null or bulk_overwrite.operation != 'ARCHIVE')"
+                + " order by position asc")
+    protected abstract ListenableFuturePagingSource<Integer, ThreadOverviewItem>
+            getThreadOverviewItems(String queryString, String mailboxId, String keyword);
 
     @Query(
             "select query_item.emailId from `query` join query_item on `query`.id ="
                     + " query_item.queryId where queryString=:queryString order by position asc")
     public abstract List<String> getEmailIds(final String queryString);
 
+    @Query(
+            "select query_item.emailId from `query` join query_item on `query`.id ="
+                    + " query_item.queryId where queryString=:queryString order by position desc"
+                    + " limit 1")
+    public abstract String getLastEmailId(final String queryString);
+
     @Transaction
     public void set(String queryString, QueryResult queryResult) {
         TypedState<Email> emailState = queryResult.objectState;
@@ -181,7 +247,24 @@ public abstract class QueryDao extends AbstractEntityDao {
     abstract int updateQueryState(Long queryId, String newState, String oldState);
 
     @Query("select state from `query` where queryString=:queryString")
-    abstract String getQueryState(String queryString);
+    public abstract String getQueryState(String queryString);
+
+    @Query(
+            "select query_item_addition.id,emailId,query_item_addition.queryState from `query`"
+                    + " join query_item_addition on `query`.id = query_item_addition.queryId where"
+                    + " queryString=:queryString order by query_item_addition.id")
+    public abstract List<QueryItemAddition> getAdditions(String queryString);
+
+    @Query(
+            "delete from query_item_addition where queryId=(select id from `query` where"
+                    + " queryString=:queryString) and id<=:id")
+    public abstract int acknowledgeAdditions(String queryString, Long id);
+
+    @Query(
+            "delete from query_item_addition where queryId=:queryId and id<=(select id from"
+                    + " query_item_addition where queryId=:queryId order by id desc limit 1 offset"
+                    + " :keep)")
+    abstract int trimAdditions(Long queryId, int keep);
 
     @Transaction
     public void updateQueryResults(
@@ -189,40 +272,101 @@ public abstract class QueryDao extends AbstractEntityDao {
             QueryUpdate<Email, QueryResultItem> queryUpdate,
             final TypedState<Email> emailState) {
         final String newState = queryUpdate.getNewTypedState().getState();
-        final String oldState = queryUpdate.getOldTypedState().getState();
         if (newState.equals(getQueryState(queryString))) {
             LOGGER.debug("nothing to do. query already at newest state");
             return;
         }
         throwOnCacheConflict(Email.class, emailState);
+        final ImmutableList.Builder<AddedQueryItem> added = new ImmutableList.Builder<>();
+        for (final AddedItem<QueryResultItem> addedItem : queryUpdate.getAdded()) {
+            final QueryResultItem item = addedItem.getItem();
+            added.add(
+                    new AddedQueryItem(
+                            addedItem.getIndex(), item.getEmailId(), item.getThreadId()));
+        }
+        writeQueryChanges(
+                queryString,
+                queryUpdate.getOldTypedState().getState(),
+                newState,
+                queryUpdate.getRemoved(),
+                added.build());
+    }
+
+    /**
+     * Applies the result of an Email/queryChanges that was not issued by Mua. The caller is
+     * responsible for making sure all added emails are cached.
+     *
+     * @return false if the query is not cached or is no longer at oldState
+     */
+    @Transaction
+    public boolean applyQueryChanges(
+            final String queryString,
+            final String oldState,
+            final String newState,
+            final String[] removed,
+            final List<AddedQueryItem> added) {
+        if (newState.equals(getQueryState(queryString))) {
+            LOGGER.debug("nothing to do. query already at newest state");
+            return true;
+        }
+        if (!oldState.equals(getQueryState(queryString))) {
+            return false;
+        }
+        writeQueryChanges(queryString, oldState, newState, removed, added);
+        return true;
+    }
+
+    private void writeQueryChanges(
+            final String queryString,
+            final String oldState,
+            final String newState,
+            final String[] removedEmailIds,
+            final List<AddedQueryItem> added) {
         final QueryEntity queryEntity = getQueryEntity(queryString);
 
-        final int count = deleteAllExecuted(queryEntity.id);
+        final int count = deleteUnusedExecuted();
         LOGGER.debug("deleted {} query overwrites", count);
 
-        for (String emailId : queryUpdate.getRemoved()) {
+        for (String emailId : removedEmailIds) {
             LOGGER.debug("deleting emailId=" + emailId + " from queryId=" + queryEntity.id);
             decrementAllPositionsFrom(queryEntity.id, emailId);
             deleteQueryItem(queryEntity.id, emailId);
         }
-        for (AddedItem<QueryResultItem> addedItem : queryUpdate.getAdded()) {
+        final Set<String> removed = ImmutableSet.copyOf(removedEmailIds);
+        // Only emails added on top of the list are logged as additions. The first email that was
+        // in the query before (an older email moved into the query or one that was only moved
+        // within it) ends the run. Added items are sorted by index
+        int top = 0;
+        for (final AddedQueryItem addedItem : added) {
             LOGGER.debug("adding item {}", addedItem);
             LOGGER.debug(
                     "increment all positions where queryId={} and position={}",
                     queryEntity.id,
-                    addedItem.getIndex());
+                    addedItem.index);
 
-            if (incrementAllPositionsFrom(queryEntity.id, addedItem.getIndex()) == 0
-                    && getItemCount(queryEntity.id) != addedItem.getIndex()) {
-                LOGGER.debug("ignoring query item change at position = {}", addedItem.getIndex());
+            if (incrementAllPositionsFrom(queryEntity.id, addedItem.index) == 0
+                    && getItemCount(queryEntity.id) != addedItem.index) {
+                LOGGER.debug("ignoring query item change at position = {}", addedItem.index);
                 continue;
             }
             LOGGER.debug(
                     "insert queryItemEntity on position {} and id={}",
-                    addedItem.getIndex(),
+                    addedItem.index,
                     queryEntity.id);
-            insert(QueryItemEntity.of(queryEntity.id, addedItem.getIndex(), addedItem.getItem()));
+            insert(
+                    new QueryItemEntity(
+                            queryEntity.id,
+                            addedItem.index,
+                            addedItem.emailId,
+                            addedItem.threadId));
+            if (top == addedItem.index && !removed.contains(addedItem.emailId)) {
+                insert(new QueryItemAdditionEntity(queryEntity.id, addedItem.emailId, newState));
+                top++;
+            } else {
+                top = -1;
+            }
         }
+        trimAdditions(queryEntity.id, MAX_ADDITIONS_PER_QUERY);
 
         if (updateQueryState(queryEntity.id, newState, oldState) != 1) {
             throw new CacheConflictException(
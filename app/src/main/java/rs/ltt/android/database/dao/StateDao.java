@@ -16,12 +16,15 @@
 package rs.ltt.android.database.dao;
 
 import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Transaction;
 import com.google.common.collect.ImmutableList;
 import java.util.Arrays;
 import java.util.List;
 import rs.ltt.android.entity.EntityStateEntity;
+import rs.ltt.android.entity.InitialSyncCheckpointEntity;
 import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.Email;
 import rs.ltt.jmap.common.entity.Mailbox;
@@ -36,6 +39,15 @@ public abstract class StateDao {
     public abstract List<EntityStateEntity> getEntityStates(
             List<Class<? extends AbstractIdentifiableEntity>> types);
 
+    @Query("select state,type from entity_state")
+    public abstract List<EntityStateEntity> getEntityStates();
+
+    @Query("select * from initial_sync_checkpoint where step=:step")
+    public abstract InitialSyncCheckpointEntity getCheckpoint(String step);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void insert(InitialSyncCheckpointEntity checkpoint);
+
     public ObjectsState getObjectsState() {
         final List<EntityStateEntity> entityStates =
                 getEntityStates(Arrays.asList(Email.class, Mailbox.class, Thread.class));
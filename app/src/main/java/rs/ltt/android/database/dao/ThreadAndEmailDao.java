@@ -24,9 +24,20 @@ import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Transaction;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.entity.DownloadableBlob;
@@ -39,10 +50,10 @@ import rs.ltt.android.entity.EmailKeywordEntity;
 import rs.ltt.android.entity.EmailMailboxEntity;
 import rs.ltt.android.entity.EmailMessageIdEntity;
 import rs.ltt.android.entity.EmailWithBodies;
-import rs.ltt.android.entity.EmailWithBodiesAndSubject;
 import rs.ltt.android.entity.EmailWithEncryptionStatus;
 import rs.ltt.android.entity.EmailWithKeywords;
 import rs.ltt.android.entity.EmailWithMailboxes;
+import rs.ltt.android.entity.EmailWithPreviewAndSubject;
 import rs.ltt.android.entity.EmailWithReferences;
 import rs.ltt.android.entity.EncryptedEmail;
 import rs.ltt.android.entity.EncryptionStatus;
@@ -63,6 +74,12 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThreadAndEmailDao.class);
 
+    // one page of the thread list; the first chunk covers everything that is visible at first
+    public static final int MISSING_CHUNK_SIZE = 30;
+
+    // stays well below SQLite's limit of 999 bound parameters per statement
+    private static final int MAX_BATCH_SIZE = 500;
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     abstract void insert(ThreadEntity entity);
 
@@ -128,14 +145,31 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
         throwOnUpdateConflict(Thread.class, update.getOldTypedState(), update.getNewTypedState());
     }
 
+    /**
+     * Threads referenced by the query but not yet in the cache; the ones closest to the top of the
+     * list come first. The lookup walks query_item in position order (index on queryId, position)
+     * and probes the thread primary key for each item.
+     */
     @Query(
-            " select threadId from `query` join query_item on `query`.id = queryId where threadId"
-                    + " not in(select thread.threadId from thread) and queryString=:queryString")
-    public abstract List<String> getMissingThreadIds(String queryString);
+            "select query_item.threadId from `query` join query_item on `query`.id ="
+                    + " query_item.queryId left join thread on thread.threadId ="
+                    + " query_item.threadId where queryString=:queryString and thread.threadId is"
+                    + " null order by query_item.position limit :limit")
+    public abstract List<String> getMissingThreadIds(String queryString, int limit);
 
+    @Query(
+            "select count(*) from `query` join query_item on `query`.id = query_item.queryId left"
+                    + " join thread on thread.threadId = query_item.threadId where"
+                    + " queryString=:queryString and thread.threadId is null")
+    public abstract int getMissingThreadCount(String queryString);
+
+    /**
+     * Hands out missing threads one chunk at a time. Mua fetches and commits the chunk it gets
+     * here; the remaining threads are picked up by the next query call.
+     */
     @Transaction
     public Missing getMissing(String queryString) {
-        final List<String> ids = getMissingThreadIds(queryString);
+        final List<String> ids = getMissingThreadIds(queryString, MISSING_CHUNK_SIZE);
         final String threadState = getState(Thread.class);
         final String emailState = getState(Email.class);
         return new Missing(threadState, emailState, ids);
@@ -174,6 +208,21 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Insert
     abstract void insertKeywords(List<EmailKeywordEntity> entities);
 
+    @Delete
+    abstract void deleteMailboxes(List<EmailMailboxEntity> entities);
+
+    @Delete
+    abstract void deleteKeywords(List<EmailKeywordEntity> entities);
+
+    @Query("select * from email_mailbox where emailId in (:emailIds)")
+    abstract List<EmailMailboxEntity> getMailboxes(Collection<String> emailIds);
+
+    @Query("select * from email_keyword where emailId in (:emailIds)")
+    abstract List<EmailKeywordEntity> getKeywords(Collection<String> emailIds);
+
+    @Query("select id from email where id in (:emailIds)")
+    abstract List<String> getExistingEmailIds(Collection<String> emailIds);
+
     @Insert
     abstract void insertEmailBodyValues(List<EmailBodyValueEntity> entities);
 
@@ -202,6 +251,10 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("select id from email where threadId=:threadId")
     public abstract List<EmailWithKeywords> getEmailsWithKeywords(String threadId);
 
+    @Transaction
+    @Query("select id from email where threadId in (:threadIds)")
+    public abstract List<EmailWithKeywords> getEmailsWithKeywords(Collection<String> threadIds);
+
     @Transaction
     @Query("select id from email where threadId=:threadId")
     public abstract List<EmailWithMailboxes> getEmailsWithMailboxes(String threadId);
@@ -245,11 +298,19 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("select emailId from thread_item where threadId in (:threadIds)")
     public abstract ListenableFuture<List<String>> getEmailIds(final Collection<String> threadIds);
 
+    @Query(
+            "select distinct email.id from email join email_body_value on"
+                    + " email.id=email_body_value.emailId where email.threadId=:threadId and"
+                    + " email_body_value.isTruncated=1")
+    public abstract ListenableFuture<List<String>> getEmailIdsWithTruncatedBodyValues(
+            final String threadId);
+
     @Transaction
     @Query(
-            "select id,receivedAt,sentAt,threadId,subject,encryptionStatus from email where id in"
-                    + " (:emailIds)")
-    public abstract List<EmailWithBodiesAndSubject> getEmails(Collection<String> emailIds);
+            "select id,receivedAt,sentAt,threadId,subject,preview,encryptionStatus from email where"
+                    + " id in (:emailIds)")
+    public abstract List<EmailWithPreviewAndSubject> getEmailsWithPreview(
+            Collection<String> emailIds);
 
     // TODO remove 'preview'. 'receivedAt' is strictly speaking not necessary currently but might be
     // needed in the future for quoting the original email
@@ -285,37 +346,38 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("delete from email")
     abstract void deleteAllEmail();
 
-    private void set(final Email[] emails, final String state) {
+    private void set(final Email[] emails, final String state, final int maxBodyValueLength) {
         deleteAllEmail();
         if (emails.length > 0) {
-            insertEmails(emails);
+            insertEmails(emails, maxBodyValueLength);
         }
         insert(new EntityStateEntity(Email.class, state));
     }
 
     @Query(
-            "delete from keyword_overwrite where threadId=(select threadId from email where"
-                    + " id=:emailId)")
-    protected abstract void deleteKeywordToggle(String emailId);
+            "delete from keyword_overwrite where threadId in (select threadId from email where id"
+                    + " in (:emailIds))")
+    protected abstract void deleteKeywordToggles(Collection<String> emailIds);
 
     @Query(
-            "delete from mailbox_overwrite where threadId=(select threadId from email where"
-                    + " id=:emailId)")
-    protected abstract void deleteMailboxOverwrite(String emailId);
+            "delete from mailbox_overwrite where threadId in (select threadId from email where id"
+                    + " in (:emailIds))")
+    protected abstract void deleteMailboxOverwrites(Collection<String> emailIds);
 
     @Query(
-            "update query_item_overwrite set executed=1 where executed=0 and threadId IN(select"
-                    + " email.threadid from email where email.id=:emailId)")
-    protected abstract int markAsExecuted(String emailId);
+            "update query_item_overwrite set executed=1 where executed=0 and threadId in (select"
+                    + " email.threadid from email where email.id in (:emailIds))")
+    protected abstract int markAsExecuted(Collection<String> emailIds);
 
     @Transaction
     public void add(
             final TypedState<Thread> expectedThreadState,
             Thread[] threads,
             final TypedState<Email> expectedEmailState,
-            final Email[] emails) {
+            final Email[] emails,
+            final int maxBodyValueLength) {
         add(expectedThreadState, threads);
-        add(expectedEmailState, emails);
+        add(expectedEmailState, emails, maxBodyValueLength);
     }
 
     @Transaction
@@ -323,14 +385,16 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
             final TypedState<Thread> threadState,
             Thread[] threads,
             final TypedState<Email> emailState,
-            final Email[] emails) {
+            final Email[] emails,
+            final int maxBodyValueLength) {
         set(threads, threadState.getState());
-        set(emails, emailState.getState());
+        set(emails, emailState.getState(), maxBodyValueLength);
     }
 
-    private void add(final TypedState<Email> expectedState, Email[] email) {
+    private void add(
+            final TypedState<Email> expectedState, Email[] email, final int maxBodyValueLength) {
         if (email.length > 0) {
-            insertEmails(email);
+            insertEmails(email, maxBodyValueLength);
         }
         throwOnCacheConflict(Email.class, expectedState);
     }
@@ -338,7 +402,47 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("SELECT EXISTS(SELECT 1 FROM email WHERE id=:emailId)")
     protected abstract boolean emailExists(String emailId);
 
-    private void insertEmails(final Email[] emails) {
+    /**
+     * Inserts an email that we have just created along with its thread. Unlike {@link #add} this
+     * neither checks nor advances the entity states. The next Email/changes and Thread/changes
+     * report the same objects and simply overwrite them.
+     *
+     * <p>Replacing an existing thread would cascade into its items. Like {@link #update} only the
+     * items of a known thread are rewritten.
+     */
+    @Transaction
+    public void insertCreated(final Thread thread, final Email email) {
+        if (threadExists(thread.getId())) {
+            deleteAllThreadItem(thread.getId());
+            insert(ThreadItemEntity.of(thread));
+        } else {
+            insertThreads(new Thread[] {thread});
+        }
+        insertEmails(new Email[] {email}, Integer.MAX_VALUE);
+    }
+
+    /** Removes an email the client destroyed itself ahead of the next Email/changes. */
+    public void deleteDestroyed(final String emailId) {
+        deleteEmail(emailId);
+    }
+
+    @Transaction
+    public void patchMailboxesAndKeywords(final Email email) {
+        if (!emailExists(email.getId())) {
+            LOGGER.debug("Not patching {}. Email is not in cache", email.getId());
+            return;
+        }
+        deleteKeywords(email.getId());
+        insertKeywords(EmailKeywordEntity.of(email));
+        deleteMailboxes(email.getId());
+        insertMailboxes(EmailMailboxEntity.of(email));
+    }
+
+    /**
+     * The preview is taken from the complete body values before they are cut to
+     * maxBodyValueLength.
+     */
+    private void insertEmails(final Email[] emails, final int maxBodyValueLength) {
         for (final Email email : emails) {
             final List<EmailBodyPartEntity> bodyPartEntities = EmailBodyPartEntity.of(email);
             final List<EmailBodyValueEntity> bodyValueEntities = EmailBodyValueEntity.of(email);
@@ -353,12 +457,16 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
             insertMailboxes(EmailMailboxEntity.of(email));
             insertKeywords(EmailKeywordEntity.of(email));
             insertEmailBodyParts(bodyPartEntities);
-            insertEmailBodyValues(bodyValueEntities);
+            insertEmailBodyValues(
+                    EmailBodyValueEntity.truncate(bodyValueEntities, maxBodyValueLength));
         }
     }
 
     @Transaction
-    public void updateEmails(final Update<Email> update, final String[] updatedProperties) {
+    public void updateEmails(
+            final Update<Email> update,
+            final String[] updatedProperties,
+            final int maxBodyValueLength) {
         final String newState = update.getNewTypedState().getState();
         if (newState != null && newState.equals(getState(Email.class))) {
             LOGGER.debug("nothing to do. emails already at newest state");
@@ -366,33 +474,10 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
         }
         final Email[] created = update.getCreated();
         if (created.length > 0) {
-            insertEmails(created);
+            insertEmails(created, maxBodyValueLength);
         }
         if (updatedProperties != null) {
-            for (final Email email : update.getUpdated()) {
-                if (!emailExists(email.getId())) {
-                    LOGGER.warn(
-                            "skipping updates to email {} because we don’t have that",
-                            email.getId());
-                    continue;
-                }
-                for (final String property : updatedProperties) {
-                    switch (property) {
-                        case "keywords":
-                            deleteKeywords(email.getId());
-                            insertKeywords(EmailKeywordEntity.of(email));
-                            break;
-                        case "mailboxIds":
-                            deleteMailboxes(email.getId());
-                            insertMailboxes(EmailMailboxEntity.of(email));
-                            break;
-                        default:
-                            throw new IllegalArgumentException(
-                                    "Unable to update property '" + property + "'");
-                    }
-                }
-                deleteOverwrites(email.getId());
-            }
+            updateKeywordsAndMailboxes(Arrays.asList(update.getUpdated()), updatedProperties);
         }
         for (final String id : update.getDestroyed()) {
             deleteEmail(id);
@@ -400,15 +485,121 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
         throwOnUpdateConflict(Email.class, update.getOldTypedState(), update.getNewTypedState());
     }
 
-    private void deleteOverwrites(final String emailId) {
-        deleteKeywordToggle(emailId);
-        deleteMailboxOverwrite(emailId);
-        final int executed = markAsExecuted(emailId);
+    /**
+     * Applies keyword and mailbox changes in batches. The rows of a batch are compared to what is
+     * currently stored and only the difference is written. Marking thousands of emails as read
+     * inserts one keyword row per email instead of rewriting every keyword and mailbox row.
+     */
+    @Transaction
+    public void updateKeywordsAndMailboxes(
+            final Collection<Email> updated, final String[] updatedProperties) {
+        boolean keywords = false;
+        boolean mailboxIds = false;
+        for (final String property : updatedProperties) {
+            switch (property) {
+                case "keywords":
+                    keywords = true;
+                    break;
+                case "mailboxIds":
+                    mailboxIds = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unable to update property '" + property + "'");
+            }
+        }
+        for (final List<Email> batch : Iterables.partition(updated, MAX_BATCH_SIZE)) {
+            final Map<String, Email> emails = Maps.uniqueIndex(batch, Email::getId);
+            final Set<String> existing =
+                    ImmutableSet.copyOf(getExistingEmailIds(emails.keySet()));
+            if (existing.size() < emails.size()) {
+                LOGGER.warn(
+                        "skipping updates to {} emails because we don't have those",
+                        emails.size() - existing.size());
+            }
+            final Collection<Email> cached = Maps.filterKeys(emails, existing::contains).values();
+            if (keywords) {
+                updateKeywords(existing, cached);
+            }
+            if (mailboxIds) {
+                updateMailboxes(existing, cached);
+            }
+            deleteOverwrites(existing);
+        }
+    }
+
+    private void updateKeywords(final Collection<String> emailIds, final Collection<Email> emails) {
+        final SetMultimap<String, String> current = HashMultimap.create();
+        for (final EmailKeywordEntity entity : getKeywords(emailIds)) {
+            current.put(entity.emailId, entity.keyword);
+        }
+        final List<EmailKeywordEntity> added = new ArrayList<>();
+        final List<EmailKeywordEntity> removed = new ArrayList<>();
+        for (final Email email : emails) {
+            final Map<String, Boolean> keywords = email.getKeywords();
+            final Set<String> target =
+                    keywords == null ? Collections.emptySet() : keywords.keySet();
+            final Set<String> stored = current.get(email.getId());
+            for (final String keyword : Sets.difference(target, stored)) {
+                added.add(new EmailKeywordEntity(email.getId(), keyword));
+            }
+            for (final String keyword : Sets.difference(stored, target)) {
+                removed.add(new EmailKeywordEntity(email.getId(), keyword));
+            }
+        }
+        if (removed.size() > 0) {
+            deleteKeywords(removed);
+        }
+        if (added.size() > 0) {
+            insertKeywords(added);
+        }
+    }
+
+    private void updateMailboxes(
+            final Collection<String> emailIds, final Collection<Email> emails) {
+        final SetMultimap<String, String> current = HashMultimap.create();
+        for (final EmailMailboxEntity entity : getMailboxes(emailIds)) {
+            current.put(entity.emailId, entity.mailboxId);
+        }
+        final List<EmailMailboxEntity> added = new ArrayList<>();
+        final List<EmailMailboxEntity> removed = new ArrayList<>();
+        for (final Email email : emails) {
+            final Set<String> target = email.getMailboxIds().keySet();
+            final Set<String> stored = current.get(email.getId());
+            for (final String mailboxId : Sets.difference(target, stored)) {
+                added.add(new EmailMailboxEntity(email.getId(), mailboxId));
+            }
+            for (final String mailboxId : Sets.difference(stored, target)) {
+                removed.add(new EmailMailboxEntity(email.getId(), mailboxId));
+            }
+        }
+        if (removed.size() > 0) {
+            deleteMailboxes(removed);
+        }
+        if (added.size() > 0) {
+            insertMailboxes(added);
+        }
+    }
+
+    private void deleteOverwrites(final Collection<String> emailIds) {
+        if (emailIds.isEmpty()) {
+            return;
+        }
+        deleteKeywordToggles(emailIds);
+        deleteMailboxOverwrites(emailIds);
+        final int executed = markAsExecuted(emailIds);
         if (executed > 0) {
             LOGGER.info("Marked {} query item overwrites as executed", executed);
         }
     }
 
+    @Transaction
+    public void setBodyValues(final Email email) {
+        Preconditions.checkNotNull(email.getId(), "Email must contain an ID");
+        deleteEmailBodyValues(email.getId());
+        insertEmailBodyValues(EmailBodyValueEntity.of(email));
+    }
+
     @Transaction
     public void setPlaintextBodyParts(final Email email) {
         Preconditions.checkNotNull(email.getId(), "Email must contain an ID");
@@ -0,0 +1,28 @@
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.MoreObjects;
+
+/** An item that Email/queryChanges reported as added at the given index. */
+public class AddedQueryItem {
+
+    public final long index;
+    public final String emailId;
+    public final String threadId;
+
+    public AddedQueryItem(final long index, final String emailId, final String threadId) {
+        this.index = index;
+        this.emailId = emailId;
+        this.threadId = threadId;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("index", index)
+                .add("emailId", emailId)
+                .add("threadId", threadId)
+                .toString();
+    }
+}
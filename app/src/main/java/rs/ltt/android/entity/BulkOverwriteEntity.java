@@ -0,0 +1,57 @@
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+import com.google.common.base.MoreObjects;
+
+/**
+ * Optimistic overwrite for an operation that applies to every email matched by a query (see
+ * {@link rs.ltt.android.worker.QueryMutationWorker}). Instead of one overwrite per thread there is
+ * a single row per query that is evaluated when the query is being displayed. The row is removed
+ * once the operation has been applied and the query has been refreshed.
+ */
+@Entity(tableName = "bulk_overwrite")
+public class BulkOverwriteEntity {
+
+    @PrimaryKey @NonNull public String queryString;
+
+    @NonNull public MutationEntity.Operation operation;
+
+    /** The keyword the operation refers to, if any. */
+    public String argument;
+
+    public BulkOverwriteEntity(
+            @NonNull final String queryString,
+            @NonNull final MutationEntity.Operation operation,
+            final String argument) {
+        this.queryString = queryString;
+        this.operation = operation;
+        this.argument = argument;
+    }
+
+    /**
+     * @return the value the keyword should be displayed with or null if this overwrite does not
+     *     affect the keyword
+     */
+    public Boolean getKeywordValue(final String keyword) {
+        if (keyword.equals(argument)) {
+            if (operation == MutationEntity.Operation.SET_KEYWORD) {
+                return true;
+            } else if (operation == MutationEntity.Operation.REMOVE_KEYWORD) {
+                return false;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("queryString", queryString)
+                .add("operation", operation)
+                .add("argument", argument)
+                .toString();
+    }
+}
@@ -51,6 +51,33 @@ public class EmailBodyValueEntity {
         return builder.build();
     }
 
+    /**
+     * Cuts values that are longer than maxLength characters and flags them as truncated. The
+     * complete values are fetched once the thread is opened.
+     */
+    public static List<EmailBodyValueEntity> truncate(
+            final List<EmailBodyValueEntity> entities, final int maxLength) {
+        final ImmutableList.Builder<EmailBodyValueEntity> builder = new ImmutableList.Builder<>();
+        for (final EmailBodyValueEntity entity : entities) {
+            if (entity.value == null || entity.value.length() <= maxLength) {
+                builder.add(entity);
+                continue;
+            }
+            int end = maxLength;
+            if (end > 0 && Character.isHighSurrogate(entity.value.charAt(end - 1))) {
+                end--;
+            }
+            final EmailBodyValueEntity truncated = new EmailBodyValueEntity();
+            truncated.emailId = entity.emailId;
+            truncated.partId = entity.partId;
+            truncated.value = entity.value.substring(0, end);
+            truncated.isEncodingProblem = entity.isEncodingProblem;
+            truncated.isTruncated = true;
+            builder.add(truncated);
+        }
+        return builder.build();
+    }
+
     private static EmailBodyValueEntity of(
             String emailId, String partId, EmailBodyValue emailBodyValue) {
         final EmailBodyValueEntity entity = new EmailBodyValueEntity();
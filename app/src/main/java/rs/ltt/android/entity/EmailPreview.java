@@ -9,6 +9,7 @@ import java.util.Collection;
 import java.util.List;
 import rs.ltt.jmap.common.entity.IdentifiableEmailWithAddressesAndTime;
 import rs.ltt.jmap.mua.util.EmailUtil;
+import rs.ltt.jmap.mua.util.KeywordUtil;
 
 /**
  * This e-mail model has keywords and addresses. It acts as a common base class for EmailWithBodies
@@ -75,6 +76,18 @@ public abstract class EmailPreview extends EmailWithKeywords
                                         .build());
     }
 
+    public From getFirstFrom() {
+        if (KeywordUtil.draft(this)) {
+            return From.draft();
+        }
+        for (final EmailAddress emailAddress : emailAddresses) {
+            if (emailAddress.type == EmailAddressType.FROM) {
+                return From.named(emailAddress);
+            }
+        }
+        return null;
+    }
+
     public boolean isEncrypted() {
         return getEncryptionStatus().isEncrypted();
     }
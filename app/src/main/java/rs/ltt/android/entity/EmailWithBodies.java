@@ -44,18 +44,6 @@ public class EmailWithBodies extends EmailPreview {
         return new Preview(preview, isEncrypted());
     }
 
-    public From getFirstFrom() {
-        if (KeywordUtil.draft(this)) {
-            return From.draft();
-        }
-        for (final EmailAddress emailAddress : emailAddresses) {
-            if (emailAddress.type == EmailAddressType.FROM) {
-                return From.named(emailAddress);
-            }
-        }
-        return null;
-    }
-
     public List<String> getTextBodies() {
         return TextBodies.getTextBodies(bodyPartEntities, bodyValueEntities);
     }
@@ -3,9 +3,9 @@ package rs.ltt.android.entity;
 import rs.ltt.jmap.common.entity.IdentifiableEmailWithSubject;
 
 /**
- * This e-mail model is used to display notifications. While e-mails in thread view don’t each need
- * their own subject (the subject is loaded once for all e-mails), e-mails in the notification are
- * displayed individually and thus need their own subject
+ * This e-mail model is the base of {@link EmailWithReferences}. While e-mails in thread view don’t
+ * each need their own subject (the subject is loaded once for all e-mails), an e-mail that is
+ * replied to or edited on its own needs its own subject
  */
 public class EmailWithBodiesAndSubject extends EmailWithBodies
         implements IdentifiableEmailWithSubject {
@@ -0,0 +1,39 @@
+package rs.ltt.android.entity;
+
+import com.google.common.base.Objects;
+import rs.ltt.jmap.common.entity.IdentifiableEmailWithSubject;
+
+/**
+ * This e-mail model is used to display notifications. Unlike {@link EmailWithBodiesAndSubject} it
+ * does not load body parts and body values. The preview stored with the e-mail (which is updated
+ * once an encrypted e-mail has been decrypted) is all the notification shows.
+ */
+public class EmailWithPreviewAndSubject extends EmailPreview
+        implements IdentifiableEmailWithSubject {
+
+    public String subject;
+    public String preview;
+
+    @Override
+    public String getSubject() {
+        return subject;
+    }
+
+    public Preview getPreview() {
+        return new Preview(preview, isEncrypted());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+        EmailWithPreviewAndSubject that = (EmailWithPreviewAndSubject) o;
+        return Objects.equal(subject, that.subject) && Objects.equal(preview, that.preview);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(super.hashCode(), subject, preview);
+    }
+}
@@ -0,0 +1,30 @@
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Progress of the initial sync. One row per step (mailboxes, identities and every query that is
+ * synced). Written after every chunk once the chunk and the entity state it came with have been
+ * committed by the cache.
+ */
+@Entity(tableName = "initial_sync_checkpoint")
+public class InitialSyncCheckpointEntity {
+
+    @NonNull @PrimaryKey public String step;
+    public int position;
+    public String state;
+    public boolean complete;
+
+    public InitialSyncCheckpointEntity(
+            @NonNull final String step,
+            final int position,
+            final String state,
+            final boolean complete) {
+        this.step = step;
+        this.position = position;
+        this.state = state;
+        this.complete = complete;
+    }
+}
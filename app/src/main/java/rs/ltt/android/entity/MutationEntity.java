@@ -0,0 +1,123 @@
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
+import java.util.Collection;
+
+/**
+ * Journal of modifications the user made to threads that have not been sent to the server yet.
+ * Entries are written together with the overwrites that make the modification visible right away
+ * and are removed once the modification has been applied (see {@link
+ * rs.ltt.android.worker.MutationJournalWorker}). The id reflects the order of the modifications.
+ *
+ * <p>Unlike the cache the journal has to survive schema changes, which is why it lives in the
+ * {@link rs.ltt.android.database.AppDatabase}.
+ */
+@Entity(
+        tableName = "mutation",
+        foreignKeys = {
+            @ForeignKey(
+                    entity = AccountEntity.class,
+                    parentColumns = {"id"},
+                    childColumns = {"accountId"},
+                    onDelete = ForeignKey.CASCADE)
+        },
+        indices = {@Index(value = "accountId")})
+public class MutationEntity {
+
+    @PrimaryKey(autoGenerate = true)
+    public Long id;
+
+    @NonNull public Long accountId;
+
+    /** The thread the operation applies to; null for operations on the entire account. */
+    public String threadId;
+
+    @NonNull public Operation operation;
+
+    /** The mailbox id or keyword the operation refers to, if any. */
+    public String argument;
+
+    /** Time (in milliseconds since epoch) the user made the modification. */
+    public long created;
+
+    public MutationEntity(
+            @NonNull final Long accountId,
+            final String threadId,
+            @NonNull final Operation operation,
+            final String argument) {
+        this.accountId = accountId;
+        this.threadId = threadId;
+        this.operation = operation;
+        this.argument = argument;
+    }
+
+    @Ignore
+    public MutationEntity(
+            final Long id,
+            @NonNull final Long accountId,
+            final String threadId,
+            @NonNull final Operation operation,
+            final String argument) {
+        this(accountId, threadId, operation, argument);
+        this.id = id;
+    }
+
+    public static Collection<MutationEntity> of(
+            final long accountId,
+            final Collection<String> threadIds,
+            final Operation operation,
+            final String argument) {
+        final long created = System.currentTimeMillis();
+        return Collections2.transform(
+                threadIds,
+                threadId -> {
+                    final MutationEntity mutation =
+                            new MutationEntity(accountId, threadId, operation, argument);
+                    mutation.created = created;
+                    return mutation;
+                });
+    }
+
+    public static Collection<MutationEntity> emptyTrash(final long accountId) {
+        final MutationEntity mutation =
+                new MutationEntity(accountId, null, Operation.EMPTY_TRASH, null);
+        mutation.created = System.currentTimeMillis();
+        return ImmutableList.of(mutation);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("accountId", accountId)
+                .add("threadId", threadId)
+                .add("operation", operation)
+                .add("argument", argument)
+                .toString();
+    }
+
+    public enum Operation {
+        ARCHIVE,
+        MOVE_TO_INBOX,
+        MARK_IMPORTANT,
+        COPY_TO_MAILBOX,
+        REMOVE_FROM_MAILBOX,
+        SET_KEYWORD,
+        REMOVE_KEYWORD,
+        MOVE_TO_TRASH,
+        EMPTY_TRASH;
+
+        public boolean isMailboxModification() {
+            return this != SET_KEYWORD && this != REMOVE_KEYWORD && this != EMPTY_TRASH;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package rs.ltt.android.entity;
+
+public class QueryItemAddition {
+
+    public Long id;
+    public String emailId;
+    public String queryState;
+}
@@ -0,0 +1,42 @@
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Change log of emails that a queryChanges response added to a query. Written by {@link
+ * rs.ltt.android.database.dao.QueryDao#updateQueryResults} together with the query state the
+ * addition came with; read and acknowledged by the notification path. Emails that were only
+ * moved within the query (removed and added again) are not logged.
+ */
+@Entity(
+        tableName = "query_item_addition",
+        foreignKeys = {
+            @ForeignKey(
+                    entity = QueryEntity.class,
+                    parentColumns = {"id"},
+                    childColumns = {"queryId"},
+                    onDelete = ForeignKey.CASCADE)
+        },
+        indices = {@Index(value = {"queryId"})})
+public class QueryItemAdditionEntity {
+
+    @PrimaryKey(autoGenerate = true)
+    public Long id;
+
+    @NonNull public Long queryId;
+
+    @NonNull public String emailId;
+
+    public String queryState;
+
+    public QueryItemAdditionEntity(
+            @NonNull final Long queryId, @NonNull final String emailId, final String queryState) {
+        this.queryId = queryId;
+        this.emailId = emailId;
+        this.queryState = queryState;
+    }
+}
@@ -33,7 +33,7 @@ import rs.ltt.jmap.mua.util.QueryResultItem;
                     childColumns = {"queryId"},
                     onDelete = ForeignKey.CASCADE)
         },
-        indices = {@Index(value = "queryId")})
+        indices = {@Index(value = {"queryId", "position"}), @Index(value = {"threadId"})})
 public class QueryItemEntity {
 
     @PrimaryKey(autoGenerate = true)
@@ -20,45 +20,63 @@ import static androidx.room.ForeignKey.CASCADE;
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
 import androidx.room.ForeignKey;
-import androidx.room.Index;
+import com.google.common.collect.Collections2;
+import java.util.Collection;
 
+/**
+ * Hides a thread from every query the thread is about to leave. Instead of one row per query and
+ * thread the overwrite is stored once per thread as a predicate (removed from a mailbox, keyword
+ * removed, moved to trash) that is evaluated against the query when the list is being read (see
+ * {@link rs.ltt.android.database.dao.QueryDao}).
+ *
+ * <p>Once the modification has made it into the cache the overwrite is marked as executed. From
+ * then on it only hides the thread as long as the cached emails agree with the predicate. That
+ * covers queries that still list the thread because they have not been refreshed yet without
+ * hiding the thread should it ever be moved back.
+ */
 @Entity(
         tableName = "query_item_overwrite",
-        primaryKeys = {"queryId", "threadId"},
-        indices = {@Index(value = {"threadId"})},
+        primaryKeys = {"threadId", "type", "value"},
         foreignKeys = {
             @ForeignKey(
                     entity = ThreadEntity.class,
                     parentColumns = {"threadId"},
                     childColumns = {"threadId"},
-                    onDelete = CASCADE),
-            @ForeignKey(
-                    entity = QueryEntity.class,
-                    parentColumns = {"id"},
-                    childColumns = {"queryId"},
                     onDelete = CASCADE)
         })
 public class QueryItemOverwriteEntity {
 
-    @NonNull public Long queryId;
     @NonNull public String threadId;
 
     @NonNull public Type type;
 
+    /**
+     * The mailbox id or keyword the predicate refers to. For TRASH the id of the trash or, if
+     * there was no trash yet, its role.
+     */
+    @NonNull public String value;
+
     public boolean executed = false;
 
     public QueryItemOverwriteEntity(
-            @NonNull Long queryId, @NonNull String threadId, @NonNull Type type) {
-        this.queryId = queryId;
+            @NonNull String threadId, @NonNull Type type, @NonNull String value) {
         this.threadId = threadId;
         this.type = type;
+        this.value = value;
+    }
+
+    public static Collection<QueryItemOverwriteEntity> of(
+            final Collection<String> threadIds, final Type type, final String value) {
+        return Collections2.transform(
+                threadIds, threadId -> new QueryItemOverwriteEntity(threadId, type, value));
     }
 
-    // TODO add one for IMPORTANT because that can be toggled individual as well
     public enum Type {
-        KEYWORD,
+        /** Removed from the mailbox; hides the thread from the query of that mailbox. */
         MAILBOX,
-        SEARCH,
-        OTHER
+        /** Keyword removed; hides the thread from the query of that keyword. */
+        KEYWORD,
+        /** Moved to trash; hides the thread from every query but the one of the trash. */
+        TRASH
     }
 }
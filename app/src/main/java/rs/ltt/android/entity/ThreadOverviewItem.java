@@ -15,6 +15,7 @@
 
 package rs.ltt.android.entity;
 
+import androidx.room.Embedded;
 import androidx.room.Ignore;
 import androidx.room.Relation;
 import com.google.common.base.Objects;
@@ -57,6 +58,9 @@ public class ThreadOverviewItem {
     @Relation(parentColumn = "threadId", entityColumn = "threadId")
     public Set<MailboxOverwriteEntity> mailboxOverwriteEntities;
 
+    @Embedded(prefix = "bulk_")
+    public BulkOverwriteEntity bulkOverwrite;
+
     public Preview getPreview() {
         final EmailPreviewWithMailboxes email = Iterables.getLast(getOrderedEmails(), null);
         if (email == null) {
@@ -78,22 +82,33 @@ public class ThreadOverviewItem {
     }
 
     public boolean everyHasSeenKeyword() {
-        KeywordOverwriteEntity seenOverwrite =
-                KeywordOverwriteEntity.getKeywordOverwrite(keywordOverwriteEntities, Keyword.SEEN);
+        final Boolean seenOverwrite = getKeywordOverwrite(Keyword.SEEN);
         return seenOverwrite != null
-                ? seenOverwrite.value
+                ? seenOverwrite
                 : KeywordUtil.everyHas(getOrderedEmails(), Keyword.SEEN);
     }
 
     public boolean showAsFlagged() {
-        KeywordOverwriteEntity flaggedOverwrite =
-                KeywordOverwriteEntity.getKeywordOverwrite(
-                        keywordOverwriteEntities, Keyword.FLAGGED);
+        final Boolean flaggedOverwrite = getKeywordOverwrite(Keyword.FLAGGED);
         return flaggedOverwrite != null
-                ? flaggedOverwrite.value
+                ? flaggedOverwrite
                 : KeywordUtil.anyHas(getOrderedEmails(), Keyword.FLAGGED);
     }
 
+    /**
+     * Overwrites for individual threads take precedence over the bulk overwrite of the query.
+     * Inserting a bulk overwrite removes the existing overwrites for the same keyword so any
+     * overwrite for an individual thread is newer than the bulk overwrite.
+     */
+    private Boolean getKeywordOverwrite(final String keyword) {
+        final KeywordOverwriteEntity overwrite =
+                KeywordOverwriteEntity.getKeywordOverwrite(keywordOverwriteEntities, keyword);
+        if (overwrite != null) {
+            return overwrite.value;
+        }
+        return bulkOverwrite == null ? null : bulkOverwrite.getKeywordValue(keyword);
+    }
+
     public Integer getCount() {
         final int count = threadItemEntities.size();
         return count <= 1 ? null : count;
@@ -118,8 +133,7 @@ public class ThreadOverviewItem {
     }
 
     private Map<String, From> calculateFromMap() {
-        KeywordOverwriteEntity seenOverwrite =
-                KeywordOverwriteEntity.getKeywordOverwrite(keywordOverwriteEntities, Keyword.SEEN);
+        final Boolean seenOverwrite = getKeywordOverwrite(Keyword.SEEN);
         LinkedHashMap<String, From> fromMap = new LinkedHashMap<>();
         final List<EmailPreviewWithMailboxes> emails = getOrderedEmails();
         for (final EmailPreviewWithMailboxes email : emails) {
@@ -129,7 +143,7 @@ public class ThreadOverviewItem {
             }
             final boolean seen =
                     seenOverwrite != null
-                            ? seenOverwrite.value
+                            ? seenOverwrite
                             : email.keywords.contains(Keyword.SEEN);
             for (final EmailAddress emailAddress : email.emailAddresses) {
                 if (emailAddress.type == EmailAddressType.FROM) {
@@ -2,6 +2,7 @@ package rs.ltt.android.push;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.google.common.util.concurrent.FutureCallback;
@@ -27,6 +28,7 @@ public abstract class AbstractPushMessageReceiver extends BroadcastReceiver {
             @NonNull final UUID deviceClientId,
             @Nullable final String distributor,
             final byte[] message) {
+        final PushLatency latency = PushLatency.start(SystemClock::elapsedRealtime);
         final var pushSubscriptionFuture =
                 AppDatabase.getInstance(context)
                         .pushSubscriptionDao()
@@ -42,7 +44,7 @@ public abstract class AbstractPushMessageReceiver extends BroadcastReceiver {
                                     deviceClientId);
                             return;
                         }
-                        onReceiveMessage(context, pushSubscription, message);
+                        onReceiveMessage(context, pushSubscription, message, latency);
                     }
 
                     @Override
@@ -59,7 +61,8 @@ public abstract class AbstractPushMessageReceiver extends BroadcastReceiver {
     private void onReceiveMessage(
             final Context context,
             final PushSubscription pushSubscription,
-            final byte[] pushMessage) {
+            final byte[] pushMessage,
+            final PushLatency latency) {
         final var keyMaterialFuture =
                 AppDatabase.getInstance(context)
                         .pushSubscriptionDao()
@@ -71,7 +74,11 @@ public abstract class AbstractPushMessageReceiver extends BroadcastReceiver {
                     public void onSuccess(
                             final Optional<WebPushMessageEncryption.KeyMaterial> keyMaterial) {
                         onReceiveMessage(
-                                context, pushSubscription, keyMaterial.orElse(null), pushMessage);
+                                context,
+                                pushSubscription,
+                                keyMaterial.orElse(null),
+                                pushMessage,
+                                latency);
                     }
 
                     @Override
@@ -86,7 +93,8 @@ public abstract class AbstractPushMessageReceiver extends BroadcastReceiver {
             final Context context,
             @NonNull final PushSubscription pushSubscription,
             @Nullable final WebPushMessageEncryption.KeyMaterial keyMaterial,
-            final byte[] message) {
+            final byte[] message,
+            final PushLatency latency) {
         final byte[] plaintextMessage;
         if (keyMaterial == null) {
             plaintextMessage = message;
@@ -105,8 +113,9 @@ public abstract class AbstractPushMessageReceiver extends BroadcastReceiver {
             LOGGER.warn("received improperly formatted push message", e);
             return;
         }
+        latency.mark(PushLatency.Stage.DECODED);
         final var pushManager = new PushManager(context);
-        pushManager.onMessageReceived(pushSubscription, pushMessage);
+        pushManager.onMessageReceived(pushSubscription, pushMessage, latency);
     }
 
     protected void onReceiveNewEndpoint(
@@ -0,0 +1,134 @@
+package rs.ltt.android.push;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Timestamps of the stages a push message passes through until the notifications for the emails
+ * it announced have been posted. The timestamps are taken from a monotonic clock (elapsedRealtime
+ * on Android) and travel with the refresh work request so that the latency can be measured across
+ * the WorkManager boundary.
+ */
+public final class PushLatency {
+
+    private static final long NONE = -1;
+
+    private final LongSupplier clock;
+    private final long[] timestamps;
+
+    private PushLatency(final LongSupplier clock, final long[] timestamps) {
+        this.clock = clock;
+        this.timestamps = timestamps;
+    }
+
+    public static PushLatency start(final LongSupplier clock) {
+        final PushLatency latency = empty(clock);
+        latency.mark(Stage.RECEIVED);
+        return latency;
+    }
+
+    public static PushLatency empty(final LongSupplier clock) {
+        final long[] timestamps = new long[Stage.values().length];
+        Arrays.fill(timestamps, NONE);
+        return new PushLatency(clock, timestamps);
+    }
+
+    /**
+     * @param timestamps as returned by {@link #toArray()} or null
+     */
+    public static PushLatency of(final LongSupplier clock, final long[] timestamps) {
+        if (timestamps == null) {
+            return empty(clock);
+        }
+        Preconditions.checkArgument(
+                timestamps.length == Stage.values().length, "Unexpected number of timestamps");
+        return new PushLatency(clock, Arrays.copyOf(timestamps, timestamps.length));
+    }
+
+    public synchronized void mark(final Stage stage) {
+        this.timestamps[stage.ordinal()] = clock.getAsLong();
+    }
+
+    /**
+     * @return the timestamp of the stage or -1 if the stage has not been reached
+     */
+    public synchronized long get(final Stage stage) {
+        return this.timestamps[stage.ordinal()];
+    }
+
+    /**
+     * @return true if the trace started with the receipt of a push message (as opposed to a
+     *     periodic or manual refresh)
+     */
+    public boolean isPush() {
+        return get(Stage.RECEIVED) != NONE;
+    }
+
+    /**
+     * @return milliseconds between the two stages or -1 if either of them has not been reached
+     */
+    public synchronized long elapsed(final Stage from, final Stage to) {
+        final long start = get(from);
+        final long end = get(to);
+        if (start == NONE || end == NONE) {
+            return NONE;
+        }
+        return end - start;
+    }
+
+    public long total() {
+        return elapsed(Stage.RECEIVED, Stage.NOTIFIED);
+    }
+
+    public synchronized long[] toArray() {
+        return Arrays.copyOf(timestamps, timestamps.length);
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder();
+        long previous = NONE;
+        long first = NONE;
+        for (final Stage stage : Stage.values()) {
+            final long timestamp = get(stage);
+            if (timestamp == NONE) {
+                continue;
+            }
+            if (previous == NONE) {
+                first = timestamp;
+                builder.append(stage.name().toLowerCase(Locale.ROOT));
+            } else {
+                builder.append(
+                        String.format(
+                                Locale.ROOT,
+                                ", %s +%dms",
+                                stage.name().toLowerCase(Locale.ROOT),
+                                timestamp - previous));
+            }
+            previous = timestamp;
+        }
+        if (first == NONE) {
+            return "empty";
+        }
+        return builder.append(String.format(Locale.ROOT, " (%dms)", previous - first)).toString();
+    }
+
+    public enum Stage {
+        /** The push message has been handed to the receiver */
+        RECEIVED,
+        /** The push message has been decrypted and parsed */
+        DECODED,
+        /** The refresh has been handed to WorkManager */
+        ENQUEUED,
+        /** WorkManager has started the refresh */
+        STARTED,
+        /** The emails that have been added to the inbox are in the cache */
+        FETCHED,
+        /** The emails to notify about have been loaded from the cache */
+        LOADED,
+        /** The notifications have been posted */
+        NOTIFIED
+    }
+}
@@ -5,14 +5,14 @@ import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.ProcessLifecycleOwner;
-import androidx.work.Constraints;
 import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.ExistingWorkPolicy;
-import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 import com.google.common.base.Strings;
+import com.google.common.collect.Collections2;
 import com.google.common.io.BaseEncoding;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -20,19 +20,26 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.MuaPool;
 import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountWithCredentials;
+import rs.ltt.android.entity.EntityStateEntity;
 import rs.ltt.android.entity.PushSubscription;
+import rs.ltt.android.sync.SyncPolicy;
+import rs.ltt.android.worker.EntityRefreshWorker;
 import rs.ltt.android.worker.MainMailboxQueryRefreshWorker;
 import rs.ltt.android.worker.PushRegistrationWorker;
 import rs.ltt.android.worker.PushVerificationWorker;
@@ -44,6 +51,7 @@ import rs.ltt.jmap.common.entity.PushMessage;
 import rs.ltt.jmap.common.entity.PushVerification;
 import rs.ltt.jmap.common.entity.StateChange;
 import rs.ltt.jmap.common.entity.capability.WebPushVapidCapability;
+import rs.ltt.jmap.common.util.Mapper;
 
 public class PushManager {
 
@@ -56,11 +64,13 @@ public class PushManager {
     }
 
     public void onMessageReceived(
-            final PushSubscription pushSubscription, final PushMessage pushMessage) {
+            final PushSubscription pushSubscription,
+            final PushMessage pushMessage,
+            final PushLatency latency) {
         if (pushMessage instanceof PushVerification pushVerification) {
             onPushVerificationReceived(pushSubscription, pushVerification);
         } else if (pushMessage instanceof StateChange stateChange) {
-            onStateChangeReceived(pushSubscription.deviceClientId, stateChange);
+            onStateChangeReceived(pushSubscription.deviceClientId, stateChange, latency);
         } else {
             throw new IllegalArgumentException(
                     String.format(
@@ -85,7 +95,8 @@ public class PushManager {
         workManager.enqueue(workRequest);
     }
 
-    private void onStateChangeReceived(final UUID deviceClientId, final StateChange pushMessage) {
+    private void onStateChangeReceived(
+            final UUID deviceClientId, final StateChange pushMessage, final PushLatency latency) {
         LOGGER.info("onStateChangeReceived({},{})", deviceClientId, pushMessage);
         for (final Map.Entry<String, Map<Class<? extends AbstractIdentifiableEntity>, String>>
                 entry : pushMessage.getChanged().entrySet()) {
@@ -103,30 +114,107 @@ public class PushManager {
                         accountId);
                 continue;
             }
-            onStateChangeReceived(account, change);
+            onStateChangeReceived(account, change, latency);
         }
     }
 
     private void onStateChangeReceived(
             final AccountWithCredentials account,
-            final Map<Class<? extends AbstractIdentifiableEntity>, String> change) {
+            final Map<Class<? extends AbstractIdentifiableEntity>, String> change,
+            final PushLatency latency) {
         final boolean activityStarted =
                 ProcessLifecycleOwner.get()
                         .getLifecycle()
                         .getCurrentState()
                         .isAtLeast(Lifecycle.State.STARTED);
-        LOGGER.error(
-                "Account {} has received a state change {} (activityStarted={})",
+        final Map<String, String> changed = new HashMap<>();
+        for (final Map.Entry<Class<? extends AbstractIdentifiableEntity>, String> entry :
+                change.entrySet()) {
+            changed.put(typeName(entry.getKey()), entry.getValue());
+        }
+        final Map<String, String> local = new HashMap<>();
+        for (final EntityStateEntity entityState :
+                LttrsDatabase.getInstance(context, account.getId()).stateDao().getEntityStates()) {
+            local.put(typeName(entityState.type), entityState.state);
+        }
+        final Set<StateChangePlan.Refresh> refreshes = StateChangePlan.of(changed, local);
+        LOGGER.info(
+                "Account {} has received a state change {} (activityStarted={}). Refreshing {}",
                 account.getName(),
                 change,
-                activityStarted);
+                activityStarted,
+                refreshes);
         // TODO skip if application is in foreground (it's just easier to test if we don’t skip)
-        final OneTimeWorkRequest workRequest = QueryRefreshWorker.main(account.getId());
+        final Long id = account.getId();
+        if (!refreshes.isEmpty()) {
+            // connect while WorkManager gets around to starting the refresh workers
+            MuaPool.prewarm(context, account);
+        }
+        if (refreshes.contains(StateChangePlan.Refresh.MAIN_QUERY)) {
+            enqueueRefresh(
+                    QueryRefreshWorker.uniqueName(id),
+                    () -> {
+                        latency.mark(PushLatency.Stage.ENQUEUED);
+                        return QueryRefreshWorker.push(id, latency);
+                    });
+        }
+        if (refreshes.contains(StateChangePlan.Refresh.MAILBOXES)) {
+            enqueueRefresh(EntityRefreshWorker.Entity.MAILBOXES, id);
+        }
+        if (refreshes.contains(StateChangePlan.Refresh.IDENTITIES)) {
+            enqueueRefresh(EntityRefreshWorker.Entity.IDENTITIES, id);
+        }
+    }
+
+    private static String typeName(final Class<? extends AbstractIdentifiableEntity> clazz) {
+        final String name = Mapper.ENTITIES.inverse().get(clazz);
+        return name == null ? clazz.getSimpleName() : name;
+    }
+
+    private void enqueueRefresh(final EntityRefreshWorker.Entity entity, final Long id) {
+        enqueueRefresh(
+                EntityRefreshWorker.uniqueName(id, entity),
+                () -> EntityRefreshWorker.of(id, entity));
+    }
+
+    /**
+     * @param workRequest supplies the request once it is known that it has to be enqueued. Push
+     *     triggered refreshes record the time they are handed to WorkManager in their input data
+     */
+    private void enqueueRefresh(
+            final String uniqueName, final Supplier<OneTimeWorkRequest> workRequest) {
         final WorkManager workManager = WorkManager.getInstance(context.getApplicationContext());
-        workManager.enqueueUniqueWork(
-                QueryRefreshWorker.uniqueName(account.getId()),
-                ExistingWorkPolicy.KEEP,
-                workRequest);
+        Futures.addCallback(
+                workManager.getWorkInfosForUniqueWork(uniqueName),
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(final List<WorkInfo> workInfos) {
+                        final StateChangePlan.FollowUp followUp =
+                                StateChangePlan.followUp(
+                                        Collections2.transform(workInfos, WorkInfo::getState));
+                        LOGGER.debug("{} for {}", followUp, uniqueName);
+                        switch (followUp) {
+                            case ENQUEUE ->
+                                    workManager.enqueueUniqueWork(
+                                            uniqueName, ExistingWorkPolicy.KEEP, workRequest.get());
+                            case APPEND ->
+                                    workManager.enqueueUniqueWork(
+                                            uniqueName,
+                                            ExistingWorkPolicy.APPEND_OR_REPLACE,
+                                            workRequest.get());
+                            case NONE -> {}
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.warn(
+                                "Could not look up existing work for {}", uniqueName, throwable);
+                        workManager.enqueueUniqueWork(
+                                uniqueName, ExistingWorkPolicy.KEEP, workRequest.get());
+                    }
+                },
+                MoreExecutors.directExecutor());
     }
 
     public void onNewToken(final String token) {}
@@ -189,27 +277,91 @@ public class PushManager {
         LOGGER.info("Scheduling WorkManager fallback for accounts {}", accountIds);
         final WorkManager workManager = WorkManager.getInstance(context);
         for (final Long accountId : accountIds) {
-            final PeriodicWorkRequest periodicWorkRequest =
-                    new PeriodicWorkRequest.Builder(
-                                    MainMailboxQueryRefreshWorker.class,
-                                    15,
-                                    TimeUnit.MINUTES,
-                                    20,
-                                    TimeUnit.MINUTES)
-                            .setInputData(MainMailboxQueryRefreshWorker.data(accountId, true))
-                            .setConstraints(
-                                    new Constraints.Builder()
-                                            .setRequiredNetworkType(NetworkType.CONNECTED)
-                                            .build())
-                            .build();
-            workManager.enqueueUniquePeriodicWork(
-                    MainMailboxQueryRefreshWorker.uniquePeriodicName(accountId),
-                    ExistingPeriodicWorkPolicy.REPLACE,
-                    periodicWorkRequest);
+            enqueueRecurringMainQueryWorker(
+                    workManager, accountId, ExistingPeriodicWorkPolicy.REPLACE);
         }
         return null;
     }
 
+    /**
+     * Enqueues the fallback workers that are currently scheduled again so that they pick up the
+     * interval and network constraint of the current {@link SyncPolicy}. Accounts that receive
+     * push messages have no fallback worker and are left alone.
+     */
+    public void rescheduleRecurringMainQueryWorkers() {
+        final WorkManager workManager = WorkManager.getInstance(context);
+        Futures.addCallback(
+                AppDatabase.getInstance(context).accountDao().getAccounts(),
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(final List<AccountWithCredentials> accounts) {
+                        for (final AccountWithCredentials account : accounts) {
+                            rescheduleRecurringMainQueryWorker(workManager, account.getId());
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.warn("Could not reschedule WorkManager fallback", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private void rescheduleRecurringMainQueryWorker(
+            final WorkManager workManager, final Long accountId) {
+        Futures.addCallback(
+                workManager.getWorkInfosForUniqueWork(
+                        MainMailboxQueryRefreshWorker.uniquePeriodicName(accountId)),
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(final List<WorkInfo> workInfos) {
+                        for (final WorkInfo workInfo : workInfos) {
+                            if (!workInfo.getState().isFinished()) {
+                                enqueueRecurringMainQueryWorker(
+                                        workManager,
+                                        accountId,
+                                        ExistingPeriodicWorkPolicy.UPDATE);
+                                return;
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.warn("Could not look up WorkManager fallback", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private void enqueueRecurringMainQueryWorker(
+            final WorkManager workManager,
+            final Long accountId,
+            final ExistingPeriodicWorkPolicy existingPeriodicWorkPolicy) {
+        final SyncPolicy syncPolicy = SyncPolicy.getInstance(context);
+        final long interval = syncPolicy.getRefreshInterval(TimeUnit.MINUTES);
+        LOGGER.info(
+                "Scheduling refresh of account {} every {} minutes on {} network",
+                accountId,
+                interval,
+                syncPolicy.getNetworkClass());
+        final PeriodicWorkRequest periodicWorkRequest =
+                new PeriodicWorkRequest.Builder(
+                                MainMailboxQueryRefreshWorker.class,
+                                interval,
+                                TimeUnit.MINUTES,
+                                syncPolicy.getRefreshFlexInterval(TimeUnit.MINUTES),
+                                TimeUnit.MINUTES)
+                        .setInputData(MainMailboxQueryRefreshWorker.data(accountId, true))
+                        .setConstraints(syncPolicy.getRefreshConstraints())
+                        .build();
+        workManager.enqueueUniquePeriodicWork(
+                MainMailboxQueryRefreshWorker.uniquePeriodicName(accountId),
+                existingPeriodicWorkPolicy,
+                periodicWorkRequest);
+    }
+
     public ListenableFuture<Void> cancelRecurringMainQueryWorkers(
             final AccountWithCredentials.Credentials credentials) {
         final var accountIds =
@@ -0,0 +1,96 @@
+package rs.ltt.android.push;
+
+import androidx.work.WorkInfo;
+import com.google.common.base.Objects;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates the types in a push StateChange into the refreshes we actually have to run. Types are
+ * keyed by their JMAP name (for example 'Email' or 'EmailDelivery'). A type only counts as changed
+ * if the pushed state differs from the state we have stored in entity_state.
+ */
+public final class StateChangePlan {
+
+    static final String EMAIL = "Email";
+    static final String THREAD = "Thread";
+    static final String MAILBOX = "Mailbox";
+    static final String IDENTITY = "Identity";
+    static final String EMAIL_DELIVERY = "EmailDelivery";
+
+    private StateChangePlan() {
+        throw new IllegalStateException("Do not instantiate me");
+    }
+
+    public static Set<Refresh> of(
+            final Map<String, String> changed, final Map<String, String> local) {
+        final EnumSet<Refresh> refreshes = EnumSet.noneOf(Refresh.class);
+        for (final Map.Entry<String, String> entry : changed.entrySet()) {
+            final String type = entry.getKey();
+            final String state = entry.getValue();
+            switch (type) {
+                case EMAIL_DELIVERY ->
+                        // we do not store a state for EmailDelivery; it is only ever pushed
+                        refreshes.add(Refresh.MAIN_QUERY);
+                case EMAIL, THREAD -> {
+                    if (isNewer(state, local.get(type))) {
+                        refreshes.add(Refresh.MAIN_QUERY);
+                    }
+                }
+                case MAILBOX -> {
+                    if (isNewer(state, local.get(type))) {
+                        refreshes.add(Refresh.MAILBOXES);
+                    }
+                }
+                case IDENTITY -> {
+                    if (isNewer(state, local.get(type))) {
+                        refreshes.add(Refresh.IDENTITIES);
+                    }
+                }
+                default -> {
+                    // EmailSubmission, VacationResponse etc; nothing we cache
+                }
+            }
+        }
+        return refreshes;
+    }
+
+    private static boolean isNewer(final String pushed, final String local) {
+        // a missing local state means we never synchronized that type; refresh to be safe
+        return local == null || !Objects.equal(pushed, local);
+    }
+
+    /**
+     * Decides how to enqueue a refresh given the state of already existing work with the same
+     * unique name. If a refresh is pending it will pick up the change anyway. If a refresh is
+     * running it might have fetched its state before the change happened so we queue exactly one
+     * follow-up.
+     */
+    public static FollowUp followUp(final Collection<WorkInfo.State> states) {
+        boolean running = false;
+        for (final WorkInfo.State state : states) {
+            if (state == WorkInfo.State.ENQUEUED || state == WorkInfo.State.BLOCKED) {
+                return FollowUp.NONE;
+            }
+            if (state == WorkInfo.State.RUNNING) {
+                running = true;
+            }
+        }
+        return running ? FollowUp.APPEND : FollowUp.ENQUEUE;
+    }
+
+    public enum Refresh {
+        /** Main query refresh. Also updates email notifications */
+        MAIN_QUERY,
+        MAILBOXES,
+        IDENTITIES
+    }
+
+    public enum FollowUp {
+        NONE,
+        ENQUEUE,
+        APPEND
+    }
+}
@@ -1,10 +1,12 @@
 package rs.ltt.android.repository;
 
 import android.app.Application;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import rs.ltt.android.MuaPool;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.jmap.mua.Mua;
 
 public class AbstractMuaRepository extends AbstractRepository {
@@ -19,4 +21,13 @@ public class AbstractMuaRepository extends AbstractRepository {
                         account -> MuaPool.getInstance(application, account),
                         MoreExecutors.directExecutor());
     }
+
+    protected <T> ListenableFuture<T> schedule(
+            final SyncScheduler.Priority priority, final AsyncFunction<Mua, T> function) {
+        final SyncScheduler scheduler = SyncScheduler.getInstance(accountId);
+        return Futures.transformAsync(
+                mua,
+                mua -> scheduler.submit(priority, () -> function.apply(mua)),
+                MoreExecutors.directExecutor());
+    }
 }
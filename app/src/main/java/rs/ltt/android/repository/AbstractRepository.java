@@ -18,7 +18,6 @@ package rs.ltt.android.repository;
 import android.app.Application;
 import androidx.work.Constraints;
 import androidx.work.NetworkType;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.Collection;
@@ -31,12 +30,9 @@ import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountWithCredentials;
 import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxOverviewItem;
-import rs.ltt.android.entity.QueryEntity;
 import rs.ltt.android.entity.QueryItemOverwriteEntity;
 import rs.ltt.jmap.common.entity.IdentifiableMailboxWithRole;
 import rs.ltt.jmap.common.entity.Role;
-import rs.ltt.jmap.common.entity.query.EmailQuery;
-import rs.ltt.jmap.mua.util.StandardQueries;
 
 public abstract class AbstractRepository {
 
@@ -80,27 +76,10 @@ public abstract class AbstractRepository {
 
     protected void insertQueryItemOverwrite(
             final Collection<String> threadIds, final IdentifiableMailboxWithRole mailbox) {
-        insertQueryItemOverwrite(
-                threadIds, StandardQueries.mailbox(mailbox), QueryItemOverwriteEntity.Type.MAILBOX);
-    }
-
-    protected void insertSearchQueryItemOverwrite(
-            final Collection<String> threadIds, final String searchTerm) {
-        final EmailQuery search =
-                StandardQueries.search(
-                        searchTerm, database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK));
-        final QueryEntity queryEntity = database.queryDao().get(search.asHash());
-        if (queryEntity != null) {
-            database.overwriteDao()
-                    .insertQueryOverwrites(
-                            Collections2.transform(
-                                    threadIds,
-                                    threadId ->
-                                            new QueryItemOverwriteEntity(
-                                                    queryEntity.id,
-                                                    threadId,
-                                                    QueryItemOverwriteEntity.Type.SEARCH)));
-        }
+        database.overwriteDao()
+                .insertQueryOverwrites(
+                        QueryItemOverwriteEntity.of(
+                                threadIds, QueryItemOverwriteEntity.Type.MAILBOX, mailbox.getId()));
     }
 
     protected void insertQueryItemOverwrite(final String threadId, final String keyword) {
@@ -109,27 +88,22 @@ public abstract class AbstractRepository {
 
     protected void insertQueryItemOverwrite(
             final Collection<String> threadIds, final String keyword) {
-        insertQueryItemOverwrite(
-                threadIds,
-                StandardQueries.keyword(
-                        keyword, database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK)),
-                QueryItemOverwriteEntity.Type.KEYWORD);
+        database.overwriteDao()
+                .insertQueryOverwrites(
+                        QueryItemOverwriteEntity.of(
+                                threadIds, QueryItemOverwriteEntity.Type.KEYWORD, keyword));
     }
 
-    protected void insertQueryItemOverwrite(
-            final Collection<String> threadIds,
-            final EmailQuery emailQuery,
-            final QueryItemOverwriteEntity.Type type) {
-        final QueryEntity queryEntity = database.queryDao().get(emailQuery.asHash());
-        if (queryEntity != null) {
-            database.overwriteDao()
-                    .insertQueryOverwrites(
-                            Collections2.transform(
-                                    threadIds,
-                                    threadId ->
-                                            new QueryItemOverwriteEntity(
-                                                    queryEntity.id, threadId, type)));
-        }
+    /** Hides the threads from every query but the one of the trash. */
+    protected void insertTrashQueryItemOverwrite(final Collection<String> threadIds) {
+        final MailboxOverviewItem trash = database.mailboxDao().getMailboxOverviewItem(Role.TRASH);
+        // the trash will be created along with the modification. Until then there is no query
+        // for the trash that would need to be excluded
+        final String trashId = trash == null ? Role.TRASH.toString() : trash.getId();
+        database.overwriteDao()
+                .insertQueryOverwrites(
+                        QueryItemOverwriteEntity.of(
+                                threadIds, QueryItemOverwriteEntity.Type.TRASH, trashId));
     }
 
     protected void deleteQueryItemOverwrite(final Collection<String> threadIds, final Role role) {
@@ -141,32 +115,17 @@ public abstract class AbstractRepository {
 
     protected void deleteQueryItemOverwrite(
             final Collection<String> threadIds, final IdentifiableMailboxWithRole mailbox) {
-        deleteQueryItemOverwrite(
-                threadIds, StandardQueries.mailbox(mailbox), QueryItemOverwriteEntity.Type.MAILBOX);
+        database.overwriteDao()
+                .deleteQueryOverwrites(
+                        QueryItemOverwriteEntity.of(
+                                threadIds, QueryItemOverwriteEntity.Type.MAILBOX, mailbox.getId()));
     }
 
     protected void deleteQueryItemOverwrite(
             final Collection<String> threadIds, final String keyword) {
-        deleteQueryItemOverwrite(
-                threadIds,
-                StandardQueries.keyword(
-                        keyword, database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK)),
-                QueryItemOverwriteEntity.Type.KEYWORD);
-    }
-
-    private void deleteQueryItemOverwrite(
-            final Collection<String> threadIds,
-            final EmailQuery emailQuery,
-            QueryItemOverwriteEntity.Type type) {
-        QueryEntity queryEntity = database.queryDao().get(emailQuery.asHash());
-        if (queryEntity != null) {
-            database.overwriteDao()
-                    .deleteQueryOverwrites(
-                            Collections2.transform(
-                                    threadIds,
-                                    threadId ->
-                                            new QueryItemOverwriteEntity(
-                                                    queryEntity.id, threadId, type)));
-        }
+        database.overwriteDao()
+                .deleteQueryOverwrites(
+                        QueryItemOverwriteEntity.of(
+                                threadIds, QueryItemOverwriteEntity.Type.KEYWORD, keyword));
     }
 }
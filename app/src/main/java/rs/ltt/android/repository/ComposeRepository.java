@@ -19,21 +19,27 @@ import android.annotation.SuppressLint;
 import android.app.Application;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import androidx.work.Data;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.OutOfQuotaPolicy;
 import androidx.work.WorkContinuation;
+import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import org.slf4j.Logger;
@@ -48,10 +54,12 @@ import rs.ltt.android.worker.AbstractCreateEmailWorker;
 import rs.ltt.android.worker.AbstractMuaWorker;
 import rs.ltt.android.worker.AttachmentInputMerger;
 import rs.ltt.android.worker.BlobUploadWorker;
+import rs.ltt.android.worker.CreateEmailPayload;
 import rs.ltt.android.worker.DiscardDraftWorker;
 import rs.ltt.android.worker.SaveDraftWorker;
 import rs.ltt.android.worker.SendEmailWorker;
 import rs.ltt.android.worker.SubmitEmailWorker;
+import rs.ltt.android.worker.WorkerPayloads;
 import rs.ltt.autocrypt.client.Decision;
 import rs.ltt.autocrypt.client.Recommendation;
 import rs.ltt.autocrypt.jmap.AutocryptPlugin;
@@ -73,6 +81,8 @@ public class ComposeRepository extends AbstractRepository {
     private static final ListeningExecutorService ATTACHMENT_EXECUTOR =
             MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
 
+    private final DraftUploads draftUploads = new DraftUploads();
+
     public ComposeRepository(final Application application, final long accountId) {
         super(application, accountId);
         final ListenableFuture<Status> identityRefresh =
@@ -198,34 +208,81 @@ public class ComposeRepository extends AbstractRepository {
         final ImmutableList.Builder<OneTimeWorkRequest> uploadWorker =
                 new ImmutableList.Builder<>();
         for (final LocalAttachment attachment : localAttachments) {
-            uploadWorker.add(
+            final OneTimeWorkRequest upload =
                     new OneTimeWorkRequest.Builder(BlobUploadWorker.class)
                             .setConstraints(CONNECTED_CONSTRAINT)
                             .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
                             .setInputData(BlobUploadWorker.data(accountId, attachment))
-                            .build());
+                            .build();
+            draftUploads.queued(attachment, upload.getId());
+            forgetIfFailed(upload.getId());
+            uploadWorker.add(upload);
         }
         return uploadWorker.build();
     }
 
+    // the next save uploads the attachment again
+    private void forgetIfFailed(final UUID upload) {
+        final LiveData<WorkInfo> workInfoLiveData =
+                WorkManager.getInstance(application).getWorkInfoByIdLiveData(upload);
+        ContextCompat.getMainExecutor(application)
+                .execute(
+                        () ->
+                                workInfoLiveData.observeForever(
+                                        new Observer<>() {
+                                            @Override
+                                            public void onChanged(final WorkInfo workInfo) {
+                                                if (workInfo == null
+                                                        || !workInfo.getState().isFinished()) {
+                                                    return;
+                                                }
+                                                workInfoLiveData.removeObserver(this);
+                                                if (workInfo.getState()
+                                                        != WorkInfo.State.SUCCEEDED) {
+                                                    draftUploads.failed(upload);
+                                                }
+                                            }
+                                        }));
+    }
+
+    /**
+     * @return whether the local copy of the attachment is still needed by an upload
+     */
+    public boolean isQueuedForUpload(final LocalAttachment attachment) {
+        return draftUploads.isQueued(attachment);
+    }
+
     public UUID sendEmail(
             IdentifiableIdentity identity,
             ComposeViewModel.Draft draft,
             final Collection<String> inReplyTo,
             final boolean encrypted,
-            EmailWithReferences discard) {
+            EmailWithReferences discard,
+            final UUID discardSave) {
         final EmailCreation emailCreation =
                 createEmailWorkRequest(
-                        identity, draft, inReplyTo, encrypted, SendEmailWorker.class);
-        if (discard != null) {
+                        identity,
+                        draft,
+                        inReplyTo,
+                        encrypted,
+                        Data.EMPTY,
+                        true,
+                        SendEmailWorker.class);
+        if (discard != null || discardSave != null) {
             final OneTimeWorkRequest discardPreviousDraft =
                     new OneTimeWorkRequest.Builder(DiscardDraftWorker.class)
                             .setConstraints(CONNECTED_CONSTRAINT)
-                            .setInputData(DiscardDraftWorker.data(accountId, discard.id))
+                            .setInputData(
+                                    discardSave == null
+                                            ? DiscardDraftWorker.data(accountId, discard.id)
+                                            : DiscardDraftWorker.data(
+                                                    accountId,
+                                                    discardSave,
+                                                    discard == null ? null : discard.id))
                             .build();
-            emailCreation.workContinuation.then(discardPreviousDraft).enqueue();
+            enqueue(emailCreation, emailCreation.workContinuation.then(discardPreviousDraft));
         } else {
-            emailCreation.workContinuation.enqueue();
+            enqueue(emailCreation, emailCreation.workContinuation);
         }
         return emailCreation.workRequest.getId();
     }
@@ -243,33 +300,55 @@ public class ComposeRepository extends AbstractRepository {
         return workRequest.getId();
     }
 
+    /**
+     * Local attachments that have been queued for upload by an earlier save of this compose session
+     * are not uploaded again. The email refers to the output of that upload instead, whether or not
+     * it has finished yet.
+     *
+     * @param endsSession whether this is the last email created in this compose session. The local
+     *     copies of the attachments are deleted once it has been created
+     */
     @SuppressLint("EnqueueWork")
     private EmailCreation createEmailWorkRequest(
             IdentifiableIdentity identity,
             ComposeViewModel.Draft draft,
             final Collection<String> inReplyTo,
             final boolean encrypted,
+            final Data extras,
+            final boolean endsSession,
             final Class<? extends AbstractCreateEmailWorker> clazz) {
         final WorkManager workManager = WorkManager.getInstance(application);
-        final Attachments attachments = Attachments.collect(draft, encrypted);
-        final OneTimeWorkRequest createEmailWorkRequest =
-                new OneTimeWorkRequest.Builder(clazz)
-                        .setConstraints(CONNECTED_CONSTRAINT)
-                        .setInputMerger(AttachmentInputMerger.class)
-                        .setInputData(
+        final DraftUploads.Plan attachments = draftUploads.plan(draft.getAttachments(), encrypted);
+        final List<OneTimeWorkRequest> blobUploads = blobUploads(attachments.requireUploading);
+        final Data.Builder dataBuilder =
+                new Data.Builder()
+                        .putAll(
                                 AbstractCreateEmailWorker.data(
                                         accountId,
                                         identity.getId(),
-                                        inReplyTo,
-                                        draft.getTo(),
-                                        draft.getCc(),
-                                        draft.getSubject(),
-                                        draft.getBody(),
                                         attachments.processDirectly,
+                                        attachments.pendingUploads,
                                         encrypted))
+                        .putAll(extras);
+        if (endsSession) {
+            dataBuilder.putAll(AbstractCreateEmailWorker.endingSession(localAttachments(draft)));
+        }
+        final Data data = dataBuilder.build();
+        final OneTimeWorkRequest createEmailWorkRequest =
+                new OneTimeWorkRequest.Builder(clazz)
+                        .setConstraints(CONNECTED_CONSTRAINT)
+                        .setInputMerger(AttachmentInputMerger.class)
+                        .setInputData(data)
                         .build();
+        final CreateEmailPayload payload =
+                AbstractCreateEmailWorker.payload(
+                        inReplyTo,
+                        draft.getTo(),
+                        draft.getCc(),
+                        draft.getSubject(),
+                        draft.getBody());
         final WorkContinuation workContinuation;
-        if (attachments.requireUploading.isEmpty()) {
+        if (blobUploads.isEmpty()) {
             workContinuation =
                     workManager.beginUniqueWork(
                             AbstractMuaWorker.uniqueName(accountId),
@@ -281,44 +360,112 @@ public class ComposeRepository extends AbstractRepository {
                             .beginUniqueWork(
                                     AbstractMuaWorker.uniqueName(accountId),
                                     ExistingWorkPolicy.APPEND_OR_REPLACE,
-                                    blobUploads(attachments.requireUploading))
+                                    blobUploads)
                             .then(createEmailWorkRequest);
         }
-        return new EmailCreation(createEmailWorkRequest, workContinuation);
+        return new EmailCreation(createEmailWorkRequest, workContinuation, payload);
+    }
+
+    // includes attachments that have been removed from the draft after they were queued for upload
+    private Set<UUID> localAttachments(final ComposeViewModel.Draft draft) {
+        final ImmutableSet.Builder<UUID> builder = new ImmutableSet.Builder<>();
+        for (final Attachment attachment : draft.getAttachments()) {
+            if (attachment instanceof LocalAttachment localAttachment) {
+                builder.add(localAttachment.getUuid());
+            }
+        }
+        builder.addAll(draftUploads.getQueued());
+        return builder.build();
+    }
+
+    /**
+     * The work id is handed out right away. The payload is written to disk and the work enqueued on
+     * the IO executor. The work is enqueued even if the payload could not be written; the worker
+     * then fails and reports the missing payload to whoever observes the work id.
+     */
+    private void enqueue(final EmailCreation emailCreation, final WorkContinuation continuation) {
+        IO_EXECUTOR.execute(
+                () -> {
+                    final UUID workId = emailCreation.workRequest.getId();
+                    try {
+                        WorkerPayloads.store(
+                                application, workId, emailCreation.payload.toByteArray());
+                    } catch (final IOException e) {
+                        LOGGER.error(String.format("Unable to store payload for %s", workId), e);
+                    }
+                    continuation.enqueue();
+                    WorkerPayloads.collectGarbage(application);
+                });
     }
 
     private static class EmailCreation {
         private final OneTimeWorkRequest workRequest;
         private final WorkContinuation workContinuation;
+        private final CreateEmailPayload payload;
 
-        private EmailCreation(OneTimeWorkRequest workRequest, WorkContinuation workContinuation) {
+        private EmailCreation(
+                OneTimeWorkRequest workRequest,
+                WorkContinuation workContinuation,
+                CreateEmailPayload payload) {
             this.workRequest = workRequest;
             this.workContinuation = workContinuation;
+            this.payload = payload;
         }
     }
 
+    /**
+     * Saves the draft with a single Email/set that also destroys the version it replaces. Saves are
+     * appended to the unique work of the account so consecutive saves of the same compose session
+     * run in order.
+     *
+     * @param replace the draft that is being edited; only replaced if there is no previous save or
+     *     the previous save did not succeed
+     * @param previousSave the id returned by the previous call to this method for the same draft
+     * @param endsSession whether the compose session ends with this save
+     */
     public UUID saveDraft(
             final IdentifiableIdentity identity,
             final ComposeViewModel.Draft draft,
             final Collection<String> inReplyTo,
             final boolean encrypted,
-            final EmailWithReferences discard) {
+            final EmailWithReferences replace,
+            final UUID previousSave,
+            final boolean endsSession) {
+        final Data replacing =
+                SaveDraftWorker.replacing(replace == null ? null : replace.id, previousSave);
         final EmailCreation workRequest =
                 createEmailWorkRequest(
-                        identity, draft, inReplyTo, encrypted, SaveDraftWorker.class);
-        if (discard != null) {
-            final OneTimeWorkRequest discardPreviousDraft =
-                    new OneTimeWorkRequest.Builder(DiscardDraftWorker.class)
-                            .setConstraints(CONNECTED_CONSTRAINT)
-                            .setInputData(DiscardDraftWorker.data(accountId, discard.id))
-                            .build();
-            workRequest.workContinuation.then(discardPreviousDraft).enqueue();
-        } else {
-            workRequest.workContinuation.enqueue();
-        }
+                        identity,
+                        draft,
+                        inReplyTo,
+                        encrypted,
+                        replacing,
+                        endsSession,
+                        SaveDraftWorker.class);
+        enqueue(workRequest, workRequest.workContinuation);
         return workRequest.workRequest.getId();
     }
 
+    /**
+     * Discards the draft created by {@link #saveDraft}.
+     *
+     * @param replace the draft that was being edited; discarded if the save did not succeed
+     */
+    public void discard(final UUID save, final EmailWithReferences replace) {
+        final OneTimeWorkRequest discardDraft =
+                new OneTimeWorkRequest.Builder(DiscardDraftWorker.class)
+                        .setConstraints(CONNECTED_CONSTRAINT)
+                        .setInputData(
+                                DiscardDraftWorker.data(
+                                        accountId, save, replace == null ? null : replace.id))
+                        .build();
+        WorkManager.getInstance(application)
+                .enqueueUniqueWork(
+                        AbstractMuaWorker.uniqueName(accountId),
+                        ExistingWorkPolicy.APPEND_OR_REPLACE,
+                        discardDraft);
+    }
+
     public boolean discard(EmailWithReferences editableEmail) {
         final OneTimeWorkRequest discardDraft =
                 new OneTimeWorkRequest.Builder(DiscardDraftWorker.class)
@@ -341,36 +488,4 @@ public class ComposeRepository extends AbstractRepository {
                     insertQueryItemOverwrite(threadId, Keyword.DRAFT);
                 });
     }
-
-    private static class Attachments {
-        private final List<LocalAttachment> requireUploading;
-        private final List<Attachment> processDirectly;
-
-        private Attachments(
-                final List<LocalAttachment> requireUploading,
-                final List<Attachment> processDirectly) {
-            this.requireUploading = requireUploading;
-            this.processDirectly = processDirectly;
-        }
-
-        public static Attachments collect(
-                final ComposeViewModel.Draft draft, final boolean encrypted) {
-            if (encrypted) {
-                return new Attachments(
-                        Collections.emptyList(), ImmutableList.copyOf(draft.getAttachments()));
-            }
-            final ImmutableList.Builder<LocalAttachment> localAttachmentBuilder =
-                    new ImmutableList.Builder<>();
-            final ImmutableList.Builder<Attachment> attachmentBuilder =
-                    new ImmutableList.Builder<>();
-            for (final Attachment attachment : draft.getAttachments()) {
-                if (attachment instanceof LocalAttachment) {
-                    localAttachmentBuilder.add((LocalAttachment) attachment);
-                } else {
-                    attachmentBuilder.add(attachment);
-                }
-            }
-            return new Attachments(localAttachmentBuilder.build(), attachmentBuilder.build());
-        }
-    }
 }
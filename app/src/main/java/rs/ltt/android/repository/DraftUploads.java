@@ -0,0 +1,86 @@
+package rs.ltt.android.repository;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import rs.ltt.android.cache.LocalAttachment;
+import rs.ltt.jmap.common.entity.Attachment;
+
+/**
+ * Keeps track of the local attachments of a compose session that have been queued for upload.
+ * Later saves of the same draft refer to the upload that has already been queued, whether or not
+ * it has finished, instead of uploading the attachment again. The worker creating the email picks
+ * up the blob from the output of that upload once it runs. Uploads that fail are forgotten so the
+ * next save queues them again; the local files are kept until the session has ended.
+ */
+public final class DraftUploads {
+
+    private final Map<UUID, UUID> uploads = new ConcurrentHashMap<>();
+
+    public Plan plan(final Collection<? extends Attachment> attachments, final boolean encrypted) {
+        if (encrypted) {
+            // encrypted emails embed the attachments read from the local files
+            return new Plan(
+                    Collections.emptyList(), ImmutableList.copyOf(attachments), ImmutableList.of());
+        }
+        final ImmutableList.Builder<LocalAttachment> requireUploading =
+                new ImmutableList.Builder<>();
+        final ImmutableList.Builder<Attachment> processDirectly = new ImmutableList.Builder<>();
+        final ImmutableList.Builder<UUID> pendingUploads = new ImmutableList.Builder<>();
+        for (final Attachment attachment : attachments) {
+            if (attachment instanceof LocalAttachment localAttachment) {
+                final UUID upload = uploads.get(localAttachment.getUuid());
+                if (upload == null) {
+                    requireUploading.add(localAttachment);
+                } else {
+                    pendingUploads.add(upload);
+                }
+            } else {
+                processDirectly.add(attachment);
+            }
+        }
+        return new Plan(requireUploading.build(), processDirectly.build(), pendingUploads.build());
+    }
+
+    public void queued(final LocalAttachment attachment, final UUID upload) {
+        uploads.put(attachment.getUuid(), upload);
+    }
+
+    public void failed(final UUID upload) {
+        uploads.values().remove(upload);
+    }
+
+    public boolean isQueued(final LocalAttachment attachment) {
+        return uploads.containsKey(attachment.getUuid());
+    }
+
+    /**
+     * @return the local attachments that have been queued for upload during this session
+     */
+    public Set<UUID> getQueued() {
+        return ImmutableSet.copyOf(uploads.keySet());
+    }
+
+    public static final class Plan {
+        public final List<LocalAttachment> requireUploading;
+        public final List<Attachment> processDirectly;
+
+        /** Ids of uploads queued by an earlier save; the email refers to their output. */
+        public final List<UUID> pendingUploads;
+
+        private Plan(
+                final List<LocalAttachment> requireUploading,
+                final List<Attachment> processDirectly,
+                final List<UUID> pendingUploads) {
+            this.requireUploading = requireUploading;
+            this.processDirectly = processDirectly;
+            this.pendingUploads = pendingUploads;
+        }
+    }
+}
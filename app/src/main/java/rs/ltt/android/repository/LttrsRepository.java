@@ -3,15 +3,19 @@ package rs.ltt.android.repository;
 import android.app.Application;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.ProcessLifecycleOwner;
 import androidx.work.Data;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.OutOfQuotaPolicy;
 import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -22,28 +26,30 @@ import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.android.MuaPool;
 import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.entity.BulkOverwriteEntity;
 import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.entity.QueryInfo;
+import rs.ltt.android.sync.AndroidConnectivityProvider;
+import rs.ltt.android.sync.CircuitBreaker;
+import rs.ltt.android.sync.SyncPolicy;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.android.ui.EmptyMailboxAction;
 import rs.ltt.android.ui.notification.EmailNotification;
 import rs.ltt.android.util.Event;
 import rs.ltt.android.worker.AbstractMuaWorker;
-import rs.ltt.android.worker.ArchiveWorker;
-import rs.ltt.android.worker.CopyToMailboxWorker;
-import rs.ltt.android.worker.EmptyTrashWorker;
 import rs.ltt.android.worker.Failure;
-import rs.ltt.android.worker.MarkImportantWorker;
-import rs.ltt.android.worker.ModifyKeywordWorker;
-import rs.ltt.android.worker.MoveToInboxWorker;
-import rs.ltt.android.worker.MoveToTrashWorker;
-import rs.ltt.android.worker.RemoveFromMailboxWorker;
+import rs.ltt.android.worker.MutationJournal;
+import rs.ltt.android.worker.MutationJournalWorker;
+import rs.ltt.android.worker.QueryMutationWorker;
 import rs.ltt.jmap.common.entity.IdentifiableMailboxWithRole;
 import rs.ltt.jmap.common.entity.Keyword;
 import rs.ltt.jmap.common.entity.Role;
-import rs.ltt.jmap.mua.util.KeywordUtil;
 
 public class LttrsRepository extends AbstractRepository {
 
@@ -72,17 +78,10 @@ public class LttrsRepository extends AbstractRepository {
                         return;
                     }
                     insertQueryItemOverwrite(threadIds, mailbox);
-                    for (final String threadId : threadIds) {
-                        final OneTimeWorkRequest workRequest =
-                                new OneTimeWorkRequest.Builder(RemoveFromMailboxWorker.class)
-                                        .setConstraints(CONNECTED_CONSTRAINT)
-                                        .setInputData(
-                                                RemoveFromMailboxWorker.data(
-                                                        accountId, threadId, mailbox))
-                                        .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                                        .build();
-                        dispatchWorkRequest(workRequest);
-                    }
+                    journal(
+                            threadIds,
+                            MutationEntity.Operation.REMOVE_FROM_MAILBOX,
+                            mailbox.getId());
                 });
     }
 
@@ -96,17 +95,8 @@ public class LttrsRepository extends AbstractRepository {
         IO_EXECUTOR.execute(
                 () -> {
                     deleteQueryItemOverwrite(threadIds, mailbox);
-                    for (final String threadId : threadIds) {
-                        final OneTimeWorkRequest workRequest =
-                                new OneTimeWorkRequest.Builder(CopyToMailboxWorker.class)
-                                        .setConstraints(CONNECTED_CONSTRAINT)
-                                        .setInputData(
-                                                CopyToMailboxWorker.data(
-                                                        accountId, threadId, mailbox))
-                                        .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                                        .build();
-                        dispatchWorkRequest(workRequest);
-                    }
+                    journal(
+                            threadIds, MutationEntity.Operation.COPY_TO_MAILBOX, mailbox.getId());
                 });
     }
 
@@ -121,15 +111,7 @@ public class LttrsRepository extends AbstractRepository {
                     database.overwriteDao()
                             .insertMailboxOverwrites(
                                     MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, true));
-                    for (final String threadId : threadIds) {
-                        final OneTimeWorkRequest workRequest =
-                                new OneTimeWorkRequest.Builder(ArchiveWorker.class)
-                                        .setConstraints(CONNECTED_CONSTRAINT)
-                                        .setInputData(ArchiveWorker.data(accountId, threadId))
-                                        .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                                        .build();
-                        dispatchWorkRequest(workRequest);
-                    }
+                    journal(threadIds, MutationEntity.Operation.ARCHIVE, null);
                 });
     }
 
@@ -149,15 +131,7 @@ public class LttrsRepository extends AbstractRepository {
                     database.overwriteDao()
                             .insertMailboxOverwrites(
                                     MailboxOverwriteEntity.of(threadIds, Role.TRASH, false));
-                    for (final String threadId : threadIds) {
-                        final OneTimeWorkRequest workRequest =
-                                new OneTimeWorkRequest.Builder(MoveToInboxWorker.class)
-                                        .setConstraints(CONNECTED_CONSTRAINT)
-                                        .setInputData(MoveToInboxWorker.data(accountId, threadId))
-                                        .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                                        .build();
-                        dispatchWorkRequest(workRequest);
-                    }
+                    journal(threadIds, MutationEntity.Operation.MOVE_TO_INBOX, null);
                 });
     }
 
@@ -167,31 +141,30 @@ public class LttrsRepository extends AbstractRepository {
         final SettableFuture<LiveData<WorkInfo>> future = SettableFuture.create();
         IO_EXECUTOR.execute(
                 () -> {
-                    for (MailboxWithRoleAndName mailbox :
-                            database.mailboxDao().getMailboxesForThreads(threadIds)) {
-                        if (mailbox.role != Role.TRASH) {
-                            insertQueryItemOverwrite(threadIds, mailbox);
-                        }
-                    }
-                    for (String keyword : KeywordUtil.KEYWORD_ROLE.keySet()) {
-                        insertQueryItemOverwrite(threadIds, keyword);
-                    }
-                    final AppDatabase appDatabase = AppDatabase.getInstance(application);
-                    for (final String searchQuery :
-                            appDatabase.searchSuggestionDao().getSearchQueries()) {
-                        insertSearchQueryItemOverwrite(threadIds, searchQuery);
-                    }
+                    insertTrashQueryItemOverwrite(threadIds);
                     database.overwriteDao()
                             .insertMailboxOverwrites(
                                     MailboxOverwriteEntity.of(threadIds, Role.INBOX, false));
                     database.overwriteDao()
                             .insertMailboxOverwrites(
                                     MailboxOverwriteEntity.of(threadIds, Role.TRASH, true));
+                    AppDatabase.getInstance(application)
+                            .mutationDao()
+                            .insert(
+                                    MutationEntity.of(
+                                            accountId,
+                                            threadIds,
+                                            MutationEntity.Operation.MOVE_TO_TRASH,
+                                            null));
+                    // flushes everything up to and including the move to trash once it can no
+                    // longer be undone
                     final OneTimeWorkRequest workRequest =
-                            new OneTimeWorkRequest.Builder(MoveToTrashWorker.class)
+                            new OneTimeWorkRequest.Builder(MutationJournalWorker.class)
                                     .setConstraints(CONNECTED_CONSTRAINT)
-                                    .setInputData(MoveToTrashWorker.data(accountId, threadIds))
-                                    .setInitialDelay(5, TimeUnit.SECONDS)
+                                    .setInputData(MutationJournalWorker.data(accountId))
+                                    .setInitialDelay(
+                                            MutationJournal.MOVE_TO_TRASH_DELAY_SECONDS,
+                                            TimeUnit.SECONDS)
                                     .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
                                     .build();
                     future.set(dispatchWorkRequest(workRequest));
@@ -199,11 +172,16 @@ public class LttrsRepository extends AbstractRepository {
         return future;
     }
 
-    public void cancelMoveToTrash(final WorkInfo workInfo, final Collection<String> threadIds) {
-        Preconditions.checkNotNull(workInfo, "Unable to cancel moveToTrash operation.");
-        WorkManager.getInstance(application).cancelWorkById(workInfo.getId());
+    public void cancelMoveToTrash(final Collection<String> threadIds) {
         IO_EXECUTOR.execute(
                 () -> {
+                    final int deleted =
+                            AppDatabase.getInstance(application)
+                                    .mutationDao()
+                                    .deleteMoveToTrash(accountId, threadIds);
+                    if (deleted == 0) {
+                        LOGGER.warn("Move to trash of {} has already been sent", threadIds);
+                    }
                     database.overwriteDao().revertMoveToTrashOverwrites(threadIds);
                 });
     }
@@ -215,15 +193,7 @@ public class LttrsRepository extends AbstractRepository {
                             .insertMailboxOverwrites(
                                     MailboxOverwriteEntity.of(threadIds, Role.IMPORTANT, true));
                     deleteQueryItemOverwrite(threadIds, Role.IMPORTANT);
-                    for (final String threadId : threadIds) {
-                        final OneTimeWorkRequest workRequest =
-                                new OneTimeWorkRequest.Builder(MarkImportantWorker.class)
-                                        .setConstraints(CONNECTED_CONSTRAINT)
-                                        .setInputData(MarkImportantWorker.data(accountId, threadId))
-                                        .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                                        .build();
-                        dispatchWorkRequest(workRequest);
-                    }
+                    journal(threadIds, MutationEntity.Operation.MARK_IMPORTANT, null);
                 });
     }
 
@@ -245,16 +215,7 @@ public class LttrsRepository extends AbstractRepository {
         database.overwriteDao()
                 .insertMailboxOverwrites(
                         MailboxOverwriteEntity.of(threadIds, Role.IMPORTANT, false));
-        for (final String threadId : threadIds) {
-            final OneTimeWorkRequest workRequest =
-                    new OneTimeWorkRequest.Builder(RemoveFromMailboxWorker.class)
-                            .setConstraints(CONNECTED_CONSTRAINT)
-                            .setInputData(
-                                    RemoveFromMailboxWorker.data(accountId, threadId, mailbox))
-                            .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                            .build();
-            dispatchWorkRequest(workRequest);
-        }
+        journal(threadIds, MutationEntity.Operation.REMOVE_FROM_MAILBOX, mailbox.getId());
     }
 
     public void toggleFlagged(final Collection<String> threadIds, final boolean targetState) {
@@ -288,17 +249,12 @@ public class LttrsRepository extends AbstractRepository {
                     } else {
                         insertQueryItemOverwrite(threadIds, keyword);
                     }
-                    for (final String threadId : threadIds) {
-                        final OneTimeWorkRequest workRequest =
-                                new OneTimeWorkRequest.Builder(ModifyKeywordWorker.class)
-                                        .setConstraints(CONNECTED_CONSTRAINT)
-                                        .setInputData(
-                                                ModifyKeywordWorker.data(
-                                                        accountId, threadId, keyword, targetState))
-                                        .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
-                                        .build();
-                        dispatchWorkRequest(workRequest);
-                    }
+                    journal(
+                            threadIds,
+                            targetState
+                                    ? MutationEntity.Operation.SET_KEYWORD
+                                    : MutationEntity.Operation.REMOVE_KEYWORD,
+                            keyword);
                 });
     }
 
@@ -316,6 +272,117 @@ public class LttrsRepository extends AbstractRepository {
         toggleKeyword(threadIds, Keyword.SEEN, false);
     }
 
+    /** Marks every email in the query as read, not only the ones that have been loaded. */
+    public void markRead(final QueryInfo queryInfo) {
+        if (queryInfo.type == QueryInfo.Type.MAIN) {
+            EmailNotification.cancel(application, accountId);
+        }
+        modifyQuery(queryInfo, MutationEntity.Operation.SET_KEYWORD, Keyword.SEEN);
+    }
+
+    /** Archives every email in the inbox, not only the ones that have been loaded. */
+    public void archive(final QueryInfo queryInfo) {
+        modifyQuery(queryInfo, MutationEntity.Operation.ARCHIVE, null);
+    }
+
+    /**
+     * Applies the operation to the entire query. Unlike modifications of individual threads this
+     * does not need the threads to be cached. Instead of per thread overwrites there is a single
+     * overwrite for the query that is removed when the {@link QueryMutationWorker} has finished.
+     */
+    private void modifyQuery(
+            final QueryInfo queryInfo,
+            final MutationEntity.Operation operation,
+            final String keyword) {
+        IO_EXECUTOR.execute(
+                () -> {
+                    final String queryString =
+                            QueryMutationWorker.getEmailQuery(database, queryInfo).asHash();
+                    final Data data =
+                            QueryMutationWorker.data(queryInfo, queryString, operation, keyword);
+                    database.overwriteDao()
+                            .insertBulkOverwrite(
+                                    new BulkOverwriteEntity(queryString, operation, keyword));
+                    final OneTimeWorkRequest workRequest =
+                            new OneTimeWorkRequest.Builder(QueryMutationWorker.class)
+                                    .setConstraints(CONNECTED_CONSTRAINT)
+                                    .setInputData(data)
+                                    .setExpedited(
+                                            OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                                    .addTag(AbstractMuaWorker.TAG_EMAIL_MODIFICATION)
+                                    .addTag(QueryMutationWorker.tag(accountId, queryString))
+                                    .build();
+                    dispatchWorkRequest(workRequest);
+                });
+    }
+
+    /**
+     * Records the modification in the mutation journal and flushes the journal. A {@link
+     * MutationJournalWorker} is always scheduled. While the app is in the foreground and the
+     * account is reachable the journal is also flushed right away, in process, in which case the
+     * worker usually finds nothing left to do. Either flush picks up everything that is in the
+     * journal at that point, so a flush that fails or is replaced by a later one does not lose
+     * modifications.
+     */
+    private void journal(
+            final Collection<String> threadIds,
+            final MutationEntity.Operation operation,
+            final String argument) {
+        journal(MutationEntity.of(accountId, threadIds, operation, argument));
+    }
+
+    private void journal(final Collection<MutationEntity> mutations) {
+        AppDatabase.getInstance(application).mutationDao().insert(mutations);
+        dispatchWorkRequest(MutationJournalWorker.of(accountId));
+        if (isInProcessFlushAvailable()) {
+            flushInProcess();
+        }
+    }
+
+    private boolean isInProcessFlushAvailable() {
+        final boolean foreground =
+                ProcessLifecycleOwner.get()
+                        .getLifecycle()
+                        .getCurrentState()
+                        .isAtLeast(Lifecycle.State.STARTED);
+        return foreground
+                && new AndroidConnectivityProvider(application).getNetworkClass()
+                        != SyncPolicy.NetworkClass.OFFLINE
+                && SyncScheduler.getInstance(accountId).getCircuitBreaker().getState()
+                        == CircuitBreaker.State.CLOSED;
+    }
+
+    private void flushInProcess() {
+        final AppDatabase appDatabase = AppDatabase.getInstance(application);
+        final ListenableFuture<MutationJournal.Outcome> future =
+                MutationJournal.flushInProcess(
+                        accountId,
+                        () ->
+                                MuaPool.getInstance(
+                                        application,
+                                        appDatabase.accountDao().getAccount(accountId)),
+                        appDatabase,
+                        database,
+                        SyncScheduler.getInstance(accountId));
+        Futures.addCallback(
+                future,
+                new FutureCallback<MutationJournal.Outcome>() {
+                    @Override
+                    public void onSuccess(final MutationJournal.Outcome outcome) {
+                        // on RETRY the worker takes over
+                        if (outcome.state == MutationJournal.Outcome.State.FAILURE) {
+                            failureEventMediator.postValue(new Event<>(outcome.getFailure()));
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.warn("Unable to flush mutation journal in process", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
     protected LiveData<WorkInfo> dispatchWorkRequest(final OneTimeWorkRequest workRequest) {
         final WorkManager workManager = WorkManager.getInstance(application);
         workManager.enqueueUniqueWork(
@@ -336,12 +403,7 @@ public class LttrsRepository extends AbstractRepository {
     }
 
     private void emptyTrash() {
-        final OneTimeWorkRequest workRequest =
-                new OneTimeWorkRequest.Builder(EmptyTrashWorker.class)
-                        .setConstraints(CONNECTED_CONSTRAINT)
-                        .setInputData(EmptyTrashWorker.data(accountId))
-                        .build();
-        dispatchWorkRequest(workRequest);
+        IO_EXECUTOR.execute(() -> journal(MutationEntity.emptyTrash(accountId)));
     }
 
     protected LiveData<WorkInfo> observeForFailure(final OneTimeWorkRequest workRequest) {
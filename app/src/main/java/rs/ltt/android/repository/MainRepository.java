@@ -19,10 +19,12 @@ import android.app.Application;
 import android.database.sqlite.SQLiteDatabase;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Transformations;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.WorkManager;
 import com.google.common.base.Optional;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -47,8 +49,10 @@ import rs.ltt.android.entity.SearchSuggestion;
 import rs.ltt.android.entity.SearchSuggestionEntity;
 import rs.ltt.android.push.PushManager;
 import rs.ltt.android.service.EventMonitorService;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.android.ui.notification.EmailNotification;
 import rs.ltt.android.worker.AbstractMuaWorker;
+import rs.ltt.android.worker.InitialSyncWorker;
 import rs.ltt.android.worker.MainMailboxQueryRefreshWorker;
 import rs.ltt.android.worker.QueryRefreshWorker;
 import rs.ltt.autocrypt.jmap.AutocryptPlugin;
@@ -115,6 +119,7 @@ public class MainRepository {
 
                     EventMonitorService.startMonitoring(application, accountIdMap.values());
                     PushManager.register(application, credentials);
+                    startInitialSync(accountIdMap.values());
 
                     final Long internalIdForPrimary =
                             accountIdMap.getOrDefault(
@@ -135,6 +140,26 @@ public class MainRepository {
                 IO_EXECUTOR);
     }
 
+    private void startInitialSync(final Collection<Long> accountIds) {
+        final WorkManager workManager = WorkManager.getInstance(application);
+        for (final Long accountId : accountIds) {
+            workManager.enqueueUniqueWork(
+                    InitialSyncWorker.uniqueName(accountId),
+                    ExistingWorkPolicy.KEEP,
+                    InitialSyncWorker.of(accountId));
+        }
+    }
+
+    public LiveData<Integer> getInitialSyncProgress(final Long accountId) {
+        return Transformations.map(
+                WorkManager.getInstance(application)
+                        .getWorkInfosForUniqueWorkLiveData(InitialSyncWorker.uniqueName(accountId)),
+                workInfos ->
+                        workInfos.isEmpty()
+                                ? null
+                                : InitialSyncWorker.getProgress(Iterables.getLast(workInfos)));
+    }
+
     public ListenableFuture<Void> importAutocryptSetupMessage(
             AutocryptSetupMessage autocryptSetupMessage, String passphrase) {
         final AccountWithCredentials account = autocryptSetupMessage.getAccount();
@@ -247,6 +272,7 @@ public class MainRepository {
         // TODO delete push subscriptions and then evict
 
         MuaPool.evict(accountId);
+        SyncScheduler.evict(accountId);
         final File file = LttrsDatabase.close(accountId);
         if (file != null && SQLiteDatabase.deleteDatabase(file)) {
             LOGGER.debug("Successfully deleted {}", file.getAbsolutePath());
@@ -269,5 +295,6 @@ public class MainRepository {
         workManager.cancelUniqueWork(AbstractMuaWorker.uniqueName(accountId));
         workManager.cancelUniqueWork(QueryRefreshWorker.uniqueName(accountId));
         workManager.cancelUniqueWork(MainMailboxQueryRefreshWorker.uniquePeriodicName(accountId));
+        workManager.cancelUniqueWork(InitialSyncWorker.uniqueName(accountId));
     }
 }
@@ -17,65 +17,139 @@ package rs.ltt.android.repository;
 
 import android.app.Application;
 import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
-import androidx.paging.LivePagedListBuilder;
-import androidx.paging.PagedList;
+import androidx.paging.ExperimentalPagingApi;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.dao.ThreadAndEmailDao;
 import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.ThreadOverviewItem;
+import rs.ltt.android.sync.ProgressiveQuery;
+import rs.ltt.android.sync.SyncPolicy;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.mua.Status;
 
+@OptIn(markerClass = ExperimentalPagingApi.class)
 public class QueryRepository extends AbstractMuaRepository {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryRepository.class);
 
+    // a large prefetch distance makes the remote mediator append well before the user reaches the
+    // end of the list
+    private static final PagingConfig PAGING_CONFIG =
+            new PagingConfig(ThreadAndEmailDao.MISSING_CHUNK_SIZE, 90);
+
     private final Set<String> runningQueries = new HashSet<>();
-    private final Set<String> runningPagingRequests = new HashSet<>();
 
     private final MutableLiveData<Set<String>> runningQueriesLiveData =
             new MutableLiveData<>(runningQueries);
-    private final MutableLiveData<Set<String>> runningPagingRequestsLiveData =
-            new MutableLiveData<>(runningPagingRequests);
+
+    private final Set<String> resolvingQueries = new HashSet<>();
+
+    private final ThreadOverviewRemoteMediator.Loader loader =
+            new ThreadOverviewRemoteMediator.Loader() {
+                @Override
+                public ListenableFuture<Status> query(final EmailQuery emailQuery) {
+                    final ListenableFuture<Status> statusFuture =
+                            schedule(
+                                    SyncScheduler.Priority.USER_FETCH,
+                                    mua -> mua.query(emailQuery));
+                    Futures.addCallback(
+                            statusFuture,
+                            new FutureCallback<Status>() {
+                                @Override
+                                public void onSuccess(final Status status) {
+                                    resolveMissing(emailQuery);
+                                }
+
+                                @Override
+                                public void onFailure(@NonNull final Throwable throwable) {}
+                            },
+                            MoreExecutors.directExecutor());
+                    return statusFuture;
+                }
+
+                @Override
+                public ListenableFuture<Status> query(
+                        final EmailQuery emailQuery, final String afterEmailId) {
+                    return schedule(
+                            SyncScheduler.Priority.USER_FETCH,
+                            mua -> mua.query(emailQuery, afterEmailId));
+                }
+
+                @Override
+                public boolean isPrefetchAllowed() {
+                    return SyncPolicy.getInstance(application).isPrefetchAllowed();
+                }
+            };
 
     public QueryRepository(final Application application, final long accountId) {
         super(application, accountId);
     }
 
-    public LiveData<PagedList<ThreadOverviewItem>> getThreadOverviewItems(final EmailQuery query) {
-        return new LivePagedListBuilder<>(
-                        database.queryDao().getThreadOverviewItems(query.asHash()), 30)
-                .setBoundaryCallback(
-                        new PagedList.BoundaryCallback<ThreadOverviewItem>() {
-                            @Override
-                            public void onZeroItemsLoaded() {
-                                LOGGER.debug("onZeroItemsLoaded");
-                                requestNextPage(
-                                        query,
-                                        null); // conceptually in terms of loading indicators this
-                                // is more of a page request
-                                super.onZeroItemsLoaded();
-                            }
-
-                            @Override
-                            public void onItemAtEndLoaded(@NonNull ThreadOverviewItem itemAtEnd) {
-                                LOGGER.debug("onItemAtEndLoaded({})", itemAtEnd.emailId);
-                                requestNextPage(query, itemAtEnd.emailId);
-                                super.onItemAtEndLoaded(itemAtEnd);
-                            }
-                        })
-                .build();
+    // the query itself only brings in the first chunk of missing threads (the visible ones); the
+    // remaining chunks are fetched in the background and show up in the list as they get committed.
+    // Refreshing the list again while that is still going on does not start a second round
+    private void resolveMissing(final EmailQuery emailQuery) {
+        final String queryString = emailQuery.asHash();
+        synchronized (resolvingQueries) {
+            if (!resolvingQueries.add(queryString)) {
+                LOGGER.debug("Already resolving missing threads of {}", queryString);
+                return;
+            }
+        }
+        final ListenableFuture<Status> future =
+                ProgressiveQuery.resolveMissing(
+                        () ->
+                                schedule(
+                                        SyncScheduler.Priority.PREFETCH,
+                                        mua -> mua.query(emailQuery)),
+                        () -> database.threadAndEmailDao().getMissingThreadCount(queryString));
+        future.addListener(
+                () -> {
+                    synchronized (resolvingQueries) {
+                        resolvingQueries.remove(queryString);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        Futures.addCallback(
+                future,
+                new FutureCallback<Status>() {
+                    @Override
+                    public void onSuccess(final Status status) {}
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.debug("Unable to resolve missing threads", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    public LiveData<PagingData<ThreadOverviewItem>> getThreadOverviewItems(final EmailQuery query) {
+        final Pager<Integer, ThreadOverviewItem> pager =
+                new Pager<>(
+                        PAGING_CONFIG,
+                        null,
+                        new ThreadOverviewRemoteMediator(query, database, loader, IO_EXECUTOR),
+                        () -> database.queryDao().getThreadOverviewItems(query));
+        return PagingLiveData.getLiveData(pager);
     }
 
     public ListenableFuture<MailboxWithRoleAndName> getInbox() {
@@ -91,12 +165,6 @@ public class QueryRepository extends AbstractMuaRepository {
                 runningQueriesLiveData, queryStrings -> queryStrings.contains(query.asHash()));
     }
 
-    public LiveData<Boolean> isRunningPagingRequestFor(final EmailQuery query) {
-        return Transformations.map(
-                runningPagingRequestsLiveData,
-                queryStrings -> queryStrings.contains(query.asHash()));
-    }
-
     public void refresh(final EmailQuery emailQuery) {
         final String queryString = emailQuery.asHash();
         synchronized (this) {
@@ -104,18 +172,8 @@ public class QueryRepository extends AbstractMuaRepository {
                 LOGGER.debug("skipping refresh since already running");
                 return;
             }
-            if (runningPagingRequests.contains(queryString)) {
-                // even though this refresh call is only implicit through the pageRequest we want to
-                // display something nice for the user
-                runningQueries.add(queryString);
-                runningQueriesLiveData.postValue(runningQueries);
-                LOGGER.debug("skipping refresh since we are running a page request");
-                return;
-            }
         }
-        final ListenableFuture<Status> statusFuture =
-                Futures.transformAsync(
-                        mua, mua -> mua.query(emailQuery), MoreExecutors.directExecutor());
+        final ListenableFuture<Status> statusFuture = loader.query(emailQuery);
         statusFuture.addListener(
                 () -> {
                     synchronized (runningQueries) {
@@ -135,53 +193,8 @@ public class QueryRepository extends AbstractMuaRepository {
     public boolean isRefreshing(final EmailQuery emailQuery) {
         final String queryString = emailQuery.asHash();
         synchronized (this) {
-            return runningQueries.contains(queryString)
-                    || runningPagingRequests.contains(queryString);
-        }
-    }
-
-    private void requestNextPage(final EmailQuery emailQuery, String afterEmailId) {
-        final String queryString = emailQuery.asHash();
-        synchronized (this) {
-            if (!runningPagingRequests.add(queryString)) {
-                LOGGER.debug("skipping paging request since already running");
-                return;
-            }
-            runningPagingRequestsLiveData.postValue(runningPagingRequests);
+            return runningQueries.contains(queryString);
         }
-        final ListenableFuture<Status> hadResults;
-        if (afterEmailId == null) {
-            hadResults =
-                    Futures.transformAsync(
-                            mua, mua -> mua.query(emailQuery), MoreExecutors.directExecutor());
-        } else {
-            hadResults =
-                    Futures.transformAsync(
-                            mua,
-                            mua -> mua.query(emailQuery, afterEmailId),
-                            MoreExecutors.directExecutor());
-        }
-        hadResults.addListener(
-                () -> {
-                    final boolean modifiedImplicitRefresh;
-                    synchronized (this) {
-                        runningPagingRequests.remove(queryString);
-                        modifiedImplicitRefresh = runningQueries.remove(queryString);
-                    }
-                    runningPagingRequestsLiveData.postValue(runningPagingRequests);
-                    if (modifiedImplicitRefresh) {
-                        runningQueriesLiveData.postValue(runningQueries);
-                    }
-                    try {
-                        LOGGER.debug("requestNextPageResult=" + hadResults.get());
-                    } catch (ExecutionException e) {
-                        Throwable cause = e.getCause();
-                        LOGGER.debug("error retrieving the next page", cause);
-                    } catch (Exception e) {
-                        LOGGER.debug("error paging ", e);
-                    }
-                },
-                MoreExecutors.directExecutor());
     }
 
     public LiveData<MailboxOverviewItem> getMailboxOverviewItem(final String mailboxId) {
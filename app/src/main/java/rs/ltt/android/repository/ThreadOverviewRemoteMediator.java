@@ -0,0 +1,161 @@
+package rs.ltt.android.repository;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
+import androidx.paging.ExperimentalPagingApi;
+import androidx.paging.ListenableFutureRemoteMediator;
+import androidx.paging.LoadType;
+import androidx.paging.PagingState;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.ThreadOverviewItem;
+import rs.ltt.android.sync.ReadAhead;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.Status;
+
+/**
+ * Fills the query_item table for one query from the server. The database stays the single source
+ * of truth; the list is served from a Room PagingSource that is invalidated whenever we write new
+ * items.
+ *
+ * <p>JMAP queries are only ever extended at the end. New items at the top arrive through a refresh
+ * (Email/queryChanges) which is why PREPEND immediately reports the end of pagination.
+ */
+@OptIn(markerClass = ExperimentalPagingApi.class)
+public class ThreadOverviewRemoteMediator
+        extends ListenableFutureRemoteMediator<Integer, ThreadOverviewItem> {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ThreadOverviewRemoteMediator.class);
+
+    private final EmailQuery emailQuery;
+    private final LttrsDatabase database;
+    private final Loader loader;
+    private final Executor executor;
+    private final ReadAhead readAhead = new ReadAhead();
+
+    public ThreadOverviewRemoteMediator(
+            final EmailQuery emailQuery,
+            final LttrsDatabase database,
+            final Loader loader,
+            final Executor executor) {
+        this.emailQuery = emailQuery;
+        this.database = database;
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<InitializeAction> initializeFuture() {
+        // cached queries are kept up to date by push, the periodic worker and swipe to refresh
+        return Futures.submit(
+                () ->
+                        database.queryDao().empty(emailQuery.asHash())
+                                ? InitializeAction.LAUNCH_INITIAL_REFRESH
+                                : InitializeAction.SKIP_INITIAL_REFRESH,
+                executor);
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<MediatorResult> loadFuture(
+            @NonNull final LoadType loadType,
+            @NonNull final PagingState<Integer, ThreadOverviewItem> state) {
+        final ListenableFuture<MediatorResult> result =
+                switch (loadType) {
+                    case REFRESH ->
+                            Futures.transform(
+                                    loader.query(emailQuery),
+                                    status -> new MediatorResult.Success(false),
+                                    MoreExecutors.directExecutor());
+                    case PREPEND -> Futures.immediateFuture(new MediatorResult.Success(true));
+                    case APPEND -> append();
+                };
+        return Futures.catching(
+                result,
+                Exception.class,
+                e -> {
+                    LOGGER.debug("Unable to load {} for {}", loadType, emailQuery, e);
+                    return new MediatorResult.Error(e);
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<MediatorResult> append() {
+        final long requestedAt = readAhead.onBoundaryReached();
+        final ListenableFuture<Status> page = nextPage();
+        final ListenableFuture<Status> withReadAhead =
+                Futures.transformAsync(
+                        page,
+                        status -> {
+                            readAhead.onPageLoaded(requestedAt, true);
+                            return readAhead(status);
+                        },
+                        MoreExecutors.directExecutor());
+        return Futures.transform(
+                withReadAhead,
+                status -> {
+                    LOGGER.debug("append({}) returned {}, {}", emailQuery, status, readAhead);
+                    return new MediatorResult.Success(status != Status.UPDATED);
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Status> nextPage() {
+        // The last item in the PagingState might be hidden by an overwrite. The server needs
+        // the last item that we actually have in the cache.
+        final ListenableFuture<String> afterEmailId =
+                Futures.submit(
+                        () -> database.queryDao().getLastEmailId(emailQuery.asHash()), executor);
+        return Futures.transformAsync(
+                afterEmailId,
+                emailId ->
+                        emailId == null
+                                ? loader.query(emailQuery)
+                                : loader.query(emailQuery, emailId),
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Status> readAhead(final Status status) {
+        final int pagesAhead = readAhead.getPagesAhead();
+        if (pagesAhead == 0 || status != Status.UPDATED || !loader.isPrefetchAllowed()) {
+            return Futures.immediateFuture(status);
+        }
+        LOGGER.debug("reading ahead {} pages", pagesAhead);
+        ListenableFuture<Status> chain = Futures.immediateFuture(status);
+        for (int i = 0; i < pagesAhead; ++i) {
+            chain =
+                    Futures.transformAsync(
+                            chain,
+                            previous -> {
+                                if (previous != Status.UPDATED) {
+                                    return Futures.immediateFuture(previous);
+                                }
+                                final long requestedAt = readAhead.now();
+                                final ListenableFuture<Status> next = nextPage();
+                                next.addListener(
+                                        () -> readAhead.onPageLoaded(requestedAt, false),
+                                        MoreExecutors.directExecutor());
+                                return next;
+                            },
+                            MoreExecutors.directExecutor());
+        }
+        return chain;
+    }
+
+    public interface Loader {
+        ListenableFuture<Status> query(EmailQuery emailQuery);
+
+        ListenableFuture<Status> query(EmailQuery emailQuery, String afterEmailId);
+
+        default boolean isPrefetchAllowed() {
+            return true;
+        }
+    }
+}
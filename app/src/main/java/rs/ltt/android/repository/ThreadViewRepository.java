@@ -44,9 +44,11 @@ import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.Seen;
 import rs.ltt.android.entity.ThreadHeader;
+import rs.ltt.android.sync.FullBodyFetch;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.android.worker.DecryptionWorker;
 
-public class ThreadViewRepository extends AbstractRepository {
+public class ThreadViewRepository extends AbstractMuaRepository {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThreadViewRepository.class);
 
@@ -59,6 +61,36 @@ public class ThreadViewRepository extends AbstractRepository {
                 .build();
     }
 
+    /**
+     * Bodies that are stored truncated (see {@link rs.ltt.android.cache.DatabaseCache}) are
+     * completed once the user actually opens the thread. The user asked for them so they are
+     * fetched in full regardless of the {@link rs.ltt.android.sync.SyncPolicy}.
+     */
+    public ListenableFuture<Integer> fetchTruncatedBodyValues(final String threadId) {
+        final ListenableFuture<List<String>> emailIdsFuture =
+                database.threadAndEmailDao().getEmailIdsWithTruncatedBodyValues(threadId);
+        return Futures.transformAsync(
+                emailIdsFuture,
+                emailIds -> {
+                    if (emailIds.isEmpty()) {
+                        return Futures.immediateFuture(0);
+                    }
+                    return Futures.transformAsync(
+                            getAccount(),
+                            account ->
+                                    schedule(
+                                            SyncScheduler.Priority.USER_FETCH,
+                                            mua ->
+                                                    FullBodyFetch.fetch(
+                                                            mua,
+                                                            database,
+                                                            account.getAccountId(),
+                                                            emailIds)),
+                            MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor());
+    }
+
     public LiveData<ThreadHeader> getThreadHeader(String threadId) {
         return database.threadAndEmailDao().getThreadHeader(threadId);
     }
@@ -5,22 +5,31 @@ import android.content.Intent;
 import android.os.IBinder;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleService;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
 import androidx.lifecycle.ProcessLifecycleOwner;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import org.slf4j.Logger;
@@ -29,6 +38,8 @@ import rs.ltt.android.MuaPool;
 import rs.ltt.android.database.AppDatabase;
 import rs.ltt.android.entity.AccountWithCredentials;
 import rs.ltt.android.entity.QueryInfo;
+import rs.ltt.android.sync.AccountEventLoop;
+import rs.ltt.android.sync.ConcurrencyLimiter;
 import rs.ltt.android.ui.notification.EmailNotification;
 import rs.ltt.android.worker.QueryRefreshWorker;
 import rs.ltt.jmap.client.event.OnConnectionStateChangeListener;
@@ -41,6 +52,7 @@ import rs.ltt.jmap.mua.Mua;
 public class EventMonitorService extends LifecycleService {
 
     static final Executor PUSH_SERVICE_BACKGROUND_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final int MAX_CONCURRENT_REFRESHES = 2;
     private static final String ACTION_WATCH_QUERY = "rs.ltt.android.ACTION_WATCH_QUERY";
     private static final String ACTION_START_MONITORING = "rs.ltt.android.ACTION_START_MONITORING";
     private static final String ACTION_STOP_MONITORING = "rs.ltt.android.ACTION_STOP_MONITORING";
@@ -48,6 +60,10 @@ public class EventMonitorService extends LifecycleService {
     private static final String EXTRA_QUERY_INFO = "rs.ltt.android.EXTRA_QUERY_INFO";
     private static final Logger LOGGER = LoggerFactory.getLogger(EventMonitorService.class);
     private final Map<Long, EventMonitorRegistration> eventMonitorRegistrations = new HashMap<>();
+    private final ConcurrencyLimiter refreshLimiter =
+            new ConcurrencyLimiter(MAX_CONCURRENT_REFRESHES);
+    private final Set<SettableFuture<Void>> pendingRefreshes = new HashSet<>();
+    private boolean destroyed = false;
     private QueryInfo currentlyWatchedQuery = null;
 
     public static void watchQuery(final Context context, final QueryInfo queryInfo) {
@@ -121,6 +137,18 @@ public class EventMonitorService extends LifecycleService {
                 iterator.remove();
             }
         }
+        final List<SettableFuture<Void>> pending;
+        synchronized (this.pendingRefreshes) {
+            this.destroyed = true;
+            pending = ImmutableList.copyOf(this.pendingRefreshes);
+            this.pendingRefreshes.clear();
+        }
+        // the observers are bound to our lifecycle and will never be called again. Cancelling
+        // releases the refresh slots and lets the triggers settle
+        this.refreshLimiter.shutdown();
+        for (final SettableFuture<Void> future : pending) {
+            future.cancel(false);
+        }
         super.onDestroy();
     }
 
@@ -178,48 +206,51 @@ public class EventMonitorService extends LifecycleService {
 
     private void setupEventMonitor(final AccountWithCredentials account) {
         final EventMonitor eventMonitor;
-        final ListenableFuture<PushService> pushServiceFuture;
         synchronized (eventMonitorRegistrations) {
             if (eventMonitorRegistrations.containsKey(account.getId())) {
                 return;
             }
-            final Mua mua = MuaPool.getInstance(this, account);
             eventMonitor = new EventMonitor(account);
             eventMonitorRegistrations.put(
                     account.getId(), new EventMonitorRegistration(eventMonitor));
-            pushServiceFuture = mua.getJmapClient().monitorEvents();
         }
-        Futures.addCallback(
-                pushServiceFuture,
-                new FutureCallback<>() {
+        eventMonitor.eventLoop.connect(() -> monitorEvents(account, eventMonitor));
+    }
 
-                    @Override
-                    public void onSuccess(@Nullable PushService pushService) {
-                        if (pushService == null) {
-                            return;
-                        }
-                        final Lifecycle.State currentState = getLifecycle().getCurrentState();
-                        if (currentState.isAtLeast(Lifecycle.State.INITIALIZED)) {
-                            final EventMonitorRegistration registration =
-                                    new EventMonitorRegistration(pushService, eventMonitor);
+    private ListenableFuture<Void> monitorEvents(
+            final AccountWithCredentials account, final EventMonitor eventMonitor) {
+        final Mua mua = MuaPool.getInstance(this, account);
+        return Futures.transform(
+                mua.getJmapClient().monitorEvents(),
+                pushService -> {
+                    if (pushService == null) {
+                        return null;
+                    }
+                    final Lifecycle.State currentState = getLifecycle().getCurrentState();
+                    if (currentState.isAtLeast(Lifecycle.State.INITIALIZED)) {
+                        synchronized (eventMonitorRegistrations) {
+                            final EventMonitorRegistration previous =
+                                    eventMonitorRegistrations.get(account.getId());
+                            if (previous == null) {
+                                LOGGER.debug("Monitoring of {} stopped meanwhile", account.getId());
+                                return null;
+                            }
+                            // reconnects after a failed connection may hand out the same service
+                            previous.removeListeners();
                             pushService.addOnStateChangeListener(eventMonitor);
                             pushService.addOnConnectionStateListener(eventMonitor);
-                            synchronized (eventMonitorRegistrations) {
-                                eventMonitorRegistrations.put(account.getId(), registration);
-                            }
-                        } else {
-                            LOGGER.debug(
-                                    "Not going to listen for StateChanges. Service is {}",
-                                    currentState);
+                            eventMonitorRegistrations.put(
+                                    account.getId(),
+                                    new EventMonitorRegistration(pushService, eventMonitor));
                         }
+                    } else {
+                        LOGGER.debug(
+                                "Not going to listen for StateChanges. Service is {}",
+                                currentState);
                     }
-
-                    @Override
-                    public void onFailure(@NonNull final Throwable throwable) {
-                        LOGGER.warn("Unable to instantiate push service", throwable);
-                    }
+                    return null;
                 },
-                PUSH_SERVICE_BACKGROUND_EXECUTOR);
+                MoreExecutors.directExecutor());
     }
 
     @Override
@@ -255,13 +286,20 @@ public class EventMonitorService extends LifecycleService {
     }
 
     private boolean onStateChange(
-            final AccountWithCredentials account, final StateChange stateChange) {
+            final AccountWithCredentials account,
+            final AccountEventLoop eventLoop,
+            final StateChange stateChange) {
+        LOGGER.debug("Account {} received {}", account.getId(), stateChange);
+        eventLoop.onStateChange();
+        return true;
+    }
+
+    private ListenableFuture<Void> refresh(final AccountWithCredentials account) {
         final boolean activityStarted =
                 ProcessLifecycleOwner.get()
                         .getLifecycle()
                         .getCurrentState()
                         .isAtLeast(Lifecycle.State.STARTED);
-        LOGGER.debug("Account {} received {}", account.getId(), stateChange);
         final QueryInfo queryInfo = this.currentlyWatchedQuery;
         final OneTimeWorkRequest workRequest;
         if (activityStarted && queryInfo != null && queryInfo.accountId == account.getId()) {
@@ -272,11 +310,50 @@ public class EventMonitorService extends LifecycleService {
             workRequest = QueryRefreshWorker.main(account.getId());
         }
         final WorkManager workManager = WorkManager.getInstance(getApplication());
+        // the trigger never has more than one request in flight; appending (instead of replacing)
+        // makes sure a refresh started by watchQuery() is allowed to finish as well
         workManager.enqueueUniqueWork(
-                QueryRefreshWorker.uniqueName(queryInfo.accountId),
-                ExistingWorkPolicy.REPLACE,
+                QueryRefreshWorker.uniqueName(account.getId()),
+                ExistingWorkPolicy.APPEND_OR_REPLACE,
                 workRequest);
-        return true;
+        return whenFinished(workManager.getWorkInfoByIdLiveData(workRequest.getId()));
+    }
+
+    private ListenableFuture<Void> whenFinished(final LiveData<WorkInfo> workInfoLiveData) {
+        final SettableFuture<Void> future = SettableFuture.create();
+        synchronized (this.pendingRefreshes) {
+            if (this.destroyed) {
+                future.cancel(false);
+                return future;
+            }
+            this.pendingRefreshes.add(future);
+        }
+        future.addListener(
+                () -> {
+                    synchronized (this.pendingRefreshes) {
+                        this.pendingRefreshes.remove(future);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        final Observer<WorkInfo> observer =
+                new Observer<>() {
+                    @Override
+                    public void onChanged(final WorkInfo workInfo) {
+                        if (workInfo == null || workInfo.getState().isFinished()) {
+                            workInfoLiveData.removeObserver(this);
+                            future.set(null);
+                        }
+                    }
+                };
+        ContextCompat.getMainExecutor(this)
+                .execute(
+                        () -> {
+                            if (future.isDone()) {
+                                return;
+                            }
+                            workInfoLiveData.observe(this, observer);
+                        });
+        return future;
     }
 
     private static final class EventMonitorRegistration {
@@ -293,30 +370,43 @@ public class EventMonitorService extends LifecycleService {
             this.eventMonitor = eventMonitor;
         }
 
-        public void stopListening() {
+        public void removeListeners() {
             if (this.pushService != null) {
                 this.pushService.removeOnStateChangeListener(this.eventMonitor);
                 this.pushService.removeOnConnectionStateListener(this.eventMonitor);
             }
         }
+
+        public void stopListening() {
+            removeListeners();
+            this.eventMonitor.eventLoop.shutdown();
+        }
     }
 
     private class EventMonitor implements OnStateChangeListener, OnConnectionStateChangeListener {
 
         private final AccountWithCredentials account;
+        private final AccountEventLoop eventLoop;
 
         public EventMonitor(final AccountWithCredentials account) {
             this.account = account;
+            this.eventLoop =
+                    new AccountEventLoop(account.getId(), () -> refresh(account), refreshLimiter);
         }
 
         @Override
         public boolean onStateChange(final StateChange stateChange) {
-            return EventMonitorService.this.onStateChange(account, stateChange);
+            return EventMonitorService.this.onStateChange(account, eventLoop, stateChange);
         }
 
         @Override
         public void onConnectionStateChange(final State state) {
-            // unused
+            LOGGER.debug("Account {} push connection is {}", account.getId(), state);
+            if (state == State.CONNECTED) {
+                eventLoop.onConnected();
+            } else if (state == State.FAILED) {
+                eventLoop.onDisconnected();
+            }
         }
     }
 }
@@ -0,0 +1,206 @@
+package rs.ltt.android.sync;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Push monitoring of a single account. Every account gets its own executor, its own reconnect
+ * back off and its own {@link CoalescingTrigger} so that a slow reconnect or refresh of one
+ * account never holds up state changes of another. Only the number of refreshes running at the
+ * same time is shared (see {@link ConcurrencyLimiter}).
+ *
+ * <p>Also keeps track of the time between a state change arriving and the refresh that covers it
+ * having finished (push to database latency).
+ */
+public class AccountEventLoop {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountEventLoop.class);
+
+    private static final long QUIET_PERIOD = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_BACKOFF = TimeUnit.MINUTES.toNanos(5);
+
+    private static final long NOT_PENDING = Long.MIN_VALUE;
+
+    private final long accountId;
+    private final Supplier<ListenableFuture<?>> refreshAction;
+    private final ConcurrencyLimiter refreshLimiter;
+    private final ScheduledExecutorService executor;
+    private final Ticker ticker;
+    private final long initialBackoff;
+    private final CoalescingTrigger refreshTrigger;
+    private final Latency latency = new Latency();
+
+    private long pendingSince = NOT_PENDING;
+    private Supplier<ListenableFuture<?>> connector;
+    private long backoff = 0;
+    private boolean reconnectScheduled = false;
+    private boolean shutdown = false;
+
+    public AccountEventLoop(
+            final long accountId,
+            final Supplier<ListenableFuture<?>> refresh,
+            final ConcurrencyLimiter refreshLimiter) {
+        this(
+                accountId,
+                refresh,
+                refreshLimiter,
+                Executors.newSingleThreadScheduledExecutor(),
+                Ticker.systemTicker(),
+                QUIET_PERIOD,
+                INITIAL_BACKOFF);
+    }
+
+    AccountEventLoop(
+            final long accountId,
+            final Supplier<ListenableFuture<?>> refresh,
+            final ConcurrencyLimiter refreshLimiter,
+            final ScheduledExecutorService executor,
+            final Ticker ticker,
+            final long quietPeriod,
+            final long initialBackoff) {
+        this.accountId = accountId;
+        this.refreshAction = refresh;
+        this.refreshLimiter = refreshLimiter;
+        this.executor = executor;
+        this.ticker = ticker;
+        this.initialBackoff = initialBackoff;
+        this.refreshTrigger = new CoalescingTrigger(this::refresh, executor, ticker, quietPeriod);
+    }
+
+    /**
+     * Runs the connector on this account's executor and runs it again with exponential back off
+     * for as long as it fails. The same back off applies to reconnects after {@link
+     * #onDisconnected()}; it is only reset once {@link #onConnected()} confirms a working
+     * connection.
+     */
+    public void connect(final Supplier<ListenableFuture<?>> connector) {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            this.connector = connector;
+            executor.execute(this::attemptConnect);
+        }
+    }
+
+    public void onConnected() {
+        synchronized (this) {
+            backoff = 0;
+        }
+    }
+
+    /** Called when an established push connection failed. Reconnects after the back off. */
+    public void onDisconnected() {
+        scheduleReconnect(null);
+    }
+
+    private void attemptConnect() {
+        final Supplier<ListenableFuture<?>> connector;
+        synchronized (this) {
+            reconnectScheduled = false;
+            if (shutdown) {
+                return;
+            }
+            connector = this.connector;
+        }
+        ListenableFuture<?> future;
+        try {
+            future = connector.get();
+        } catch (final Exception e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(
+                future,
+                new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(final Object result) {}
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        scheduleReconnect(throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private void scheduleReconnect(final Throwable cause) {
+        final long delay;
+        synchronized (this) {
+            if (shutdown || connector == null || reconnectScheduled) {
+                return;
+            }
+            backoff = backoff == 0 ? initialBackoff : Math.min(MAX_BACKOFF, backoff * 2);
+            delay = backoff;
+            reconnectScheduled = true;
+            // scheduling while holding the lock guarantees the executor has not been shut down
+            executor.schedule(this::attemptConnect, delay, TimeUnit.NANOSECONDS);
+        }
+        LOGGER.warn(
+                "Account {} unable to connect. Retrying in {}ms",
+                accountId,
+                TimeUnit.NANOSECONDS.toMillis(delay),
+                cause);
+    }
+
+    public void onStateChange() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            if (pendingSince == NOT_PENDING) {
+                pendingSince = ticker.read();
+            }
+        }
+        refreshTrigger.trigger();
+    }
+
+    private ListenableFuture<?> refresh() {
+        final long since;
+        synchronized (this) {
+            if (shutdown) {
+                return Futures.immediateCancelledFuture();
+            }
+            since = pendingSince;
+            pendingSince = NOT_PENDING;
+        }
+        final ListenableFuture<?> future = refreshLimiter.submit(refreshAction::get);
+        // the refresh may complete after shutdown(); never hand work to the executor from here
+        future.addListener(() -> onRefreshed(future, since), MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private void onRefreshed(final ListenableFuture<?> future, final long since) {
+        if (since == NOT_PENDING || future.isCancelled()) {
+            return;
+        }
+        final long nanos = ticker.read() - since;
+        latency.record(nanos);
+        LOGGER.info(
+                "Account {} push to database in {}ms. {}",
+                accountId,
+                TimeUnit.NANOSECONDS.toMillis(nanos),
+                latency);
+    }
+
+    public Latency getLatency() {
+        return latency;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            this.shutdown = true;
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package rs.ltt.android.sync;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import androidx.annotation.NonNull;
+
+public class AndroidConnectivityProvider implements SyncPolicy.ConnectivityProvider {
+
+    private final ConnectivityManager connectivityManager;
+
+    public AndroidConnectivityProvider(final Context context) {
+        this.connectivityManager = context.getSystemService(ConnectivityManager.class);
+    }
+
+    @Override
+    public SyncPolicy.NetworkClass getNetworkClass() {
+        final Network network =
+                connectivityManager == null ? null : connectivityManager.getActiveNetwork();
+        final NetworkCapabilities capabilities =
+                network == null ? null : connectivityManager.getNetworkCapabilities(network);
+        if (capabilities == null
+                || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return SyncPolicy.NetworkClass.OFFLINE;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && connectivityManager.getRestrictBackgroundStatus()
+                        == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED) {
+            return SyncPolicy.NetworkClass.DATA_SAVER;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING)) {
+            return SyncPolicy.NetworkClass.ROAMING;
+        }
+        if (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+            return SyncPolicy.NetworkClass.UNMETERED;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                && capabilities.hasCapability(
+                        NetworkCapabilities.NET_CAPABILITY_TEMPORARILY_NOT_METERED)) {
+            return SyncPolicy.NetworkClass.UNMETERED;
+        }
+        return SyncPolicy.NetworkClass.METERED;
+    }
+
+    @Override
+    public void registerOnChanged(final Runnable callback) {
+        if (connectivityManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        connectivityManager.registerDefaultNetworkCallback(
+                new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onCapabilitiesChanged(
+                            @NonNull final Network network,
+                            @NonNull final NetworkCapabilities capabilities) {
+                        callback.run();
+                    }
+
+                    @Override
+                    public void onLost(@NonNull final Network network) {
+                        callback.run();
+                    }
+                });
+    }
+
+    /** Runs the callback whenever a network with internet access becomes available. */
+    public void registerOnAvailable(final Runnable callback) {
+        if (connectivityManager == null) {
+            return;
+        }
+        final NetworkRequest request =
+                new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build();
+        connectivityManager.registerNetworkCallback(
+                request,
+                new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(@NonNull final Network network) {
+                        callback.run();
+                    }
+                });
+    }
+}
@@ -0,0 +1,209 @@
+package rs.ltt.android.sync;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops talking to a server that is certain to fail. Consecutive network or server (5xx) failures
+ * and authentication failures (401/403) open the circuit. While open every call fails fast with
+ * {@link CircuitOpenException}. Once the back off expired the circuit is half-open and exactly one
+ * call is let through as a probe. A successful probe closes the circuit; a failed probe opens it
+ * again with twice the back off.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    static final int FAILURE_THRESHOLD = 3;
+
+    static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+
+    static final long INITIAL_AUTH_BACKOFF = TimeUnit.MINUTES.toNanos(5);
+
+    static final long MAX_BACKOFF = TimeUnit.MINUTES.toNanos(30);
+
+    private final Classifier classifier;
+    private final Ticker ticker;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private FailureClass lastFailure = FailureClass.NONE;
+    private long openedAt = 0;
+    private long backoff = 0;
+    private boolean probing = false;
+
+    public CircuitBreaker(final Classifier classifier) {
+        this(classifier, Ticker.systemTicker());
+    }
+
+    CircuitBreaker(final Classifier classifier, final Ticker ticker) {
+        this.classifier = classifier;
+        this.ticker = ticker;
+    }
+
+    public <T> ListenableFuture<T> call(final AsyncCallable<T> callable) {
+        final boolean probe;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                final long remaining = backoff - (ticker.read() - openedAt);
+                if (remaining > 0) {
+                    return Futures.immediateFailedFuture(
+                            new CircuitOpenException(lastFailure, remaining));
+                }
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probing) {
+                    return Futures.immediateFailedFuture(
+                            new CircuitOpenException(lastFailure, 0));
+                }
+                LOGGER.info("Probing server after {} failure", lastFailure);
+                probing = true;
+                probe = true;
+            } else {
+                probe = false;
+            }
+        }
+        ListenableFuture<T> future;
+        try {
+            future = callable.call();
+        } catch (final Exception e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        final ListenableFuture<T> current = future;
+        current.addListener(() -> onCompleted(current, probe), MoreExecutors.directExecutor());
+        return current;
+    }
+
+    private void onCompleted(final ListenableFuture<?> future, final boolean probe) {
+        FailureClass failureClass = FailureClass.NONE;
+        try {
+            Futures.getDone(future);
+        } catch (final CancellationException e) {
+            if (probe) {
+                synchronized (this) {
+                    // the probe did not tell us anything; let the next call probe again
+                    probing = false;
+                }
+            }
+            return;
+        } catch (final ExecutionException e) {
+            failureClass = classifier.classify(e.getCause());
+        }
+        synchronized (this) {
+            if (probe) {
+                probing = false;
+            }
+            if (failureClass == FailureClass.NONE) {
+                onSuccess();
+            } else {
+                onFailure(failureClass, probe);
+            }
+        }
+    }
+
+    private void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Closing circuit. Server is reachable again");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        lastFailure = FailureClass.NONE;
+        backoff = 0;
+    }
+
+    private void onFailure(final FailureClass failureClass, final boolean probe) {
+        consecutiveFailures++;
+        lastFailure = failureClass;
+        if (probe) {
+            open(Math.min(backoff * 2, MAX_BACKOFF));
+        } else if (state == State.CLOSED) {
+            if (failureClass == FailureClass.AUTH) {
+                // repeating the request with the same credentials is not going to help
+                open(INITIAL_AUTH_BACKOFF);
+            } else if (consecutiveFailures >= FAILURE_THRESHOLD) {
+                open(INITIAL_BACKOFF);
+            }
+        }
+        // failures of calls that were started before the circuit opened are ignored
+    }
+
+    private void open(final long backoff) {
+        LOGGER.warn(
+                "Opening circuit for {}s after {} consecutive failures ({})",
+                TimeUnit.NANOSECONDS.toSeconds(backoff),
+                consecutiveFailures,
+                lastFailure);
+        this.state = State.OPEN;
+        this.openedAt = ticker.read();
+        this.backoff = backoff;
+    }
+
+    /**
+     * Closes the circuit without waiting for the back off. To be called when the cause of the
+     * failures has likely gone away (connectivity came back, credentials were changed).
+     */
+    public synchronized void reset() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Resetting circuit");
+        }
+        onSuccess();
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && ticker.read() - openedAt >= backoff) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("state", state)
+                .add("consecutiveFailures", consecutiveFailures)
+                .add("lastFailure", lastFailure)
+                .add("backoffS", TimeUnit.NANOSECONDS.toSeconds(backoff))
+                .toString();
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public enum FailureClass {
+        /** The server answered. Application level errors do not count against the circuit */
+        NONE,
+        NETWORK,
+        SERVER,
+        AUTH;
+
+        public static FailureClass ofStatusCode(final int statusCode) {
+            if (statusCode == 401 || statusCode == 403) {
+                return AUTH;
+            }
+            if (statusCode >= 500 && statusCode <= 599) {
+                return SERVER;
+            }
+            return NONE;
+        }
+    }
+
+    public interface Classifier {
+        FailureClass classify(Throwable throwable);
+    }
+}
@@ -0,0 +1,29 @@
+package rs.ltt.android.sync;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitOpenException extends Exception {
+
+    private final CircuitBreaker.FailureClass failureClass;
+    private final long retryAfter;
+
+    CircuitOpenException(final CircuitBreaker.FailureClass failureClass, final long retryAfter) {
+        super(
+                String.format(
+                        Locale.ENGLISH,
+                        "Circuit is open after %s failure. Retry in %ds",
+                        failureClass,
+                        TimeUnit.NANOSECONDS.toSeconds(retryAfter)));
+        this.failureClass = failureClass;
+        this.retryAfter = retryAfter;
+    }
+
+    public CircuitBreaker.FailureClass getFailureClass() {
+        return failureClass;
+    }
+
+    public long getRetryAfter(final TimeUnit timeUnit) {
+        return timeUnit.convert(retryAfter, TimeUnit.NANOSECONDS);
+    }
+}
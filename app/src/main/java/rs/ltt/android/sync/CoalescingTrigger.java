@@ -0,0 +1,129 @@
+package rs.ltt.android.sync;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an action (usually a refresh) in response to a stream of events without ever running it
+ * twice at the same time and without ever cancelling it. The first event starts the action right
+ * away. Events that arrive while the action is running only mark the trigger as dirty. Once the
+ * action completes a dirty trigger runs exactly one follow-up, but not before the events have
+ * been quiet for a while. A burst of events therefore results in at most two runs.
+ */
+public class CoalescingTrigger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingTrigger.class);
+
+    private static final ScheduledExecutorService TRIGGER_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private static final long QUIET_PERIOD = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final Supplier<ListenableFuture<?>> action;
+    private final ScheduledExecutorService scheduledExecutor;
+    private final Ticker ticker;
+    private final long quietPeriod;
+
+    private boolean running = false;
+    private boolean dirty = false;
+    private long lastTriggered = 0;
+    private long triggers = 0;
+    private long runs = 0;
+
+    public CoalescingTrigger(final Supplier<ListenableFuture<?>> action) {
+        this(action, TRIGGER_EXECUTOR, Ticker.systemTicker(), QUIET_PERIOD);
+    }
+
+    CoalescingTrigger(
+            final Supplier<ListenableFuture<?>> action,
+            final ScheduledExecutorService scheduledExecutor,
+            final Ticker ticker,
+            final long quietPeriod) {
+        this.action = action;
+        this.scheduledExecutor = scheduledExecutor;
+        this.ticker = ticker;
+        this.quietPeriod = quietPeriod;
+    }
+
+    public void trigger() {
+        synchronized (this) {
+            this.triggers++;
+            this.lastTriggered = ticker.read();
+            if (running) {
+                this.dirty = true;
+                return;
+            }
+            this.running = true;
+        }
+        run();
+    }
+
+    private void run() {
+        synchronized (this) {
+            this.runs++;
+        }
+        ListenableFuture<?> future;
+        try {
+            future = action.get();
+        } catch (final Exception e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        final ListenableFuture<?> current = future;
+        current.addListener(() -> onFinished(current), MoreExecutors.directExecutor());
+    }
+
+    private void onFinished(final ListenableFuture<?> future) {
+        try {
+            Futures.getDone(future);
+        } catch (final Exception e) {
+            LOGGER.warn("Triggered action failed", e);
+        }
+        onCompleted();
+    }
+
+    private void onCompleted() {
+        synchronized (this) {
+            if (!dirty) {
+                this.running = false;
+                return;
+            }
+            final long remaining = quietPeriod - (ticker.read() - lastTriggered);
+            if (remaining > 0) {
+                // still in the middle of a burst; stay 'running' so new events only mark us dirty
+                try {
+                    scheduledExecutor.schedule(
+                            this::onCompleted, remaining, TimeUnit.NANOSECONDS);
+                } catch (final RejectedExecutionException e) {
+                    LOGGER.debug("Dropping follow up. Executor has been shut down");
+                    this.running = false;
+                    this.dirty = false;
+                }
+                return;
+            }
+            this.dirty = false;
+        }
+        run();
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("triggers", triggers)
+                .add("runs", runs)
+                .add("running", running)
+                .add("dirty", dirty)
+                .toString();
+    }
+}
@@ -0,0 +1,106 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounds how many asynchronous operations run at the same time. Operations that exceed the bound
+ * are queued in order of arrival and start as soon as a running one completes. Unlike a Semaphore
+ * no thread is ever blocked while waiting for a permit.
+ *
+ * <p>{@link #shutdown()} cancels everything that is still queued. Operations that are already
+ * running keep their permit until they complete or are cancelled by their owner.
+ */
+public class ConcurrencyLimiter {
+
+    private final int maxConcurrent;
+    private final ArrayDeque<Pending<?>> queue = new ArrayDeque<>();
+    private int running = 0;
+    private boolean shutdown = false;
+
+    public ConcurrencyLimiter(final int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1");
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public <T> ListenableFuture<T> submit(final AsyncCallable<T> callable) {
+        final Pending<T> pending = new Pending<>(callable);
+        synchronized (this) {
+            if (shutdown) {
+                return Futures.immediateCancelledFuture();
+            }
+            if (running >= maxConcurrent) {
+                queue.add(pending);
+                return pending.future;
+            }
+            running++;
+        }
+        start(pending);
+        return pending.future;
+    }
+
+    private <T> void start(final Pending<T> pending) {
+        final SettableFuture<T> future = pending.future;
+        if (future.isCancelled()) {
+            release();
+            return;
+        }
+        ListenableFuture<T> inner;
+        try {
+            inner = pending.callable.call();
+        } catch (final Exception e) {
+            inner = Futures.immediateFailedFuture(e);
+        }
+        future.setFuture(inner);
+        inner.addListener(this::release, MoreExecutors.directExecutor());
+    }
+
+    private void release() {
+        final Pending<?> next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        start(next);
+    }
+
+    public void shutdown() {
+        final List<Pending<?>> cancelled;
+        synchronized (this) {
+            this.shutdown = true;
+            cancelled = new ArrayList<>(queue);
+            queue.clear();
+        }
+        for (final Pending<?> pending : cancelled) {
+            pending.future.cancel(false);
+        }
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private static final class Pending<T> {
+        private final AsyncCallable<T> callable;
+        private final SettableFuture<T> future = SettableFuture.create();
+
+        private Pending(final AsyncCallable<T> callable) {
+            this.callable = callable;
+        }
+    }
+}
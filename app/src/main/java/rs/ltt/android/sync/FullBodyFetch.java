@@ -0,0 +1,53 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.mua.Mua;
+
+/**
+ * Completes body values that {@link rs.ltt.android.cache.DatabaseCache} stored truncated. Only the
+ * bodyValues of the given emails are requested and they replace what is stored.
+ */
+public final class FullBodyFetch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FullBodyFetch.class);
+
+    private FullBodyFetch() {}
+
+    /**
+     * @return the number of emails whose body values have been replaced
+     */
+    public static ListenableFuture<Integer> fetch(
+            final Mua mua,
+            final LttrsDatabase database,
+            final String accountId,
+            final List<String> emailIds) {
+        LOGGER.info("Fetching body values of {}", emailIds);
+        final GetEmailMethodCall getEmail =
+                GetEmailMethodCall.builder()
+                        .accountId(accountId)
+                        .ids(emailIds.toArray(new String[0]))
+                        .properties(new String[] {"id", "bodyValues"})
+                        .fetchAllBodyValues(true)
+                        .build();
+        return Futures.transform(
+                mua.getJmapClient().call(getEmail),
+                methodResponses -> {
+                    final Email[] emails =
+                            methodResponses.getMain(GetEmailMethodResponse.class).getList();
+                    for (final Email email : emails) {
+                        database.threadAndEmailDao().setBodyValues(email);
+                    }
+                    return emails.length;
+                },
+                MoreExecutors.directExecutor());
+    }
+}
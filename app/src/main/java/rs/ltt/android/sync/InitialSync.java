@@ -0,0 +1,181 @@
+package rs.ltt.android.sync;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.InitialSyncCheckpointEntity;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.IdentifiableMailboxWithRole;
+import rs.ltt.jmap.common.entity.Identity;
+import rs.ltt.jmap.common.entity.Mailbox;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Downloads mailboxes, identities and the first pages of the configured queries of a freshly set
+ * up account. Queries are walked one page at a time and a checkpoint is persisted after every
+ * page. A sync that was interrupted (process death, network loss) picks up after the last page
+ * that made it into the database. The checkpoint records the email state the page came with; if
+ * the cache has moved on to a different state by the time the sync resumes the query is brought
+ * up to date with Email/queryChanges before the next page is requested.
+ */
+public class InitialSync {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InitialSync.class);
+
+    public static final int MAX_ITEMS_PER_QUERY = 200;
+
+    private static final String STEP_MAILBOXES = "mailboxes";
+    private static final String STEP_IDENTITIES = "identities";
+
+    private final LttrsDatabase database;
+    private final Mua mua;
+    private final SyncScheduler scheduler;
+
+    public InitialSync(final LttrsDatabase database, final Mua mua, final SyncScheduler scheduler) {
+        this.database = database;
+        this.mua = mua;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return true if the initial sync is complete; false if it was stopped and needs to be resumed
+     */
+    public boolean run(final Listener listener) throws ExecutionException, InterruptedException {
+        if (!isComplete(STEP_MAILBOXES)) {
+            scheduler.submit(SyncScheduler.Priority.MAINTENANCE, mua::refreshMailboxes).get();
+            checkpoint(STEP_MAILBOXES, 0, database.mailboxDao().getState(Mailbox.class), true);
+        }
+        if (!isComplete(STEP_IDENTITIES)) {
+            scheduler.submit(SyncScheduler.Priority.MAINTENANCE, mua::refreshIdentities).get();
+            checkpoint(STEP_IDENTITIES, 0, database.identityDao().getState(Identity.class), true);
+        }
+        final List<EmailQuery> queries = getQueries();
+        final int steps = 2 + queries.size();
+        for (int i = 0; i < queries.size(); ++i) {
+            final EmailQuery query = queries.get(i);
+            final String step = query.asHash();
+            int position = getResumePosition(query);
+            while (!isComplete(step)) {
+                listener.onProgress(percentage(2 + i + fraction(position), steps));
+                if (listener.isStopped()) {
+                    LOGGER.info("Initial sync stopped at {} after {} items", query, position);
+                    return false;
+                }
+                position = syncPage(query, position);
+            }
+        }
+        listener.onProgress(100);
+        return true;
+    }
+
+    /**
+     * Reads back the checkpoint of a query. The pages of a query are only ever appended to the
+     * cache so a sync resumes after the last cached item. Emails that have been added or removed
+     * since the checkpoint (some other refresh has updated the email state in the meantime) are
+     * merged into the cached query first. If the cache holds fewer items than the checkpoint claims
+     * (the query was reset in the meantime) the step starts over from what is left.
+     *
+     * @return the number of items of the query that have been synced so far
+     */
+    private int getResumePosition(final EmailQuery query)
+            throws ExecutionException, InterruptedException {
+        final String step = query.asHash();
+        final InitialSyncCheckpointEntity checkpoint = database.stateDao().getCheckpoint(step);
+        if (checkpoint == null) {
+            return 0;
+        }
+        final String state = database.queryDao().getState(Email.class);
+        if (!checkpoint.complete && !Objects.equal(checkpoint.state, state)) {
+            LOGGER.info(
+                    "Email state changed from {} to {} since checkpoint of {}. Refreshing",
+                    checkpoint.state,
+                    state,
+                    step);
+            // with a cached query state Mua issues Email/queryChanges
+            scheduler.submit(SyncScheduler.Priority.MAINTENANCE, () -> mua.query(query)).get();
+            final int cached = database.queryDao().getItemCount(step);
+            checkpoint(step, cached, database.queryDao().getState(Email.class), false);
+            return cached;
+        }
+        final int cached = database.queryDao().getItemCount(step);
+        if (cached < checkpoint.position) {
+            LOGGER.info(
+                    "Cache holds {} of {} checkpointed items of {}. Starting over",
+                    cached,
+                    checkpoint.position,
+                    step);
+            checkpoint(step, cached, database.queryDao().getState(Email.class), false);
+            return cached;
+        }
+        LOGGER.info("Resuming initial sync of {} at {}", step, checkpoint.position);
+        return checkpoint.position;
+    }
+
+    private int syncPage(final EmailQuery query, final int before)
+            throws ExecutionException, InterruptedException {
+        final String step = query.asHash();
+        final String afterEmailId = before == 0 ? null : database.queryDao().getLastEmailId(step);
+        final Status status =
+                scheduler
+                        .submit(
+                                SyncScheduler.Priority.MAINTENANCE,
+                                () ->
+                                        afterEmailId == null
+                                                ? mua.query(query)
+                                                : mua.query(query, afterEmailId))
+                        .get();
+        final int position = database.queryDao().getItemCount(step);
+        final boolean complete =
+                position >= MAX_ITEMS_PER_QUERY
+                        || position <= before
+                        || (afterEmailId != null && status != Status.UPDATED);
+        checkpoint(step, position, database.queryDao().getState(Email.class), complete);
+        LOGGER.debug("Synced {} items of {}. complete={}", position, query, complete);
+        return position;
+    }
+
+    private static double fraction(final int position) {
+        return Math.min(position, MAX_ITEMS_PER_QUERY) / (double) MAX_ITEMS_PER_QUERY;
+    }
+
+    private static int percentage(final double completedSteps, final int steps) {
+        return (int) (completedSteps * 100 / steps);
+    }
+
+    private List<EmailQuery> getQueries() {
+        final ImmutableList.Builder<EmailQuery> builder = new ImmutableList.Builder<>();
+        final IdentifiableMailboxWithRole inbox = database.mailboxDao().getMailbox(Role.INBOX);
+        builder.add(inbox == null ? EmailQuery.unfiltered() : StandardQueries.mailbox(inbox));
+        final IdentifiableMailboxWithRole important =
+                database.mailboxDao().getMailbox(Role.IMPORTANT);
+        if (important != null) {
+            builder.add(StandardQueries.mailbox(important));
+        }
+        return builder.build();
+    }
+
+    private boolean isComplete(final String step) {
+        final InitialSyncCheckpointEntity checkpoint = database.stateDao().getCheckpoint(step);
+        return checkpoint != null && checkpoint.complete;
+    }
+
+    private void checkpoint(
+            final String step, final int position, final String state, final boolean complete) {
+        database.stateDao()
+                .insert(new InitialSyncCheckpointEntity(step, position, state, complete));
+    }
+
+    public interface Listener {
+        boolean isStopped();
+
+        void onProgress(int percentage);
+    }
+}
@@ -0,0 +1,41 @@
+package rs.ltt.android.sync;
+
+import java.io.IOException;
+import rs.ltt.jmap.client.api.EndpointNotFoundException;
+import rs.ltt.jmap.client.api.UnauthorizedException;
+import rs.ltt.jmap.client.blob.BlobTransferException;
+
+/** Maps the exceptions thrown by jmap-client onto the failure classes of {@link CircuitBreaker} */
+public final class JmapFailureClassifier {
+
+    private JmapFailureClassifier() {}
+
+    public static CircuitBreaker.FailureClass classify(final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            final CircuitBreaker.FailureClass failureClass = classifySingle(cause);
+            if (failureClass != CircuitBreaker.FailureClass.NONE) {
+                return failureClass;
+            }
+            cause = cause.getCause();
+        }
+        return CircuitBreaker.FailureClass.NONE;
+    }
+
+    private static CircuitBreaker.FailureClass classifySingle(final Throwable throwable) {
+        if (throwable instanceof UnauthorizedException) {
+            return CircuitBreaker.FailureClass.AUTH;
+        }
+        if (throwable instanceof BlobTransferException blobTransferException) {
+            return CircuitBreaker.FailureClass.ofStatusCode(blobTransferException.getStatusCode());
+        }
+        if (throwable instanceof EndpointNotFoundException) {
+            return CircuitBreaker.FailureClass.SERVER;
+        }
+        // socket, timeout, TLS and DNS errors as well as connections that were reset mid-response
+        if (throwable instanceof IOException) {
+            return CircuitBreaker.FailureClass.NETWORK;
+        }
+        return CircuitBreaker.FailureClass.NONE;
+    }
+}
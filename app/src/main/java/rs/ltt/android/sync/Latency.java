@@ -0,0 +1,40 @@
+package rs.ltt.android.sync;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.MoreObjects;
+import java.util.concurrent.TimeUnit;
+
+/** Running count, average and maximum of a latency. */
+public class Latency {
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    public synchronized void record(final long nanos) {
+        count++;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax(final TimeUnit timeUnit) {
+        return timeUnit.convert(max, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized long getAverage(final TimeUnit timeUnit) {
+        return count == 0 ? 0 : timeUnit.convert(total / count, TimeUnit.NANOSECONDS);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("count", count)
+                .add("avgMs", getAverage(TimeUnit.MILLISECONDS))
+                .add("maxMs", getMax(TimeUnit.MILLISECONDS))
+                .toString();
+    }
+}
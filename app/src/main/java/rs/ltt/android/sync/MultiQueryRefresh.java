@@ -0,0 +1,166 @@
+package rs.ltt.android.sync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.AddedQueryItem;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.common.entity.AddedItem;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.call.email.QueryChangesEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.QueryChangesEmailMethodResponse;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+
+/**
+ * Refreshes several queries of the same account. The first query is sent on its own. Its
+ * Email/changes and Thread/changes bring the cached objects up to date, which leaves the remaining
+ * queries with nothing but their queryChanges and the fetch of items they are missing. Those are
+ * then issued at the same time so that their round trips overlap on the shared connection instead
+ * of adding up.
+ */
+public final class MultiQueryRefresh {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiQueryRefresh.class);
+
+    private MultiQueryRefresh() {}
+
+    public static ListenableFuture<List<Status>> refresh(
+            final Mua mua, final Collection<EmailQuery> emailQueries) {
+        final Map<String, EmailQuery> distinct = new LinkedHashMap<>();
+        for (final EmailQuery emailQuery : emailQueries) {
+            distinct.putIfAbsent(emailQuery.asHash(), emailQuery);
+        }
+        final List<EmailQuery> queries = ImmutableList.copyOf(distinct.values());
+        if (queries.isEmpty()) {
+            return Futures.immediateFuture(ImmutableList.of());
+        }
+        final ListenableFuture<Status> first = mua.query(queries.get(0));
+        return Futures.transformAsync(
+                first,
+                firstStatus ->
+                        Futures.transform(
+                                refreshConcurrently(mua, queries.subList(1, queries.size())),
+                                otherStatus ->
+                                        new ImmutableList.Builder<Status>()
+                                                .add(firstStatus)
+                                                .addAll(otherStatus)
+                                                .build(),
+                                MoreExecutors.directExecutor()),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Refreshes queries whose cached objects have just been brought up to date by the refresh of
+     * another query of the same account. All queries are issued at the same time.
+     */
+    public static ListenableFuture<List<Status>> refreshConcurrently(
+            final Mua mua, final Collection<EmailQuery> emailQueries) {
+        final ImmutableList.Builder<ListenableFuture<Status>> futures =
+                new ImmutableList.Builder<>();
+        for (final EmailQuery emailQuery : emailQueries) {
+            futures.add(mua.query(emailQuery));
+        }
+        return Futures.allAsList(futures.build());
+    }
+
+    /**
+     * Refreshes queries whose cached emails have just been brought up to date by the refresh of
+     * another query of the same account. The Email/queryChanges of all queries are sent in a
+     * single JMAP request and applied to the cache directly. Only a query that can not be brought
+     * up to date from that response alone (it has no cached state, the server can not calculate
+     * the changes or it added an email that is not cached yet) falls back to {@link Mua#query}.
+     */
+    public static ListenableFuture<List<Status>> refreshInOneRequest(
+            final Mua mua,
+            final LttrsDatabase database,
+            final String accountId,
+            final Collection<EmailQuery> emailQueries) {
+        final JmapClient.MultiCall multiCall = mua.getJmapClient().newMultiCall();
+        final List<ListenableFuture<Status>> futures = new ArrayList<>();
+        for (final EmailQuery emailQuery : emailQueries) {
+            final String queryState = database.queryDao().getQueryState(emailQuery.asHash());
+            if (queryState == null) {
+                futures.add(mua.query(emailQuery));
+                continue;
+            }
+            final ListenableFuture<MethodResponses> responses =
+                    multiCall
+                            .call(
+                                    QueryChangesEmailMethodCall.builder()
+                                            .accountId(accountId)
+                                            .sinceQueryState(queryState)
+                                            .query(emailQuery)
+                                            .build())
+                            .getMethodResponses();
+            futures.add(
+                    Futures.catchingAsync(
+                            Futures.transform(
+                                    responses,
+                                    methodResponses ->
+                                            apply(
+                                                    database,
+                                                    emailQuery,
+                                                    methodResponses.getMain(
+                                                            QueryChangesEmailMethodResponse
+                                                                    .class)),
+                                    MoreExecutors.directExecutor()),
+                            Exception.class,
+                            exception -> {
+                                LOGGER.info(
+                                        "Unable to apply queryChanges of {}. Falling back to"
+                                                + " regular query",
+                                        emailQuery,
+                                        exception);
+                                return mua.query(emailQuery);
+                            },
+                            MoreExecutors.directExecutor()));
+        }
+        multiCall.execute();
+        return Futures.allAsList(futures);
+    }
+
+    private static Status apply(
+            final LttrsDatabase database,
+            final EmailQuery emailQuery,
+            final QueryChangesEmailMethodResponse response) {
+        final String oldState = response.getOldQueryState();
+        final String newState = response.getNewQueryState();
+        if (oldState != null && oldState.equals(newState)) {
+            return Status.UNCHANGED;
+        }
+        final ImmutableList.Builder<AddedQueryItem> added = new ImmutableList.Builder<>();
+        final AddedItem<String>[] addedItems = response.getAdded();
+        if (addedItems != null) {
+            for (final AddedItem<String> addedItem : addedItems) {
+                final String emailId = addedItem.getItem();
+                final String threadId = database.threadAndEmailDao().getThreadId(emailId);
+                if (threadId == null) {
+                    throw new IllegalStateException(String.format("%s is not cached", emailId));
+                }
+                added.add(new AddedQueryItem(addedItem.getIndex(), emailId, threadId));
+            }
+        }
+        final String[] removed = response.getRemoved();
+        if (!database.queryDao()
+                .applyQueryChanges(
+                        emailQuery.asHash(),
+                        oldState,
+                        newState,
+                        removed == null ? new String[0] : removed,
+                        added.build())) {
+            throw new IllegalStateException("Query state changed in the meantime");
+        }
+        return Status.UPDATED;
+    }
+}
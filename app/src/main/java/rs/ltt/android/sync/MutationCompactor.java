@@ -0,0 +1,117 @@
+package rs.ltt.android.sync;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.jmap.common.entity.Role;
+
+/**
+ * Collapses the mutation journal before it is sent to the server. Every operation sets a number of
+ * keywords or mailboxes on a thread to a fixed value (the same values the overwrites display while
+ * the operation is pending). An operation is dropped when all of the values it sets are set again
+ * by later operations on the same thread; archiving and then moving back to the inbox only leaves
+ * the latter, flagging and then unflagging only the unflag, which in turn does not reach the
+ * server if the cache already says the thread is not flagged.
+ *
+ * <p>Moving to trash and emptying the trash are never dropped. Moving to trash removes a thread
+ * from mailboxes that are not known ahead of time, and which threads emptying the trash deletes
+ * depends on everything that happened before it, so nothing is collapsed across it.
+ */
+public final class MutationCompactor {
+
+    private MutationCompactor() {}
+
+    /**
+     * @param journal mutations in the order they were made
+     * @param mailboxIdByRole resolves the mailboxes that operations like archive refer to by role;
+     *     may return null if there is no such mailbox
+     * @return the mutations that still have an effect, in their original order
+     */
+    public static List<MutationEntity> compact(
+            final List<MutationEntity> journal, final Function<Role, String> mailboxIdByRole) {
+        final SetMultimap<String, String> overwritten = HashMultimap.create();
+        final Deque<MutationEntity> remaining = new ArrayDeque<>();
+        for (int i = journal.size() - 1; i >= 0; --i) {
+            final MutationEntity mutation = journal.get(i);
+            if (mutation.operation == MutationEntity.Operation.EMPTY_TRASH) {
+                overwritten.clear();
+                remaining.addFirst(mutation);
+                continue;
+            }
+            if (mutation.operation == MutationEntity.Operation.MOVE_TO_TRASH) {
+                remaining.addFirst(mutation);
+                continue;
+            }
+            final Map<String, Boolean> effects = effects(mutation, mailboxIdByRole);
+            if (!overwritten.get(mutation.threadId).containsAll(effects.keySet())) {
+                remaining.addFirst(mutation);
+                overwritten.putAll(mutation.threadId, effects.keySet());
+            }
+        }
+        return ImmutableList.copyOf(remaining);
+    }
+
+    /**
+     * Groups consecutive mutations with the same operation (and argument) so they can be sent
+     * together.
+     */
+    public static List<List<MutationEntity>> batches(
+            final List<MutationEntity> mutations, final int maxThreads) {
+        final ImmutableList.Builder<List<MutationEntity>> batches = ImmutableList.builder();
+        List<MutationEntity> batch = new ArrayList<>();
+        for (final MutationEntity mutation : mutations) {
+            final MutationEntity previous = Iterables.getLast(batch, null);
+            if (previous != null
+                    && (batch.size() >= maxThreads
+                            || previous.operation != mutation.operation
+                            || !Objects.equal(previous.argument, mutation.argument))) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+            }
+            batch.add(mutation);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches.build();
+    }
+
+    /**
+     * @return the keywords (prefixed with k:) and mailboxes (prefixed with m: or r: if they could
+     *     only be referred to by role) the mutation sets and the value they are set to
+     */
+    static Map<String, Boolean> effects(
+            final MutationEntity mutation, final Function<Role, String> mailboxIdByRole) {
+        return switch (mutation.operation) {
+            case ARCHIVE -> ImmutableMap.of(
+                    mailbox(Role.INBOX, mailboxIdByRole), false,
+                    mailbox(Role.ARCHIVE, mailboxIdByRole), true);
+            case MOVE_TO_INBOX -> ImmutableMap.of(
+                    mailbox(Role.INBOX, mailboxIdByRole), true,
+                    mailbox(Role.ARCHIVE, mailboxIdByRole), false,
+                    mailbox(Role.TRASH, mailboxIdByRole), false);
+            case MARK_IMPORTANT -> ImmutableMap.of(mailbox(Role.IMPORTANT, mailboxIdByRole), true);
+            case COPY_TO_MAILBOX -> ImmutableMap.of("m:" + mutation.argument, true);
+            case REMOVE_FROM_MAILBOX -> ImmutableMap.of("m:" + mutation.argument, false);
+            case SET_KEYWORD -> ImmutableMap.of("k:" + mutation.argument, true);
+            case REMOVE_KEYWORD -> ImmutableMap.of("k:" + mutation.argument, false);
+            case MOVE_TO_TRASH, EMPTY_TRASH -> throw new IllegalArgumentException(
+                    String.format("%s does not set a fixed value", mutation.operation));
+        };
+    }
+
+    private static String mailbox(final Role role, final Function<Role, String> mailboxIdByRole) {
+        final String id = mailboxIdByRole.apply(role);
+        return id == null ? "r:" + role : "m:" + id;
+    }
+}
@@ -0,0 +1,60 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.function.IntSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.mua.Status;
+
+/**
+ * Fills in threads that a query references but that are not in the cache yet. The cache only hands
+ * out a small chunk of missing threads per query call, top of the list first (see {@link
+ * rs.ltt.android.database.dao.ThreadAndEmailDao#getMissing(String)}), and every call commits its
+ * chunk before returning. Running the (cheap) query again picks up the next chunk until nothing is
+ * missing anymore or a round no longer makes progress.
+ */
+public final class ProgressiveQuery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressiveQuery.class);
+
+    private ProgressiveQuery() {}
+
+    /**
+     * @param query runs one query round and commits one chunk of missing threads
+     * @param missing number of threads currently missing for this query
+     * @return {@link Status#UPDATED} if any of the rounds updated the cache
+     */
+    public static ListenableFuture<Status> resolveMissing(
+            final AsyncCallable<Status> query, final IntSupplier missing) {
+        return resolveMissing(query, missing, missing.getAsInt(), null);
+    }
+
+    private static ListenableFuture<Status> resolveMissing(
+            final AsyncCallable<Status> query,
+            final IntSupplier missing,
+            final int remaining,
+            final Status previous) {
+        if (remaining == 0) {
+            return Futures.immediateFuture(previous == null ? Status.UNCHANGED : previous);
+        }
+        return Futures.transformAsync(
+                Futures.submitAsync(query, MoreExecutors.directExecutor()),
+                status -> {
+                    final Status combined =
+                            previous == Status.UPDATED || status == Status.UPDATED
+                                    ? Status.UPDATED
+                                    : status;
+                    final int now = missing.getAsInt();
+                    if (now >= remaining) {
+                        LOGGER.warn("No progress resolving missing threads ({} remaining)", now);
+                        return Futures.immediateFuture(combined);
+                    }
+                    LOGGER.debug("{} missing threads remaining", now);
+                    return resolveMissing(query, missing, now, combined);
+                },
+                MoreExecutors.directExecutor());
+    }
+}
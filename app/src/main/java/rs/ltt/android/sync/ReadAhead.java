@@ -0,0 +1,108 @@
+package rs.ltt.android.sync;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many additional pages of a query should be requested after the page the user
+ * scrolled towards. The decision is based on how fast the user consumes a page (time between a
+ * page arriving and the next boundary callback) and on how long a page takes to arrive (round
+ * trip time). If the user consumes a page faster than the server can deliver one, we request
+ * enough pages to cover one round trip.
+ */
+public class ReadAhead {
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private static final int MAX_PAGES_AHEAD = 4;
+
+    private static final long IDLE_THRESHOLD = TimeUnit.SECONDS.toNanos(10);
+
+    private final Ticker ticker;
+
+    private long lastLoaded = -1;
+    private int pagesSinceBoundary = 0;
+    private double consumptionTime = -1;
+    private double roundTripTime = -1;
+
+    private long roundTrips = 0;
+    private long readAheadPages = 0;
+    private long placeholderNanos = 0;
+
+    public ReadAhead() {
+        this(Ticker.systemTicker());
+    }
+
+    ReadAhead(final Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    private static double smooth(final double average, final long sample) {
+        if (average < 0) {
+            return sample;
+        }
+        return SMOOTHING_FACTOR * sample + (1 - SMOOTHING_FACTOR) * average;
+    }
+
+    public long now() {
+        return ticker.read();
+    }
+
+    /**
+     * @return timestamp to be passed to {@link #onPageLoaded(long, boolean)} once the page arrived
+     */
+    public synchronized long onBoundaryReached() {
+        final long now = ticker.read();
+        if (lastLoaded >= 0 && pagesSinceBoundary > 0) {
+            final long interval = now - lastLoaded;
+            if (interval > IDLE_THRESHOLD) {
+                // the user stopped scrolling in between; old velocity is meaningless
+                consumptionTime = -1;
+            } else {
+                consumptionTime = smooth(consumptionTime, interval / pagesSinceBoundary);
+            }
+        }
+        pagesSinceBoundary = 0;
+        return now;
+    }
+
+    public synchronized void onPageLoaded(final long requestedAt, final boolean userWaiting) {
+        final long now = ticker.read();
+        final long roundTrip = now - requestedAt;
+        lastLoaded = now;
+        pagesSinceBoundary++;
+        roundTripTime = smooth(roundTripTime, roundTrip);
+        roundTrips++;
+        if (userWaiting) {
+            placeholderNanos += roundTrip;
+        } else {
+            readAheadPages++;
+        }
+    }
+
+    public synchronized int getPagesAhead() {
+        if (consumptionTime < 0 || roundTripTime < 0) {
+            return 0;
+        }
+        if (consumptionTime == 0) {
+            return MAX_PAGES_AHEAD;
+        }
+        // the page that has just been requested covers one round trip already
+        final int pages = (int) Math.ceil(roundTripTime / consumptionTime) - 1;
+        return Math.max(0, Math.min(MAX_PAGES_AHEAD, pages));
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("roundTrips", roundTrips)
+                .add("readAheadPages", readAheadPages)
+                .add("rttMs", TimeUnit.NANOSECONDS.toMillis(Math.round(roundTripTime)))
+                .add("consumptionMs", TimeUnit.NANOSECONDS.toMillis(Math.round(consumptionTime)))
+                .add("placeholderMs", TimeUnit.NANOSECONDS.toMillis(placeholderNanos))
+                .toString();
+    }
+}
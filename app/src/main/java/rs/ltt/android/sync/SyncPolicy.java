@@ -0,0 +1,166 @@
+package rs.ltt.android.sync;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.NetworkType;
+import com.google.common.base.MoreObjects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how much data the app may use in the background based on the kind of network it is
+ * currently connected to. Both the WorkManager constraints and in-process decisions (read ahead)
+ * consult the policy so that a roaming or data saver connection does not see the same traffic as
+ * unmetered Wi-Fi. Content the user asked for (opening a thread) is never restricted.
+ */
+public class SyncPolicy {
+
+    private static final long MiB = 1024 * 1024;
+
+    private static volatile SyncPolicy INSTANCE = null;
+
+    private final ConnectivityProvider connectivityProvider;
+    private Rules refreshRules = null;
+
+    public SyncPolicy(final ConnectivityProvider connectivityProvider) {
+        this.connectivityProvider = connectivityProvider;
+    }
+
+    public static SyncPolicy getInstance(final Context context) {
+        if (INSTANCE != null) {
+            return INSTANCE;
+        }
+        synchronized (SyncPolicy.class) {
+            if (INSTANCE == null) {
+                INSTANCE =
+                        new SyncPolicy(
+                                new AndroidConnectivityProvider(context.getApplicationContext()));
+            }
+            return INSTANCE;
+        }
+    }
+
+    public NetworkClass getNetworkClass() {
+        return connectivityProvider.getNetworkClass();
+    }
+
+    public Rules getRules() {
+        return Rules.of(getNetworkClass());
+    }
+
+    public boolean isPrefetchAllowed() {
+        return getRules().prefetch;
+    }
+
+    public boolean isAutoDownloadAllowed(final Long size) {
+        final long max = getRules().maxAutoDownloadBytes;
+        return size != null && size <= max;
+    }
+
+    public long getRefreshInterval(final TimeUnit timeUnit) {
+        return timeUnit.convert(getRules().refreshIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * The periodic refresh may run anywhere within its interval. That lets WorkManager batch it
+     * with other work instead of waking the radio at a fixed time.
+     */
+    public long getRefreshFlexInterval(final TimeUnit timeUnit) {
+        return getRefreshInterval(timeUnit);
+    }
+
+    public Constraints getRefreshConstraints() {
+        return new Constraints.Builder()
+                .setRequiredNetworkType(getRules().refreshNetworkType)
+                .build();
+    }
+
+    /**
+     * Runs the callback whenever a network change leads to a different interval or network
+     * constraint for the periodic refresh. Work that has already been enqueued keeps the values
+     * it was created with and needs to be enqueued again.
+     */
+    public void registerOnRefreshRulesChanged(final Runnable callback) {
+        synchronized (this) {
+            this.refreshRules = getRules();
+        }
+        connectivityProvider.registerOnChanged(
+                () -> {
+                    final Rules rules = getRules();
+                    synchronized (this) {
+                        if (rules.hasSameRefresh(refreshRules)) {
+                            return;
+                        }
+                        this.refreshRules = rules;
+                    }
+                    callback.run();
+                });
+    }
+
+    public enum NetworkClass {
+        UNMETERED,
+        METERED,
+        ROAMING,
+        /** The user has restricted background data for the app (Data Saver) */
+        DATA_SAVER,
+        OFFLINE
+    }
+
+    public static final class Rules {
+
+        private static final Rules UNMETERED = new Rules(true, 25 * MiB, 15, NetworkType.CONNECTED);
+        private static final Rules METERED = new Rules(true, MiB, 30, NetworkType.CONNECTED);
+        private static final Rules ROAMING = new Rules(false, 0, 120, NetworkType.NOT_ROAMING);
+        private static final Rules DATA_SAVER = new Rules(false, 0, 60, NetworkType.CONNECTED);
+
+        public final boolean prefetch;
+        public final long maxAutoDownloadBytes;
+        public final long refreshIntervalMinutes;
+        public final NetworkType refreshNetworkType;
+
+        private Rules(
+                final boolean prefetch,
+                final long maxAutoDownloadBytes,
+                final long refreshIntervalMinutes,
+                final NetworkType refreshNetworkType) {
+            this.prefetch = prefetch;
+            this.maxAutoDownloadBytes = maxAutoDownloadBytes;
+            this.refreshIntervalMinutes = refreshIntervalMinutes;
+            this.refreshNetworkType = refreshNetworkType;
+        }
+
+        public static Rules of(final NetworkClass networkClass) {
+            return switch (networkClass) {
+                case UNMETERED -> UNMETERED;
+                case METERED -> METERED;
+                case ROAMING -> ROAMING;
+                // we don't know what we will be connected to next; work scheduled now stays frugal
+                case DATA_SAVER, OFFLINE -> DATA_SAVER;
+            };
+        }
+
+        private boolean hasSameRefresh(final Rules other) {
+            return other != null
+                    && refreshIntervalMinutes == other.refreshIntervalMinutes
+                    && refreshNetworkType == other.refreshNetworkType;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("prefetch", prefetch)
+                    .add("maxAutoDownloadBytes", maxAutoDownloadBytes)
+                    .add("refreshIntervalMinutes", refreshIntervalMinutes)
+                    .add("refreshNetworkType", refreshNetworkType)
+                    .toString();
+        }
+    }
+
+    public interface ConnectivityProvider {
+        NetworkClass getNetworkClass();
+
+        /** Runs the callback whenever the default network or its capabilities change. */
+        void registerOnChanged(Runnable callback);
+    }
+}
@@ -0,0 +1,346 @@
+package rs.ltt.android.sync;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Orders all JMAP work of one account by priority class. Lower classes are deferred while a
+ * higher class is waiting and preemptible work (prefetch) is cancelled as soon as the user needs
+ * the connection. Concurrency is capped per class and per account. All tasks pass through the
+ * {@link CircuitBreaker} of the account and fail fast while the server is known to be down.
+ */
+public class SyncScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncScheduler.class);
+
+    private static final Map<Long, SyncScheduler> INSTANCES = new HashMap<>();
+
+    private static final Executor SCHEDULER_EXECUTOR = Executors.newCachedThreadPool();
+
+    private static final int MAX_CONCURRENT_TASKS = 4;
+
+    private final Executor executor;
+    private final Ticker ticker;
+    private final int maxConcurrentTasks;
+    private final CircuitBreaker circuitBreaker;
+
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+    private final Set<Task<?>> active = new HashSet<>();
+    private final EnumMap<Priority, Integer> running = new EnumMap<>(Priority.class);
+    private final EnumMap<Priority, QueueWait> queueWait = new EnumMap<>(Priority.class);
+    private long sequence = 0;
+
+    SyncScheduler(final Executor executor, final Ticker ticker, final int maxConcurrentTasks) {
+        this(
+                executor,
+                ticker,
+                maxConcurrentTasks,
+                new CircuitBreaker(throwable -> CircuitBreaker.FailureClass.NONE, ticker));
+    }
+
+    SyncScheduler(
+            final Executor executor,
+            final Ticker ticker,
+            final int maxConcurrentTasks,
+            final CircuitBreaker circuitBreaker) {
+        this.executor = executor;
+        this.ticker = ticker;
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.circuitBreaker = circuitBreaker;
+        for (final Priority priority : Priority.values()) {
+            this.running.put(priority, 0);
+            this.queueWait.put(priority, new QueueWait());
+        }
+    }
+
+    public static SyncScheduler getInstance(final long accountId) {
+        synchronized (INSTANCES) {
+            final SyncScheduler existing = INSTANCES.get(accountId);
+            if (existing != null) {
+                return existing;
+            }
+            final SyncScheduler scheduler =
+                    new SyncScheduler(
+                            SCHEDULER_EXECUTOR,
+                            Ticker.systemTicker(),
+                            MAX_CONCURRENT_TASKS,
+                            new CircuitBreaker(JmapFailureClassifier::classify));
+            INSTANCES.put(accountId, scheduler);
+            return scheduler;
+        }
+    }
+
+    /**
+     * Closes the circuits of all accounts. Network failures recorded on a previous network say
+     * nothing about the one that just became available.
+     */
+    public static void resetCircuitBreakers() {
+        final List<SyncScheduler> schedulers;
+        synchronized (INSTANCES) {
+            schedulers = ImmutableList.copyOf(INSTANCES.values());
+        }
+        for (final SyncScheduler scheduler : schedulers) {
+            scheduler.circuitBreaker.reset();
+        }
+    }
+
+    public static void evict(final long accountId) {
+        final SyncScheduler scheduler;
+        synchronized (INSTANCES) {
+            scheduler = INSTANCES.remove(accountId);
+        }
+        if (scheduler != null) {
+            scheduler.cancelAll();
+        }
+    }
+
+    public <T> ListenableFuture<T> submit(
+            final Priority priority, final AsyncCallable<T> callable) {
+        final List<Task<?>> preempted;
+        final Task<T> task;
+        synchronized (this) {
+            task = new Task<>(priority, callable, sequence++, ticker.read());
+            queue.add(task);
+            preempted = priority.userVisible ? getPreemptible() : ImmutableList.of();
+        }
+        task.future.addListener(
+                () -> {
+                    if (task.future.isCancelled()) {
+                        onCancelled(task);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        for (final Task<?> victim : preempted) {
+            LOGGER.debug("{} preempted by {}", victim, task);
+            victim.future.cancel(false);
+        }
+        dispatch();
+        return task.future;
+    }
+
+    private List<Task<?>> getPreemptible() {
+        final ImmutableList.Builder<Task<?>> builder = new ImmutableList.Builder<>();
+        for (final Task<?> task : active) {
+            if (task.priority.preemptible) {
+                builder.add(task);
+            }
+        }
+        return builder.build();
+    }
+
+    private void dispatch() {
+        final ImmutableList.Builder<Task<?>> startable = new ImmutableList.Builder<>();
+        synchronized (this) {
+            while (!queue.isEmpty()) {
+                final Task<?> head = queue.peek();
+                // everything behind the head of the queue has lower priority (or was queued later)
+                // and is deferred until the head was able to start
+                if (!canStart(head.priority)) {
+                    break;
+                }
+                queue.poll();
+                active.add(head);
+                running.put(head.priority, running.get(head.priority) + 1);
+                final long wait = ticker.read() - head.enqueuedAt;
+                queueWait.get(head.priority).record(wait);
+                LOGGER.debug(
+                        "Starting {} after waiting {}ms",
+                        head,
+                        TimeUnit.NANOSECONDS.toMillis(wait));
+                startable.add(head);
+            }
+        }
+        for (final Task<?> task : startable.build()) {
+            executor.execute(task::start);
+        }
+    }
+
+    private boolean canStart(final Priority priority) {
+        if (active.size() >= maxConcurrentTasks) {
+            return false;
+        }
+        if (running.get(priority) >= priority.maxConcurrent) {
+            return false;
+        }
+        if (priority.background) {
+            for (final Task<?> task : active) {
+                if (task.priority.userVisible) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void onCancelled(final Task<?> task) {
+        synchronized (this) {
+            queue.remove(task);
+        }
+    }
+
+    private void onFinished(final Task<?> task) {
+        synchronized (this) {
+            if (active.remove(task)) {
+                running.put(task.priority, running.get(task.priority) - 1);
+            }
+        }
+        dispatch();
+    }
+
+    private void cancelAll() {
+        final List<Task<?>> tasks;
+        synchronized (this) {
+            tasks = new ImmutableList.Builder<Task<?>>().addAll(queue).addAll(active).build();
+        }
+        for (final Task<?> task : tasks) {
+            task.future.cancel(false);
+        }
+    }
+
+    public synchronized QueueWait.Snapshot getQueueWait(final Priority priority) {
+        return queueWait.get(priority).snapshot();
+    }
+
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public enum Priority {
+        /** The user is looking at a spinner or placeholder (opening a thread, paging a list) */
+        USER_FETCH(3, true, false, false),
+        /** Star, archive, send. The user expects to see the server confirm soon */
+        USER_MUTATION(2, true, false, false),
+        /** Refreshes triggered by push or by watching a query */
+        PUSH_REFRESH(1, false, false, false),
+        /** Opportunistic read-ahead; cancelled whenever user visible work arrives */
+        PREFETCH(1, false, true, true),
+        /** Label backfill, periodic refresh, cleanup */
+        MAINTENANCE(1, false, true, false);
+
+        private final int maxConcurrent;
+        private final boolean userVisible;
+        private final boolean background;
+        private final boolean preemptible;
+
+        Priority(
+                final int maxConcurrent,
+                final boolean userVisible,
+                final boolean background,
+                final boolean preemptible) {
+            this.maxConcurrent = maxConcurrent;
+            this.userVisible = userVisible;
+            this.background = background;
+            this.preemptible = preemptible;
+        }
+    }
+
+    private final class Task<T> implements Comparable<Task<?>> {
+        private final Priority priority;
+        private final AsyncCallable<T> callable;
+        private final long sequence;
+        private final long enqueuedAt;
+        private final SettableFuture<T> future = SettableFuture.create();
+
+        private Task(
+                final Priority priority,
+                final AsyncCallable<T> callable,
+                final long sequence,
+                final long enqueuedAt) {
+            this.priority = priority;
+            this.callable = callable;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        private void start() {
+            if (future.isDone()) {
+                onFinished(this);
+                return;
+            }
+            future.setFuture(circuitBreaker.call(callable));
+            future.addListener(() -> onFinished(this), MoreExecutors.directExecutor());
+        }
+
+        @Override
+        public int compareTo(final Task<?> other) {
+            final int byPriority = priority.compareTo(other.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper("Task")
+                    .add("priority", priority)
+                    .add("sequence", sequence)
+                    .toString();
+        }
+    }
+
+    public static final class QueueWait {
+        private long count = 0;
+        private long total = 0;
+        private long max = 0;
+
+        private void record(final long nanos) {
+            this.count++;
+            this.total += nanos;
+            this.max = Math.max(this.max, nanos);
+        }
+
+        private Snapshot snapshot() {
+            return new Snapshot(count, total, max);
+        }
+
+        public static final class Snapshot {
+            public final long count;
+            public final long totalNanos;
+            public final long maxNanos;
+
+            private Snapshot(final long count, final long totalNanos, final long maxNanos) {
+                this.count = count;
+                this.totalNanos = totalNanos;
+                this.maxNanos = maxNanos;
+            }
+
+            public long averageNanos() {
+                return count == 0 ? 0 : totalNanos / count;
+            }
+
+            @NonNull
+            @Override
+            public String toString() {
+                return MoreObjects.toStringHelper(this)
+                        .add("count", count)
+                        .add("avgMs", TimeUnit.NANOSECONDS.toMillis(averageNanos()))
+                        .add("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos))
+                        .toString();
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@ package rs.ltt.android.ui;
 
 import java.util.Collection;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.QueryInfo;
 
 public interface ThreadModifier {
 
@@ -32,6 +33,10 @@ public interface ThreadModifier {
 
     void markUnread(Collection<String> threadIds);
 
+    void markAllRead(QueryInfo queryInfo);
+
+    void archiveAll(QueryInfo queryInfo);
+
     void markImportant(Collection<String> threadIds);
 
     void markNotImportant(Collection<String> threadIds);
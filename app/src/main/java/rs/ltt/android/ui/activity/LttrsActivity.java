@@ -55,6 +55,7 @@ import rs.ltt.android.R;
 import rs.ltt.android.databinding.ActivityLttrsBinding;
 import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.QueryInfo;
 import rs.ltt.android.entity.SearchSuggestion;
 import rs.ltt.android.ui.BackInvokedDispatchers;
 import rs.ltt.android.ui.EmptyMailboxAction;
@@ -67,6 +68,7 @@ import rs.ltt.android.ui.notification.EmailNotification;
 import rs.ltt.android.util.Event;
 import rs.ltt.android.util.NavControllers;
 import rs.ltt.android.worker.Failure;
+import rs.ltt.android.worker.WorkerPayloads;
 import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.mua.util.KeywordLabel;
 import rs.ltt.jmap.mua.util.Label;
@@ -280,6 +282,12 @@ public class LttrsActivity extends AppCompatActivity
                                 LttrsNavigationDirections.actionToReassignRole(
                                         preExistingMailbox.getMailboxId(),
                                         preExistingMailbox.getRole().toString()));
+            } else if (failure.getException() == WorkerPayloads.MissingPayloadException.class) {
+                showSnackbar(
+                        Snackbar.make(
+                                this.binding.getRoot(),
+                                R.string.email_content_missing,
+                                Snackbar.LENGTH_LONG));
             }
         }
     }
@@ -440,17 +448,7 @@ public class LttrsActivity extends AppCompatActivity
                         getResources().getQuantityString(R.plurals.n_deleted, count, count),
                         Snackbar.LENGTH_LONG);
         final ListenableFuture<LiveData<WorkInfo>> future = lttrsViewModel.moveToTrash(threadIds);
-        snackbar.setAction(
-                R.string.undo,
-                v -> {
-                    try {
-                        final LiveData<WorkInfo> workInfoLiveData = future.get();
-                        final WorkInfo workInfo = workInfoLiveData.getValue();
-                        lttrsViewModel.cancelMoveToTrash(workInfo, threadIds);
-                    } catch (Exception e) {
-                        LOGGER.warn("Unable to cancel moveToTrash operation", e);
-                    }
-                });
+        snackbar.setAction(R.string.undo, v -> lttrsViewModel.cancelMoveToTrash(threadIds));
         showSnackbar(snackbar);
         future.addListener(
                 () -> {
@@ -502,6 +500,16 @@ public class LttrsActivity extends AppCompatActivity
         this.lttrsViewModel.markUnread(threadIds);
     }
 
+    @Override
+    public void markAllRead(final QueryInfo queryInfo) {
+        this.lttrsViewModel.markAllRead(queryInfo);
+    }
+
+    @Override
+    public void archiveAll(final QueryInfo queryInfo) {
+        this.lttrsViewModel.archiveAll(queryInfo);
+    }
+
     @Override
     public void markImportant(Collection<String> threadIds) {
         this.lttrsViewModel.markImportant(threadIds);
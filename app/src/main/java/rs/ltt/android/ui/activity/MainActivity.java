@@ -22,6 +22,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.LttrsApplication;
+import rs.ltt.android.MuaPool;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -33,6 +34,7 @@ public class MainActivity extends AppCompatActivity {
         final long start = SystemClock.elapsedRealtime();
         final Long accountId = LttrsApplication.get(this).getMostRecentlySelectedAccountId();
         if (accountId != null) {
+            MuaPool.prewarm(getApplicationContext(), accountId);
             LttrsActivity.launch(this, accountId);
         } else {
             SetupActivity.launch(this);
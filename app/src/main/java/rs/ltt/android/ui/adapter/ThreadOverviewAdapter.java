@@ -24,9 +24,12 @@ import android.view.ViewGroup;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import androidx.databinding.DataBindingUtil;
-import androidx.paging.AsyncPagedListDiffer;
-import androidx.paging.PagedList;
-import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.lifecycle.Lifecycle;
+import androidx.paging.AsyncPagingDataDiffer;
+import androidx.paging.CombinedLoadStates;
+import androidx.paging.LoadState;
+import androidx.paging.LoadStates;
+import androidx.paging.PagingData;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.color.MaterialColors;
@@ -36,6 +39,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import kotlin.Unit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.R;
@@ -76,10 +80,8 @@ public class ThreadOverviewAdapter
     private final OffsetListUpdateCallback<AbstractThreadOverviewViewHolder>
             offsetListUpdateCallback = new OffsetListUpdateCallback<>(this, 1, 1, false);
 
-    private final AsyncPagedListDiffer<ThreadOverviewItem> mDiffer =
-            new AsyncPagedListDiffer<>(
-                    offsetListUpdateCallback,
-                    new AsyncDifferConfig.Builder<>(ITEM_CALLBACK).build());
+    private final AsyncPagingDataDiffer<ThreadOverviewItem> mDiffer =
+            new AsyncPagingDataDiffer<>(ITEM_CALLBACK, offsetListUpdateCallback);
 
     private String title;
 
@@ -94,6 +96,12 @@ public class ThreadOverviewAdapter
             importantMailbox; // TODO this needs to be a LiveData and needs to trigger a refresh
     // when changed
     private EmptyMailboxAction emptyMailboxAction = null;
+    private Runnable onPagesUpdated = null;
+
+    public ThreadOverviewAdapter() {
+        this.mDiffer.addLoadStateListener(this::onLoadStatesChanged);
+        this.mDiffer.addOnPagesUpdatedListener(this::onPagesUpdated);
+    }
 
     @NonNull
     @Override
@@ -258,16 +266,12 @@ public class ThreadOverviewAdapter
     }
 
     private int getPosition(final String threadId) {
-        final PagedList<ThreadOverviewItem> currentList = this.mDiffer.getCurrentList();
-        if (currentList == null) {
-            return RecyclerView.NO_POSITION;
-        }
-        final int offset = currentList.getPositionOffset();
-        final List<ThreadOverviewItem> snapshot = currentList.snapshot();
+        // the snapshot includes placeholders; indices match adapter positions (minus header)
+        final List<ThreadOverviewItem> snapshot = this.mDiffer.snapshot();
         int i = 0;
         for (final ThreadOverviewItem item : snapshot) {
             if (item != null && threadId.equals(item.threadId)) {
-                return offset + i;
+                return i;
             }
             ++i;
         }
@@ -311,10 +315,28 @@ public class ThreadOverviewAdapter
         return this.isLoading || !initialLoadComplete;
     }
 
-    public void setLoading(final boolean loading) {
+    private Unit onLoadStatesChanged(final CombinedLoadStates combinedLoadStates) {
+        // only loads from the server are slow enough to warrant the spinning wheel
+        final LoadStates mediator = combinedLoadStates.getMediator();
+        final boolean loading =
+                mediator != null
+                        && (mediator.getRefresh() instanceof LoadState.Loading
+                                || mediator.getAppend() instanceof LoadState.Loading);
         final boolean before = isLoading();
         this.isLoading = loading;
         refreshLoadingIndicator(before);
+        return Unit.INSTANCE;
+    }
+
+    private Unit onPagesUpdated() {
+        final boolean before = isLoading();
+        this.initialLoadComplete = true;
+        refreshLoadingIndicator(before);
+        final Runnable runnable = this.onPagesUpdated;
+        if (runnable != null) {
+            runnable.run();
+        }
+        return Unit.INSTANCE;
     }
 
     public void setTitle(final String title) {
@@ -322,13 +344,17 @@ public class ThreadOverviewAdapter
         notifyItemChanged(0);
     }
 
-    public void submitList(final PagedList<ThreadOverviewItem> pagedList, final Runnable runnable) {
-        final boolean before = isLoading();
-        this.initialLoadComplete = true;
-        if (pagedList != null && pagedList.size() == 0) {
-            refreshLoadingIndicator(before);
-        }
-        this.mDiffer.submitList(pagedList, runnable);
+    public void submitData(
+            final Lifecycle lifecycle, final PagingData<ThreadOverviewItem> pagingData) {
+        this.mDiffer.submitData(lifecycle, pagingData);
+    }
+
+    /**
+     * The runnable is invoked after every update to the presented pages. Unlike with PagedList
+     * database changes do not result in a new submission.
+     */
+    public void setOnPagesUpdatedListener(final Runnable runnable) {
+        this.onPagesUpdated = runnable;
     }
 
     public void setEmptyMailboxAction(final EmptyMailboxAction emptyMailboxAction) {
@@ -388,8 +414,8 @@ public class ThreadOverviewAdapter
         return !this.initialLoadComplete;
     }
 
-    public PagedList<ThreadOverviewItem> getCurrentList() {
-        return this.mDiffer.getCurrentList();
+    public List<ThreadOverviewItem> snapshot() {
+        return this.mDiffer.snapshot();
     }
 
     public interface OnThreadClicked {
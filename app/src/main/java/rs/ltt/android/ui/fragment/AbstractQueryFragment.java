@@ -15,7 +15,10 @@
 
 package rs.ltt.android.ui.fragment;
 
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -29,7 +32,7 @@ import androidx.databinding.DataBindingUtil;
 import androidx.lifecycle.DefaultLifecycleObserver;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
-import androidx.paging.PagedList;
+import androidx.paging.PagingData;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.color.MaterialColors;
@@ -41,11 +44,14 @@ import com.google.common.collect.Sets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.android.BuildConfig;
 import rs.ltt.android.LttrsNavigationDirections;
 import rs.ltt.android.R;
 import rs.ltt.android.databinding.FragmentThreadListBinding;
+import rs.ltt.android.entity.QueryInfo;
 import rs.ltt.android.entity.SearchSuggestion;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.android.service.EventMonitorService;
@@ -78,6 +84,7 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment
                 SearchView.TransitionListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractQueryFragment.class);
+    private static final AtomicBoolean FIRST_CONTENT_LOGGED = new AtomicBoolean(false);
     protected FragmentThreadListBinding binding;
     private ThreadOverviewAdapter threadOverviewAdapter;
     private ItemTouchHelper itemTouchHelper;
@@ -165,9 +172,6 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment
 
         ItemAnimators.disableChangeAnimation(binding.threadList.getItemAnimator());
 
-        viewModel
-                .isRunningPagingRequest()
-                .observe(getViewLifecycleOwner(), threadOverviewAdapter::setLoading);
         viewModel
                 .getEmptyMailboxAction()
                 .observe(getViewLifecycleOwner(), this::setEmptyMailboxAction);
@@ -286,25 +290,40 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment
     }
 
     private void observeThreadOverviewItems(
-            final LiveData<PagedList<ThreadOverviewItem>> liveData) {
+            final LiveData<PagingData<ThreadOverviewItem>> liveData) {
+        // invoked before the RecyclerView had a chance to lay out the changes; so we still know if
+        // we were at the top prior to the update
+        threadOverviewAdapter.setOnPagesUpdatedListener(
+                () -> {
+                    if (binding != null && RecyclerViews.scrolledToTop(binding.threadList)) {
+                        binding.threadList.scrollToPosition(0);
+                    }
+                    if (this.tracker.hasSelection()) {
+                        this.onSelectionChanged(this.tracker.countSelected());
+                    }
+                    logTimeToFirstContent();
+                });
         liveData.observe(
                 getViewLifecycleOwner(),
                 threadOverviewItems -> {
-                    final boolean atTop = RecyclerViews.scrolledToTop(binding.threadList);
                     configureItemAnimator();
-                    threadOverviewAdapter.submitList(
-                            threadOverviewItems,
-                            () -> {
-                                if (atTop && binding != null) {
-                                    binding.threadList.scrollToPosition(0);
-                                }
-                                if (this.tracker.hasSelection()) {
-                                    this.onSelectionChanged(this.tracker.countSelected());
-                                }
-                            });
+                    threadOverviewAdapter.submitData(
+                            getViewLifecycleOwner().getLifecycle(), threadOverviewItems);
                 });
     }
 
+    private void logTimeToFirstContent() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N
+                || threadOverviewAdapter.snapshot().isEmpty()
+                || FIRST_CONTENT_LOGGED.getAndSet(true)) {
+            return;
+        }
+        LOGGER.info(
+                "First list content {}ms after process start (prewarm={})",
+                SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime(),
+                BuildConfig.PREWARM);
+    }
+
     /**
      * The RecyclerView displays a spinning wheel while waiting for the initial load from database.
      * However we don’t want to animate the change from one item with spinning wheel to multiple
@@ -480,6 +499,7 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment
         final MenuItem markNotImportant = menu.findItem(R.id.action_mark_not_important);
         final MenuItem addFlag = menu.findItem(R.id.action_add_flag);
         final MenuItem removeFlag = menu.findItem(R.id.action_remove_flag);
+        final MenuItem archiveAll = menu.findItem(R.id.action_archive_all);
 
         if (queryType == ActionModeMenuConfiguration.QueryType.ARCHIVE) {
             archive.setVisible(false);
@@ -513,6 +533,7 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment
         removeFlag.setVisible(
                 queryType != ActionModeMenuConfiguration.QueryType.FLAGGED
                         && selectionInfo.flagged);
+        archiveAll.setVisible(getQueryViewModel().getQueryInfo().type == QueryInfo.Type.MAIN);
     }
 
     private boolean onActionItemClicked(final MenuItem item) {
@@ -547,6 +568,12 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment
         } else if (itemId == R.id.action_move_to_trash) {
             getThreadModifier().moveToTrash(threadIds);
             tracker.clearSelection();
+        } else if (itemId == R.id.action_mark_all_read) {
+            getThreadModifier().markAllRead(getQueryViewModel().getQueryInfo());
+            tracker.clearSelection();
+        } else if (itemId == R.id.action_archive_all) {
+            getThreadModifier().archiveAll(getQueryViewModel().getQueryInfo());
+            tracker.clearSelection();
         }
         return true;
     }
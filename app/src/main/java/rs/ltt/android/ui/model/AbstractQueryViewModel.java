@@ -21,7 +21,9 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
-import androidx.paging.PagedList;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
@@ -50,9 +52,9 @@ public abstract class AbstractQueryViewModel extends AndroidViewModel {
     private final ContactRepository contactRepository;
     private final ListenableFuture<MailboxWithRoleAndName> important;
     private final HashSet<String> selectedThreads = new HashSet<>();
-    private LiveData<PagedList<ThreadOverviewItem>> threads;
+    private LiveData<PagingData<ThreadOverviewItem>> threads;
     private LiveData<Boolean> refreshing;
-    private LiveData<Boolean> runningPagingRequest;
+    private final LiveData<Integer> initialSyncProgress;
 
     private final MutableLiveData<String> searchQueryLiveData = new MutableLiveData<>();
     private final MutableLiveData<Boolean> searchEnabled = new MutableLiveData<>();
@@ -65,6 +67,7 @@ public abstract class AbstractQueryViewModel extends AndroidViewModel {
         this.queryRepository = new QueryRepository(application, accountId);
         this.contactRepository = new ContactRepository(application, accountId);
         this.important = this.queryRepository.getImportant();
+        this.initialSyncProgress = this.mainRepository.getInitialSyncProgress(accountId);
         this.searchSuggestion =
                 Transformations.switchMap(
                         searchEnabled,
@@ -97,10 +100,13 @@ public abstract class AbstractQueryViewModel extends AndroidViewModel {
 
     void init() {
         this.threads =
-                Transformations.switchMap(getQuery(), queryRepository::getThreadOverviewItems);
+                Transformations.switchMap(
+                        getQuery(),
+                        query ->
+                                PagingLiveData.cachedIn(
+                                        queryRepository.getThreadOverviewItems(query),
+                                        ViewModelKt.getViewModelScope(this)));
         this.refreshing = Transformations.switchMap(getQuery(), queryRepository::isRunningQueryFor);
-        this.runningPagingRequest =
-                Transformations.switchMap(getQuery(), queryRepository::isRunningPagingRequestFor);
     }
 
     public LiveData<Boolean> isRefreshing() {
@@ -112,21 +118,19 @@ public abstract class AbstractQueryViewModel extends AndroidViewModel {
         return refreshing;
     }
 
-    public Future<MailboxWithRoleAndName> getImportant() {
-        return this.important;
+    /**
+     * @return the progress of the initial sync of the account in percent or null once it is done
+     */
+    public LiveData<Integer> getInitialSyncProgress() {
+        return this.initialSyncProgress;
     }
 
-    public LiveData<Boolean> isRunningPagingRequest() {
-        final LiveData<Boolean> paging = this.runningPagingRequest;
-        if (paging == null) {
-            throw new IllegalStateException(
-                    "LiveData for paging not initialized. Forgot to call init()?");
-        }
-        return paging;
+    public Future<MailboxWithRoleAndName> getImportant() {
+        return this.important;
     }
 
-    public LiveData<PagedList<ThreadOverviewItem>> getThreadOverviewItems() {
-        final LiveData<PagedList<ThreadOverviewItem>> liveData = this.threads;
+    public LiveData<PagingData<ThreadOverviewItem>> getThreadOverviewItems() {
+        final LiveData<PagingData<ThreadOverviewItem>> liveData = this.threads;
         if (liveData == null) {
             throw new IllegalStateException(
                     "LiveData for thread items not initialized. Forgot to call init()?");
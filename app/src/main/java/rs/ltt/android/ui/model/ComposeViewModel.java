@@ -17,12 +17,16 @@ package rs.ltt.android.ui.model;
 
 import android.app.Application;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 import androidx.lifecycle.Transformations;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
@@ -114,6 +118,15 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
 
     private boolean draftHasBeenHandled = false;
 
+    private final DraftAutoSave<Draft> draftAutoSave =
+            new DraftAutoSave<>(null, (saved, draft) -> draft.unedited(saved));
+    private final Handler autoSaveHandler = new Handler(Looper.getMainLooper());
+    private final Runnable autoSaveRunnable = this::autoSave;
+    private final Observer<Object> editObserver = ignored -> onEdit();
+    // the draft saves of this compose session replace each other
+    private Long lastSaveAccountId = null;
+    private UUID lastSave = null;
+
     private ComposeViewModel(@NonNull final Application application, final Parameter parameter) {
         super(application);
         this.composeAction = parameter.composeAction;
@@ -148,6 +161,61 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
             }
         }
         this.encryptionOptions = setupEncryptionOptions();
+        for (final LiveData<?> liveData : editableLiveData()) {
+            liveData.observeForever(editObserver);
+        }
+    }
+
+    private List<LiveData<?>> editableLiveData() {
+        return ImmutableList.of(this.to, this.cc, this.subject, this.body, this.attachments);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        autoSaveHandler.removeCallbacks(autoSaveRunnable);
+        for (final LiveData<?> liveData : editableLiveData()) {
+            liveData.removeObserver(editObserver);
+        }
+    }
+
+    private void onEdit() {
+        if (this.draftHasBeenHandled) {
+            return;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        draftAutoSave.onEdit(getCurrentDraft(), now);
+        autoSaveHandler.removeCallbacks(autoSaveRunnable);
+        autoSaveHandler.postDelayed(autoSaveRunnable, draftAutoSave.delay(now));
+    }
+
+    private void autoSave() {
+        final long now = SystemClock.elapsedRealtime();
+        final Draft draft = draftAutoSave.poll(now);
+        if (draft != null && !this.draftHasBeenHandled) {
+            final IdentityWithNameAndEmail identity = getIdentity();
+            if (identity != null && isWorthSaving(draft) && draftAutoSave.changed(draft)) {
+                LOGGER.info("Auto saving draft");
+                save(identity, draft, false);
+            }
+        }
+        final long delay = draftAutoSave.delay(now);
+        if (delay >= 0) {
+            autoSaveHandler.postDelayed(autoSaveRunnable, delay);
+        }
+    }
+
+    private boolean isWorthSaving(final Draft draft) {
+        if (draft.isEmpty()) {
+            return false;
+        }
+        if (this.lastSave != null) {
+            return true;
+        }
+        final Draft originalDraft =
+                Draft.with(
+                        this.composeAction, this.mailToUri, this.intentAttachments, getEmail());
+        return originalDraft == null || !draft.unedited(originalDraft);
     }
 
     private LiveData<EncryptionOptions> setupEncryptionOptions() {
@@ -274,9 +342,16 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
     }
 
     public boolean discard() {
+        autoSaveHandler.removeCallbacks(autoSaveRunnable);
         final EmailWithReferences email = getEmail();
-        final boolean isOnlyEmailInThread =
-                email == null || getRepository(email.accountId).discard(email);
+        final boolean isOnlyEmailInThread;
+        if (this.lastSave != null) {
+            // an edited draft has been replaced by the first save already
+            discardLastSave();
+            isOnlyEmailInThread = email == null || email.isOnlyEmailInThread();
+        } else {
+            isOnlyEmailInThread = email == null || getRepository(email.accountId).discard(email);
+        }
         this.draftHasBeenHandled = true;
         return isOnlyEmailInThread;
     }
@@ -304,9 +379,18 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
             throw new IllegalStateException();
         }
         LOGGER.info("sending with identity {}", identity.getId());
+        autoSaveHandler.removeCallbacks(autoSaveRunnable);
         final UUID workInfoId;
         final ComposeRepository repository = getRepository(identity.accountId);
+        final UUID discardSave;
+        if (this.lastSave != null && !identity.accountId.equals(this.lastSaveAccountId)) {
+            discardLastSave();
+            discardSave = null;
+        } else {
+            discardSave = this.lastSave;
+        }
         if (this.composeAction == ComposeAction.EDIT_DRAFT
+                && this.lastSave == null
                 && editableEmail != null
                 && currentDraft.unedited(Draft.edit(editableEmail))) {
             LOGGER.info("draft remains unedited. submitting...");
@@ -321,7 +405,10 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
                             currentDraft,
                             inReplyTo,
                             encryptionOptions.encrypted(),
-                            editableEmail);
+                            discardSave == null
+                                    ? editableEmail
+                                    : getEditedDraft(identity.accountId),
+                            discardSave);
         }
         this.draftHasBeenHandled = true;
         return workInfoId;
@@ -332,6 +419,8 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
             LOGGER.info("Not storing as draft. Email has already been handled.");
             return null;
         }
+        autoSaveHandler.removeCallbacks(autoSaveRunnable);
+        draftAutoSave.flush();
         final IdentityWithNameAndEmail identity = getIdentity();
         if (identity == null) {
             LOGGER.info("Not storing draft. No identity has been selected");
@@ -340,41 +429,81 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
         final Draft currentDraft = getCurrentDraft();
         if (currentDraft.isEmpty()) {
             LOGGER.info("not storing draft. To, subject, body and attachments are empty.");
+            if (this.lastSave != null) {
+                discardLastSave();
+                this.draftHasBeenHandled = true;
+            }
             return null;
         }
-        final EncryptionOptions encryptionOptions = EncryptionOptions.of(this.encryptionOptions);
-        final EmailWithReferences editableEmail = getEmail();
-        final Draft originalDraft =
-                Draft.with(
-                        this.composeAction, this.mailToUri, this.intentAttachments, editableEmail);
-        if (originalDraft != null && currentDraft.unedited(originalDraft)) {
+        if (!isWorthSaving(currentDraft)) {
             LOGGER.info("Not storing draft. Nothing has been changed");
             draftHasBeenHandled = true;
             ComposeRepository.deleteLocalAttachments(getApplication(), this.intentAttachments);
             return null;
         }
+        if (!draftAutoSave.changed(currentDraft)) {
+            LOGGER.info("Not storing draft. Nothing has been changed since the last save");
+            this.draftHasBeenHandled = true;
+            return this.lastSave;
+        }
         LOGGER.info("Saving draft");
-        final EmailWithReferences discard;
-        if (this.composeAction == ComposeAction.EDIT_DRAFT) {
-            discard = editableEmail;
-            LOGGER.info(
-                    "Requesting to delete previous draft={}", discard == null ? null : discard.id);
+        final UUID uuid = save(identity, currentDraft, true);
+        this.draftHasBeenHandled = true;
+        return uuid;
+    }
+
+    private UUID save(
+            final IdentityWithNameAndEmail identity, final Draft draft, final boolean endsSession) {
+        final EncryptionOptions encryptionOptions = EncryptionOptions.of(this.encryptionOptions);
+        final EmailWithReferences editableEmail = getEmail();
+        final UUID previousSave;
+        if (this.lastSave != null && !identity.accountId.equals(this.lastSaveAccountId)) {
+            LOGGER.info("Account has changed. Discarding draft saved with previous account");
+            discardLastSave();
+            previousSave = null;
         } else {
-            discard = null;
+            previousSave = this.lastSave;
+        }
+        // replaced in place of the previous save if that did not succeed
+        final EmailWithReferences replace = getEditedDraft(identity.accountId);
+        if (replace != null && previousSave == null) {
+            LOGGER.info("Requesting to replace previous draft={}", replace.id);
         }
         final Collection<String> inReplyTo = inReplyTo(editableEmail, composeAction);
         final UUID uuid =
                 getRepository(identity.accountId)
                         .saveDraft(
                                 identity,
-                                currentDraft,
+                                draft,
                                 inReplyTo,
                                 encryptionOptions.encrypted(),
-                                discard);
-        this.draftHasBeenHandled = true;
+                                replace,
+                                previousSave,
+                                endsSession);
+        draftAutoSave.saved(draft);
+        this.lastSave = uuid;
+        this.lastSaveAccountId = identity.accountId;
         return uuid;
     }
 
+    /**
+     * @return the draft that is being edited if it belongs to the given account
+     */
+    private EmailWithReferences getEditedDraft(final Long accountId) {
+        final EmailWithReferences editableEmail = getEmail();
+        if (this.composeAction == ComposeAction.EDIT_DRAFT
+                && editableEmail != null
+                && editableEmail.accountId.equals(accountId)) {
+            return editableEmail;
+        }
+        return null;
+    }
+
+    private void discardLastSave() {
+        getRepository(this.lastSaveAccountId)
+                .discard(this.lastSave, getEditedDraft(this.lastSaveAccountId));
+    }
+
     private IdentityWithNameAndEmail getIdentity() {
         final List<IdentityWithNameAndEmail> identities = this.identities.getValue();
         final Integer selectedIdentity = this.selectedIdentityPosition.getValue();
@@ -546,9 +675,20 @@ public class ComposeViewModel extends AbstractAttachmentViewModel {
         if (current.remove(attachment)) {
             refreshAttachments(ImmutableList.copyOf(current));
         }
-        if (attachment instanceof LocalAttachment) {
-            ComposeRepository.deleteLocalAttachment(getApplication(), (LocalAttachment) attachment);
+        // a queued upload still needs the local copy. It is deleted once the session has ended
+        if (attachment instanceof LocalAttachment localAttachment
+                && !isQueuedForUpload(localAttachment)) {
+            ComposeRepository.deleteLocalAttachment(getApplication(), localAttachment);
+        }
+    }
+
+    private boolean isQueuedForUpload(final LocalAttachment attachment) {
+        for (final ComposeRepository repository : this.repositories.asMap().values()) {
+            if (repository.isQueuedForUpload(attachment)) {
+                return true;
+            }
         }
+        return false;
     }
 
     private void refreshAttachments(final List<Attachment> attachments) {
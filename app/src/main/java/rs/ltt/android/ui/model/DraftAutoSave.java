@@ -0,0 +1,119 @@
+package rs.ltt.android.ui.model;
+
+import com.google.common.base.MoreObjects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Decides when the draft that is being composed gets saved. Edits are collected until they have
+ * been quiet for a while; continuous typing is saved at least every {@code maxDelay}. A draft that
+ * does not differ from the last one saved is never saved again.
+ *
+ * <p>Times are passed in by the caller (in milliseconds of a monotonic clock) so the same instance
+ * can be driven by a Handler or by a simulated clock.
+ */
+public class DraftAutoSave<T> {
+
+    public static final long QUIET_PERIOD = TimeUnit.SECONDS.toMillis(5);
+    public static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(60);
+
+    private final BiPredicate<T, T> unchanged;
+    private final long quietPeriod;
+    private final long maxDelay;
+
+    private T saved;
+    private T pending;
+    private long firstEdit;
+    private long lastEdit;
+    private long saves = 0;
+    private long skipped = 0;
+
+    public DraftAutoSave(final T saved, final BiPredicate<T, T> unchanged) {
+        this(saved, unchanged, QUIET_PERIOD, MAX_DELAY);
+    }
+
+    /**
+     * @param saved the draft as it is stored on the server or null
+     * @param unchanged returns true if the two drafts do not differ in a way worth saving
+     */
+    public DraftAutoSave(
+            final T saved,
+            final BiPredicate<T, T> unchanged,
+            final long quietPeriod,
+            final long maxDelay) {
+        this.saved = saved;
+        this.unchanged = unchanged;
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+    }
+
+    public synchronized void onEdit(final T draft, final long now) {
+        if (this.pending == null) {
+            this.firstEdit = now;
+        }
+        this.pending = draft;
+        this.lastEdit = now;
+    }
+
+    /**
+     * @return the number of milliseconds until {@link #poll(long)} should be called again or -1 if
+     *     there is nothing to save
+     */
+    public synchronized long delay(final long now) {
+        if (this.pending == null) {
+            return -1;
+        }
+        final long due = Math.min(lastEdit + quietPeriod, firstEdit + maxDelay);
+        return Math.max(0, due - now);
+    }
+
+    /**
+     * @return the edited draft if it is due to be saved or null
+     */
+    public synchronized T poll(final long now) {
+        if (this.pending == null || delay(now) > 0) {
+            return null;
+        }
+        return flush();
+    }
+
+    /**
+     * Called when composing ends. Ignores the quiet period.
+     *
+     * @return the edited draft or null if there have not been any edits since the last poll
+     */
+    public synchronized T flush() {
+        final T draft = this.pending;
+        this.pending = null;
+        return draft;
+    }
+
+    /**
+     * @return false if the draft does not differ from the one saved last
+     */
+    public synchronized boolean changed(final T draft) {
+        if (this.saved != null && unchanged.test(this.saved, draft)) {
+            this.skipped++;
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void saved(final T draft) {
+        this.saved = draft;
+        this.saves++;
+    }
+
+    public synchronized long getSaves() {
+        return saves;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("saves", saves)
+                .add("skipped", skipped)
+                .add("pending", pending != null)
+                .toString();
+    }
+}
@@ -35,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.LttrsApplication;
 import rs.ltt.android.entity.AccountName;
+import rs.ltt.android.entity.QueryInfo;
 import rs.ltt.android.entity.SearchSuggestion;
 import rs.ltt.android.repository.LttrsRepository;
 import rs.ltt.android.repository.MainRepository;
@@ -136,8 +137,8 @@ public class LttrsViewModel extends AndroidViewModel {
         return this.lttrsRepository.moveToTrash(threadIds);
     }
 
-    public void cancelMoveToTrash(final WorkInfo workInfo, final Collection<String> threadIds) {
-        this.lttrsRepository.cancelMoveToTrash(workInfo, threadIds);
+    public void cancelMoveToTrash(final Collection<String> threadIds) {
+        this.lttrsRepository.cancelMoveToTrash(threadIds);
     }
 
     public void archive(Collection<String> threadIds) {
@@ -207,6 +208,14 @@ public class LttrsViewModel extends AndroidViewModel {
         LttrsApplication.get(getApplication()).invalidateMostRecentlySelectedAccountId();
     }
 
+    public void markAllRead(final QueryInfo queryInfo) {
+        this.lttrsRepository.markRead(queryInfo);
+    }
+
+    public void archiveAll(final QueryInfo queryInfo) {
+        this.lttrsRepository.archive(queryInfo);
+    }
+
     public void executeEmptyMailboxAction(final EmptyMailboxAction action) {
         this.lttrsRepository.executeEmptyMailboxAction(action);
     }
@@ -29,6 +29,7 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -38,10 +39,12 @@ import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import okhttp3.HttpUrl;
@@ -55,6 +58,7 @@ import rs.ltt.android.R;
 import rs.ltt.android.entity.AutocryptSetupMessage;
 import rs.ltt.android.repository.MainRepository;
 import rs.ltt.android.util.Event;
+import rs.ltt.android.util.SessionDiscovery;
 import rs.ltt.autocrypt.client.SetupCode;
 import rs.ltt.jmap.client.ConnectionConfig;
 import rs.ltt.jmap.client.JmapClient;
@@ -91,6 +95,7 @@ public class SetupViewModel extends AndroidViewModel {
     private final MutableLiveData<Event<String>> warningMessage = new MutableLiveData<>();
     private final MainRepository mainRepository;
     private ListenableFuture<?> networkFuture = null;
+    private volatile HttpUrl discoveredSessionResource = null;
     private final Queue<AutocryptSetupMessage> setupMessages = new LinkedList<>();
 
     public SetupViewModel(@NonNull Application application) {
@@ -109,6 +114,7 @@ public class SetupViewModel extends AndroidViewModel {
                 || t instanceof EndpointNotFoundException
                 || t instanceof ConnectException
                 || t instanceof SocketTimeoutException
+                || t instanceof TimeoutException
                 || t instanceof SSLHandshakeException
                 || t instanceof SSLPeerUnverifiedException
                 || t instanceof StreamResetException;
@@ -202,6 +208,7 @@ public class SetupViewModel extends AndroidViewModel {
     public void enterEmailAddress() {
         this.password.setValue(null);
         this.sessionResource.setValue(null);
+        this.discoveredSessionResource = null;
         final String emailAddress = getEmailAddressedValue();
         if (!checkEmailAddress(emailAddress)) {
             return;
@@ -349,6 +356,7 @@ public class SetupViewModel extends AndroidViewModel {
         this.loading.postValue(true);
         this.sessionResource.postValue(httpUrl.toString());
         this.sessionResourceError.postValue(null);
+        this.discoveredSessionResource = null;
         Futures.addCallback(
                 getSession(),
                 new FutureCallback<>() {
@@ -474,15 +482,34 @@ public class SetupViewModel extends AndroidViewModel {
             throw new IllegalArgumentException(
                     "Trying to setup JmapClient with unknown authentication scheme");
         }
+        final HttpUrl discovered = this.discoveredSessionResource;
+        final List<HttpUrl> candidates =
+                discovered != null
+                        ? ImmutableList.of(discovered)
+                        : SessionDiscovery.candidates(getEnteredSessionResource(), emailAddress);
+        final ListenableFuture<Session> sessionFuture;
+        if (candidates.isEmpty()) {
+            // let JmapClient run its own discovery; it reports malformed usernames
+            sessionFuture = connect(httpAuthentication, null);
+        } else {
+            sessionFuture =
+                    SessionDiscovery.discover(
+                            candidates,
+                            candidate -> connect(httpAuthentication, candidate),
+                            sessionResource -> this.discoveredSessionResource = sessionResource);
+        }
+        this.networkFuture = sessionFuture;
+        return sessionFuture;
+    }
+
+    private ListenableFuture<Session> connect(
+            final HttpAuthentication httpAuthentication, final HttpUrl sessionResource) {
         final var connectionConfig =
                 new ConnectionConfig(
                         httpAuthentication,
-                        getHttpSessionResource(),
+                        sessionResource,
                         TrustManagers.createForAndroidVersionOrNull(getApplication()));
-        final JmapClient jmapClient = new JmapClient(connectionConfig);
-        final ListenableFuture<Session> sessionFuture = jmapClient.getSession();
-        this.networkFuture = sessionFuture;
-        return sessionFuture;
+        return new JmapClient(connectionConfig).getSession();
     }
 
     private void processAccounts(final Session session) {
@@ -571,12 +598,13 @@ public class SetupViewModel extends AndroidViewModel {
     }
 
     private HttpUrl getHttpSessionResource() {
+        final HttpUrl discovered = this.discoveredSessionResource;
+        return discovered != null ? discovered : getEnteredSessionResource();
+    }
+
+    private HttpUrl getEnteredSessionResource() {
         final String sessionResource = Strings.emptyToNull(this.sessionResource.getValue());
-        if (sessionResource == null) {
-            return null;
-        } else {
-            return HttpUrl.get(sessionResource);
-        }
+        return sessionResource == null ? null : HttpUrl.get(sessionResource);
     }
 
     private String causeToString(Throwable t) {
@@ -590,7 +618,7 @@ public class SetupViewModel extends AndroidViewModel {
         if (t instanceof ConnectException) {
             return c.getString(R.string.unable_to_connect);
         }
-        if (t instanceof SocketTimeoutException) {
+        if (t instanceof SocketTimeoutException || t instanceof TimeoutException) {
             return c.getString(R.string.timeout_reached);
         }
         if (t instanceof SSLHandshakeException) {
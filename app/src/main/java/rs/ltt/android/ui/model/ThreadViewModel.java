@@ -124,6 +124,22 @@ public class ThreadViewModel extends AbstractAttachmentViewModel {
                     public void onFailure(@NonNull Throwable t) {}
                 },
                 MoreExecutors.directExecutor());
+        Futures.addCallback(
+                threadViewRepository.fetchTruncatedBodyValues(threadId),
+                new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(final Integer count) {
+                        if (count != null && count > 0) {
+                            LOGGER.info("Completed {} truncated emails in {}", count, threadId);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Throwable throwable) {
+                        LOGGER.warn("Unable to fetch full body values", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
 
         final LiveData<List<MailboxOverwriteEntity>> overwriteEntityLiveData =
                 threadViewRepository.getMailboxOverwrites(threadId);
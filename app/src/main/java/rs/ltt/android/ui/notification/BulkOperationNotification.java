@@ -0,0 +1,72 @@
+package rs.ltt.android.ui.notification;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import androidx.annotation.StringRes;
+import androidx.core.app.NotificationCompat;
+import androidx.work.WorkManager;
+import java.util.UUID;
+import rs.ltt.android.R;
+
+public class BulkOperationNotification {
+
+    public static final int ID = 6;
+
+    private static final String NOTIFICATION_CHANNEL_ID = "bulk_operation";
+
+    public static void createChannel(final Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        final NotificationManager notificationManager =
+                context.getSystemService(NotificationManager.class);
+
+        final NotificationChannel notificationChannel =
+                new NotificationChannel(
+                        NOTIFICATION_CHANNEL_ID,
+                        context.getString(R.string.bulk_operations),
+                        NotificationManager.IMPORTANCE_LOW);
+        notificationChannel.setSound(null, null);
+        notificationChannel.setShowBadge(false);
+        notificationChannel.enableVibration(false);
+        notificationChannel.enableLights(false);
+        notificationManager.createNotificationChannel(notificationChannel);
+    }
+
+    /**
+     * @param total the number of emails matched by the query when the operation started or null
+     *     if that is not known (yet)
+     */
+    public static Notification inProgress(
+            final Context context,
+            final UUID id,
+            @StringRes final int title,
+            final long modified,
+            final Long total) {
+        final NotificationCompat.Action cancelAction =
+                new NotificationCompat.Action(
+                        R.drawable.ic_cancel_24dp,
+                        context.getString(R.string.cancel),
+                        WorkManager.getInstance(context).createCancelPendingIntent(id));
+        final NotificationCompat.Builder notificationBuilder =
+                new NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID);
+        notificationBuilder.setContentTitle(context.getString(title));
+        if (total == null || total <= 0) {
+            notificationBuilder.setProgress(1, 1, true);
+        } else {
+            final int progress = (int) Math.min(100, modified * 100 / total);
+            notificationBuilder.setProgress(100, progress, false);
+            notificationBuilder.setContentText(
+                    context.getString(R.string.x_of_y_emails, Math.min(modified, total), total));
+        }
+        notificationBuilder.setSmallIcon(R.drawable.ic_done_24dp);
+        notificationBuilder.setOngoing(true);
+        notificationBuilder.setShowWhen(false);
+        notificationBuilder.setOnlyAlertOnce(true);
+        notificationBuilder.addAction(cancelAction);
+        return notificationBuilder.build();
+    }
+}
@@ -7,6 +7,7 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.service.notification.StatusBarNotification;
@@ -17,8 +18,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +29,7 @@ import rs.ltt.android.R;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountName;
 import rs.ltt.android.entity.AccountWithCredentials;
-import rs.ltt.android.entity.EmailWithBodiesAndSubject;
+import rs.ltt.android.entity.EmailWithPreviewAndSubject;
 import rs.ltt.android.entity.From;
 import rs.ltt.android.entity.Preview;
 import rs.ltt.android.ui.AvatarDrawable;
@@ -46,16 +49,16 @@ public class EmailNotification extends AbstractNotification {
     private final NotificationManager notificationManager;
     private final Context context;
     private final AccountName account;
-    private final List<EmailWithBodiesAndSubject> addedEmails;
+    private final List<EmailWithPreviewAndSubject> addedEmails;
     private final List<String> dismissedEmails;
-    private final List<EmailWithBodiesAndSubject> allEmails;
+    private final List<EmailWithPreviewAndSubject> allEmails;
 
     private EmailNotification(
             final Context context,
             final AccountName account,
-            final List<EmailWithBodiesAndSubject> addedEmails,
+            final List<EmailWithPreviewAndSubject> addedEmails,
             final List<String> dismissedEmails,
-            final List<EmailWithBodiesAndSubject> allEmails) {
+            final List<EmailWithPreviewAndSubject> allEmails) {
         this.context = context;
         this.notificationManager = context.getSystemService(NotificationManager.class);
         this.account = account;
@@ -219,9 +222,11 @@ public class EmailNotification extends AbstractNotification {
             notificationManager.cancel(notificationTagSummary(account.getId()), SUMMARY_ID);
             return;
         }
-        for (final EmailWithBodiesAndSubject email : addedEmails) {
+        // several new emails from the same sender share one rendered avatar
+        final Map<From, Bitmap> avatars = new HashMap<>();
+        for (final EmailWithPreviewAndSubject email : addedEmails) {
             final Tag tag = new Tag(account.id, email.getId());
-            final Notification notification = get(email);
+            final Notification notification = get(email, avatars);
             notificationManager.notify(tag.toString(), ID, notification);
         }
         if (addedEmails.size() > 0 || dismissedEmails.size() > 0) {
@@ -231,9 +236,11 @@ public class EmailNotification extends AbstractNotification {
         }
     }
 
-    private Notification get(final EmailWithBodiesAndSubject email) {
+    private Notification get(
+            final EmailWithPreviewAndSubject email, final Map<From, Bitmap> avatars) {
         final From from = email.getFirstFrom();
-        final AvatarDrawable avatar = AvatarDrawable.of(context, from);
+        final Bitmap avatar =
+                avatars.computeIfAbsent(from, f -> AvatarDrawable.of(context, f).toBitmap());
         final String subject = getSubject(email);
         final Preview preview = email.getPreview();
         final String bigText;
@@ -249,7 +256,7 @@ public class EmailNotification extends AbstractNotification {
                 .setContentTitle(getFromAsString(context, from))
                 .setContentText(subject)
                 .setSubText(account.getName())
-                .setLargeIcon(avatar.toBitmap())
+                .setLargeIcon(avatar)
                 .setWhen(email.getEffectiveDate().toEpochMilli())
                 .setStyle(bigTextStyle)
                 .setColor(getColor(context, androidx.appcompat.R.attr.colorPrimary))
@@ -259,15 +266,15 @@ public class EmailNotification extends AbstractNotification {
                 .build();
     }
 
-    private PendingIntent getPendingIntent(final EmailWithBodiesAndSubject email) {
+    private PendingIntent getPendingIntent(final EmailWithPreviewAndSubject email) {
         final Tag tag = new Tag(account.getId(), email.getId());
         final Intent intent = LttrsActivity.viewIntent(context, tag, email.threadId);
         return PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_IMMUTABLE);
     }
 
-    private Notification getSummary(final List<EmailWithBodiesAndSubject> emails) {
+    private Notification getSummary(final List<EmailWithPreviewAndSubject> emails) {
         final NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle();
-        for (final EmailWithBodiesAndSubject email : emails) {
+        for (final EmailWithPreviewAndSubject email : emails) {
             inboxStyle.addLine(
                     String.format(
                             "<b>%s</b> %s",
@@ -288,7 +295,7 @@ public class EmailNotification extends AbstractNotification {
                 .build();
     }
 
-    private String getSubject(final EmailWithBodiesAndSubject email) {
+    private String getSubject(final EmailWithPreviewAndSubject email) {
         return Strings.isNullOrEmpty(email.subject)
                 ? context.getString(R.string.no_subject)
                 : email.subject;
@@ -327,17 +334,18 @@ public class EmailNotification extends AbstractNotification {
             final List<String> activeEmailNotifications =
                     getActiveEmailIds(context, account.getId());
             final LttrsDatabase database = LttrsDatabase.getInstance(context, account.getId());
-            final List<EmailWithBodiesAndSubject> emails =
+            final List<EmailWithPreviewAndSubject> emails =
                     database.threadAndEmailDao()
-                            .getEmails(combine(freshlyAddedEmailIds, activeEmailNotifications));
+                            .getEmailsWithPreview(
+                                    combine(freshlyAddedEmailIds, activeEmailNotifications));
 
-            final ImmutableList.Builder<EmailWithBodiesAndSubject> allNotificationBuilder =
+            final ImmutableList.Builder<EmailWithPreviewAndSubject> allNotificationBuilder =
                     ImmutableList.builder();
-            final ImmutableList.Builder<EmailWithBodiesAndSubject> addedNotificationBuilder =
+            final ImmutableList.Builder<EmailWithPreviewAndSubject> addedNotificationBuilder =
                     ImmutableList.builder();
             final ImmutableList.Builder<String> dismissedNotificationBuilder =
                     ImmutableList.builder();
-            for (final EmailWithBodiesAndSubject email : emails) {
+            for (final EmailWithPreviewAndSubject email : emails) {
                 // TODO Take keyword overwrite into account
                 if (KeywordUtil.seen(email)) {
                     if (activeEmailNotifications.contains(email.getId())) {
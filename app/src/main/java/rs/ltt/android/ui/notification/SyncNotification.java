@@ -0,0 +1,50 @@
+package rs.ltt.android.ui.notification;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import androidx.core.app.NotificationCompat;
+import rs.ltt.android.R;
+
+/**
+ * Shown while an expedited refresh runs as foreground service. This only happens on devices
+ * running Android 11 or lower; newer versions run expedited work as a job instead.
+ */
+public class SyncNotification {
+
+    public static final int ID = 7;
+
+    private static final String NOTIFICATION_CHANNEL_ID = "sync";
+
+    public static void createChannel(final Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        final NotificationManager notificationManager =
+                context.getSystemService(NotificationManager.class);
+
+        final NotificationChannel notificationChannel =
+                new NotificationChannel(
+                        NOTIFICATION_CHANNEL_ID,
+                        context.getString(R.string.synchronization),
+                        NotificationManager.IMPORTANCE_MIN);
+        notificationChannel.setSound(null, null);
+        notificationChannel.setShowBadge(false);
+        notificationChannel.enableVibration(false);
+        notificationChannel.enableLights(false);
+        notificationManager.createNotificationChannel(notificationChannel);
+    }
+
+    public static Notification checkingForNewEmails(final Context context) {
+        return new NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID)
+                .setContentTitle(context.getString(R.string.checking_for_new_emails))
+                .setSmallIcon(R.drawable.ic_email_outline_24dp)
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .setOngoing(true)
+                .setShowWhen(false)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+}
@@ -0,0 +1,195 @@
+package rs.ltt.android.util;
+
+import androidx.annotation.NonNull;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races a list of candidates against each other. At most {@code parallelism} candidates run at the
+ * same time, each one bounded by a timeout. The first candidate that succeeds wins and the
+ * remaining candidates are cancelled.
+ *
+ * <p>A candidate that fails in a way that is considered decisive only wins once every candidate
+ * before it in the list has failed; until then its failure is held back and no candidates after it
+ * are started. If no candidate wins the result fails with the failure of the earliest candidate in
+ * the list. Callers should order their candidates from most to least specific.
+ */
+public final class FirstSuccessful<T> {
+
+    private final List<AsyncCallable<T>> candidates;
+    private final Predicate<Throwable> decisive;
+    private final int parallelism;
+    private final long timeout;
+    private final TimeUnit timeUnit;
+    private final ScheduledExecutorService executor;
+
+    private final SettableFuture<T> result = SettableFuture.create();
+    private final List<ListenableFuture<T>> running = new ArrayList<>();
+    private final Throwable[] failures;
+    private final Throwable[] decisiveFailures;
+    private int next = 0;
+    private int active = 0;
+    private int finished = 0;
+
+    private FirstSuccessful(
+            final List<AsyncCallable<T>> candidates,
+            final Predicate<Throwable> decisive,
+            final int parallelism,
+            final long timeout,
+            final TimeUnit timeUnit,
+            final ScheduledExecutorService executor) {
+        this.candidates = ImmutableList.copyOf(candidates);
+        this.decisive = decisive;
+        this.parallelism = parallelism;
+        this.timeout = timeout;
+        this.timeUnit = timeUnit;
+        this.executor = executor;
+        this.failures = new Throwable[candidates.size()];
+        this.decisiveFailures = new Throwable[candidates.size()];
+    }
+
+    public static <T> ListenableFuture<T> race(
+            final List<AsyncCallable<T>> candidates,
+            final Predicate<Throwable> decisive,
+            final int parallelism,
+            final long timeout,
+            final TimeUnit timeUnit,
+            final ScheduledExecutorService executor) {
+        if (candidates.isEmpty()) {
+            return Futures.immediateFailedFuture(
+                    new IllegalArgumentException("No candidates to race"));
+        }
+        final FirstSuccessful<T> race =
+                new FirstSuccessful<>(
+                        candidates, decisive, parallelism, timeout, timeUnit, executor);
+        race.result.addListener(race::cancelRunning, MoreExecutors.directExecutor());
+        race.startNext();
+        return race.result;
+    }
+
+    private void startNext() {
+        final List<Integer> started = new ArrayList<>();
+        synchronized (this) {
+            final int limit = Math.min(candidates.size(), firstDecisive() + 1);
+            while (active < parallelism && next < limit && !result.isDone()) {
+                started.add(next++);
+                active++;
+            }
+        }
+        for (final int index : started) {
+            start(index);
+        }
+    }
+
+    private void start(final int index) {
+        ListenableFuture<T> future;
+        try {
+            future = candidates.get(index).call();
+        } catch (final Exception e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        final ListenableFuture<T> bounded =
+                Futures.withTimeout(future, timeout, timeUnit, executor);
+        synchronized (this) {
+            running.add(bounded);
+        }
+        if (result.isDone()) {
+            bounded.cancel(true);
+        }
+        Futures.addCallback(
+                bounded,
+                new FutureCallback<T>() {
+                    @Override
+                    public void onSuccess(final T value) {
+                        result.set(value);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        onFailed(index, bounded, throwable, decisive.apply(throwable));
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private void onFailed(
+            final int index,
+            final ListenableFuture<T> future,
+            final Throwable throwable,
+            final boolean isDecisive) {
+        final Throwable winner;
+        final boolean exhausted;
+        synchronized (this) {
+            if (isDecisive) {
+                decisiveFailures[index] = throwable;
+            } else {
+                failures[index] = throwable;
+            }
+            running.remove(future);
+            active--;
+            finished++;
+            winner = rankedDecisiveFailure();
+            exhausted = finished == candidates.size();
+        }
+        if (winner != null) {
+            result.setException(winner);
+        } else if (exhausted) {
+            result.setException(firstFailure());
+        } else {
+            startNext();
+        }
+    }
+
+    /**
+     * @return the decisive failure of the earliest candidate if all candidates before it have lost
+     */
+    private synchronized Throwable rankedDecisiveFailure() {
+        for (int i = 0; i < candidates.size(); ++i) {
+            if (decisiveFailures[i] != null) {
+                return decisiveFailures[i];
+            }
+            if (failures[i] == null) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private synchronized int firstDecisive() {
+        for (int i = 0; i < decisiveFailures.length; ++i) {
+            if (decisiveFailures[i] != null) {
+                return i;
+            }
+        }
+        return candidates.size();
+    }
+
+    private synchronized Throwable firstFailure() {
+        for (final Throwable failure : failures) {
+            if (failure != null) {
+                return failure;
+            }
+        }
+        throw new IllegalStateException("No failures recorded");
+    }
+
+    private void cancelRunning() {
+        final List<ListenableFuture<T>> cancel;
+        synchronized (this) {
+            cancel = new ArrayList<>(running);
+        }
+        for (final ListenableFuture<T> future : cancel) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package rs.ltt.android.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.api.UnauthorizedException;
+import rs.ltt.jmap.client.session.Session;
+
+/**
+ * Finds the session resource of an account by probing candidate URLs with {@link FirstSuccessful}.
+ * A candidate that responds with a session wins right away. A candidate that asks for credentials
+ * is a valid endpoint as well but only wins once all candidates before it have failed.
+ */
+public final class SessionDiscovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionDiscovery.class);
+
+    private static final int PARALLEL_PROBES = 2;
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+    private static final ScheduledExecutorService PROBE_TIMEOUT_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private SessionDiscovery() {}
+
+    /**
+     * @param connector fetches the session from the given session resource
+     * @param onDiscovered receives the session resource that won before the result completes
+     * @return the session of the winning candidate, fails with {@link UnauthorizedException} if the
+     *     winning candidate asked for credentials
+     */
+    public static ListenableFuture<Session> discover(
+            final List<HttpUrl> candidates,
+            final Function<HttpUrl, ListenableFuture<Session>> connector,
+            final Consumer<HttpUrl> onDiscovered) {
+        final ImmutableList.Builder<AsyncCallable<Probe>> probes = new ImmutableList.Builder<>();
+        for (final HttpUrl candidate : candidates) {
+            probes.add(() -> probe(connector, candidate));
+        }
+        final ListenableFuture<Probe> race =
+                FirstSuccessful.race(
+                        probes.build(),
+                        t -> t instanceof DiscoveredEndpoint,
+                        PARALLEL_PROBES,
+                        PROBE_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS,
+                        PROBE_TIMEOUT_EXECUTOR);
+        final ListenableFuture<Session> session =
+                Futures.transform(
+                        race,
+                        probe -> {
+                            LOGGER.info("Discovered session resource {}", probe.sessionResource);
+                            onDiscovered.accept(probe.sessionResource);
+                            return probe.session;
+                        },
+                        MoreExecutors.directExecutor());
+        return Futures.catchingAsync(
+                session,
+                DiscoveredEndpoint.class,
+                endpoint -> {
+                    LOGGER.info(
+                            "Session resource {} asks for credentials", endpoint.sessionResource);
+                    onDiscovered.accept(endpoint.sessionResource);
+                    return Futures.immediateFailedFuture(endpoint.getCause());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private static ListenableFuture<Probe> probe(
+            final Function<HttpUrl, ListenableFuture<Session>> connector,
+            final HttpUrl candidate) {
+        final ListenableFuture<Probe> probe =
+                Futures.transform(
+                        connector.apply(candidate),
+                        session -> new Probe(candidate, session),
+                        MoreExecutors.directExecutor());
+        return Futures.catchingAsync(
+                probe,
+                UnauthorizedException.class,
+                e -> Futures.immediateFailedFuture(new DiscoveredEndpoint(candidate, e)),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * The URL the user entered comes first, followed by the well-known URI on the domain of the
+     * email address itself and on the hosts conventionally used for JMAP and mail. Ordered from
+     * most to least specific; if all of them fail the error of the first one is reported.
+     */
+    public static List<HttpUrl> candidates(final HttpUrl entered, final String emailAddress) {
+        final Set<HttpUrl> candidates = new LinkedHashSet<>();
+        if (entered != null) {
+            candidates.add(entered);
+        }
+        candidates.addAll(wellKnown(emailAddress));
+        return ImmutableList.copyOf(candidates);
+    }
+
+    private static List<HttpUrl> wellKnown(final String emailAddress) {
+        final int at = emailAddress == null ? -1 : emailAddress.lastIndexOf('@');
+        if (at < 0) {
+            return Collections.emptyList();
+        }
+        final String domain = emailAddress.substring(at + 1);
+        final ImmutableList.Builder<HttpUrl> builder = new ImmutableList.Builder<>();
+        for (final String host : new String[] {domain, "jmap." + domain, "mail." + domain}) {
+            try {
+                builder.add(
+                        new HttpUrl.Builder()
+                                .scheme("https")
+                                .host(host)
+                                .addPathSegments(".well-known/jmap")
+                                .build());
+            } catch (final IllegalArgumentException e) {
+                LOGGER.debug("Unable to build well-known URI for {}", host);
+                return Collections.emptyList();
+            }
+        }
+        return builder.build();
+    }
+
+    private static class Probe {
+        private final HttpUrl sessionResource;
+        private final Session session;
+
+        private Probe(final HttpUrl sessionResource, final Session session) {
+            this.sessionResource = sessionResource;
+            this.session = session;
+        }
+    }
+
+    /** A candidate that asks for credentials is a valid endpoint and ends the discovery. */
+    private static class DiscoveredEndpoint extends Exception {
+        private final HttpUrl sessionResource;
+
+        private DiscoveredEndpoint(
+                final HttpUrl sessionResource, final UnauthorizedException cause) {
+            super(cause);
+            this.sessionResource = sessionResource;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package rs.ltt.android.worker;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.work.Data;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -29,11 +31,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.cache.BlobStorage;
+import rs.ltt.android.cache.CachePatch;
 import rs.ltt.android.cache.LocalAttachment;
 import rs.ltt.android.entity.IdentityWithNameAndEmail;
 import rs.ltt.android.util.AttachmentSerializer;
@@ -47,7 +51,6 @@ import rs.ltt.jmap.common.entity.EmailAddress;
 import rs.ltt.jmap.common.entity.EmailBodyPart;
 import rs.ltt.jmap.common.entity.EmailBodyValue;
 import rs.ltt.jmap.common.entity.Upload;
-import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.util.AttachmentUtil;
 import rs.ltt.jmap.mua.util.EmailAddressUtil;
 
@@ -57,82 +60,152 @@ public abstract class AbstractCreateEmailWorker extends AbstractMuaWorker {
 
     private static final String ENCRYPTED_KEY = "encrypted";
     private static final String IDENTITY_KEY = "identity";
-    private static final String IN_REPLY_TO_KEY = "in_reply_to";
-    private static final String TO_KEY = "to";
-    private static final String CC_KEY = "cc";
-    private static final String SUBJECT_KEY = "subject";
-    private static final String BODY_KEY = "body";
     public static final String ATTACHMENTS_KEY = "attachments";
+    private static final String PENDING_UPLOADS_KEY = "pendingUploads";
+    private static final String DELETE_LOCAL_ATTACHMENTS_KEY = "deleteLocalAttachments";
+    static final String EMAIL_ID_KEY = "emailId";
 
     private final String identity;
-    private final List<String> inReplyTo;
-    private final Collection<EmailAddress> to;
-    private final Collection<EmailAddress> cc;
-    private final String subject;
-    private final String body;
-    private final List<Attachment> attachments;
+    private List<String> inReplyTo;
+    private Collection<EmailAddress> to;
+    private Collection<EmailAddress> cc;
+    private String subject;
+    private String body;
+    private List<Attachment> attachments;
+    private final List<UUID> pendingUploads;
+    private final List<UUID> deleteLocalAttachments;
     private final boolean encrypted;
 
     AbstractCreateEmailWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
         final Data data = workerParams.getInputData();
         this.identity = data.getString(IDENTITY_KEY);
-        final String to = data.getString(TO_KEY);
-        this.to = to == null ? Collections.emptyList() : EmailAddressUtil.parse(to);
-        final String cc = data.getString(CC_KEY);
-        this.cc = cc == null ? Collections.emptyList() : EmailAddressUtil.parse(cc);
-        this.subject = data.getString(SUBJECT_KEY);
-        this.body = Strings.nullToEmpty(data.getString(BODY_KEY));
-        final String[] inReplyTo = data.getStringArray(IN_REPLY_TO_KEY);
-        this.inReplyTo = inReplyTo == null ? Collections.emptyList() : Arrays.asList(inReplyTo);
         final byte[] attachments = data.getByteArray(ATTACHMENTS_KEY);
         this.attachments = attachments == null ? null : AttachmentSerializer.of(attachments);
+        this.pendingUploads = uuids(data.getStringArray(PENDING_UPLOADS_KEY));
+        this.deleteLocalAttachments = uuids(data.getStringArray(DELETE_LOCAL_ATTACHMENTS_KEY));
         this.encrypted = data.getBoolean(ENCRYPTED_KEY, true);
     }
 
+    private static List<UUID> uuids(final String[] values) {
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(values).map(UUID::fromString).collect(Collectors.toList());
+    }
+
+    private static String[] strings(final Collection<UUID> uuids) {
+        return uuids.stream().map(UUID::toString).toArray(String[]::new);
+    }
+
+    /**
+     * The recipients, subject and body are not part of the returned Data. They need to be stored
+     * as {@link CreateEmailPayload} under the id of the work request before it is enqueued.
+     *
+     * @param pendingUploads ids of {@link BlobUploadWorker} requests that are queued ahead of this
+     *     one; their output is added to the attachments
+     */
     public static Data data(
             final Long account,
             final String identity,
-            final Collection<String> inReplyTo,
-            final Collection<EmailAddress> to,
-            final Collection<EmailAddress> cc,
-            final String subject,
-            final String body,
             final Collection<? extends Attachment> attachments,
+            final Collection<UUID> pendingUploads,
             final boolean encrypted) {
         return new Data.Builder()
                 .putLong(ACCOUNT_KEY, account)
                 .putString(IDENTITY_KEY, identity)
-                .putStringArray(IN_REPLY_TO_KEY, inReplyTo.toArray(new String[0]))
-                .putString(TO_KEY, EmailAddressUtil.toHeaderValue(to))
-                .putString(CC_KEY, EmailAddressUtil.toHeaderValue(cc))
-                .putString(SUBJECT_KEY, subject)
-                .putString(BODY_KEY, body)
                 .putByteArray(ATTACHMENTS_KEY, AttachmentSerializer.toByteArray(attachments))
+                .putStringArray(PENDING_UPLOADS_KEY, strings(pendingUploads))
                 .putBoolean(ENCRYPTED_KEY, encrypted)
                 .build();
     }
 
-    protected Result refreshAndFetchThreadId(String emailId) {
-        refresh();
+    /**
+     * Marks the last email created in a compose session. Once it has been created the local copies
+     * of the attachments are no longer needed.
+     */
+    public static Data endingSession(final Collection<UUID> localAttachments) {
+        return new Data.Builder()
+                .putStringArray(DELETE_LOCAL_ATTACHMENTS_KEY, strings(localAttachments))
+                .build();
+    }
+
+    public static CreateEmailPayload payload(
+            final Collection<String> inReplyTo,
+            final Collection<EmailAddress> to,
+            final Collection<EmailAddress> cc,
+            final String subject,
+            final String body) {
+        return new CreateEmailPayload(
+                inReplyTo,
+                EmailAddressUtil.toHeaderValue(to),
+                EmailAddressUtil.toHeaderValue(cc),
+                subject,
+                body);
+    }
+
+    private void loadPayload() throws IOException {
+        if (this.body != null) {
+            return;
+        }
+        final byte[] bytes = WorkerPayloads.load(getApplicationContext(), getId());
+        if (bytes == null) {
+            throw new WorkerPayloads.MissingPayloadException(getId());
+        }
+        final CreateEmailPayload payload = CreateEmailPayload.of(bytes);
+        this.inReplyTo = payload.inReplyTo;
+        this.to = payload.to == null ? Collections.emptyList() : EmailAddressUtil.parse(payload.to);
+        this.cc = payload.cc == null ? Collections.emptyList() : EmailAddressUtil.parse(payload.cc);
+        this.subject = payload.subject;
+        this.body = Strings.nullToEmpty(payload.body);
+    }
+
+    /**
+     * Uploads of the same compose session run ahead of this work request. By the time this is
+     * called they have finished.
+     */
+    private void addPendingUploads() throws ExecutionException, InterruptedException, IOException {
+        if (pendingUploads.isEmpty()) {
+            return;
+        }
+        final WorkManager workManager = WorkManager.getInstance(getApplicationContext());
+        final ImmutableList.Builder<Attachment> builder = new ImmutableList.Builder<>();
+        if (this.attachments != null) {
+            builder.addAll(this.attachments);
+        }
+        for (final UUID upload : pendingUploads) {
+            final WorkInfo workInfo = workManager.getWorkInfoById(upload).get();
+            if (workInfo == null || workInfo.getState() != WorkInfo.State.SUCCEEDED) {
+                throw new IOException(
+                        String.format("Upload %s did not succeed (%s)", upload, workInfo));
+            }
+            builder.add(BlobUploadWorker.getAttachment(workInfo.getOutputData()));
+        }
+        this.attachments = builder.build();
+    }
+
+    protected Result patchCacheAndFetchThreadId(final String emailId) {
+        WorkerPayloads.delete(getApplicationContext(), getId());
+        for (final UUID localAttachment : deleteLocalAttachments) {
+            LocalAttachment.delete(getApplicationContext(), localAttachment);
+        }
+        patchCache(emailId);
         final String threadId = getDatabase().threadAndEmailDao().getThreadId(emailId);
         LOGGER.info("Email saved as draft with id {} in thread {}", emailId, threadId);
         final Data data =
                 new Data.Builder()
-                        .putString("emailId", emailId)
+                        .putString(EMAIL_ID_KEY, emailId)
                         .putString("threadId", threadId)
                         .build();
         return Result.success(data);
     }
 
-    private void refresh() {
+    private void patchCache(final String emailId) {
         try {
-            final Status status = getMua().refresh().get();
-            if (status != Status.UPDATED) {
-                LOGGER.debug("Unexpected status {} after refresh", status);
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Refresh after email creation failed", e);
+            CachePatch.created(getMua(), getDatabase(), getAccount().getAccountId(), emailId)
+                    .get();
+        } catch (final Exception e) {
+            LOGGER.warn("Writing created email to cache failed", e);
         }
     }
 
@@ -202,6 +275,8 @@ public abstract class AbstractCreateEmailWorker extends AbstractMuaWorker {
 
     protected Email buildEmail(final IdentityWithNameAndEmail identity)
             throws ExecutionException, InterruptedException, IOException {
+        loadPayload();
+        addPendingUploads();
         if (encrypted) {
             return buildEmailEncryptedEmail(identity);
         } else {
@@ -27,6 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.EmailWithMailboxes;
+import rs.ltt.android.sync.SyncScheduler;
 
 public abstract class AbstractMailboxModificationWorker extends AbstractMuaWorker {
 
@@ -58,7 +59,10 @@ public abstract class AbstractMailboxModificationWorker extends AbstractMuaWorke
                         ? Collections.emptyList()
                         : database.threadAndEmailDao().getEmailsWithMailboxes(threadId);
         try {
-            final boolean madeChanges = modify(emails).get();
+            final boolean madeChanges =
+                    getScheduler()
+                            .submit(SyncScheduler.Priority.USER_MUTATION, () -> modify(emails))
+                            .get();
             if (!madeChanges) {
                 LOGGER.info("No changes were made to thread {}", threadId);
                 database.overwriteDao().revertMailboxOverwrites(threadId);
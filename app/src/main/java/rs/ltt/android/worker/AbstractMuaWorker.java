@@ -29,6 +29,8 @@ import rs.ltt.android.MuaPool;
 import rs.ltt.android.database.AppDatabase;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountWithCredentials;
+import rs.ltt.android.sync.CircuitOpenException;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.jmap.client.api.MethodErrorResponseException;
 import rs.ltt.jmap.common.method.MethodErrorResponse;
 import rs.ltt.jmap.common.method.error.StateMismatchMethodErrorResponse;
@@ -59,6 +61,9 @@ public abstract class AbstractMuaWorker extends Worker {
                     ((MethodErrorResponseException) cause).getMethodErrorResponse();
             return methodError instanceof StateMismatchMethodErrorResponse;
         }
+        if (cause instanceof CircuitOpenException) {
+            return true;
+        }
         return isNetworkIssue(cause);
     }
 
@@ -76,11 +81,17 @@ public abstract class AbstractMuaWorker extends Worker {
         return LttrsDatabase.getInstance(getApplicationContext(), this.account);
     }
 
+    protected SyncScheduler getScheduler() {
+        return SyncScheduler.getInstance(this.account);
+    }
+
+    protected AccountWithCredentials getAccount() {
+        return AppDatabase.getInstance(getApplicationContext())
+                .accountDao()
+                .getAccount(this.account);
+    }
+
     protected Mua getMua() {
-        final AccountWithCredentials account =
-                AppDatabase.getInstance(getApplicationContext())
-                        .accountDao()
-                        .getAccount(this.account);
-        return MuaPool.getInstance(getApplicationContext(), account);
+        return MuaPool.getInstance(getApplicationContext(), getAccount());
     }
 }
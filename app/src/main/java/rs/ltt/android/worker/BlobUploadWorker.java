@@ -39,6 +39,7 @@ public class BlobUploadWorker extends AbstractMuaWorker implements Progress {
     private static final String TYPE_KEY = "type";
     private static final String SIZE_KEY = "size";
     private static final String LOCAL_ATTACHMENT_UUID = "localAttachmentId";
+
     private final NotificationManager notificationManager;
     private final RateLimiter notificationRateLimiter = RateLimiter.create(1);
     private final LocalAttachment localAttachment;
@@ -97,8 +98,9 @@ public class BlobUploadWorker extends AbstractMuaWorker implements Progress {
             final Upload upload = this.uploadFuture.get();
             LOGGER.info("Upload succeeded {}", upload);
             notifyUploadComplete();
+            // the local attachment is kept; saves of the same draft that have been queued in the
+            // meantime may still read it. It is deleted once the compose session has ended
             cacheBlob(file, upload.getBlobId());
-            LocalAttachment.delete(getApplicationContext(), localAttachment);
             final Data data =
                     new Data.Builder()
                             .putString(BLOB_ID_KEY, upload.getBlobId())
@@ -124,10 +126,6 @@ public class BlobUploadWorker extends AbstractMuaWorker implements Progress {
             LOGGER.info("Blob {} is already cached", blobId);
             return;
         }
-        if (file.renameTo(blobStorage.file)) {
-            LOGGER.info("Successfully cached blob {} by moving local attachment", blobId);
-            return;
-        }
         final long bytesCopied;
         try (final InputStream inputStream = new FileInputStream(file);
                 final FileOutputStream fileOutputStream =
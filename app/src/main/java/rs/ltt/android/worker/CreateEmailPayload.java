@@ -0,0 +1,104 @@
+package rs.ltt.android.worker;
+
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The part of the input of {@link AbstractCreateEmailWorker} that is not bounded in size (body,
+ * recipients, subject). It is stored out of band (see {@link WorkerPayloads}) while attachments and
+ * flags stay in Data where they can be merged with the output of the upload workers.
+ */
+public final class CreateEmailPayload {
+
+    private static final int VERSION = 1;
+
+    public final List<String> inReplyTo;
+    public final String to;
+    public final String cc;
+    public final String subject;
+    public final String body;
+
+    /**
+     * @param to the recipients formatted as header value
+     * @param cc the recipients formatted as header value
+     */
+    public CreateEmailPayload(
+            final Collection<String> inReplyTo,
+            final String to,
+            final String cc,
+            final String subject,
+            final String body) {
+        this.inReplyTo = ImmutableList.copyOf(inReplyTo);
+        this.to = to;
+        this.cc = cc;
+        this.subject = subject;
+        this.body = body;
+    }
+
+    public static CreateEmailPayload of(final byte[] bytes) throws IOException {
+        final DataInputStream dataInputStream =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+        final int version = dataInputStream.readInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unknown payload version %d", version));
+        }
+        final int count = dataInputStream.readInt();
+        final ImmutableList.Builder<String> inReplyTo = new ImmutableList.Builder<>();
+        for (int i = 0; i < count; ++i) {
+            inReplyTo.add(readString(dataInputStream));
+        }
+        final String to = readString(dataInputStream);
+        final String cc = readString(dataInputStream);
+        final String subject = readString(dataInputStream);
+        final String body = readString(dataInputStream);
+        return new CreateEmailPayload(inReplyTo.build(), to, cc, subject, body);
+    }
+
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        try {
+            dataOutputStream.writeInt(VERSION);
+            dataOutputStream.writeInt(inReplyTo.size());
+            for (final String messageId : inReplyTo) {
+                writeString(dataOutputStream, messageId);
+            }
+            writeString(dataOutputStream, to);
+            writeString(dataOutputStream, cc);
+            writeString(dataOutputStream, subject);
+            writeString(dataOutputStream, body);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    // DataOutputStream.writeUTF() is limited to 64KB
+    private static void writeString(final DataOutputStream dataOutputStream, final String value)
+            throws IOException {
+        if (value == null) {
+            dataOutputStream.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        dataOutputStream.writeInt(bytes.length);
+        dataOutputStream.write(bytes);
+    }
+
+    private static String readString(final DataInputStream dataInputStream) throws IOException {
+        final int length = dataInputStream.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        dataInputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -19,6 +19,7 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.work.Data;
 import androidx.work.WorkerParameters;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,13 +31,17 @@ public class DiscardDraftWorker extends AbstractMuaWorker {
     private static final Logger LOGGER = LoggerFactory.getLogger(DiscardDraftWorker.class);
 
     private static final String DISCARD_ID_KEY = "discard";
+    private static final String DISCARD_SAVE_KEY = "discardSave";
 
     private final String emailId;
+    private final UUID save;
 
     public DiscardDraftWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
         final Data data = workerParams.getInputData();
         this.emailId = data.getString(DISCARD_ID_KEY);
+        final String save = data.getString(DISCARD_SAVE_KEY);
+        this.save = save == null ? null : UUID.fromString(save);
     }
 
     public static Data data(Long account, String emailId) {
@@ -46,12 +51,38 @@ public class DiscardDraftWorker extends AbstractMuaWorker {
                 .build();
     }
 
+    /**
+     * Discards the draft created by a {@link SaveDraftWorker}.
+     *
+     * @param emailId the draft that was edited; discarded instead if it is unknown what the save
+     *     left behind. May be null
+     */
+    public static Data data(Long account, UUID save, String emailId) {
+        return new Data.Builder()
+                .putLong(ACCOUNT_KEY, account)
+                .putString(DISCARD_SAVE_KEY, save.toString())
+                .putString(DISCARD_ID_KEY, emailId)
+                .build();
+    }
+
     @NonNull
     @Override
     public Result doWork() {
         final LttrsDatabase database = getDatabase();
-        EmailWithKeywords email = database.threadAndEmailDao().getEmailWithKeyword(this.emailId);
         try {
+            final String saved =
+                    save == null
+                            ? null
+                            : SaveDraftWorker.getSavedEmailId(getApplicationContext(), save);
+            final String emailId = saved == null ? this.emailId : saved;
+            final EmailWithKeywords email =
+                    emailId == null
+                            ? null
+                            : database.threadAndEmailDao().getEmailWithKeyword(emailId);
+            if (email == null) {
+                LOGGER.warn("Unable to discard draft {}. Email not found in cache", emailId);
+                return Result.success();
+            }
             final boolean madeChanges = getMua().discardDraft(email).get();
             if (madeChanges) {
                 LOGGER.info("Discarded draft {}", email.getId());
@@ -0,0 +1,83 @@
+package rs.ltt.android.worker;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkerParameters;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+
+/**
+ * Refreshes mailboxes or identities without touching any of the email queries. Each entity type
+ * has its own unique work name so that a pending refresh of one type never swallows a push for the
+ * other.
+ */
+public class EntityRefreshWorker extends AbstractMuaWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityRefreshWorker.class);
+
+    private static final String ENTITY_KEY = "entity";
+
+    private final Entity entity;
+
+    public EntityRefreshWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+        final Data data = getInputData();
+        final String entity = data.getString(ENTITY_KEY);
+        // requests enqueued before entities had their own work names only carry flags
+        this.entity = entity == null ? Entity.MAILBOXES : Entity.valueOf(entity);
+    }
+
+    public static OneTimeWorkRequest of(final Long account, final Entity entity) {
+        return new OneTimeWorkRequest.Builder(EntityRefreshWorker.class)
+                .setInputData(
+                        new Data.Builder()
+                                .putLong(ACCOUNT_KEY, account)
+                                .putString(ENTITY_KEY, entity.toString())
+                                .build())
+                .build();
+    }
+
+    public static String uniqueName(final Long accountId, final Entity entity) {
+        return String.format(
+                Locale.ENGLISH,
+                "account-%d-%s-refresh",
+                accountId,
+                entity.toString().toLowerCase(Locale.ENGLISH));
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        LOGGER.info("Refreshing {}", entity);
+        final Mua mua = getMua();
+        try {
+            getScheduler().submit(SyncScheduler.Priority.PUSH_REFRESH, () -> refresh(mua)).get();
+            return Result.success();
+        } catch (final ExecutionException e) {
+            LOGGER.warn("Unable to refresh mailboxes or identities", e);
+            return shouldRetry(e) ? Result.retry() : Result.failure(Failure.of(e.getCause()));
+        } catch (final InterruptedException e) {
+            return Result.retry();
+        }
+    }
+
+    private ListenableFuture<Status> refresh(final Mua mua) {
+        return switch (entity) {
+            case MAILBOXES -> mua.refreshMailboxes();
+            case IDENTITIES -> mua.refreshIdentities();
+        };
+    }
+
+    public enum Entity {
+        MAILBOXES,
+        IDENTITIES
+    }
+}
@@ -0,0 +1,84 @@
+package rs.ltt.android.worker;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkerParameters;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.sync.InitialSync;
+
+/**
+ * Runs (or resumes) the {@link InitialSync} of an account. WorkManager reschedules the worker
+ * after process death or when connectivity comes back; progress is kept in the database.
+ */
+public class InitialSyncWorker extends AbstractMuaWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InitialSyncWorker.class);
+
+    private static final String PROGRESS_KEY = "progress";
+
+    public InitialSyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    public static OneTimeWorkRequest of(final Long account) {
+        return new OneTimeWorkRequest.Builder(InitialSyncWorker.class)
+                .setConstraints(
+                        new Constraints.Builder()
+                                .setRequiredNetworkType(NetworkType.CONNECTED)
+                                .build())
+                .setInputData(new Data.Builder().putLong(ACCOUNT_KEY, account).build())
+                .build();
+    }
+
+    public static String uniqueName(final Long accountId) {
+        return String.format(Locale.ENGLISH, "account-%d-initial-sync", accountId);
+    }
+
+    /**
+     * @return the progress in percent or null if there is no initial sync running
+     */
+    public static Integer getProgress(final WorkInfo workInfo) {
+        if (workInfo == null || workInfo.getState().isFinished()) {
+            return null;
+        }
+        return workInfo.getProgress().getInt(PROGRESS_KEY, 0);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        final InitialSync initialSync = new InitialSync(getDatabase(), getMua(), getScheduler());
+        try {
+            final boolean complete =
+                    initialSync.run(
+                            new InitialSync.Listener() {
+                                @Override
+                                public boolean isStopped() {
+                                    return InitialSyncWorker.this.isStopped();
+                                }
+
+                                @Override
+                                public void onProgress(final int percentage) {
+                                    setProgressAsync(
+                                            new Data.Builder()
+                                                    .putInt(PROGRESS_KEY, percentage)
+                                                    .build());
+                                }
+                            });
+            return complete ? Result.success() : Result.retry();
+        } catch (final ExecutionException e) {
+            LOGGER.warn("Initial sync failed", e);
+            return shouldRetry(e) ? Result.retry() : Result.failure(Failure.of(e.getCause()));
+        } catch (final InterruptedException e) {
+            return Result.retry();
+        }
+    }
+}
@@ -1,41 +1,53 @@
 package rs.ltt.android.worker;
 
 import android.content.Context;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.work.Data;
+import androidx.work.ForegroundInfo;
 import androidx.work.WorkerParameters;
+import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rs.ltt.android.database.AppDatabase;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountName;
+import rs.ltt.android.entity.QueryItemAddition;
+import rs.ltt.android.push.PushLatency;
+import rs.ltt.android.sync.MultiQueryRefresh;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.android.ui.notification.EmailNotification;
+import rs.ltt.android.ui.notification.SyncNotification;
 import rs.ltt.jmap.common.entity.IdentifiableMailboxWithRole;
+import rs.ltt.jmap.common.entity.Keyword;
 import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.mua.util.StandardQueries;
 
 public class MainMailboxQueryRefreshWorker extends QueryRefreshWorker {
 
+    public static final String PUSH_LATENCY_KEY = "pushLatency";
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(MainMailboxQueryRefreshWorker.class);
+
+    private final PushLatency latency;
+
     public MainMailboxQueryRefreshWorker(
             @NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
-    }
-
-    private static List<String> freshlyAddedEmailIds(
-            final Set<String> preexistingEmailIds, final List<String> postRefreshEmailIds) {
-        final ImmutableList.Builder<String> freshlyAddedEmailIds = new ImmutableList.Builder<>();
-        for (final String emailId : postRefreshEmailIds) {
-            if (preexistingEmailIds.contains(emailId)) {
-                return freshlyAddedEmailIds.build();
-            }
-            freshlyAddedEmailIds.add(emailId);
-        }
-        return freshlyAddedEmailIds.build();
+        this.latency =
+                PushLatency.of(
+                        SystemClock::elapsedRealtime,
+                        workerParams.getInputData().getLongArray(PUSH_LATENCY_KEY));
     }
 
     public static Data data(final Long account, final boolean skipOverEmpty) {
@@ -45,6 +57,14 @@ public class MainMailboxQueryRefreshWorker extends QueryRefreshWorker {
                 .build();
     }
 
+    public static Data data(
+            final Long account, final boolean skipOverEmpty, final PushLatency latency) {
+        return new Data.Builder()
+                .putAll(data(account, skipOverEmpty))
+                .putLongArray(PUSH_LATENCY_KEY, latency.toArray())
+                .build();
+    }
+
     public static String uniquePeriodicName(final Long accountId) {
         return String.format(Locale.ENGLISH, "account-%d-periodic-refresh", accountId);
     }
@@ -53,14 +73,22 @@ public class MainMailboxQueryRefreshWorker extends QueryRefreshWorker {
     @Override
     protected Result refresh(final EmailQuery emailQuery)
             throws ExecutionException, InterruptedException {
+        latency.mark(PushLatency.Stage.STARTED);
         throwOnEmpty(emailQuery);
         final LttrsDatabase database = getDatabase();
-        final Set<String> preexistingEmailIds =
-                ImmutableSet.copyOf(database.queryDao().getEmailIds(emailQuery.asHash()));
-        getMua().query(emailQuery).get();
+        final List<EmailQuery> companionQueries = getCachedCompanionQueries(database);
+        // The inbox is refreshed on its own first. Its queryChanges only fetches the emails that
+        // have been added, which is all the notifications need. Once the notifications are out
+        // the gaps further down the inbox are filled and the companion queries are refreshed with
+        // one more request.
+        getScheduler()
+                .submit(SyncScheduler.Priority.PUSH_REFRESH, () -> getMua().query(emailQuery))
+                .get();
+        latency.mark(PushLatency.Stage.FETCHED);
+        final String queryString = emailQuery.asHash();
+        final List<QueryItemAddition> additions = database.queryDao().getAdditions(queryString);
         final List<String> freshlyAddedEmailIds =
-                freshlyAddedEmailIds(
-                        preexistingEmailIds, database.queryDao().getEmailIds(emailQuery.asHash()));
+                Lists.transform(additions, addition -> addition.emailId);
         final AccountName account =
                 AppDatabase.getInstance(getApplicationContext())
                         .accountDao()
@@ -72,13 +100,67 @@ public class MainMailboxQueryRefreshWorker extends QueryRefreshWorker {
         // If we decide to do so checking with `ProcessLifecycleOwner.get().getLifecycle()
         // .getCurrentState().isAtLeast(Lifecycle.State.STARTED);` in EmailNotification.Builder is
         // a good way for telling.
-        EmailNotification.builder()
-                .setAccount(account)
-                .setContext(getApplicationContext())
-                .setFreshlyAddedEmailIds(freshlyAddedEmailIds)
-                .build()
-                .refresh();
-        return Result.success();
+        final EmailNotification emailNotification =
+                EmailNotification.builder()
+                        .setAccount(account)
+                        .setContext(getApplicationContext())
+                        .setFreshlyAddedEmailIds(freshlyAddedEmailIds)
+                        .build();
+        latency.mark(PushLatency.Stage.LOADED);
+        emailNotification.refresh();
+        latency.mark(PushLatency.Stage.NOTIFIED);
+        if (latency.isPush()) {
+            LOGGER.info("Push to notification latency: {}", latency);
+        }
+        if (additions.size() > 0) {
+            final QueryItemAddition last = Iterables.getLast(additions);
+            LOGGER.debug("Acknowledging additions up to query state {}", last.queryState);
+            database.queryDao().acknowledgeAdditions(queryString, last.id);
+        }
+        resolveMissing(emailQuery);
+        if (companionQueries.size() > 0) {
+            getScheduler()
+                    .submit(
+                            SyncScheduler.Priority.PUSH_REFRESH,
+                            () ->
+                                    MultiQueryRefresh.refreshInOneRequest(
+                                            getMua(),
+                                            database,
+                                            getAccount().getAccountId(),
+                                            companionQueries))
+                    .get();
+        }
+        return Result.success(
+                new Data.Builder().putLongArray(PUSH_LATENCY_KEY, latency.toArray()).build());
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<ForegroundInfo> getForegroundInfoAsync() {
+        return Futures.immediateFuture(
+                new ForegroundInfo(
+                        SyncNotification.ID,
+                        SyncNotification.checkingForNewEmails(getApplicationContext())));
+    }
+
+    /**
+     * Important and flagged are refreshed alongside the inbox if the user has looked at them
+     * before. Refreshing them together is cheaper than refreshing them individually once they are
+     * opened.
+     */
+    private static List<EmailQuery> getCachedCompanionQueries(final LttrsDatabase database) {
+        final ImmutableList.Builder<EmailQuery> builder = new ImmutableList.Builder<>();
+        final IdentifiableMailboxWithRole important =
+                database.mailboxDao().getMailbox(Role.IMPORTANT);
+        if (important != null) {
+            builder.add(StandardQueries.mailbox(important));
+        }
+        final String[] trashAndJunk = database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK);
+        builder.add(StandardQueries.keyword(Keyword.FLAGGED, trashAndJunk));
+        return ImmutableList.copyOf(
+                Collections2.filter(
+                        builder.build(),
+                        query -> !database.queryDao().empty(query.asHash())));
     }
 
     @Override
@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.EmailWithKeywords;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.jmap.mua.Mua;
 
 public class ModifyKeywordWorker extends AbstractMuaWorker {
@@ -83,12 +84,15 @@ public class ModifyKeywordWorker extends AbstractMuaWorker {
         }
         try {
             final Mua mua = getMua();
-            final boolean madeChanges;
-            if (target) {
-                madeChanges = mua.setKeyword(emails, keyword).get();
-            } else {
-                madeChanges = mua.removeKeyword(emails, keyword).get();
-            }
+            final boolean madeChanges =
+                    getScheduler()
+                            .submit(
+                                    SyncScheduler.Priority.USER_MUTATION,
+                                    () ->
+                                            target
+                                                    ? mua.setKeyword(emails, keyword)
+                                                    : mua.removeKeyword(emails, keyword))
+                            .get();
             LOGGER.info("keyword foo. changes?=" + madeChanges);
             if (!madeChanges) {
                 LOGGER.info("No changes were made to thread {}", threadId);
@@ -0,0 +1,183 @@
+package rs.ltt.android.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.EmailWithMailboxes;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.entity.IdentifiableMailboxWithRole;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * One operation applied to the emails of a number of threads. The emails are split into chunks of
+ * at most maxObjectsInSet as advertised by the server, each of which results in one Email/set.
+ */
+final class MutationBatch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MutationBatch.class);
+
+    // keeps the number of variables in an IN clause below what SQLite allows
+    static final int MAX_THREADS = 100;
+
+    private static final int DEFAULT_MAX_OBJECTS_IN_SET = 500;
+
+    private final MutationEntity.Operation operation;
+    private final Collection<String> threadIds;
+    private final String argument;
+
+    MutationBatch(
+            final MutationEntity.Operation operation,
+            final Collection<String> threadIds,
+            final String argument) {
+        Preconditions.checkArgument(
+                threadIds.size() <= MAX_THREADS, "Too many threads for a single batch");
+        this.operation = operation;
+        this.threadIds = threadIds;
+        this.argument = argument;
+    }
+
+    static MutationBatch of(final List<MutationEntity> mutations) {
+        final MutationEntity first = mutations.get(0);
+        return new MutationBatch(
+                first.operation,
+                Lists.transform(mutations, mutation -> mutation.threadId),
+                first.argument);
+    }
+
+    /**
+     * @return true if any of the emails had to be modified
+     */
+    boolean execute(final Mua mua, final LttrsDatabase database, final SyncScheduler scheduler)
+            throws ExecutionException, InterruptedException {
+        if (operation == MutationEntity.Operation.EMPTY_TRASH) {
+            return emptyTrash(mua, database, scheduler);
+        }
+        if (operation.isMailboxModification()) {
+            final IdentifiableMailboxWithRole mailbox;
+            if (operation == MutationEntity.Operation.COPY_TO_MAILBOX) {
+                mailbox = database.mailboxDao().getMailbox(argument);
+                if (mailbox == null) {
+                    LOGGER.warn("Unable to find cached mailbox with id {}", argument);
+                    return false;
+                }
+            } else {
+                mailbox = null;
+            }
+            return execute(
+                    mua,
+                    scheduler,
+                    database.threadAndEmailDao().getEmailsWithMailboxes(threadIds),
+                    emails -> modifyMailboxes(mua, emails, mailbox));
+        } else {
+            return execute(
+                    mua,
+                    scheduler,
+                    database.threadAndEmailDao().getEmailsWithKeywords(threadIds),
+                    emails ->
+                            operation == MutationEntity.Operation.SET_KEYWORD
+                                    ? mua.setKeyword(emails, argument)
+                                    : mua.removeKeyword(emails, argument));
+        }
+    }
+
+    private boolean emptyTrash(
+            final Mua mua, final LttrsDatabase database, final SyncScheduler scheduler)
+            throws ExecutionException, InterruptedException {
+        scheduler.submit(SyncScheduler.Priority.USER_MUTATION, mua::emptyTrash).get();
+        try {
+            final MailboxWithRoleAndName trashMailbox =
+                    database.mailboxDao().getMailbox(Role.TRASH);
+            mua.query(StandardQueries.mailbox(trashMailbox)).get();
+        } catch (final Exception e) {
+            LOGGER.debug("Ignoring inability to refresh query", e);
+        }
+        return true;
+    }
+
+    private <T> boolean execute(
+            final Mua mua,
+            final SyncScheduler scheduler,
+            final List<T> emails,
+            final Function<List<T>, ListenableFuture<Boolean>> modification)
+            throws ExecutionException, InterruptedException {
+        if (emails.isEmpty()) {
+            return false;
+        }
+        final List<List<T>> chunks = Lists.partition(emails, getMaxObjectsInSet(mua));
+        LOGGER.info(
+                "{} {} emails in {} threads using {} chunks",
+                operation,
+                emails.size(),
+                threadIds.size(),
+                chunks.size());
+        boolean madeChanges = false;
+        for (final List<T> chunk : chunks) {
+            madeChanges |=
+                    scheduler
+                            .submit(
+                                    SyncScheduler.Priority.USER_MUTATION,
+                                    () -> modification.apply(chunk))
+                            .get();
+        }
+        return madeChanges;
+    }
+
+    private ListenableFuture<Boolean> modifyMailboxes(
+            final Mua mua,
+            final List<EmailWithMailboxes> emails,
+            final IdentifiableMailboxWithRole mailbox) {
+        return switch (operation) {
+            case ARCHIVE -> mua.archive(emails);
+            case MOVE_TO_INBOX -> mua.moveToInbox(emails);
+            case MARK_IMPORTANT -> mua.copyToImportant(emails);
+            case COPY_TO_MAILBOX -> mua.copyToMailbox(emails, mailbox);
+            case REMOVE_FROM_MAILBOX -> mua.removeFromMailbox(emails, argument);
+            case MOVE_TO_TRASH -> mua.moveToTrash(emails);
+            default -> throw new IllegalStateException(
+                    String.format("%s is not a mailbox modification", operation));
+        };
+    }
+
+    static int getMaxObjectsInSet(final Mua mua)
+            throws ExecutionException, InterruptedException {
+        final Session session = mua.getJmapClient().getSession().get();
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final Long maxObjectsInSet =
+                coreCapability == null ? null : coreCapability.getMaxObjectsInSet();
+        if (maxObjectsInSet == null || maxObjectsInSet <= 0) {
+            return DEFAULT_MAX_OBJECTS_IN_SET;
+        }
+        return (int) Math.min(maxObjectsInSet, Integer.MAX_VALUE);
+    }
+
+    void revert(final LttrsDatabase database) {
+        if (operation == MutationEntity.Operation.EMPTY_TRASH) {
+            return;
+        }
+        if (operation == MutationEntity.Operation.MOVE_TO_TRASH) {
+            database.overwriteDao().revertMoveToTrashOverwrites(threadIds);
+        } else if (operation.isMailboxModification()) {
+            database.overwriteDao().revertMailboxOverwrites(threadIds);
+        } else {
+            database.overwriteDao().revertKeywordOverwrites(threadIds);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d threads", operation, threadIds.size());
+    }
+}
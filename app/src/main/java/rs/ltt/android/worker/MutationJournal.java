@@ -0,0 +1,233 @@
+package rs.ltt.android.worker;
+
+import androidx.work.ListenableWorker;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.database.dao.MutationDao;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.sync.Latency;
+import rs.ltt.android.sync.MutationCompactor;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.jmap.mua.Mua;
+
+/**
+ * Flushes the mutation journal of an account. The journal is compacted first (see {@link
+ * MutationCompactor}) and then sent in order, one batch of consecutive entries with the same
+ * operation at a time. Entries are only removed from the journal once they have been applied (or
+ * failed permanently), so a flush that is retried or replaced picks up where the previous one left
+ * off. An entry that can not be applied (for example because it refers to a mailbox that no longer
+ * exists) is logged, reverted and dropped so it does not hold up the entries behind it.
+ *
+ * <p>Moving to trash and emptying the trash go through the journal as well, so every modification
+ * reaches the server in the order it was made. Moving to trash can be undone for {@link
+ * #MOVE_TO_TRASH_DELAY_SECONDS}; a flush stops in front of such an entry until that time has
+ * passed and leaves it, and everything after it, to the worker that was scheduled along with it.
+ *
+ * <p>Flushes run either in process right after the user made a modification or from the {@link
+ * MutationJournalWorker}; only one flush per account runs at a time. The worker is scheduled for
+ * every modification, even if it is also flushed in process, so that nothing is left in the
+ * journal if the process dies during the in process flush. In process flushes of different
+ * accounts run independently of each other. The time from the modification to the server
+ * acknowledging it is tracked separately for both.
+ */
+public final class MutationJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MutationJournal.class);
+
+    public static final long MOVE_TO_TRASH_DELAY_SECONDS = 5;
+
+    private static final Map<Long, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private static final Executor IN_PROCESS_EXECUTOR = Executors.newCachedThreadPool();
+    private static final Map<Long, Executor> IN_PROCESS_EXECUTORS = new ConcurrentHashMap<>();
+
+    private static final Map<Path, Latency> LATENCIES =
+            ImmutableMap.of(Path.IN_PROCESS, new Latency(), Path.WORKER, new Latency());
+
+    private MutationJournal() {}
+
+    public static ListenableFuture<Outcome> flushInProcess(
+            final long account,
+            final Supplier<Mua> mua,
+            final AppDatabase appDatabase,
+            final LttrsDatabase database,
+            final SyncScheduler scheduler) {
+        final Executor executor =
+                IN_PROCESS_EXECUTORS.computeIfAbsent(
+                        account, a -> MoreExecutors.newSequentialExecutor(IN_PROCESS_EXECUTOR));
+        return Futures.submit(
+                () -> flush(account, mua.get(), appDatabase, database, scheduler, Path.IN_PROCESS),
+                executor);
+    }
+
+    public static Outcome flush(
+            final long account,
+            final Mua mua,
+            final AppDatabase appDatabase,
+            final LttrsDatabase database,
+            final SyncScheduler scheduler,
+            final Path path) {
+        synchronized (LOCKS.computeIfAbsent(account, a -> new Object())) {
+            return flush(account, mua, appDatabase.mutationDao(), database, scheduler, path);
+        }
+    }
+
+    private static Outcome flush(
+            final long account,
+            final Mua mua,
+            final MutationDao mutationDao,
+            final LttrsDatabase database,
+            final SyncScheduler scheduler,
+            final Path path) {
+        final List<MutationEntity> journal = mutationDao.getMutations(account);
+        if (journal.isEmpty()) {
+            return Outcome.SUCCESS;
+        }
+        final List<MutationEntity> mutations =
+                MutationCompactor.compact(
+                        journal,
+                        role -> {
+                            final MailboxWithRoleAndName mailbox =
+                                    database.mailboxDao().getMailbox(role);
+                            return mailbox == null ? null : mailbox.id;
+                        });
+        final Set<Long> remaining = ImmutableSet.copyOf(ids(mutations));
+        final List<Long> superseded =
+                Lists.newArrayList(
+                        Collections2.filter(ids(journal), id -> !remaining.contains(id)));
+        for (final List<Long> ids : Lists.partition(superseded, MutationBatch.MAX_THREADS)) {
+            mutationDao.delete(ids);
+        }
+        LOGGER.info(
+                "Flushing {} of {} journaled mutations {}", mutations.size(), journal.size(), path);
+        Throwable failure = null;
+        for (final List<MutationEntity> entries :
+                MutationCompactor.batches(mutations, MutationBatch.MAX_THREADS)) {
+            if (isUndoable(entries)) {
+                LOGGER.info("Waiting for move to trash to become final {}", path);
+                break;
+            }
+            final MutationBatch batch = MutationBatch.of(entries);
+            try {
+                final boolean madeChanges = batch.execute(mua, database, scheduler);
+                if (madeChanges) {
+                    recordLatency(path, entries);
+                } else {
+                    LOGGER.info("No changes were made to {}", batch);
+                    batch.revert(database);
+                }
+            } catch (final ExecutionException e) {
+                LOGGER.warn(String.format("Unable to %s", batch), e);
+                if (AbstractMuaWorker.shouldRetry(e)) {
+                    return Outcome.RETRY;
+                }
+                batch.revert(database);
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (final InterruptedException e) {
+                return Outcome.RETRY;
+            } catch (final RuntimeException e) {
+                LOGGER.warn(String.format("Dropping %s", batch), e);
+                batch.revert(database);
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            mutationDao.delete(ids(entries));
+        }
+        return failure == null ? Outcome.SUCCESS : Outcome.failure(failure);
+    }
+
+    private static boolean isUndoable(final List<MutationEntity> entries) {
+        final MutationEntity first = entries.get(0);
+        if (first.operation != MutationEntity.Operation.MOVE_TO_TRASH) {
+            return false;
+        }
+        final long newest =
+                Longs.max(Longs.toArray(Lists.transform(entries, mutation -> mutation.created)));
+        return System.currentTimeMillis() - newest
+                < TimeUnit.SECONDS.toMillis(MOVE_TO_TRASH_DELAY_SECONDS);
+    }
+
+    private static void recordLatency(final Path path, final List<MutationEntity> entries) {
+        final long oldest =
+                Longs.min(Longs.toArray(Lists.transform(entries, mutation -> mutation.created)));
+        final long millis = System.currentTimeMillis() - oldest;
+        final Latency latency = LATENCIES.get(path);
+        latency.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        LOGGER.info("Modification to server ack {}ms {}. {}", millis, path, latency);
+    }
+
+    public static Latency getLatency(final Path path) {
+        return LATENCIES.get(path);
+    }
+
+    private static List<Long> ids(final List<MutationEntity> mutations) {
+        return Lists.transform(mutations, mutation -> mutation.id);
+    }
+
+    public enum Path {
+        IN_PROCESS,
+        WORKER
+    }
+
+    public static final class Outcome {
+
+        public static final Outcome SUCCESS = new Outcome(State.SUCCESS, null);
+        public static final Outcome RETRY = new Outcome(State.RETRY, null);
+
+        public final State state;
+        private final Throwable failure;
+
+        private Outcome(final State state, final Throwable failure) {
+            this.state = state;
+            this.failure = failure;
+        }
+
+        private static Outcome failure(final Throwable failure) {
+            return new Outcome(State.FAILURE, failure);
+        }
+
+        /**
+         * @return the failure in the same form a failed worker reports it
+         */
+        public Failure getFailure() {
+            return failure == null ? null : Failure.of(Failure.of(failure));
+        }
+
+        ListenableWorker.Result toResult() {
+            return switch (state) {
+                case SUCCESS -> ListenableWorker.Result.success();
+                case RETRY -> ListenableWorker.Result.retry();
+                case FAILURE -> ListenableWorker.Result.failure(Failure.of(failure));
+            };
+        }
+
+        public enum State {
+            SUCCESS,
+            RETRY,
+            FAILURE
+        }
+    }
+}
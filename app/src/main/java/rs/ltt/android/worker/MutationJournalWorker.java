@@ -0,0 +1,65 @@
+package rs.ltt.android.worker;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.WorkerParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.database.AppDatabase;
+
+/**
+ * Flushes the mutation journal (see {@link MutationJournal}) when the in process flush was not
+ * possible, did not succeed or did not get to finish.
+ */
+public class MutationJournalWorker extends AbstractMuaWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MutationJournalWorker.class);
+
+    public MutationJournalWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    public static Data data(final Long account) {
+        return new Data.Builder().putLong(ACCOUNT_KEY, account).build();
+    }
+
+    public static OneTimeWorkRequest of(final Long account) {
+        return new OneTimeWorkRequest.Builder(MutationJournalWorker.class)
+                .setConstraints(
+                        new Constraints.Builder()
+                                .setRequiredNetworkType(NetworkType.CONNECTED)
+                                .build())
+                .setInputData(data(account))
+                .addTag(TAG_EMAIL_MODIFICATION)
+                .build();
+    }
+
+    /** Schedules a flush for every account that has modifications left over from a previous run. */
+    public static void dispatchPending(final Context context) {
+        final WorkManager workManager = WorkManager.getInstance(context);
+        for (final Long account : AppDatabase.getInstance(context).mutationDao().getAccountIds()) {
+            LOGGER.info("Found pending modifications for account {}", account);
+            workManager.enqueueUniqueWork(
+                    uniqueName(account), ExistingWorkPolicy.APPEND_OR_REPLACE, of(account));
+        }
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        return MutationJournal.flush(
+                        account,
+                        getMua(),
+                        AppDatabase.getInstance(getApplicationContext()),
+                        getDatabase(),
+                        getScheduler(),
+                        MutationJournal.Path.WORKER)
+                .toResult();
+    }
+}
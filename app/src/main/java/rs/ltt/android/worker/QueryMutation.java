@@ -0,0 +1,227 @@
+package rs.ltt.android.worker;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.SetError;
+import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.filter.Filter;
+import rs.ltt.jmap.common.entity.filter.FilterOperator;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.SetEmailMethodResponse;
+import rs.ltt.jmap.mua.Mua;
+
+/**
+ * A modification of every email matched by a query that does not require the matching emails to be
+ * cached. Each round runs Email/query, restricted to the emails that still need the modification,
+ * followed by an Email/set on the ids that query returned. This repeats until the query comes back
+ * empty. Because modified emails drop out of the restricted query every round starts at position 0
+ * and emails that are added to or removed from the query in the meantime do not throw off the
+ * position.
+ *
+ * <p>Every round is restricted to emails that have been received before the operation was
+ * requested. Emails that arrive while the operation is running are left alone; otherwise a steady
+ * stream of new emails would keep the operation from ever running out of emails to modify. The
+ * cutoff is taken from the clock of the device, which may be slightly off from the one the server
+ * assigns {@code receivedAt} with.
+ */
+public final class QueryMutation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryMutation.class);
+
+    private final EmailQuery emailQuery;
+    private final EmailQuery remaining;
+    private final Map<String, Object> patch;
+
+    private QueryMutation(
+            final EmailQuery emailQuery,
+            final Instant before,
+            final Filter<Email> pending,
+            final Map<String, Object> patch) {
+        this.emailQuery = emailQuery;
+        this.remaining =
+                EmailQuery.of(
+                        and(
+                                and(emailQuery.filter, pending),
+                                EmailFilterCondition.builder().before(before).build()));
+        this.patch = patch;
+    }
+
+    public static QueryMutation setKeyword(
+            final EmailQuery emailQuery, final Instant before, final String keyword) {
+        return new QueryMutation(
+                emailQuery,
+                before,
+                EmailFilterCondition.builder().notKeyword(keyword).build(),
+                Collections.singletonMap("keywords/" + keyword, true));
+    }
+
+    public static QueryMutation removeKeyword(
+            final EmailQuery emailQuery, final Instant before, final String keyword) {
+        return new QueryMutation(
+                emailQuery,
+                before,
+                EmailFilterCondition.builder().hasKeyword(keyword).build(),
+                Collections.singletonMap("keywords/" + keyword, null));
+    }
+
+    /**
+     * Emails that have been moved out of the inbox drop out of the inbox query on their own, so the
+     * query does not need to be restricted any further.
+     */
+    public static QueryMutation archive(
+            final EmailQuery inboxQuery,
+            final Instant before,
+            final String inboxId,
+            final String archiveId) {
+        final Map<String, Object> patch = new HashMap<>();
+        patch.put("mailboxIds/" + inboxId, null);
+        patch.put("mailboxIds/" + archiveId, true);
+        return new QueryMutation(inboxQuery, before, null, patch);
+    }
+
+    private static Filter<Email> and(final Filter<Email> filter, final Filter<Email> other) {
+        if (other == null) {
+            return filter;
+        } else if (filter == null) {
+            return other;
+        } else {
+            return FilterOperator.and(filter, other);
+        }
+    }
+
+    /**
+     * @return the number of emails that have been modified
+     */
+    public long execute(
+            final Mua mua,
+            final String accountId,
+            final SyncScheduler scheduler,
+            final ProgressListener progressListener)
+            throws ExecutionException, InterruptedException {
+        final int chunkSize = MutationBatch.getMaxObjectsInSet(mua);
+        Long total = null;
+        long modified = 0;
+        while (true) {
+            final boolean calculateTotal = total == null;
+            final Round round =
+                    scheduler
+                            .submit(
+                                    SyncScheduler.Priority.USER_MUTATION,
+                                    () ->
+                                            next(
+                                                    mua.getJmapClient(),
+                                                    accountId,
+                                                    chunkSize,
+                                                    calculateTotal))
+                            .get();
+            if (total == null) {
+                total = round.total;
+            }
+            if (round.matched == 0) {
+                return modified;
+            }
+            if (round.updated == 0) {
+                throw new IllegalStateException(
+                        String.format(
+                                "Unable to modify any of the %d remaining emails", round.matched));
+            }
+            modified += round.updated;
+            if (!progressListener.onProgress(modified, total)) {
+                LOGGER.info("Stopped after modifying {} emails in {}", modified, emailQuery);
+                return modified;
+            }
+        }
+    }
+
+    private ListenableFuture<Round> next(
+            final JmapClient jmapClient,
+            final String accountId,
+            final int chunkSize,
+            final boolean calculateTotal) {
+        final ListenableFuture<QueryEmailMethodResponse> queryFuture =
+                Futures.transform(
+                        jmapClient.call(
+                                QueryEmailMethodCall.builder()
+                                        .accountId(accountId)
+                                        .query(remaining)
+                                        .limit((long) chunkSize)
+                                        .calculateTotal(calculateTotal)
+                                        .build()),
+                        methodResponses -> methodResponses.getMain(QueryEmailMethodResponse.class),
+                        MoreExecutors.directExecutor());
+        return Futures.transformAsync(
+                queryFuture,
+                queryResponse -> {
+                    final String[] ids = queryResponse.getIds();
+                    if (ids.length == 0) {
+                        return Futures.immediateFuture(new Round(queryResponse.getTotal(), 0, 0));
+                    }
+                    final Map<String, Map<String, Object>> update = new HashMap<>();
+                    for (final String id : ids) {
+                        update.put(id, patch);
+                    }
+                    return Futures.transform(
+                            jmapClient.call(
+                                    SetEmailMethodCall.builder()
+                                            .accountId(accountId)
+                                            .update(update)
+                                            .build()),
+                            methodResponses -> {
+                                final SetEmailMethodResponse setResponse =
+                                        methodResponses.getMain(SetEmailMethodResponse.class);
+                                final Map<String, Email> updated = setResponse.getUpdated();
+                                final Map<String, SetError> notUpdated =
+                                        setResponse.getNotUpdated();
+                                if (notUpdated != null && !notUpdated.isEmpty()) {
+                                    LOGGER.warn("Unable to modify {}", notUpdated);
+                                }
+                                return new Round(
+                                        queryResponse.getTotal(),
+                                        ids.length,
+                                        updated == null ? 0 : updated.size());
+                            },
+                            MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s on %s", patch.keySet(), emailQuery);
+    }
+
+    public interface ProgressListener {
+        /**
+         * @param total the number of emails that needed the modification when the operation
+         *     started; null if the server did not calculate it
+         * @return false to stop before the next round
+         */
+        boolean onProgress(long modified, Long total);
+    }
+
+    private static class Round {
+        private final Long total;
+        private final int matched;
+        private final int updated;
+
+        private Round(final Long total, final int matched, final int updated) {
+            this.total = total;
+            this.matched = matched;
+            this.updated = updated;
+        }
+    }
+}
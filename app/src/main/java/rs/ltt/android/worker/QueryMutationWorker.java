@@ -0,0 +1,296 @@
+package rs.ltt.android.worker;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.StringRes;
+import androidx.work.Data;
+import androidx.work.ForegroundInfo;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.WorkerParameters;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.RateLimiter;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.android.R;
+import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.AccountWithCredentials;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.android.entity.QueryInfo;
+import rs.ltt.android.sync.SyncScheduler;
+import rs.ltt.android.ui.notification.BulkOperationNotification;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.util.StandardQueries;
+
+/**
+ * Applies an operation to every email matched by one of the queries the user can look at (see
+ * {@link QueryMutation}) and reports the progress through a notification.
+ *
+ * <p>While the operation is running a single {@link rs.ltt.android.entity.BulkOverwriteEntity} for
+ * the query stands in for the modification. It is removed after the operation has finished and the
+ * query has been refreshed, when the operation fails and when the work is cancelled. Work that
+ * never got to run, for example because the work it was chained to failed, is caught by {@link
+ * #deleteAbandonedBulkOverwrites(Context)} when the app starts.
+ */
+public class QueryMutationWorker extends AbstractMuaWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryMutationWorker.class);
+
+    private static final String QUERY_TYPE_KEY = "queryType";
+    private static final String QUERY_VALUE_KEY = "queryValue";
+    private static final String QUERY_STRING_KEY = "queryString";
+    private static final String BEFORE_KEY = "before";
+    private static final String OPERATION_KEY = "operation";
+
+    private static final List<MutationEntity.Operation> SUPPORTED_OPERATIONS =
+            ImmutableList.of(
+                    MutationEntity.Operation.SET_KEYWORD,
+                    MutationEntity.Operation.REMOVE_KEYWORD,
+                    MutationEntity.Operation.ARCHIVE);
+
+    private static final Executor CLEANUP_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final NotificationManager notificationManager;
+    private final RateLimiter notificationRateLimiter = RateLimiter.create(1);
+    private final QueryInfo queryInfo;
+    private final String queryString;
+    private final Instant before;
+    private final MutationEntity.Operation operation;
+    private final String keyword;
+
+    public QueryMutationWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+        this.notificationManager = context.getSystemService(NotificationManager.class);
+        final Data data = workerParams.getInputData();
+        this.queryInfo =
+                new QueryInfo(
+                        account,
+                        QueryInfo.Type.valueOf(data.getString(QUERY_TYPE_KEY)),
+                        data.getString(QUERY_VALUE_KEY));
+        this.queryString = data.getString(QUERY_STRING_KEY);
+        this.before = Instant.ofEpochMilli(data.getLong(BEFORE_KEY, System.currentTimeMillis()));
+        this.operation = MutationEntity.Operation.valueOf(data.getString(OPERATION_KEY));
+        this.keyword = data.getString(KEYWORD_KEY);
+    }
+
+    /**
+     * The operation only applies to emails received before this is called.
+     *
+     * @param queryString the hash of the query the bulk overwrite has been stored under
+     */
+    public static Data data(
+            final QueryInfo queryInfo,
+            final String queryString,
+            final MutationEntity.Operation operation,
+            final String keyword) {
+        checkSupported(queryInfo, operation, keyword);
+        return new Data.Builder()
+                .putLong(ACCOUNT_KEY, queryInfo.accountId)
+                .putString(QUERY_TYPE_KEY, queryInfo.type.toString())
+                .putString(QUERY_VALUE_KEY, queryInfo.value)
+                .putString(QUERY_STRING_KEY, queryString)
+                .putLong(BEFORE_KEY, System.currentTimeMillis())
+                .putString(OPERATION_KEY, operation.toString())
+                .putString(KEYWORD_KEY, keyword)
+                .build();
+    }
+
+    /** Identifies the work the bulk overwrite of the query is waiting for. */
+    public static String tag(final Long account, final String queryString) {
+        return String.format(Locale.ENGLISH, "query-mutation-%d-%s", account, queryString);
+    }
+
+    /**
+     * Removes the bulk overwrites that no unfinished work is waiting for anymore. Otherwise an
+     * operation that never got to run would hide (or modify) the query indefinitely.
+     */
+    public static void deleteAbandonedBulkOverwrites(final Context context) {
+        final WorkManager workManager = WorkManager.getInstance(context);
+        final List<AccountWithCredentials> accounts;
+        try {
+            accounts = AppDatabase.getInstance(context).accountDao().getAccounts().get();
+        } catch (final ExecutionException | InterruptedException e) {
+            LOGGER.warn("Unable to look up accounts", e);
+            return;
+        }
+        for (final AccountWithCredentials account : accounts) {
+            final Long id = account.getId();
+            final LttrsDatabase database = LttrsDatabase.getInstance(context, id);
+            for (final String queryString : database.overwriteDao().getBulkOverwriteQueries()) {
+                final List<WorkInfo> workInfos;
+                try {
+                    workInfos = workManager.getWorkInfosByTag(tag(id, queryString)).get();
+                } catch (final ExecutionException | InterruptedException e) {
+                    LOGGER.warn(String.format("Unable to look up work for %s", queryString), e);
+                    continue;
+                }
+                if (workInfos.stream().allMatch(workInfo -> workInfo.getState().isFinished())) {
+                    LOGGER.info("Deleting abandoned bulk overwrite for {}", queryString);
+                    database.overwriteDao().deleteBulkOverwrite(queryString);
+                }
+            }
+        }
+    }
+
+    private static void checkSupported(
+            final QueryInfo queryInfo,
+            final MutationEntity.Operation operation,
+            final String keyword) {
+        Preconditions.checkArgument(
+                SUPPORTED_OPERATIONS.contains(operation),
+                String.format("%s can not be applied to a query", operation));
+        Preconditions.checkArgument(
+                operation.isMailboxModification() || keyword != null,
+                "Keyword operations require a keyword");
+        // archiving from anything but the inbox is not a meaningful operation and the optimistic
+        // overwrite would remove emails from views they are not going to leave
+        Preconditions.checkArgument(
+                operation != MutationEntity.Operation.ARCHIVE
+                        || queryInfo.type == QueryInfo.Type.MAIN,
+                "Only the inbox can be archived");
+    }
+
+    /** Builds the same query the list of that type is showing. */
+    public static EmailQuery getEmailQuery(
+            final LttrsDatabase database, final QueryInfo queryInfo) {
+        return switch (queryInfo.type) {
+            case MAIN -> {
+                final MailboxWithRoleAndName inbox = database.mailboxDao().getMailbox(Role.INBOX);
+                yield inbox == null ? EmailQuery.unfiltered() : StandardQueries.mailbox(inbox);
+            }
+            case MAILBOX -> StandardQueries.mailbox(queryInfo.value);
+            case KEYWORD ->
+                    StandardQueries.keyword(
+                            queryInfo.value,
+                            database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK));
+            case SEARCH_IN_EMAIL ->
+                    StandardQueries.search(
+                            queryInfo.value,
+                            database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK));
+            case SEARCH_BY_CONTACT ->
+                    StandardQueries.contact(
+                            queryInfo.value,
+                            database.mailboxDao().getMailboxes(Role.TRASH, Role.JUNK));
+        };
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        final EmailQuery emailQuery = getEmailQuery(getDatabase(), queryInfo);
+        updateProgress(0, null);
+        try {
+            final QueryMutation queryMutation = getQueryMutation(emailQuery);
+            final long modified =
+                    queryMutation.execute(
+                            getMua(),
+                            getAccount().getAccountId(),
+                            getScheduler(),
+                            (count, total) -> {
+                                updateProgress(count, total);
+                                return !isStopped();
+                            });
+            LOGGER.info("{} applied to {} emails", queryMutation, modified);
+            // refreshes the query as well as the emails it contains
+            getScheduler()
+                    .submit(SyncScheduler.Priority.USER_MUTATION, () -> getMua().query(emailQuery))
+                    .get();
+            finish();
+            return Result.success();
+        } catch (final ExecutionException e) {
+            LOGGER.warn(String.format("Unable to apply %s to %s", operation, emailQuery), e);
+            if (shouldRetry(e)) {
+                return Result.retry();
+            }
+            finish();
+            return Result.failure(Failure.of(e.getCause()));
+        } catch (final InterruptedException e) {
+            return Result.retry();
+        } catch (final RuntimeException e) {
+            LOGGER.warn(String.format("Unable to apply %s to %s", operation, emailQuery), e);
+            finish();
+            return Result.failure(Failure.of(e));
+        }
+    }
+
+    private QueryMutation getQueryMutation(final EmailQuery emailQuery) {
+        return switch (operation) {
+            case SET_KEYWORD -> QueryMutation.setKeyword(emailQuery, before, keyword);
+            case REMOVE_KEYWORD -> QueryMutation.removeKeyword(emailQuery, before, keyword);
+            case ARCHIVE -> {
+                final MailboxWithRoleAndName inbox =
+                        getDatabase().mailboxDao().getMailbox(Role.INBOX);
+                final MailboxWithRoleAndName archive =
+                        getDatabase().mailboxDao().getMailbox(Role.ARCHIVE);
+                Preconditions.checkState(inbox != null, "No inbox found");
+                Preconditions.checkState(archive != null, "No archive mailbox found");
+                yield QueryMutation.archive(emailQuery, before, inbox.id, archive.id);
+            }
+            default -> throw new IllegalStateException(
+                    String.format("%s can not be applied to a query", operation));
+        };
+    }
+
+    /** Removes the bulk overwrite. A retried operation keeps it in place. */
+    private void finish() {
+        final int deleted = getDatabase().overwriteDao().deleteBulkOverwrite(queryString);
+        LOGGER.debug("Deleted {} bulk overwrites for {}", deleted, queryString);
+        notificationManager.cancel(BulkOperationNotification.ID);
+    }
+
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        // cancelled work is not going to be retried
+        if (getStopReason() == WorkInfo.STOP_REASON_CANCELLED_BY_APP) {
+            CLEANUP_EXECUTOR.execute(this::finish);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<ForegroundInfo> getForegroundInfoAsync() {
+        return Futures.immediateFuture(
+                new ForegroundInfo(
+                        BulkOperationNotification.ID,
+                        BulkOperationNotification.inProgress(
+                                getApplicationContext(), getId(), getTitle(), 0, null)));
+    }
+
+    private void updateProgress(final long modified, final Long total) {
+        if (modified > 0 && !notificationRateLimiter.tryAcquire()) {
+            return;
+        }
+        notificationManager.notify(
+                BulkOperationNotification.ID,
+                BulkOperationNotification.inProgress(
+                        getApplicationContext(), getId(), getTitle(), modified, total));
+    }
+
+    @StringRes
+    private int getTitle() {
+        if (operation == MutationEntity.Operation.ARCHIVE) {
+            return R.string.archiving_all;
+        } else if (Keyword.SEEN.equals(keyword)) {
+            return operation == MutationEntity.Operation.SET_KEYWORD
+                    ? R.string.marking_all_read
+                    : R.string.marking_all_unread;
+        } else {
+            return R.string.modifying_all;
+        }
+    }
+}
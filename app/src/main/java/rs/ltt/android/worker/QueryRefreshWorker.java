@@ -19,6 +19,7 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.work.Data;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.OutOfQuotaPolicy;
 import androidx.work.WorkerParameters;
 import java.util.Locale;
 import java.util.concurrent.ExecutionException;
@@ -26,6 +27,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.entity.QueryInfo;
 import rs.ltt.android.entity.SearchSuggestion;
+import rs.ltt.android.push.PushLatency;
+import rs.ltt.android.sync.ProgressiveQuery;
+import rs.ltt.android.sync.SyncScheduler;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 
 public abstract class QueryRefreshWorker extends AbstractMuaWorker {
@@ -46,6 +50,18 @@ public abstract class QueryRefreshWorker extends AbstractMuaWorker {
                 .build();
     }
 
+    /**
+     * Refreshes the main mailbox in reaction to a push message. The request is expedited because
+     * its only purpose is to post notifications for new emails. On devices in Doze regular work
+     * might otherwise be deferred for several minutes.
+     */
+    public static OneTimeWorkRequest push(final long accountId, final PushLatency latency) {
+        return new OneTimeWorkRequest.Builder(MainMailboxQueryRefreshWorker.class)
+                .setInputData(MainMailboxQueryRefreshWorker.data(accountId, false, latency))
+                .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                .build();
+    }
+
     public static OneTimeWorkRequest of(final QueryInfo queryInfo, final boolean skipOverEmpty) {
         return switch (queryInfo.type) {
             case MAIN ->
@@ -109,10 +125,27 @@ public abstract class QueryRefreshWorker extends AbstractMuaWorker {
     protected Result refresh(final EmailQuery emailQuery)
             throws ExecutionException, InterruptedException {
         throwOnEmpty(emailQuery);
-        getMua().query(emailQuery).get();
+        getScheduler()
+                .submit(SyncScheduler.Priority.PUSH_REFRESH, () -> getMua().query(emailQuery))
+                .get();
+        resolveMissing(emailQuery);
         return Result.success();
     }
 
+    /** Runs the query again until the threads it references have all been fetched. */
+    protected void resolveMissing(final EmailQuery emailQuery)
+            throws ExecutionException, InterruptedException {
+        final String queryString = emailQuery.asHash();
+        ProgressiveQuery.resolveMissing(
+                        () ->
+                                getScheduler()
+                                        .submit(
+                                                SyncScheduler.Priority.PUSH_REFRESH,
+                                                () -> getMua().query(emailQuery)),
+                        () -> getDatabase().threadAndEmailDao().getMissingThreadCount(queryString))
+                .get();
+    }
+
     protected void throwOnEmpty(final EmailQuery emailQuery) {
         if (skipOverEmpty && getDatabase().queryDao().empty(emailQuery.asHash())) {
             throw new IllegalStateException(
@@ -17,20 +17,99 @@ package rs.ltt.android.worker;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.android.entity.IdentityWithNameAndEmail;
+import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.SetError;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.SetEmailMethodResponse;
 import rs.ltt.jmap.mua.Mua;
 
+/**
+ * Saves the email as draft. A draft that replaces an earlier version of itself is created and the
+ * earlier version destroyed with a single Email/set. The earlier version is either known up front
+ * (editing an existing draft) or is the output of a previous save of the same compose session.
+ * If the previous save did not succeed the version it would have replaced is still current. A
+ * failed save reports that version in its output; if it did not even run the draft that is edited
+ * is replaced.
+ */
 public class SaveDraftWorker extends AbstractCreateEmailWorker {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCreateEmailWorker.class);
 
+    private static final String REPLACE_EMAIL_ID_KEY = "replaceEmailId";
+    private static final String REPLACE_SAVE_KEY = "replaceSave";
+    private static final String CREATION_ID = "draft";
+
+    private final String replaceEmailId;
+    private final UUID replaceSave;
+
     public SaveDraftWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
+        final Data data = workerParams.getInputData();
+        this.replaceEmailId = data.getString(REPLACE_EMAIL_ID_KEY);
+        final String replaceSave = data.getString(REPLACE_SAVE_KEY);
+        this.replaceSave = replaceSave == null ? null : UUID.fromString(replaceSave);
+    }
+
+    /**
+     * @param emailId the id of the draft that is edited; may be null
+     * @param previousSave the id of the work request that saved the previous version; takes
+     *     precedence over emailId unless it did not succeed
+     */
+    public static Data replacing(final String emailId, final UUID previousSave) {
+        return new Data.Builder()
+                .putString(REPLACE_EMAIL_ID_KEY, emailId)
+                .putString(REPLACE_SAVE_KEY, previousSave == null ? null : previousSave.toString())
+                .build();
+    }
+
+    /**
+     * Saves of the same compose session run one after another. By the time this is called the
+     * previous save has finished.
+     *
+     * @return the id of the draft that is current after that work request or null if it is unknown
+     */
+    static String getSavedEmailId(final Context context, final UUID workId)
+            throws ExecutionException, InterruptedException {
+        final WorkInfo workInfo = WorkManager.getInstance(context).getWorkInfoById(workId).get();
+        if (workInfo == null) {
+            LOGGER.warn("Previous save {} has been pruned", workId);
+            return null;
+        }
+        if (workInfo.getState() != WorkInfo.State.SUCCEEDED) {
+            LOGGER.warn("Previous save {} did not succeed ({})", workId, workInfo);
+        }
+        return workInfo.getOutputData().getString(EMAIL_ID_KEY);
+    }
+
+    private String getReplaced() throws ExecutionException, InterruptedException {
+        final String saved =
+                replaceSave == null ? null : getSavedEmailId(getApplicationContext(), replaceSave);
+        return saved == null ? replaceEmailId : saved;
+    }
+
+    private Result failure(final Throwable throwable, final String replaced) {
+        return Result.failure(
+                new Data.Builder()
+                        .putAll(Failure.of(throwable))
+                        .putString(EMAIL_ID_KEY, replaced)
+                        .build());
     }
 
     @NonNull
@@ -38,21 +117,77 @@ public class SaveDraftWorker extends AbstractCreateEmailWorker {
     public Result doWork() {
         final IdentityWithNameAndEmail identity = getIdentity();
         final Mua mua = getMua();
+        final String replaced;
+        try {
+            replaced = getReplaced();
+        } catch (final ExecutionException e) {
+            LOGGER.error("Unable to look up previous save", e);
+            return Result.failure(Failure.of(e.getCause()));
+        } catch (final InterruptedException e) {
+            return Result.retry();
+        }
         final Email email;
         try {
             email = buildEmail(identity);
         } catch (final Exception e) {
             LOGGER.error("Failed to build email", e);
-            return Result.failure();
+            return failure(e, replaced);
         }
+        final MailboxWithRoleAndName drafts = getDatabase().mailboxDao().getMailbox(Role.DRAFTS);
         try {
-            final String emailId = mua.draft(email).get();
-            return refreshAndFetchThreadId(emailId);
+            final String emailId;
+            if (replaced == null || drafts == null) {
+                // without a drafts mailbox Mua takes care of creating one
+                emailId = mua.draft(email).get();
+                if (replaced != null) {
+                    LOGGER.info("No drafts mailbox in cache. Not destroying {}", replaced);
+                }
+            } else {
+                emailId = replace(email, drafts.id, replaced).get();
+            }
+            return patchCacheAndFetchThreadId(emailId);
         } catch (final ExecutionException e) {
             LOGGER.warn("Unable to safe email as draft", e);
-            return Result.failure(Failure.of(e.getCause()));
+            return failure(e.getCause(), replaced);
         } catch (final InterruptedException e) {
             return Result.retry();
         }
     }
+
+    private ListenableFuture<String> replace(
+            final Email email, final String draftsMailboxId, final String replaced) {
+        final Email draft =
+                email.toBuilder()
+                        .keywords(ImmutableMap.of(Keyword.DRAFT, true, Keyword.SEEN, true))
+                        .mailboxIds(ImmutableMap.of(draftsMailboxId, true))
+                        .build();
+        final SetEmailMethodCall setEmail =
+                SetEmailMethodCall.builder()
+                        .accountId(getAccount().getAccountId())
+                        .create(ImmutableMap.of(CREATION_ID, draft))
+                        .destroy(new String[] {replaced})
+                        .build();
+        return Futures.transform(
+                getMua().getJmapClient().call(setEmail),
+                methodResponses -> {
+                    final SetEmailMethodResponse response =
+                            methodResponses.getMain(SetEmailMethodResponse.class);
+                    final Map<String, Email> created = response.getCreated();
+                    final Email createdEmail = created == null ? null : created.get(CREATION_ID);
+                    if (createdEmail == null) {
+                        throw new IllegalStateException(
+                                String.format(
+                                        "Unable to create draft %s", response.getNotCreated()));
+                    }
+                    final Map<String, SetError> notDestroyed = response.getNotDestroyed();
+                    if (notDestroyed != null && notDestroyed.containsKey(replaced)) {
+                        LOGGER.warn("Unable to destroy {} {}", replaced, notDestroyed);
+                    } else {
+                        getDatabase().threadAndEmailDao().deleteDestroyed(replaced);
+                        LOGGER.info("Replaced draft {} with {}", replaced, createdEmail.getId());
+                    }
+                    return createdEmail.getId();
+                },
+                MoreExecutors.directExecutor());
+    }
 }
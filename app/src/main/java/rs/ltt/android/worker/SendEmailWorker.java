@@ -43,11 +43,11 @@ public class SendEmailWorker extends AbstractCreateEmailWorker {
             email = buildEmail(identity);
         } catch (final Exception e) {
             LOGGER.error("Failed to build email", e);
-            return Result.failure();
+            return Result.failure(Failure.of(e));
         }
         try {
             final String emailId = mua.send(email, identity).get();
-            return refreshAndFetchThreadId(emailId);
+            return patchCacheAndFetchThreadId(emailId);
         } catch (final ExecutionException e) {
             // TODO we might have a weird corner case here where saving the draft works but
             // submission fails. Do we need to handle that somehow?
@@ -22,6 +22,7 @@ import androidx.work.WorkerParameters;
 import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.android.cache.CachePatch;
 import rs.ltt.android.entity.IdentityWithNameAndEmail;
 
 public class SubmitEmailWorker extends AbstractMuaWorker {
@@ -58,7 +59,7 @@ public class SubmitEmailWorker extends AbstractMuaWorker {
             final boolean madeChanges = getMua().submit(this.emailId, identity).get();
             if (madeChanges) {
                 LOGGER.info("Submitted draft {}", this.emailId);
-                getMua().refresh().get();
+                patchCache();
             } else {
                 LOGGER.info("Unable to submit {}. No changes were made", this.emailId);
             }
@@ -74,4 +75,14 @@ public class SubmitEmailWorker extends AbstractMuaWorker {
             return Result.retry();
         }
     }
+
+    private void patchCache() {
+        try {
+            CachePatch.submitted(getMua(), getDatabase(), getAccount().getAccountId(), emailId)
+                    .get();
+        } catch (final Exception e) {
+            // the email has been submitted regardless; the next refresh will pick up the change
+            LOGGER.warn("Writing submitted email to cache failed", e);
+        }
+    }
 }
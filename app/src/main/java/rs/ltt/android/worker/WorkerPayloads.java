@@ -0,0 +1,124 @@
+package rs.ltt.android.worker;
+
+import android.content.Context;
+import androidx.annotation.VisibleForTesting;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores worker input that does not fit into WorkManager's Data as one file per work request in
+ * the no backup directory. Unlike the database of an account, which is a cache that gets recreated
+ * whenever its schema changes, the files survive app updates just like the work requests do. A
+ * worker removes its payload once it has completed successfully. Payloads of work that has failed,
+ * been cancelled or pruned are removed by {@link #collectGarbage(Context)}.
+ */
+public final class WorkerPayloads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerPayloads.class);
+
+    private static final String DIRECTORY = "worker-payloads";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    // a payload is written right before the work request is enqueued. Until then WorkManager does
+    // not know about the request
+    private static final long GRACE_PERIOD = TimeUnit.MINUTES.toMillis(10);
+
+    private WorkerPayloads() {}
+
+    /** Writes to a temporary file first so a worker never reads a partially written payload. */
+    public static void store(final Context context, final UUID workId, final byte[] bytes)
+            throws IOException {
+        final File file = getFile(context, workId);
+        final File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Unable to create %s", directory));
+        }
+        final File temporary = new File(directory, file.getName() + TEMPORARY_SUFFIX);
+        Files.write(bytes, temporary);
+        if (!temporary.renameTo(file)) {
+            throw new IOException(String.format("Unable to move payload to %s", file));
+        }
+    }
+
+    /**
+     * @return the payload or null if there is no payload for this work request
+     */
+    public static byte[] load(final Context context, final UUID workId) throws IOException {
+        final File file = getFile(context, workId);
+        if (!file.exists()) {
+            return null;
+        }
+        return Files.toByteArray(file);
+    }
+
+    public static void delete(final Context context, final UUID workId) {
+        final File file = getFile(context, workId);
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Unable to delete {}", file);
+        }
+    }
+
+    @VisibleForTesting
+    public static File getFile(final Context context, final UUID workId) {
+        return new File(new File(context.getNoBackupFilesDir(), DIRECTORY), workId.toString());
+    }
+
+    /**
+     * Deletes payloads that no pending work request refers to. Blocks while WorkManager is queried
+     * and must not be called from the main thread.
+     *
+     * @return the number of deleted payloads
+     */
+    public static int collectGarbage(final Context context) {
+        final File[] files = new File(context.getNoBackupFilesDir(), DIRECTORY).listFiles();
+        if (files == null) {
+            return 0;
+        }
+        final long before = System.currentTimeMillis() - GRACE_PERIOD;
+        final WorkManager workManager = WorkManager.getInstance(context);
+        int deleted = 0;
+        for (final File file : files) {
+            if (file.lastModified() >= before) {
+                continue;
+            }
+            if (isOrphaned(workManager, file) && file.delete()) {
+                ++deleted;
+            }
+        }
+        LOGGER.info("Deleted {} orphaned worker payloads", deleted);
+        return deleted;
+    }
+
+    private static boolean isOrphaned(final WorkManager workManager, final File file) {
+        final UUID workId;
+        try {
+            workId = UUID.fromString(file.getName());
+        } catch (final IllegalArgumentException e) {
+            // left over from a write that did not complete
+            return true;
+        }
+        final WorkInfo workInfo;
+        try {
+            workInfo = workManager.getWorkInfoById(workId).get();
+        } catch (final ExecutionException | InterruptedException e) {
+            LOGGER.warn(String.format("Unable to look up work info for %s", workId), e);
+            return false;
+        }
+        return workInfo == null || workInfo.getState().isFinished();
+    }
+
+    /** The payload of a work request has been lost, for example because app data was cleared. */
+    public static class MissingPayloadException extends IOException {
+        MissingPayloadException(final UUID workId) {
+            super(String.format("No payload found for %s", workId));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package rs.ltt.android.push;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PushLatencyTest {
+
+    @Test
+    public void endToEndAcrossWorkRequest() {
+        final AtomicLong clock = new AtomicLong(10_000);
+        final PushLatency receiver = PushLatency.start(clock::get);
+        clock.addAndGet(15);
+        receiver.mark(PushLatency.Stage.DECODED);
+        clock.addAndGet(5);
+        receiver.mark(PushLatency.Stage.ENQUEUED);
+
+        // the timestamps travel to the worker as part of the input data
+        final long[] inputData = receiver.toArray();
+        clock.addAndGet(200);
+        final PushLatency worker = PushLatency.of(clock::get, inputData);
+        worker.mark(PushLatency.Stage.STARTED);
+        clock.addAndGet(700);
+        worker.mark(PushLatency.Stage.FETCHED);
+        clock.addAndGet(20);
+        worker.mark(PushLatency.Stage.LOADED);
+        clock.addAndGet(60);
+        worker.mark(PushLatency.Stage.NOTIFIED);
+
+        Assert.assertTrue(worker.isPush());
+        Assert.assertEquals(1000, worker.total());
+        Assert.assertEquals(
+                200, worker.elapsed(PushLatency.Stage.ENQUEUED, PushLatency.Stage.STARTED));
+        Assert.assertEquals(
+                700, worker.elapsed(PushLatency.Stage.STARTED, PushLatency.Stage.FETCHED));
+        Assert.assertEquals(
+                "received, decoded +15ms, enqueued +5ms, started +200ms, fetched +700ms, loaded"
+                        + " +20ms, notified +60ms (1000ms)",
+                worker.toString());
+        // marks made by the worker do not leak back into the data of the work request
+        Assert.assertEquals(-1, inputData[PushLatency.Stage.NOTIFIED.ordinal()]);
+    }
+
+    @Test
+    public void refreshWithoutPush() {
+        final AtomicLong clock = new AtomicLong(0);
+        final PushLatency latency = PushLatency.of(clock::get, null);
+        Assert.assertEquals("empty", latency.toString());
+        latency.mark(PushLatency.Stage.STARTED);
+        clock.addAndGet(500);
+        latency.mark(PushLatency.Stage.NOTIFIED);
+        Assert.assertFalse(latency.isPush());
+        Assert.assertEquals(-1, latency.total());
+        Assert.assertEquals(
+                500, latency.elapsed(PushLatency.Stage.STARTED, PushLatency.Stage.NOTIFIED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectForeignTimestamps() {
+        PushLatency.of(System::currentTimeMillis, new long[] {1, 2});
+    }
+}
@@ -0,0 +1,113 @@
+package rs.ltt.android.push;
+
+import androidx.work.WorkInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateChangePlanTest {
+
+    private static final Map<String, String> LOCAL =
+            ImmutableMap.of(
+                    StateChangePlan.EMAIL, "e1",
+                    StateChangePlan.THREAD, "t1",
+                    StateChangePlan.MAILBOX, "m1",
+                    StateChangePlan.IDENTITY, "i1");
+
+    @Test
+    public void mailboxOnlyChangeDoesNotRefreshQuery() {
+        final Set<StateChangePlan.Refresh> refreshes =
+                StateChangePlan.of(
+                        ImmutableMap.of(
+                                StateChangePlan.MAILBOX, "m2",
+                                StateChangePlan.EMAIL, "e1"),
+                        LOCAL);
+        Assert.assertEquals(ImmutableSet.of(StateChangePlan.Refresh.MAILBOXES), refreshes);
+    }
+
+    @Test
+    public void identityOnlyChange() {
+        final Set<StateChangePlan.Refresh> refreshes =
+                StateChangePlan.of(ImmutableMap.of(StateChangePlan.IDENTITY, "i2"), LOCAL);
+        Assert.assertEquals(ImmutableSet.of(StateChangePlan.Refresh.IDENTITIES), refreshes);
+    }
+
+    @Test
+    public void emailDeliveryAlwaysRefreshesQuery() {
+        final Set<StateChangePlan.Refresh> refreshes =
+                StateChangePlan.of(
+                        ImmutableMap.of(
+                                StateChangePlan.EMAIL_DELIVERY, "d1",
+                                StateChangePlan.EMAIL, "e1"),
+                        LOCAL);
+        Assert.assertEquals(ImmutableSet.of(StateChangePlan.Refresh.MAIN_QUERY), refreshes);
+    }
+
+    @Test
+    public void unknownLocalStateRefreshes() {
+        final Set<StateChangePlan.Refresh> refreshes =
+                StateChangePlan.of(
+                        ImmutableMap.of(StateChangePlan.THREAD, "t1"), ImmutableMap.of());
+        Assert.assertEquals(ImmutableSet.of(StateChangePlan.Refresh.MAIN_QUERY), refreshes);
+    }
+
+    @Test
+    public void ignoresTypesWeDoNotCache() {
+        final Set<StateChangePlan.Refresh> refreshes =
+                StateChangePlan.of(
+                        ImmutableMap.of("EmailSubmission", "s2", "VacationResponse", "v2"), LOCAL);
+        Assert.assertTrue(refreshes.isEmpty());
+    }
+
+    /**
+     * Replays a sequence of pushes. The local state catches up after each refresh; pushes echoing
+     * the state we already have (for example the result of our own mutation) must not cause work.
+     */
+    @Test
+    public void sequenceOfStateChanges() {
+        final Map<String, String> local = new HashMap<>(LOCAL);
+        final ImmutableList<Map<String, String>> pushes =
+                ImmutableList.of(
+                        ImmutableMap.of(StateChangePlan.EMAIL, "e2", StateChangePlan.THREAD, "t2"),
+                        ImmutableMap.of(StateChangePlan.EMAIL, "e2", StateChangePlan.THREAD, "t2"),
+                        ImmutableMap.of(StateChangePlan.MAILBOX, "m2"),
+                        ImmutableMap.of(
+                                StateChangePlan.EMAIL, "e3", StateChangePlan.MAILBOX, "m2"));
+        final ImmutableList<Set<StateChangePlan.Refresh>> expected =
+                ImmutableList.of(
+                        ImmutableSet.of(StateChangePlan.Refresh.MAIN_QUERY),
+                        ImmutableSet.of(),
+                        ImmutableSet.of(StateChangePlan.Refresh.MAILBOXES),
+                        ImmutableSet.of(StateChangePlan.Refresh.MAIN_QUERY));
+        for (int i = 0; i < pushes.size(); ++i) {
+            final Map<String, String> push = pushes.get(i);
+            Assert.assertEquals(expected.get(i), StateChangePlan.of(push, local));
+            local.putAll(push);
+        }
+    }
+
+    @Test
+    public void followUp() {
+        Assert.assertEquals(
+                StateChangePlan.FollowUp.ENQUEUE, StateChangePlan.followUp(ImmutableList.of()));
+        Assert.assertEquals(
+                StateChangePlan.FollowUp.ENQUEUE,
+                StateChangePlan.followUp(
+                        ImmutableList.of(WorkInfo.State.SUCCEEDED, WorkInfo.State.FAILED)));
+        Assert.assertEquals(
+                StateChangePlan.FollowUp.APPEND,
+                StateChangePlan.followUp(ImmutableList.of(WorkInfo.State.RUNNING)));
+        Assert.assertEquals(
+                StateChangePlan.FollowUp.NONE,
+                StateChangePlan.followUp(
+                        ImmutableList.of(WorkInfo.State.RUNNING, WorkInfo.State.ENQUEUED)));
+        Assert.assertEquals(
+                StateChangePlan.FollowUp.NONE,
+                StateChangePlan.followUp(ImmutableList.of(WorkInfo.State.ENQUEUED)));
+    }
+}
@@ -0,0 +1,164 @@
+package rs.ltt.android.sync;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AccountEventLoopTest {
+
+    private static final long QUIET_PERIOD = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long INITIAL_BACKOFF = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final FakeScheduledExecutor server = new FakeScheduledExecutor(ticker);
+    private final List<FakeScheduledExecutor> executors = new ArrayList<>();
+
+    private final ConcurrencyLimiter refreshLimiter = new ConcurrencyLimiter(2);
+
+    private AccountEventLoop loop(final long accountId, final long refreshMillis) {
+        return loop(accountId, () -> respondAfter(refreshMillis));
+    }
+
+    private AccountEventLoop loop(
+            final long accountId, final Supplier<ListenableFuture<?>> refresh) {
+        final FakeScheduledExecutor executor = new FakeScheduledExecutor(ticker);
+        executors.add(executor);
+        return new AccountEventLoop(
+                accountId,
+                refresh,
+                refreshLimiter,
+                executor,
+                ticker,
+                QUIET_PERIOD,
+                INITIAL_BACKOFF);
+    }
+
+    private ListenableFuture<?> respondAfter(final long millis) {
+        final SettableFuture<Void> future = SettableFuture.create();
+        server.schedule(() -> future.set(null), millis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private void advance(final long millis) {
+        for (long i = 0; i < millis; ++i) {
+            ticker.advance(1);
+            server.runDue();
+            for (final FakeScheduledExecutor executor : executors) {
+                executor.runDue();
+            }
+        }
+    }
+
+    @Test
+    public void slowAccountDoesNotDelayOthers() {
+        final AccountEventLoop slow = loop(1, 2_000);
+        final AccountEventLoop fast = loop(2, 20);
+        final AccountEventLoop other = loop(3, 20);
+        slow.onStateChange();
+        for (int i = 0; i < 5; ++i) {
+            fast.onStateChange();
+            other.onStateChange();
+            advance(100);
+        }
+        advance(300);
+        Assert.assertEquals("slow account is still refreshing", 0, slow.getLatency().getCount());
+        for (final AccountEventLoop loop : new AccountEventLoop[] {fast, other}) {
+            // one refresh for the first change and one follow up for each later one
+            Assert.assertEquals(loop.getLatency().toString(), 5, loop.getLatency().getCount());
+            // the two fast accounts share the one refresh slot the slow account left over
+            Assert.assertTrue(
+                    loop.getLatency().toString(),
+                    loop.getLatency().getMax(TimeUnit.MILLISECONDS) <= 40);
+        }
+        Assert.assertEquals(1, refreshLimiter.getRunning());
+        slow.shutdown();
+        fast.shutdown();
+        other.shutdown();
+    }
+
+    @Test
+    public void reconnectsWithBackoff() {
+        final AccountEventLoop loop = loop(1, 0);
+        final AtomicInteger attempts = new AtomicInteger();
+        loop.connect(
+                () ->
+                        attempts.incrementAndGet() < 4
+                                ? Futures.immediateFailedFuture(new IOException())
+                                : Futures.immediateVoidFuture());
+        Assert.assertEquals(1, attempts.get());
+        advance(10);
+        Assert.assertEquals(2, attempts.get());
+        advance(19);
+        Assert.assertEquals(2, attempts.get());
+        advance(1);
+        Assert.assertEquals(3, attempts.get());
+        // 10ms + 20ms + 40ms of back off before the fourth attempt succeeds
+        advance(40);
+        Assert.assertEquals(4, attempts.get());
+        advance(1_000);
+        Assert.assertEquals(4, attempts.get());
+        loop.shutdown();
+    }
+
+    @Test
+    public void reconnectsWithBackoffAfterDisconnect() {
+        final AccountEventLoop loop = loop(1, 0);
+        final AtomicInteger attempts = new AtomicInteger();
+        loop.connect(
+                () -> {
+                    attempts.incrementAndGet();
+                    return Futures.immediateVoidFuture();
+                });
+        Assert.assertEquals(1, attempts.get());
+        // a connection that keeps dropping right after it was established backs off as well
+        loop.onDisconnected();
+        loop.onDisconnected();
+        advance(10);
+        Assert.assertEquals(2, attempts.get());
+        loop.onDisconnected();
+        advance(19);
+        Assert.assertEquals(2, attempts.get());
+        advance(1);
+        Assert.assertEquals(3, attempts.get());
+        // a confirmed connection resets the back off
+        loop.onConnected();
+        loop.onDisconnected();
+        advance(10);
+        Assert.assertEquals(4, attempts.get());
+        loop.shutdown();
+        loop.onDisconnected();
+        advance(1_000);
+        Assert.assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void refreshCompletingAfterShutdownIsIgnored() {
+        final List<SettableFuture<Void>> refreshes = new ArrayList<>();
+        final AccountEventLoop loop =
+                loop(
+                        1,
+                        () -> {
+                            final SettableFuture<Void> future = SettableFuture.create();
+                            refreshes.add(future);
+                            return future;
+                        });
+        loop.onStateChange();
+        loop.onStateChange();
+        Assert.assertEquals(1, refreshes.size());
+        loop.shutdown();
+        refreshes.get(0).set(null);
+        advance(1_000);
+        Assert.assertEquals("no follow up after shutdown", 1, refreshes.size());
+        Assert.assertEquals(0, refreshLimiter.getRunning());
+        loop.onStateChange();
+        Assert.assertEquals(1, refreshes.size());
+    }
+}
@@ -0,0 +1,207 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final FakeServer server = new FakeServer();
+
+    private final CircuitBreaker circuitBreaker =
+            new CircuitBreaker(CircuitBreakerTest::classify, ticker);
+
+    private static CircuitBreaker.FailureClass classify(final Throwable throwable) {
+        if (throwable instanceof HttpStatusException httpStatusException) {
+            return CircuitBreaker.FailureClass.ofStatusCode(httpStatusException.statusCode);
+        }
+        if (throwable instanceof IOException) {
+            return CircuitBreaker.FailureClass.NETWORK;
+        }
+        return CircuitBreaker.FailureClass.NONE;
+    }
+
+    private static Throwable failure(final ListenableFuture<?> future) {
+        try {
+            future.get();
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        } catch (final InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        return null;
+    }
+
+    @Test
+    public void opensAfterConsecutiveNetworkFailures() {
+        server.failWith(new SocketTimeoutException());
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; ++i) {
+            Assert.assertTrue(failure(circuitBreaker.call(server::request)) instanceof IOException);
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        final int requests = server.requests;
+        final Throwable failure = failure(circuitBreaker.call(server::request));
+        Assert.assertTrue(failure instanceof CircuitOpenException);
+        Assert.assertEquals(
+                CircuitBreaker.FailureClass.NETWORK,
+                ((CircuitOpenException) failure).getFailureClass());
+        Assert.assertEquals("open circuit must not hit the server", requests, server.requests);
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        server.failWith(new HttpStatusException(503));
+        failure(circuitBreaker.call(server::request));
+        failure(circuitBreaker.call(server::request));
+        server.recover();
+        Assert.assertNull(failure(circuitBreaker.call(server::request)));
+        server.failWith(new HttpStatusException(503));
+        failure(circuitBreaker.call(server::request));
+        failure(circuitBreaker.call(server::request));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void applicationErrorsDoNotOpen() {
+        server.failWith(new HttpStatusException(400));
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD * 2; ++i) {
+            failure(circuitBreaker.call(server::request));
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void authFailureOpensImmediately() {
+        server.failWith(new HttpStatusException(401));
+        failure(circuitBreaker.call(server::request));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        ticker.advance(CircuitBreaker.INITIAL_BACKOFF, TimeUnit.NANOSECONDS);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        ticker.advance(CircuitBreaker.INITIAL_AUTH_BACKOFF, TimeUnit.NANOSECONDS);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void halfOpenLetsSingleProbeThrough() {
+        server.failWith(new HttpStatusException(500));
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; ++i) {
+            failure(circuitBreaker.call(server::request));
+        }
+        ticker.advance(CircuitBreaker.INITIAL_BACKOFF, TimeUnit.NANOSECONDS);
+        server.recover();
+        server.hold();
+        final ListenableFuture<Void> probe = circuitBreaker.call(server::request);
+        final int requests = server.requests;
+        Assert.assertTrue(
+                failure(circuitBreaker.call(server::request)) instanceof CircuitOpenException);
+        Assert.assertEquals(requests, server.requests);
+        server.release();
+        Assert.assertNull(failure(probe));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertNull(failure(circuitBreaker.call(server::request)));
+    }
+
+    @Test
+    public void failedProbeDoublesBackoff() {
+        server.failWith(new SocketTimeoutException());
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; ++i) {
+            failure(circuitBreaker.call(server::request));
+        }
+        ticker.advance(CircuitBreaker.INITIAL_BACKOFF, TimeUnit.NANOSECONDS);
+        failure(circuitBreaker.call(server::request));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        ticker.advance(CircuitBreaker.INITIAL_BACKOFF, TimeUnit.NANOSECONDS);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        ticker.advance(CircuitBreaker.INITIAL_BACKOFF, TimeUnit.NANOSECONDS);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void resetClosesCircuit() {
+        server.failWith(new HttpStatusException(403));
+        failure(circuitBreaker.call(server::request));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        circuitBreaker.reset();
+        server.recover();
+        Assert.assertNull(failure(circuitBreaker.call(server::request)));
+    }
+
+    @Test
+    public void jmapClassifierFollowsCauses() {
+        Assert.assertEquals(
+                CircuitBreaker.FailureClass.NETWORK,
+                JmapFailureClassifier.classify(
+                        new ExecutionException(
+                                new IllegalStateException(new SocketTimeoutException()))));
+        Assert.assertEquals(
+                CircuitBreaker.FailureClass.NONE,
+                JmapFailureClassifier.classify(new IllegalArgumentException("bad request")));
+    }
+
+    @Test
+    public void jmapClassifierOpensOnNetworkFailures() {
+        final CircuitBreaker jmapCircuitBreaker =
+                new CircuitBreaker(JmapFailureClassifier::classify, ticker);
+        server.failWith(new ExecutionException(new SocketTimeoutException()));
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; ++i) {
+            failure(jmapCircuitBreaker.call(server::request));
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, jmapCircuitBreaker.getState());
+        jmapCircuitBreaker.reset();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, jmapCircuitBreaker.getState());
+    }
+
+    private static class FakeServer {
+        private Exception failure = null;
+        private SettableFuture<Void> held = null;
+        private boolean holding = false;
+        private int requests = 0;
+
+        private void failWith(final Exception failure) {
+            this.failure = failure;
+        }
+
+        private void recover() {
+            this.failure = null;
+        }
+
+        private void hold() {
+            this.holding = true;
+        }
+
+        private void release() {
+            this.holding = false;
+            this.held.set(null);
+        }
+
+        private ListenableFuture<Void> request() throws Exception {
+            requests++;
+            if (failure != null) {
+                throw failure;
+            }
+            final SettableFuture<Void> future = SettableFuture.create();
+            if (holding) {
+                this.held = future;
+            } else {
+                future.set(null);
+            }
+            return future;
+        }
+    }
+
+    private static class HttpStatusException extends Exception {
+        private final int statusCode;
+
+        private HttpStatusException(final int statusCode) {
+            super("Server responded with " + statusCode);
+            this.statusCode = statusCode;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CoalescingTriggerTest {
+
+    private static final long REFRESH_DURATION = 50;
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final FakeScheduledExecutor executor = new FakeScheduledExecutor(ticker);
+
+    @Test
+    public void burstResultsInAtMostTwoRefreshes() {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final List<ListenableFuture<?>> futures = new ArrayList<>();
+        final CoalescingTrigger trigger =
+                new CoalescingTrigger(
+                        () -> {
+                            refreshes.incrementAndGet();
+                            maxConcurrent.accumulateAndGet(
+                                    concurrent.incrementAndGet(), Math::max);
+                            final SettableFuture<Void> future = SettableFuture.create();
+                            executor.schedule(
+                                    () -> {
+                                        concurrent.decrementAndGet();
+                                        future.set(null);
+                                    },
+                                    REFRESH_DURATION,
+                                    TimeUnit.MILLISECONDS);
+                            futures.add(future);
+                            return future;
+                        },
+                        executor,
+                        ticker,
+                        TimeUnit.MILLISECONDS.toNanos(200));
+        for (int i = 0; i < 100; ++i) {
+            trigger.trigger();
+            executor.advance(10);
+        }
+        executor.advance(200 + REFRESH_DURATION * 4);
+        Assert.assertTrue(refreshes.get() <= 2);
+        // the changes after the first refresh started must not be lost
+        Assert.assertEquals(2, refreshes.get());
+        Assert.assertEquals(1, maxConcurrent.get());
+        for (final ListenableFuture<?> future : futures) {
+            Assert.assertTrue(future.isDone());
+            Assert.assertFalse(future.isCancelled());
+        }
+        Assert.assertEquals(0, executor.getScheduled());
+    }
+
+    @Test
+    public void singleChangeRefreshesOnce() {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CoalescingTrigger trigger =
+                new CoalescingTrigger(
+                        () -> {
+                            refreshes.incrementAndGet();
+                            return SettableFuture.create();
+                        },
+                        executor,
+                        ticker,
+                        0);
+        trigger.trigger();
+        Assert.assertEquals(1, refreshes.get());
+        executor.advance(REFRESH_DURATION);
+        Assert.assertEquals(1, refreshes.get());
+    }
+
+    @Test
+    public void changeWhileRunningIsFollowedUpOnce() {
+        final List<SettableFuture<Void>> futures = new ArrayList<>();
+        final CoalescingTrigger trigger =
+                new CoalescingTrigger(
+                        () -> {
+                            final SettableFuture<Void> future = SettableFuture.create();
+                            futures.add(future);
+                            return future;
+                        },
+                        executor,
+                        ticker,
+                        0);
+        trigger.trigger();
+        trigger.trigger();
+        trigger.trigger();
+        Assert.assertEquals(1, futures.size());
+        futures.get(0).set(null);
+        Assert.assertEquals(2, futures.size());
+        futures.get(1).set(null);
+        Assert.assertEquals(2, futures.size());
+        trigger.trigger();
+        Assert.assertEquals(3, futures.size());
+    }
+
+    @Test
+    public void failedRefreshDoesNotStallTrigger() {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CoalescingTrigger trigger =
+                new CoalescingTrigger(
+                        () -> {
+                            refreshes.incrementAndGet();
+                            throw new IllegalStateException("network down");
+                        },
+                        executor,
+                        ticker,
+                        0);
+        trigger.trigger();
+        trigger.trigger();
+        Assert.assertEquals(2, refreshes.get());
+    }
+
+    @Test
+    public void cancelledRefreshDoesNotStallTrigger() {
+        final List<SettableFuture<Void>> futures = new ArrayList<>();
+        final CoalescingTrigger trigger =
+                new CoalescingTrigger(
+                        () -> {
+                            final SettableFuture<Void> future = SettableFuture.create();
+                            futures.add(future);
+                            return future;
+                        },
+                        executor,
+                        ticker,
+                        0);
+        trigger.trigger();
+        futures.get(0).cancel(false);
+        trigger.trigger();
+        Assert.assertEquals(2, futures.size());
+    }
+}
@@ -0,0 +1,86 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void queuesBeyondBound() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        final List<SettableFuture<Void>> operations = new ArrayList<>();
+        final List<ListenableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            results.add(
+                    limiter.submit(
+                            () -> {
+                                final SettableFuture<Void> operation = SettableFuture.create();
+                                operations.add(operation);
+                                return operation;
+                            }));
+        }
+        Assert.assertEquals(2, operations.size());
+        Assert.assertEquals(2, limiter.getRunning());
+        Assert.assertEquals(1, limiter.getQueued());
+        operations.get(0).set(null);
+        Assert.assertTrue(results.get(0).isDone());
+        Assert.assertEquals("queued operation starts once a permit is free", 3, operations.size());
+        Assert.assertEquals(2, limiter.getRunning());
+        operations.get(1).set(null);
+        operations.get(2).set(null);
+        Assert.assertEquals(0, limiter.getRunning());
+        Assert.assertTrue(results.get(2).isDone());
+    }
+
+    @Test
+    public void failureReleasesPermit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        final ListenableFuture<Void> failed =
+                limiter.submit(
+                        () -> {
+                            throw new IllegalStateException();
+                        });
+        Assert.assertTrue(failed.isDone());
+        Assert.assertEquals(0, limiter.getRunning());
+        final SettableFuture<Void> next = SettableFuture.create();
+        limiter.submit(() -> next);
+        Assert.assertEquals(1, limiter.getRunning());
+    }
+
+    @Test
+    public void cancelledWhileQueuedIsSkipped() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        final SettableFuture<Void> first = SettableFuture.create();
+        limiter.submit(() -> first);
+        final List<String> started = new ArrayList<>();
+        final ListenableFuture<Void> queued =
+                limiter.submit(
+                        () -> {
+                            started.add("queued");
+                            return SettableFuture.create();
+                        });
+        queued.cancel(false);
+        first.set(null);
+        Assert.assertTrue(started.isEmpty());
+        Assert.assertEquals(0, limiter.getRunning());
+    }
+
+    @Test
+    public void shutdownCancelsQueued() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        final SettableFuture<Void> operation = SettableFuture.create();
+        final ListenableFuture<Void> running = limiter.submit(() -> operation);
+        final ListenableFuture<Void> queued = limiter.submit(SettableFuture::create);
+        limiter.shutdown();
+        Assert.assertTrue(queued.isCancelled());
+        Assert.assertTrue(limiter.submit(SettableFuture::<Void>create).isCancelled());
+        Assert.assertFalse(running.isDone());
+        operation.cancel(false);
+        Assert.assertEquals(0, limiter.getRunning());
+        Assert.assertEquals(0, limiter.getQueued());
+    }
+}
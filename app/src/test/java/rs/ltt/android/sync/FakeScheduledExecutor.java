@@ -0,0 +1,148 @@
+package rs.ltt.android.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ScheduledExecutorService that runs on the thread of the test. Tasks passed to {@link
+ * #execute(Runnable)} run right away; scheduled tasks run once {@link #advance(long)} moves the
+ * {@link FakeTicker} past their due time.
+ */
+public class FakeScheduledExecutor extends AbstractExecutorService
+        implements ScheduledExecutorService {
+
+    private final FakeTicker ticker;
+    private final PriorityQueue<Task<?>> scheduled = new PriorityQueue<>();
+    private long sequence = 0;
+    private boolean shutdown = false;
+
+    public FakeScheduledExecutor(final FakeTicker ticker) {
+        this.ticker = ticker;
+    }
+
+    /** Moves the clock forward one millisecond at a time and runs every task that becomes due. */
+    public void advance(final long millis) {
+        for (long i = 0; i < millis; ++i) {
+            ticker.advance(1);
+            runDue();
+        }
+    }
+
+    public void runDue() {
+        while (true) {
+            final Task<?> task;
+            synchronized (this) {
+                task = scheduled.peek();
+                if (task == null || task.dueAt > ticker.read()) {
+                    return;
+                }
+                scheduled.poll();
+            }
+            task.run();
+        }
+    }
+
+    public synchronized int getScheduled() {
+        return scheduled.size();
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("executor has been shut down");
+            }
+        }
+        command.run();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(
+            final Runnable command, final long delay, final TimeUnit unit) {
+        return schedule(Executors.callable(command), delay, unit);
+    }
+
+    @Override
+    public synchronized <V> ScheduledFuture<V> schedule(
+            final Callable<V> callable, final long delay, final TimeUnit unit) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        final Task<V> task = new Task<>(callable, ticker.read() + unit.toNanos(delay), sequence++);
+        scheduled.add(task);
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+            final Runnable command, final long initialDelay, final long period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+            final Runnable command, final long initialDelay, final long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        this.shutdown = true;
+        this.scheduled.clear();
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown();
+        return new ArrayList<>();
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+        return isTerminated();
+    }
+
+    private class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+        private final long dueAt;
+        private final long sequence;
+
+        private Task(final Callable<V> callable, final long dueAt, final long sequence) {
+            super(callable);
+            this.dueAt = dueAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(dueAt - ticker.read(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            final Task<?> task = (Task<?>) other;
+            final int byDueAt = Long.compare(dueAt, task.dueAt);
+            return byDueAt != 0 ? byDueAt : Long.compare(sequence, task.sequence);
+        }
+    }
+}
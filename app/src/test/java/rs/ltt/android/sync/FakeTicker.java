@@ -0,0 +1,27 @@
+package rs.ltt.android.sync;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+
+/** A Ticker that only moves when the test tells it to. */
+public class FakeTicker extends Ticker {
+
+    private long nanos = 0;
+
+    public synchronized void advance(final long millis) {
+        advance(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void advance(final long duration, final TimeUnit unit) {
+        this.nanos += unit.toNanos(duration);
+    }
+
+    public synchronized long millis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public synchronized long read() {
+        return nanos;
+    }
+}
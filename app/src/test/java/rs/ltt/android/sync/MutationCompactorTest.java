@@ -0,0 +1,457 @@
+package rs.ltt.android.sync;
+
+import com.google.common.base.Function;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.android.entity.MutationEntity;
+import rs.ltt.jmap.common.entity.Role;
+
+public class MutationCompactorTest {
+
+    private static final Map<Role, String> MAILBOXES =
+            ImmutableMap.of(
+                    Role.INBOX, "inbox",
+                    Role.ARCHIVE, "archive",
+                    Role.TRASH, "trash",
+                    Role.IMPORTANT, "important");
+
+    private static final Function<Role, String> MAILBOX_ID_BY_ROLE = MAILBOXES::get;
+
+    private static final Function<Role, String> WITHOUT_ARCHIVE =
+            role -> role == Role.ARCHIVE ? null : MAILBOXES.get(role);
+
+    private static final List<String> THREADS = ImmutableList.of("T1", "T2", "T3");
+    private static final List<String> KEYWORDS = ImmutableList.of("$seen", "$flagged");
+    private static final List<String> LABELS = ImmutableList.of("important", "work", "archive");
+
+    @Test
+    public void flagAndUnflagLeavesUnflag() {
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(
+                                        1, "T1", MutationEntity.Operation.SET_KEYWORD, "$flagged"),
+                                mutation(
+                                        2,
+                                        "T1",
+                                        MutationEntity.Operation.REMOVE_KEYWORD,
+                                        "$flagged")),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(2L), ids(compacted));
+    }
+
+    @Test
+    public void archiveAndMoveToInboxLeavesMoveToInbox() {
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(1, "T1", MutationEntity.Operation.ARCHIVE, null),
+                                mutation(2, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null)),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(2L), ids(compacted));
+    }
+
+    @Test
+    public void moveToInboxAndArchiveKeepsBoth() {
+        // archive does not touch the trash mailbox
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(1, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null),
+                                mutation(2, "T1", MutationEntity.Operation.ARCHIVE, null)),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(1L, 2L), ids(compacted));
+    }
+
+    @Test
+    public void otherThreadsAreNotAffected() {
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(1, "T1", MutationEntity.Operation.SET_KEYWORD, "$seen"),
+                                mutation(
+                                        2, "T2", MutationEntity.Operation.REMOVE_KEYWORD, "$seen")),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(1L, 2L), ids(compacted));
+    }
+
+    @Test
+    public void importantByRoleAndById() {
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(1, "T1", MutationEntity.Operation.MARK_IMPORTANT, null),
+                                mutation(
+                                        2,
+                                        "T1",
+                                        MutationEntity.Operation.REMOVE_FROM_MAILBOX,
+                                        "important")),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(2L), ids(compacted));
+    }
+
+    @Test
+    public void moveToTrashIsKeptInOrder() {
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(1, "T1", MutationEntity.Operation.ARCHIVE, null),
+                                mutation(2, "T1", MutationEntity.Operation.MOVE_TO_TRASH, null),
+                                mutation(3, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null)),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(2L, 3L), ids(compacted));
+    }
+
+    @Test
+    public void nothingIsCollapsedAcrossEmptyTrash() {
+        // moving T1 out of the trash before emptying it saves it from being deleted
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(
+                        ImmutableList.of(
+                                mutation(1, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null),
+                                mutation(2, null, MutationEntity.Operation.EMPTY_TRASH, null),
+                                mutation(3, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null)),
+                        MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(1L, 2L, 3L), ids(compacted));
+    }
+
+    @Test
+    public void batchesConsecutiveOperations() {
+        final List<MutationEntity> mutations =
+                ImmutableList.of(
+                        mutation(1, "T1", MutationEntity.Operation.ARCHIVE, null),
+                        mutation(2, "T2", MutationEntity.Operation.ARCHIVE, null),
+                        mutation(3, "T3", MutationEntity.Operation.ARCHIVE, null),
+                        mutation(4, "T1", MutationEntity.Operation.SET_KEYWORD, "$seen"),
+                        mutation(5, "T2", MutationEntity.Operation.SET_KEYWORD, "$flagged"));
+        final List<List<MutationEntity>> batches = MutationCompactor.batches(mutations, 2);
+        Assert.assertEquals(4, batches.size());
+        Assert.assertEquals(ImmutableList.of(1L, 2L), ids(batches.get(0)));
+        Assert.assertEquals(ImmutableList.of(3L), ids(batches.get(1)));
+        Assert.assertEquals(ImmutableList.of(4L), ids(batches.get(2)));
+        Assert.assertEquals(ImmutableList.of(5L), ids(batches.get(3)));
+    }
+
+    @Test
+    public void archiveReadAndMoveBackToInbox() {
+        final List<MutationEntity> journal =
+                ImmutableList.of(
+                        mutation(1, "T1", MutationEntity.Operation.ARCHIVE, null),
+                        mutation(2, "T1", MutationEntity.Operation.SET_KEYWORD, "$seen"),
+                        mutation(3, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null),
+                        mutation(4, "T1", MutationEntity.Operation.ARCHIVE, null));
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(journal, MAILBOX_ID_BY_ROLE);
+        // only the first archive is overwritten; moving to the inbox also takes it out of the trash
+        Assert.assertEquals(ImmutableList.of(2L, 3L, 4L), ids(compacted));
+        final ThreadState expected =
+                ThreadState.of(
+                        ImmutableMap.of(
+                                "inbox", false,
+                                "archive", true,
+                                "trash", false,
+                                "important", false),
+                        ImmutableMap.of("$seen", true, "$flagged", false));
+        assertFinalState(expected, journal, compacted, MAILBOX_ID_BY_ROLE);
+    }
+
+    @Test
+    public void trashAndUnflag() {
+        final List<MutationEntity> journal =
+                ImmutableList.of(
+                        mutation(1, "T1", MutationEntity.Operation.SET_KEYWORD, "$flagged"),
+                        mutation(2, "T1", MutationEntity.Operation.MARK_IMPORTANT, null),
+                        mutation(3, "T1", MutationEntity.Operation.MOVE_TO_TRASH, null),
+                        mutation(4, "T1", MutationEntity.Operation.REMOVE_KEYWORD, "$flagged"));
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(journal, MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ImmutableList.of(2L, 3L, 4L), ids(compacted));
+        final ThreadState expected =
+                ThreadState.of(
+                        ImmutableMap.of(
+                                "inbox", false,
+                                "archive", false,
+                                "trash", true,
+                                "important", false),
+                        ImmutableMap.of("$seen", false, "$flagged", false));
+        assertFinalState(expected, journal, compacted, MAILBOX_ID_BY_ROLE);
+    }
+
+    @Test
+    public void archiveWithoutArchiveMailboxLeavesLabelAlone() {
+        final List<MutationEntity> journal =
+                ImmutableList.of(
+                        mutation(1, "T1", MutationEntity.Operation.COPY_TO_MAILBOX, "archive"),
+                        mutation(2, "T1", MutationEntity.Operation.ARCHIVE, null),
+                        mutation(3, "T1", MutationEntity.Operation.REMOVE_FROM_MAILBOX, "archive"));
+        final List<MutationEntity> compacted = MutationCompactor.compact(journal, WITHOUT_ARCHIVE);
+        Assert.assertEquals(ImmutableList.of(2L, 3L), ids(compacted));
+        final ThreadState expected =
+                ThreadState.of(
+                        ImmutableMap.of(
+                                "inbox", false,
+                                "archive", false,
+                                "trash", false,
+                                "important", false,
+                                "role:archive", true),
+                        ImmutableMap.of("$seen", false, "$flagged", false));
+        assertFinalState(expected, journal, compacted, WITHOUT_ARCHIVE);
+    }
+
+    @Test
+    public void emptyTrashDeletesWhatIsInTheTrashAtThatPoint() {
+        final List<MutationEntity> journal =
+                ImmutableList.of(
+                        mutation(1, "T1", MutationEntity.Operation.MOVE_TO_TRASH, null),
+                        mutation(2, "T2", MutationEntity.Operation.MOVE_TO_TRASH, null),
+                        mutation(3, "T2", MutationEntity.Operation.MOVE_TO_INBOX, null),
+                        mutation(4, null, MutationEntity.Operation.EMPTY_TRASH, null),
+                        mutation(5, "T1", MutationEntity.Operation.MOVE_TO_INBOX, null));
+        final List<MutationEntity> compacted =
+                MutationCompactor.compact(journal, MAILBOX_ID_BY_ROLE);
+        Assert.assertEquals(ids(journal), ids(compacted));
+        final Map<String, ThreadState> initial = ImmutableMap.of("T1", inbox(), "T2", inbox());
+        final Map<String, ThreadState> state = apply(initial, compacted, MAILBOX_ID_BY_ROLE);
+        Assert.assertTrue(state.get("T1").deleted);
+        Assert.assertEquals(
+                ThreadState.of(
+                        ImmutableMap.of(
+                                "inbox", true,
+                                "archive", false,
+                                "trash", false,
+                                "important", false),
+                        ImmutableMap.of("$seen", false, "$flagged", false)),
+                state.get("T2"));
+    }
+
+    /**
+     * Replays random journals against random initial states and checks that the compacted journal
+     * ends up in the same state as the full one. The journals are replayed with {@link
+     * #apply(Map, List, Function)}, a model of what each operation does on the server that is
+     * written independently of {@link MutationCompactor}.
+     */
+    @Test
+    public void compactionPreservesFinalState() {
+        final Random random = new Random(4711);
+        for (int run = 0; run < 10_000; ++run) {
+            final List<MutationEntity> journal = randomJournal(random, random.nextInt(12));
+            final Map<String, ThreadState> initial = randomState(random);
+            final Function<Role, String> mailboxIdByRole =
+                    run % 2 == 0 ? MAILBOX_ID_BY_ROLE : WITHOUT_ARCHIVE;
+            final List<MutationEntity> compacted =
+                    MutationCompactor.compact(journal, mailboxIdByRole);
+            Assert.assertTrue(compacted.size() <= journal.size());
+            Assert.assertTrue(
+                    "compacted journal must keep the original order",
+                    isSubsequence(ids(compacted), ids(journal)));
+            Assert.assertEquals(
+                    String.format("journal %s compacted to %s", journal, compacted),
+                    apply(initial, journal, mailboxIdByRole),
+                    apply(initial, compacted, mailboxIdByRole));
+        }
+    }
+
+    private static void assertFinalState(
+            final ThreadState expected,
+            final List<MutationEntity> journal,
+            final List<MutationEntity> compacted,
+            final Function<Role, String> mailboxIdByRole) {
+        final Map<String, ThreadState> initial = ImmutableMap.of("T1", inbox());
+        Assert.assertEquals(expected, apply(initial, journal, mailboxIdByRole).get("T1"));
+        Assert.assertEquals(expected, apply(initial, compacted, mailboxIdByRole).get("T1"));
+    }
+
+    /** An unread and unflagged thread that is in the inbox and nowhere else. */
+    private static ThreadState inbox() {
+        return ThreadState.of(
+                ImmutableMap.of(
+                        "inbox", true,
+                        "archive", false,
+                        "trash", false,
+                        "important", false),
+                ImmutableMap.of("$seen", false, "$flagged", false));
+    }
+
+    private static List<MutationEntity> randomJournal(final Random random, final int size) {
+        final MutationEntity.Operation[] operations = MutationEntity.Operation.values();
+        final List<MutationEntity> journal = new ArrayList<>();
+        for (int i = 0; i < size; ++i) {
+            final MutationEntity.Operation operation =
+                    operations[random.nextInt(operations.length)];
+            final String argument;
+            if (operation == MutationEntity.Operation.EMPTY_TRASH) {
+                journal.add(mutation(i + 1, null, operation, null));
+                continue;
+            } else if (operation.isMailboxModification()) {
+                argument = LABELS.get(random.nextInt(LABELS.size()));
+            } else {
+                argument = KEYWORDS.get(random.nextInt(KEYWORDS.size()));
+            }
+            final String threadId = THREADS.get(random.nextInt(THREADS.size()));
+            journal.add(mutation(i + 1, threadId, operation, argument));
+        }
+        return journal;
+    }
+
+    private static Map<String, ThreadState> randomState(final Random random) {
+        final Map<String, ThreadState> state = new HashMap<>();
+        for (final String thread : THREADS) {
+            final Map<String, Boolean> mailboxes = new HashMap<>();
+            for (final String mailbox : MAILBOXES.values()) {
+                mailboxes.put(mailbox, random.nextBoolean());
+            }
+            for (final String label : LABELS) {
+                mailboxes.put(label, random.nextBoolean());
+            }
+            final Map<String, Boolean> keywords = new HashMap<>();
+            for (final String keyword : KEYWORDS) {
+                keywords.put(keyword, random.nextBoolean());
+            }
+            state.put(thread, ThreadState.of(mailboxes, keywords));
+        }
+        return state;
+    }
+
+    /**
+     * Replays the journal the way the server would. Archiving takes a thread out of the inbox and
+     * puts it in the archive, moving to the inbox also takes it out of the archive and the trash.
+     * Moving to trash takes a thread out of every mailbox it is in, emptying the trash deletes the
+     * threads that are in it at that point. A mailbox that does not exist yet is referred to by its
+     * role.
+     */
+    private static Map<String, ThreadState> apply(
+            final Map<String, ThreadState> initial,
+            final List<MutationEntity> journal,
+            final Function<Role, String> mailboxIdByRole) {
+        final Map<String, ThreadState> state = new HashMap<>();
+        for (final Map.Entry<String, ThreadState> entry : initial.entrySet()) {
+            state.put(entry.getKey(), entry.getValue().copy());
+        }
+        final String inbox = byRole(Role.INBOX, mailboxIdByRole);
+        final String archive = byRole(Role.ARCHIVE, mailboxIdByRole);
+        final String trash = byRole(Role.TRASH, mailboxIdByRole);
+        final String important = byRole(Role.IMPORTANT, mailboxIdByRole);
+        for (final MutationEntity mutation : journal) {
+            if (mutation.operation == MutationEntity.Operation.EMPTY_TRASH) {
+                for (final ThreadState thread : state.values()) {
+                    if (Boolean.TRUE.equals(thread.mailboxes.get(trash))) {
+                        thread.deleted = true;
+                    }
+                }
+                continue;
+            }
+            final ThreadState thread = state.get(mutation.threadId);
+            if (thread.deleted) {
+                continue;
+            }
+            switch (mutation.operation) {
+                case ARCHIVE -> {
+                    thread.mailboxes.put(inbox, false);
+                    thread.mailboxes.put(archive, true);
+                }
+                case MOVE_TO_INBOX -> {
+                    thread.mailboxes.put(inbox, true);
+                    thread.mailboxes.put(archive, false);
+                    thread.mailboxes.put(trash, false);
+                }
+                case MARK_IMPORTANT -> thread.mailboxes.put(important, true);
+                case COPY_TO_MAILBOX -> thread.mailboxes.put(mutation.argument, true);
+                case REMOVE_FROM_MAILBOX -> thread.mailboxes.put(mutation.argument, false);
+                case SET_KEYWORD -> thread.keywords.put(mutation.argument, true);
+                case REMOVE_KEYWORD -> thread.keywords.put(mutation.argument, false);
+                case MOVE_TO_TRASH -> {
+                    thread.mailboxes.replaceAll((mailbox, in) -> false);
+                    thread.mailboxes.put(trash, true);
+                }
+                default -> throw new AssertionError(mutation.operation);
+            }
+        }
+        return state;
+    }
+
+    private static String byRole(final Role role, final Function<Role, String> mailboxIdByRole) {
+        final String id = mailboxIdByRole.apply(role);
+        return id == null ? "role:" + role.toString().toLowerCase(Locale.ROOT) : id;
+    }
+
+    private static boolean isSubsequence(final List<Long> subsequence, final List<Long> sequence) {
+        int position = 0;
+        for (final Long id : sequence) {
+            if (position < subsequence.size() && subsequence.get(position).equals(id)) {
+                ++position;
+            }
+        }
+        return position == subsequence.size();
+    }
+
+    private static List<Long> ids(final List<MutationEntity> mutations) {
+        return Lists.transform(mutations, mutation -> mutation.id);
+    }
+
+    private static MutationEntity mutation(
+            final long id,
+            final String threadId,
+            final MutationEntity.Operation operation,
+            final String argument) {
+        return new MutationEntity(id, 1L, threadId, operation, argument);
+    }
+
+    /** Which mailboxes a thread is in and which keywords it has, as seen by the server. */
+    private static final class ThreadState {
+        private final Map<String, Boolean> mailboxes;
+        private final Map<String, Boolean> keywords;
+        private boolean deleted = false;
+
+        private ThreadState(
+                final Map<String, Boolean> mailboxes, final Map<String, Boolean> keywords) {
+            this.mailboxes = new HashMap<>(mailboxes);
+            this.keywords = new HashMap<>(keywords);
+        }
+
+        private static ThreadState of(
+                final Map<String, Boolean> mailboxes, final Map<String, Boolean> keywords) {
+            return new ThreadState(mailboxes, keywords);
+        }
+
+        private ThreadState copy() {
+            final ThreadState copy = new ThreadState(mailboxes, keywords);
+            copy.deleted = deleted;
+            return copy;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final ThreadState that = (ThreadState) o;
+            return deleted == that.deleted
+                    && Objects.equal(mailboxes, that.mailboxes)
+                    && Objects.equal(keywords, that.keywords);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mailboxes, keywords, deleted);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("mailboxes", mailboxes)
+                    .add("keywords", keywords)
+                    .add("deleted", deleted)
+                    .toString();
+        }
+    }
+}
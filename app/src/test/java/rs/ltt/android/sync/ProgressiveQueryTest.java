@@ -0,0 +1,59 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.Futures;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.jmap.mua.Status;
+
+public class ProgressiveQueryTest {
+
+    @Test
+    public void fetchesOneChunkPerRound() throws ExecutionException, InterruptedException {
+        final AtomicInteger missing = new AtomicInteger(25);
+        final AtomicInteger rounds = new AtomicInteger();
+        final Status status =
+                ProgressiveQuery.resolveMissing(
+                                () -> {
+                                    rounds.incrementAndGet();
+                                    missing.set(Math.max(0, missing.get() - 10));
+                                    return Futures.immediateFuture(Status.UPDATED);
+                                },
+                                missing::get)
+                        .get();
+        Assert.assertEquals(Status.UPDATED, status);
+        Assert.assertEquals(3, rounds.get());
+        Assert.assertEquals(0, missing.get());
+    }
+
+    @Test
+    public void nothingMissing() throws ExecutionException, InterruptedException {
+        final AtomicInteger rounds = new AtomicInteger();
+        final Status status =
+                ProgressiveQuery.resolveMissing(
+                                () -> {
+                                    rounds.incrementAndGet();
+                                    return Futures.immediateFuture(Status.UPDATED);
+                                },
+                                () -> 0)
+                        .get();
+        Assert.assertEquals(Status.UNCHANGED, status);
+        Assert.assertEquals(0, rounds.get());
+    }
+
+    @Test
+    public void stopsWithoutProgress() throws ExecutionException, InterruptedException {
+        final AtomicInteger rounds = new AtomicInteger();
+        final Status status =
+                ProgressiveQuery.resolveMissing(
+                                () -> {
+                                    rounds.incrementAndGet();
+                                    return Futures.immediateFuture(Status.UNCHANGED);
+                                },
+                                () -> 5)
+                        .get();
+        Assert.assertEquals(Status.UNCHANGED, status);
+        Assert.assertEquals(1, rounds.get());
+    }
+}
@@ -0,0 +1,162 @@
+package rs.ltt.android.sync;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadAheadTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final ReadAhead readAhead = new ReadAhead(ticker);
+
+    private void scroll(final long roundTrip, final long consumption) {
+        final long requestedAt = readAhead.onBoundaryReached();
+        ticker.advance(roundTrip);
+        readAhead.onPageLoaded(requestedAt, true);
+        ticker.advance(consumption);
+    }
+
+    @Test
+    public void noReadAheadWithoutMeasurements() {
+        Assert.assertEquals(0, readAhead.getPagesAhead());
+        scroll(400, 0);
+        Assert.assertEquals(0, readAhead.getPagesAhead());
+    }
+
+    @Test
+    public void slowScrollingDoesNotReadAhead() {
+        for (int i = 0; i < 5; ++i) {
+            scroll(200, 2000);
+        }
+        Assert.assertEquals(0, readAhead.getPagesAhead());
+    }
+
+    @Test
+    public void flingReadsAheadToCoverOneRoundTrip() {
+        for (int i = 0; i < 20; ++i) {
+            scroll(300, 100);
+        }
+        readAhead.onBoundaryReached();
+        Assert.assertEquals(2, readAhead.getPagesAhead());
+    }
+
+    @Test
+    public void readAheadPagesCountTowardsConsumption() {
+        for (int i = 0; i < 20; ++i) {
+            final long requestedAt = readAhead.onBoundaryReached();
+            ticker.advance(300);
+            readAhead.onPageLoaded(requestedAt, true);
+            final long readAheadAt = ticker.read();
+            ticker.advance(300);
+            readAhead.onPageLoaded(readAheadAt, false);
+            // two pages consumed in 600ms
+            ticker.advance(600);
+        }
+        readAhead.onBoundaryReached();
+        Assert.assertEquals(0, readAhead.getPagesAhead());
+    }
+
+    @Test
+    public void readAheadIsCapped() {
+        for (int i = 0; i < 20; ++i) {
+            scroll(5000, 10);
+        }
+        readAhead.onBoundaryReached();
+        Assert.assertEquals(4, readAhead.getPagesAhead());
+    }
+
+    @Test
+    public void idleResetsVelocity() {
+        for (int i = 0; i < 10; ++i) {
+            scroll(1000, 10);
+        }
+        ticker.advance(TimeUnit.SECONDS.toMillis(30));
+        readAhead.onBoundaryReached();
+        Assert.assertEquals(0, readAhead.getPagesAhead());
+    }
+
+    /**
+     * Scrolls through a mailbox in flings separated by short pauses while every page takes a
+     * fixed round trip to arrive. Requests are sent one after another, just like the chained
+     * requests in QueryRepository. The user keeps scrolling over placeholders if a page is late.
+     */
+    @Test
+    public void readAheadReducesPlaceholderTime() {
+        final Simulation without = simulate(false);
+        final Simulation with = simulate(true);
+        Assert.assertTrue(without.placeholderMillis > 0);
+        // read ahead cuts the time spent looking at placeholders by at least a third...
+        Assert.assertTrue(
+                String.format("with=%s without=%s", with, without),
+                with.placeholderMillis * 3 <= without.placeholderMillis * 2);
+        // ...without fetching more than the handful of pages past the end of the mailbox
+        Assert.assertTrue(with.roundTrips <= without.roundTrips + 4);
+    }
+
+    private static Simulation simulate(final boolean readAheadEnabled) {
+        final int total = 1500;
+        final int pageSize = 30;
+        final int prefetchDistance = 90;
+        final long roundTrip = 400;
+        final int flingItems = 150;
+        final double flingItemsPerMilli = 1.0;
+        final long pause = 3000;
+
+        final FakeTicker ticker = new FakeTicker();
+        final ReadAhead readAhead = new ReadAhead(ticker);
+        final Simulation simulation = new Simulation();
+        int loaded = 0;
+        double position = 0;
+        long pauseUntil = 0;
+        double flingStart = 0;
+        // the page that is in flight and the ones to be chained after it
+        long inFlightUntil = -1;
+        long requestedAt = 0;
+        boolean userWaiting = false;
+        int chained = 0;
+        for (long now = 0; position < total; now++, ticker.advance(1)) {
+            if (inFlightUntil == now) {
+                loaded = Math.min(total, loaded + pageSize);
+                readAhead.onPageLoaded(requestedAt, userWaiting);
+                inFlightUntil = -1;
+                if (userWaiting && readAheadEnabled) {
+                    chained = readAhead.getPagesAhead();
+                }
+                if (chained > 0 && loaded < total) {
+                    chained--;
+                    requestedAt = readAhead.now();
+                    userWaiting = false;
+                    inFlightUntil = now + roundTrip;
+                }
+            }
+            if (inFlightUntil < 0 && loaded < total && position >= loaded - prefetchDistance) {
+                requestedAt = readAhead.onBoundaryReached();
+                userWaiting = true;
+                inFlightUntil = now + roundTrip;
+            }
+            if (now >= pauseUntil) {
+                position += flingItemsPerMilli;
+                if (position - flingStart >= flingItems) {
+                    flingStart = position;
+                    pauseUntil = now + pause;
+                }
+            }
+            if (position >= loaded && loaded < total) {
+                simulation.placeholderMillis++;
+            }
+        }
+        simulation.roundTrips = (int) Math.ceil(loaded / (double) pageSize);
+        return simulation;
+    }
+
+    private static class Simulation {
+        private long placeholderMillis = 0;
+        private int roundTrips = 0;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "placeholder=%dms, roundTrips=%d", placeholderMillis, roundTrips);
+        }
+    }
+}
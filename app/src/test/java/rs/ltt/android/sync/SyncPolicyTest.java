@@ -0,0 +1,110 @@
+package rs.ltt.android.sync;
+
+import androidx.work.NetworkType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncPolicyTest {
+
+    private final FakeConnectivityProvider connectivityProvider = new FakeConnectivityProvider();
+
+    private final SyncPolicy syncPolicy = new SyncPolicy(connectivityProvider);
+
+    @Test
+    public void unmeteredIsUnrestricted() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.UNMETERED;
+        Assert.assertTrue(syncPolicy.isPrefetchAllowed());
+        Assert.assertEquals(15, syncPolicy.getRefreshInterval(TimeUnit.MINUTES));
+        Assert.assertEquals(15, syncPolicy.getRefreshFlexInterval(TimeUnit.MINUTES));
+        Assert.assertTrue(syncPolicy.isAutoDownloadAllowed(10L * 1024 * 1024));
+        Assert.assertEquals(
+                NetworkType.CONNECTED,
+                syncPolicy.getRefreshConstraints().getRequiredNetworkType());
+    }
+
+    @Test
+    public void meteredLimitsDownloads() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.METERED;
+        Assert.assertFalse(syncPolicy.isAutoDownloadAllowed(10L * 1024 * 1024));
+        Assert.assertTrue(syncPolicy.isAutoDownloadAllowed(1024L));
+        Assert.assertTrue(syncPolicy.getRefreshInterval(TimeUnit.MINUTES) > 15);
+    }
+
+    @Test
+    public void roamingDisablesPrefetchAndBackgroundRefresh() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.ROAMING;
+        Assert.assertFalse(syncPolicy.isPrefetchAllowed());
+        Assert.assertFalse(syncPolicy.isAutoDownloadAllowed(1024L));
+        Assert.assertEquals(
+                NetworkType.NOT_ROAMING,
+                syncPolicy.getRefreshConstraints().getRequiredNetworkType());
+    }
+
+    @Test
+    public void dataSaverDisablesPrefetch() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.DATA_SAVER;
+        Assert.assertFalse(syncPolicy.isPrefetchAllowed());
+        Assert.assertFalse(syncPolicy.isAutoDownloadAllowed(1024L));
+    }
+
+    @Test
+    public void unknownSizeIsNeverDownloadedAutomatically() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.UNMETERED;
+        Assert.assertFalse(syncPolicy.isAutoDownloadAllowed(null));
+    }
+
+    @Test
+    public void followsNetworkChanges() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.UNMETERED;
+        Assert.assertTrue(syncPolicy.isPrefetchAllowed());
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.ROAMING;
+        Assert.assertFalse(syncPolicy.isPrefetchAllowed());
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.UNMETERED;
+        Assert.assertTrue(syncPolicy.isPrefetchAllowed());
+    }
+
+    @Test
+    public void refreshRulesChangeOnlyWhenIntervalOrConstraintChange() {
+        connectivityProvider.networkClass = SyncPolicy.NetworkClass.UNMETERED;
+        final AtomicInteger changes = new AtomicInteger();
+        syncPolicy.registerOnRefreshRulesChanged(changes::incrementAndGet);
+        connectivityProvider.changeTo(SyncPolicy.NetworkClass.UNMETERED);
+        Assert.assertEquals(0, changes.get());
+        connectivityProvider.changeTo(SyncPolicy.NetworkClass.METERED);
+        Assert.assertEquals(1, changes.get());
+        connectivityProvider.changeTo(SyncPolicy.NetworkClass.DATA_SAVER);
+        Assert.assertEquals(2, changes.get());
+        // offline shares the rules of data saver
+        connectivityProvider.changeTo(SyncPolicy.NetworkClass.OFFLINE);
+        Assert.assertEquals(2, changes.get());
+        connectivityProvider.changeTo(SyncPolicy.NetworkClass.UNMETERED);
+        Assert.assertEquals(3, changes.get());
+    }
+
+    private static class FakeConnectivityProvider implements SyncPolicy.ConnectivityProvider {
+
+        private SyncPolicy.NetworkClass networkClass = SyncPolicy.NetworkClass.OFFLINE;
+        private final List<Runnable> callbacks = new ArrayList<>();
+
+        @Override
+        public SyncPolicy.NetworkClass getNetworkClass() {
+            return networkClass;
+        }
+
+        @Override
+        public void registerOnChanged(final Runnable callback) {
+            callbacks.add(callback);
+        }
+
+        private void changeTo(final SyncPolicy.NetworkClass networkClass) {
+            this.networkClass = networkClass;
+            for (final Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+}
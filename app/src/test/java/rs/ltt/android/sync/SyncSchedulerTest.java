@@ -0,0 +1,108 @@
+package rs.ltt.android.sync;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncSchedulerTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final SyncScheduler scheduler =
+            new SyncScheduler(MoreExecutors.directExecutor(), ticker, 4);
+
+    @Test
+    public void concurrencyIsCappedPerClass() {
+        final AtomicInteger started = new AtomicInteger();
+        final SettableFuture<Void> first = SettableFuture.create();
+        scheduler.submit(SyncScheduler.Priority.USER_MUTATION, counting(started, first));
+        scheduler.submit(
+                SyncScheduler.Priority.USER_MUTATION, counting(started, SettableFuture.create()));
+        scheduler.submit(
+                SyncScheduler.Priority.USER_MUTATION, counting(started, SettableFuture.create()));
+        Assert.assertEquals(2, started.get());
+        Assert.assertEquals(1, scheduler.getQueueSize());
+        first.set(null);
+        Assert.assertEquals(3, started.get());
+        Assert.assertEquals(0, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void maintenanceIsDeferredWhileUserFetchIsRunning() {
+        final SettableFuture<Void> fetch = SettableFuture.create();
+        final AtomicInteger started = new AtomicInteger();
+        scheduler.submit(SyncScheduler.Priority.USER_FETCH, () -> fetch);
+        scheduler.submit(
+                SyncScheduler.Priority.MAINTENANCE, counting(started, SettableFuture.create()));
+        Assert.assertEquals(0, started.get());
+        fetch.set(null);
+        Assert.assertEquals(1, started.get());
+    }
+
+    @Test
+    public void higherPriorityIsStartedFirst() {
+        final SettableFuture<Void> push = SettableFuture.create();
+        final AtomicInteger order = new AtomicInteger();
+        final AtomicInteger fetchPosition = new AtomicInteger();
+        final AtomicInteger pushPosition = new AtomicInteger();
+        scheduler.submit(SyncScheduler.Priority.PUSH_REFRESH, () -> push);
+        scheduler.submit(
+                SyncScheduler.Priority.PUSH_REFRESH,
+                () -> {
+                    pushPosition.set(order.incrementAndGet());
+                    return SettableFuture.create();
+                });
+        scheduler.submit(
+                SyncScheduler.Priority.USER_FETCH,
+                () -> {
+                    fetchPosition.set(order.incrementAndGet());
+                    return SettableFuture.create();
+                });
+        push.set(null);
+        Assert.assertEquals(1, fetchPosition.get());
+        Assert.assertEquals(2, pushPosition.get());
+    }
+
+    @Test
+    public void prefetchIsPreemptedByUserFetch() {
+        final SettableFuture<Void> inner = SettableFuture.create();
+        final ListenableFuture<Void> prefetch =
+                scheduler.submit(SyncScheduler.Priority.PREFETCH, () -> inner);
+        final AtomicInteger started = new AtomicInteger();
+        scheduler.submit(
+                SyncScheduler.Priority.USER_FETCH, counting(started, SettableFuture.create()));
+        Assert.assertTrue(prefetch.isCancelled());
+        Assert.assertTrue(inner.isCancelled());
+        Assert.assertEquals(1, started.get());
+    }
+
+    @Test
+    public void queueWaitIsRecordedPerClass() {
+        final SettableFuture<Void> fetch = SettableFuture.create();
+        scheduler.submit(SyncScheduler.Priority.USER_FETCH, () -> fetch);
+        scheduler.submit(SyncScheduler.Priority.MAINTENANCE, SettableFuture::create);
+        ticker.advance(250);
+        fetch.set(null);
+        final SyncScheduler.QueueWait.Snapshot maintenance =
+                scheduler.getQueueWait(SyncScheduler.Priority.MAINTENANCE);
+        Assert.assertEquals(1, maintenance.count);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(250), maintenance.maxNanos);
+        final SyncScheduler.QueueWait.Snapshot userFetch =
+                scheduler.getQueueWait(SyncScheduler.Priority.USER_FETCH);
+        Assert.assertEquals(1, userFetch.count);
+        Assert.assertEquals(0, userFetch.maxNanos);
+    }
+
+    private static AsyncCallable<Void> counting(
+            final AtomicInteger counter, final ListenableFuture<Void> future) {
+        return () -> {
+            counter.incrementAndGet();
+            return future;
+        };
+    }
+}
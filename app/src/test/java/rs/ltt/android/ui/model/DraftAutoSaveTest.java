@@ -0,0 +1,207 @@
+package rs.ltt.android.ui.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.MediaType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.android.cache.LocalAttachment;
+import rs.ltt.android.repository.DraftUploads;
+import rs.ltt.jmap.common.entity.Attachment;
+
+public class DraftAutoSaveTest {
+
+    private static final long SESSION = TimeUnit.MINUTES.toMillis(10);
+    private static final long KEYSTROKE_INTERVAL = 250;
+    private static final long TYPING = TimeUnit.SECONDS.toMillis(30);
+    private static final long PAUSE = TimeUnit.SECONDS.toMillis(20);
+    private static final long ATTACHMENT_ADDED = TimeUnit.MINUTES.toMillis(2);
+    private static final long ATTACHMENT_SIZE = 2 * 1024 * 1024;
+    // slow enough for several saves to be queued while the upload is still running
+    private static final long UPLOAD_DURATION = TimeUnit.MINUTES.toMillis(2);
+
+    private final LocalAttachment attachment =
+            new LocalAttachment(UUID.randomUUID(), MediaType.PNG, "photo.png", ATTACHMENT_SIZE);
+
+    /**
+     * Simulates ten minutes of composing: 30s of typing four keystrokes a second followed by a 20s
+     * pause, with a 2MB attachment added after two minutes. Compares the bytes sent to the server
+     * if every edit was saved against debounced saves that refer to the pending upload.
+     */
+    @Test
+    public void tenMinuteSession() {
+        final DraftAutoSave<TestDraft> autoSave = newAutoSave();
+        final FakeServer everyEdit = new FakeServer();
+        final FakeServer debounced = new FakeServer();
+        final DraftUploads draftUploads = new DraftUploads();
+        final StringBuilder body = new StringBuilder();
+        for (long now = 0; now < SESSION; now += KEYSTROKE_INTERVAL) {
+            final boolean typing = now % (TYPING + PAUSE) < TYPING;
+            if (typing) {
+                body.append("word ");
+                final TestDraft draft = draft(body, now >= ATTACHMENT_ADDED);
+                autoSave.onEdit(draft, now);
+                everyEdit.save(new DraftUploads(), draft, now);
+            }
+            final TestDraft due = autoSave.poll(now);
+            if (due != null && autoSave.changed(due)) {
+                debounced.save(draftUploads, due, now);
+                autoSave.saved(due);
+            }
+        }
+        final TestDraft last = autoSave.flush();
+        if (last != null && autoSave.changed(last)) {
+            debounced.save(draftUploads, last, SESSION);
+            autoSave.saved(last);
+        }
+        // one save per typing burst, plus the ones forced by the maximum delay
+        final long bursts = SESSION / (TYPING + PAUSE);
+        Assert.assertTrue(autoSave.getSaves() <= bursts + 1);
+        Assert.assertEquals(ImmutableList.of(ATTACHMENT_SIZE), debounced.uploads);
+        Assert.assertTrue(debounced.savesReferringToPendingUpload > 0);
+        Assert.assertEquals(autoSave.getSaves(), debounced.emails);
+        Assert.assertTrue(debounced.bytes() < ATTACHMENT_SIZE + bursts * body.length());
+        Assert.assertTrue(debounced.bytes() * 100 < everyEdit.bytes());
+    }
+
+    @Test
+    public void failedUploadIsQueuedAgain() {
+        final FakeServer server = new FakeServer();
+        final DraftUploads draftUploads = new DraftUploads();
+        final StringBuilder body = new StringBuilder("Hello");
+        server.save(draftUploads, draft(body, true), 0);
+        server.save(draftUploads, draft(body.append('!'), true), 1000);
+        Assert.assertEquals(1, server.savesReferringToPendingUpload);
+
+        server.fail(draftUploads);
+        server.save(draftUploads, draft(body.append('!'), true), 2000);
+        Assert.assertEquals(ImmutableList.of(ATTACHMENT_SIZE, ATTACHMENT_SIZE), server.uploads);
+        Assert.assertEquals(ImmutableSet.of(attachment.getUuid()), draftUploads.getQueued());
+    }
+
+    @Test
+    public void continuousTypingSavesAfterMaxDelay() {
+        final DraftAutoSave<TestDraft> autoSave = newAutoSave();
+        int saves = 0;
+        final StringBuilder body = new StringBuilder();
+        // every save restarts the maximum delay with the next keystroke
+        final long end = (DraftAutoSave.MAX_DELAY + KEYSTROKE_INTERVAL) * 3;
+        for (long now = 0; now < end; now += KEYSTROKE_INTERVAL) {
+            body.append('a');
+            autoSave.onEdit(new TestDraft(body.toString(), ImmutableList.of()), now);
+            final TestDraft due = autoSave.poll(now);
+            if (due != null && autoSave.changed(due)) {
+                autoSave.saved(due);
+                saves++;
+            }
+        }
+        Assert.assertEquals(3, saves);
+    }
+
+    @Test
+    public void revertedEditIsNotSaved() {
+        final TestDraft original = new TestDraft("Hello", ImmutableList.of());
+        final DraftAutoSave<TestDraft> autoSave =
+                new DraftAutoSave<>(
+                        original,
+                        Objects::equals,
+                        DraftAutoSave.QUIET_PERIOD,
+                        DraftAutoSave.MAX_DELAY);
+        autoSave.onEdit(new TestDraft("Hello!", ImmutableList.of()), 0);
+        autoSave.onEdit(new TestDraft("Hello", ImmutableList.of()), 1000);
+        Assert.assertNull(autoSave.poll(1000));
+        Assert.assertEquals(DraftAutoSave.QUIET_PERIOD, autoSave.delay(1000));
+        final TestDraft due = autoSave.poll(1000 + DraftAutoSave.QUIET_PERIOD);
+        Assert.assertNotNull(due);
+        Assert.assertFalse(autoSave.changed(due));
+        Assert.assertEquals(-1, autoSave.delay(1000 + DraftAutoSave.QUIET_PERIOD));
+    }
+
+    private static DraftAutoSave<TestDraft> newAutoSave() {
+        return new DraftAutoSave<>(
+                null, Objects::equals, DraftAutoSave.QUIET_PERIOD, DraftAutoSave.MAX_DELAY);
+    }
+
+    private TestDraft draft(final CharSequence body, final boolean attached) {
+        return new TestDraft(
+                body.toString(), attached ? ImmutableList.of(attachment) : ImmutableList.of());
+    }
+
+    /**
+     * Stands in for the upload endpoint and Email/set. Saves are queued the way {@link
+     * rs.ltt.android.repository.ComposeRepository} queues them.
+     */
+    private static final class FakeServer {
+        private final List<Long> uploads = new ArrayList<>();
+        private final Map<UUID, Long> uploadFinished = new HashMap<>();
+        private long emailBytes = 0;
+        private int emails = 0;
+        private int savesReferringToPendingUpload = 0;
+
+        private void save(final DraftUploads draftUploads, final TestDraft draft, final long now) {
+            final DraftUploads.Plan plan = draftUploads.plan(draft.attachments, false);
+            for (final LocalAttachment localAttachment : plan.requireUploading) {
+                final UUID upload = UUID.randomUUID();
+                uploads.add(localAttachment.getSize());
+                uploadFinished.put(upload, now + UPLOAD_DURATION);
+                draftUploads.queued(localAttachment, upload);
+            }
+            for (final UUID upload : plan.pendingUploads) {
+                Assert.assertTrue(uploadFinished.containsKey(upload));
+                if (uploadFinished.get(upload) > now) {
+                    savesReferringToPendingUpload++;
+                }
+            }
+            Assert.assertEquals(
+                    draft.attachments.size(),
+                    plan.requireUploading.size() + plan.pendingUploads.size());
+            emailBytes += draft.body.getBytes(StandardCharsets.UTF_8).length;
+            emails++;
+        }
+
+        private void fail(final DraftUploads draftUploads) {
+            for (final UUID upload : uploadFinished.keySet()) {
+                draftUploads.failed(upload);
+            }
+        }
+
+        private long bytes() {
+            long bytes = emailBytes;
+            for (final long upload : uploads) {
+                bytes += upload;
+            }
+            return bytes;
+        }
+    }
+
+    private static final class TestDraft {
+        private final String body;
+        private final List<Attachment> attachments;
+
+        private TestDraft(final String body, final List<Attachment> attachments) {
+            this.body = body;
+            this.attachments = attachments;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final TestDraft testDraft = (TestDraft) o;
+            return attachments.equals(testDraft.attachments) && body.equals(testDraft.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(body, attachments);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package rs.ltt.android.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import rs.ltt.android.sync.FakeScheduledExecutor;
+import rs.ltt.android.sync.FakeTicker;
+
+public class FirstSuccessfulTest {
+
+    private static final long TIMEOUT = 500;
+
+    private final FakeScheduledExecutor executor = new FakeScheduledExecutor(new FakeTicker());
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+
+    @Test
+    public void fastestEndpointWins() throws ExecutionException {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("slow", 300, null),
+                                endpoint("fast", 20, null),
+                                endpoint("medium", 150, null)),
+                        3);
+        Assert.assertEquals(3, started.get());
+        executor.advance(19);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertEquals("fast", Futures.getDone(result));
+        Assert.assertEquals(2, cancelled.get());
+    }
+
+    @Test
+    public void boundedParallelism() throws ExecutionException {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("a", 50, new IllegalStateException()),
+                                endpoint("b", 50, new IllegalStateException()),
+                                endpoint("c", 10, null)),
+                        2);
+        Assert.assertEquals(2, started.get());
+        executor.advance(49);
+        Assert.assertEquals(2, started.get());
+        executor.advance(1);
+        // both slots became free; only one candidate is left to fill them
+        Assert.assertEquals(3, started.get());
+        executor.advance(9);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertEquals("c", Futures.getDone(result));
+        Assert.assertEquals(0, cancelled.get());
+    }
+
+    @Test
+    public void slowEndpointTimesOut() throws ExecutionException {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("hanging", 10_000, null), endpoint("late", 200, null)),
+                        1);
+        Assert.assertEquals(1, started.get());
+        executor.advance(TIMEOUT - 1);
+        Assert.assertEquals(1, started.get());
+        Assert.assertEquals(0, cancelled.get());
+        executor.advance(1);
+        Assert.assertEquals(2, started.get());
+        Assert.assertEquals(1, cancelled.get());
+        executor.advance(199);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertEquals("late", Futures.getDone(result));
+    }
+
+    @Test
+    public void decisiveFailureWins() {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("unauthorized", 20, new SecurityException()),
+                                endpoint("slow", 300, null)),
+                        2);
+        executor.advance(19);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertTrue(failure(result) instanceof SecurityException);
+        Assert.assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    public void decisiveFailureWaitsForMoreSpecificCandidates() {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("domain", 100, new IllegalStateException()),
+                                endpoint("mail", 10, new SecurityException("mail")),
+                                endpoint("other", 10, null)),
+                        2);
+        executor.advance(10);
+        Assert.assertFalse(result.isDone());
+        // nothing after the held back failure is started
+        Assert.assertEquals(2, started.get());
+        executor.advance(89);
+        Assert.assertFalse(result.isDone());
+        Assert.assertEquals(2, started.get());
+        executor.advance(1);
+        Assert.assertEquals("mail", failure(result).getMessage());
+        Assert.assertEquals(2, started.get());
+    }
+
+    @Test
+    public void moreSpecificSessionOutranksDecisiveFailure() throws ExecutionException {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("domain", 100, null),
+                                endpoint("mail", 10, new SecurityException("mail"))),
+                        2);
+        executor.advance(99);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertEquals("domain", Futures.getDone(result));
+    }
+
+    @Test
+    public void moreSpecificDecisiveFailureWins() {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("domain", 100, new SecurityException("domain")),
+                                endpoint("mail", 10, new SecurityException("mail"))),
+                        2);
+        executor.advance(99);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertEquals("domain", failure(result).getMessage());
+    }
+
+    @Test
+    public void reportsFailureOfFirstCandidate() {
+        final ListenableFuture<String> result =
+                race(
+                        ImmutableList.of(
+                                endpoint("domain", 10_000, null),
+                                endpoint("other", 10, new IllegalStateException())),
+                        2);
+        executor.advance(10);
+        Assert.assertFalse(result.isDone());
+        executor.advance(TIMEOUT - 11);
+        Assert.assertFalse(result.isDone());
+        executor.advance(1);
+        Assert.assertTrue(failure(result) instanceof TimeoutException);
+        Assert.assertEquals(1, cancelled.get());
+    }
+
+    private ListenableFuture<String> race(
+            final List<AsyncCallable<String>> candidates, final int parallelism) {
+        return FirstSuccessful.race(
+                candidates,
+                t -> t instanceof SecurityException,
+                parallelism,
+                TIMEOUT,
+                TimeUnit.MILLISECONDS,
+                executor);
+    }
+
+    private static Throwable failure(final ListenableFuture<String> result) {
+        Assert.assertTrue(result.isDone());
+        try {
+            Futures.getDone(result);
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("race should have failed");
+    }
+
+    private AsyncCallable<String> endpoint(
+            final String name, final long delay, final Exception failure) {
+        return () -> {
+            started.incrementAndGet();
+            final ListenableFuture<String> response =
+                    Futures.scheduleAsync(
+                            () ->
+                                    failure == null
+                                            ? Futures.immediateFuture(name)
+                                            : Futures.immediateFailedFuture(failure),
+                            delay,
+                            TimeUnit.MILLISECONDS,
+                            executor);
+            response.addListener(
+                    () -> {
+                        if (response.isCancelled()) {
+                            cancelled.incrementAndGet();
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+            return response;
+        };
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+}
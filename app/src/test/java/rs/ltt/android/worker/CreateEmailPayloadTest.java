@@ -0,0 +1,36 @@
+package rs.ltt.android.worker;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CreateEmailPayloadTest {
+
+    @Test
+    public void oneMegabyteBody() throws IOException {
+        // exceeds the 64KB limit of writeUTF() as well as the 10KB limit of Data
+        final String body = Strings.repeat("Hello W\u00f6rld\n", 1024 * 1024 / 12);
+        final CreateEmailPayload payload =
+                new CreateEmailPayload(
+                        ImmutableList.of("<a@example.com>", "<b@example.com>"),
+                        "Alice <alice@example.com>",
+                        null,
+                        "Re: Hello",
+                        body);
+        final byte[] bytes = payload.toByteArray();
+        Assert.assertTrue(bytes.length > 1_000_000);
+        final CreateEmailPayload deserialized = CreateEmailPayload.of(bytes);
+        Assert.assertEquals(payload.inReplyTo, deserialized.inReplyTo);
+        Assert.assertEquals("Alice <alice@example.com>", deserialized.to);
+        Assert.assertNull(deserialized.cc);
+        Assert.assertEquals("Re: Hello", deserialized.subject);
+        Assert.assertEquals(body, deserialized.body);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownVersion() throws IOException {
+        CreateEmailPayload.of(new byte[] {0, 0, 0, 42});
+    }
+}